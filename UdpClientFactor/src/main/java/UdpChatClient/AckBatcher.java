@@ -0,0 +1,245 @@
+package UdpChatClient;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Collects the final ACK leg of S->C handshakes when the server accepted the
+ * {@link Constants#CAP_BATCHED_ACK} capability.
+ * Pending ACKs ride on the next outgoing CHARACTER_COUNT, or are flushed as one
+ * cumulative ACK packet after {@link Constants#ACK_BATCH_FLUSH_INTERVAL_MS}.
+ * The flusher thread starts with the first queued ACK, so it never runs for a server that did not
+ * accept the capability. Each ACK goes back to the server that sent its push, from the receive
+ * shard the push came in on.
+ */
+public class AckBatcher {
+    private static final Logger log = LoggerFactory.getLogger(AckBatcher.class);
+
+    private final ClientState clientState;
+    private final OutboundScheduler outbound;
+    private final ConcurrentLinkedQueue<PendingAck> pendingAcks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private ScheduledExecutorService flusher; // Guarded by this; null until the first ACK is queued
+
+    static class PendingAck {
+        final String transactionId;
+        final String status;
+        final String message;
+        final Destination destination;
+
+        PendingAck(String transactionId, String status, String message, Destination destination) {
+            this.transactionId = transactionId;
+            this.status = status;
+            this.message = message;
+            this.destination = destination;
+        }
+    }
+
+    /** Server a push came from and the receive shard it came in on; ACKs are batched per destination. */
+    static final class Destination {
+        final InetAddress address;
+        final int port;
+        final int shard;
+
+        Destination(InetAddress address, int port, int shard) {
+            this.address = address;
+            this.port = port;
+            this.shard = shard;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Destination)) {
+                return false;
+            }
+            Destination other = (Destination) o;
+            return port == other.port && shard == other.shard && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(address, port, shard);
+        }
+    }
+
+    public AckBatcher(ClientState clientState, OutboundScheduler outbound) {
+        this.clientState = clientState;
+        this.outbound = outbound;
+    }
+
+    private synchronized ScheduledExecutorService flusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "AckBatchFlusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, Constants.ACK_BATCH_FLUSH_INTERVAL_MS,
+                    Constants.ACK_BATCH_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        return flusher;
+    }
+
+    /**
+     * Queues an ACK instead of sending it right away.
+     *
+     * @param shard The receive shard the push came in on; the ACK is sent from its socket.
+     */
+    public void enqueue(String transactionId, String status, String message, InetAddress serverAddress, int serverPort, int shard) {
+        pendingAcks.add(new PendingAck(transactionId, status, message, new Destination(serverAddress, serverPort, shard)));
+        ScheduledExecutorService flusher = flusher();
+        if (pendingCount.incrementAndGet() >= Constants.ACK_BATCH_MAX_SIZE) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    /** @return true if no ACK is waiting, so an outgoing CHARACTER_COUNT has nothing to carry. */
+    public boolean isEmpty() {
+        return pendingCount.get() == 0;
+    }
+
+    /**
+     * Drains the pending ACKs owed to {@code serverAddress}:{@code serverPort} on {@code shard} into
+     * {@code data} (the data object of an outgoing CHARACTER_COUNT sent there from that shard) so they
+     * are acknowledged without a packet of their own.
+     *
+     * @return the number of ACKs attached.
+     */
+    public int attachTo(JsonObject data, InetAddress serverAddress, int serverPort, int shard) {
+        List<PendingAck> drained = drain(new Destination(serverAddress, serverPort, shard));
+        if (!drained.isEmpty()) {
+            writeAcks(data, drained);
+        }
+        return drained.size();
+    }
+
+    /**
+     * Sends every pending ACK as one cumulative ACK packet per server and receive shard.
+     */
+    public void flush() {
+        List<PendingAck> drained = drain(null);
+        if (drained.isEmpty()) {
+            return;
+        }
+        Map<Destination, List<PendingAck>> byDestination = new LinkedHashMap<>();
+        for (PendingAck ack : drained) {
+            byDestination.computeIfAbsent(ack.destination, d -> new ArrayList<>()).add(ack);
+        }
+        String key = clientState.getSessionKey() != null ? clientState.getSessionKey() : Constants.FIXED_LOGIN_KEY_STRING;
+        for (Map.Entry<Destination, List<PendingAck>> entry : byDestination.entrySet()) {
+            Destination destination = entry.getKey();
+            try {
+                JsonObject data = new JsonObject();
+                writeAcks(data, entry.getValue());
+                JsonObject request = JsonHelper.createReply(Constants.ACTION_ACK, Constants.STATUS_SUCCESS, null, data);
+                outbound.send(destination.address, destination.port, request, key, destination.shard);
+                log.info("Sent batched ACK covering {} transaction(s)", entry.getValue().size());
+            } catch (Exception e) {
+                log.error("Error sending batched ACK: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /** @param destination Only ACKs owed there, or all of them if null. */
+    private List<PendingAck> drain(Destination destination) {
+        List<PendingAck> drained = new ArrayList<>();
+        if (destination == null) {
+            PendingAck ack;
+            while ((ack = pendingAcks.poll()) != null) {
+                taken(drained, ack);
+            }
+        } else {
+            for (PendingAck ack : pendingAcks) {
+                // remove() fails if a concurrent flush polled the entry first
+                if (ack.destination.equals(destination) && pendingAcks.remove(ack)) {
+                    taken(drained, ack);
+                }
+            }
+        }
+        return drained;
+    }
+
+    private void taken(List<PendingAck> drained, PendingAck ack) {
+        drained.add(ack);
+        pendingCount.decrementAndGet();
+        ClientEvents.handshakeLeg(Constants.ACTION_ACK, true, ack.transactionId, null); // Goes out with the caller's packet
+    }
+
+    /**
+     * Successful ACKs with numeric transaction IDs are compressed into [from, to] ranges;
+     * everything else is listed individually with its status. Only ids in canonical decimal form
+     * go into ranges, since the server reads them back as numbers ("007" would come back as "7").
+     */
+    static void writeAcks(JsonObject data, List<PendingAck> acks) {
+        List<Long> numericSuccessIds = new ArrayList<>();
+        JsonArray individual = new JsonArray();
+
+        for (PendingAck ack : acks) {
+            if (Constants.STATUS_SUCCESS.equals(ack.status) && TransactionTable.isNumeric(ack.transactionId)) {
+                numericSuccessIds.add(Long.parseLong(ack.transactionId));
+                continue;
+            }
+            JsonObject entry = new JsonObject();
+            entry.addProperty("transaction_id", ack.transactionId);
+            entry.addProperty(Constants.KEY_STATUS, ack.status);
+            if (ack.message != null) {
+                entry.addProperty(Constants.KEY_MESSAGE, ack.message);
+            }
+            individual.add(entry);
+        }
+
+        if (!numericSuccessIds.isEmpty()) {
+            Collections.sort(numericSuccessIds);
+            JsonArray ranges = new JsonArray();
+            long from = numericSuccessIds.get(0);
+            long to = from;
+            for (int i = 1; i < numericSuccessIds.size(); i++) {
+                long id = numericSuccessIds.get(i);
+                if (id <= to + 1) {
+                    to = Math.max(to, id);
+                } else {
+                    ranges.add(range(from, to));
+                    from = id;
+                    to = id;
+                }
+            }
+            ranges.add(range(from, to));
+            data.add(Constants.KEY_ACK_RANGES, ranges);
+        }
+        if (individual.size() > 0) {
+            data.add(Constants.KEY_ACKS, individual);
+        }
+    }
+
+    private static JsonArray range(long from, long to) {
+        JsonArray pair = new JsonArray();
+        pair.add(from);
+        pair.add(to);
+        return pair;
+    }
+
+    public void shutdown() {
+        flush();
+        synchronized (this) {
+            if (flusher != null) {
+                flusher.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package UdpChatClient;
+
+import java.net.DatagramPacket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * AES-256-GCM sealing for one session key, used instead of the Caesar cipher once the server
+ * accepts {@link Constants#CAP_AEAD}. The GCM tag authenticates every packet, which is what the
+ * CHARACTER_COUNT / CONFIRM_COUNT legs of the handshake were for, so authenticated packets skip them.
+ * <p>
+ * Packet layout: {@code [AEAD_MAGIC, keyId, nonce(12), ciphertext, tag(16)]}, with the first two
+ * bytes as associated data. The nonce is a 4-byte sender prefix and a 64-bit counter, so the two
+ * directions never share one under the same key. Incoming counters go through a 64-packet
+ * replay window. The AES key is {@code HMAC-SHA256(sessionKey, AEAD_KEY_LABEL + keyId)}, so it
+ * changes with every key rotation.
+ */
+public class AeadSession {
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final int CLIENT_NONCE_PREFIX = 0x434C4E54; // "CLNT"
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
+        }
+    });
+
+    private final String sessionKey;
+    private final int keyId;
+    private final SecretKeySpec key;
+    // Starts at the clock in ms << 20, so a session resumed by a new process never reuses a nonce
+    // of an earlier one under the same key (unless it sent over a million packets per millisecond)
+    private final AtomicLong sendCounter = new AtomicLong(System.currentTimeMillis() << 20);
+
+    // Replay window over the peer's counters, guarded by this
+    private long highestReceived = -1;
+    private long receivedMask; // Bit i set = highestReceived - i was seen
+
+    public AeadSession(String sessionKey, int keyId) {
+        this.sessionKey = sessionKey;
+        this.keyId = keyId;
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(sessionKey.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] derived = mac.doFinal((Constants.AEAD_KEY_LABEL + keyId).getBytes(StandardCharsets.UTF_8));
+            this.key = new SecretKeySpec(derived, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot derive AEAD key", e);
+        }
+    }
+
+    public boolean isFor(String sessionKey, int keyId) {
+        return this.keyId == keyId && this.sessionKey.equals(sessionKey);
+    }
+
+    /** Room needed in a datagram besides the plaintext. */
+    public static int overhead() {
+        return Constants.AEAD_HEADER_SIZE + TAG_SIZE;
+    }
+
+    /**
+     * Seals the plaintext at {@code data[AEAD_HEADER_SIZE, AEAD_HEADER_SIZE + plainLength)} in place and
+     * writes the header in front of it.
+     *
+     * @return The length of the sealed packet.
+     */
+    public int seal(byte[] data, int plainLength) throws GeneralSecurityException {
+        data[0] = Constants.AEAD_MAGIC;
+        data[1] = (byte) keyId;
+        long counter = sendCounter.getAndIncrement();
+        putInt(data, 2, CLIENT_NONCE_PREFIX);
+        putLong(data, 6, counter);
+
+        Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, data, 2, NONCE_SIZE));
+        cipher.updateAAD(data, 0, 2);
+        int sealed = cipher.doFinal(data, Constants.AEAD_HEADER_SIZE, plainLength, data, Constants.AEAD_HEADER_SIZE);
+        return Constants.AEAD_HEADER_SIZE + sealed;
+    }
+
+    /**
+     * Verifies and decrypts a packet from the server.
+     *
+     * @return The parsed packet, or null if it is forged, corrupted, replayed or not JSON.
+     */
+    public JsonHelper.DecryptedResult open(DatagramPacket packet, Logger log) {
+        byte[] data = packet.getData();
+        int offset = packet.getOffset();
+        int length = packet.getLength();
+        if (length < overhead()) {
+            log.warn("AEAD packet from {}:{} too short ({} bytes)", packet.getAddress().getHostAddress(), packet.getPort(), length);
+            return null;
+        }
+        if (getInt(data, offset + 2) == CLIENT_NONCE_PREFIX) {
+            log.warn("Dropping AEAD packet from {}:{} carrying a client nonce (reflected?)", packet.getAddress().getHostAddress(), packet.getPort());
+            return null;
+        }
+        long counter = getLong(data, offset + 6);
+        try {
+            Cipher cipher = CIPHER.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, data, offset + 2, NONCE_SIZE));
+            cipher.updateAAD(data, offset, 2);
+            byte[] plain = cipher.doFinal(data, offset + Constants.AEAD_HEADER_SIZE, length - Constants.AEAD_HEADER_SIZE);
+            // Only authenticated counters may move the window
+            if (!acceptCounter(counter)) {
+                log.warn("Dropping replayed AEAD packet from {}:{} (counter {})", packet.getAddress().getHostAddress(), packet.getPort(), counter);
+                return null;
+            }
+            String json = new String(plain, StandardCharsets.UTF_8);
+            JsonObject jsonObject = JsonParser.parseString(json).getAsJsonObject();
+            return new JsonHelper.DecryptedResult(jsonObject, json, true);
+        } catch (GeneralSecurityException e) {
+            log.warn("AEAD packet from {}:{} failed authentication: {}", packet.getAddress().getHostAddress(), packet.getPort(), e.getMessage());
+            return null;
+        } catch (RuntimeException e) {
+            log.error("Authenticated packet from {}:{} is not a JSON object: {}", packet.getAddress().getHostAddress(), packet.getPort(), e.getMessage());
+            return null;
+        }
+    }
+
+    private synchronized boolean acceptCounter(long counter) {
+        if (counter > highestReceived) {
+            long shift = counter - highestReceived;
+            receivedMask = shift >= 64 ? 1 : (receivedMask << shift) | 1;
+            highestReceived = counter;
+            return true;
+        }
+        long age = highestReceived - counter;
+        if (age >= 64 || (receivedMask & (1L << age)) != 0) {
+            return false;
+        }
+        receivedMask |= 1L << age;
+        return true;
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int) (v >>> 32));
+        putInt(b, off + 4, (int) v);
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] b, int off) {
+        return ((long) getInt(b, off) << 32) | (getInt(b, off + 4) & 0xFFFFFFFFL);
+    }
+}
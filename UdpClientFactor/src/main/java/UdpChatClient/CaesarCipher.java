@@ -1,5 +1,6 @@
 package UdpChatClient;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,6 +16,16 @@ public class CaesarCipher {
 
     private static final Logger log = LoggerFactory.getLogger(CaesarCipher.class);
     private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789 .,!?"; // Define the character set
+    // The server and the Flutter client currently exchange unshifted text; flip together with them
+    static final boolean SHIFT_ENABLED = false;
+    private static final int[] ALPHABET_INDEX = new int[128]; // ASCII char -> index in ALPHABET, -1 if absent
+
+    static {
+        Arrays.fill(ALPHABET_INDEX, -1);
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            ALPHABET_INDEX[ALPHABET.charAt(i)] = i;
+        }
+    }
 
     /**
      * Encrypts plain text using the Caesar cipher with a given key (shift value).
@@ -62,7 +73,7 @@ public class CaesarCipher {
      */
     private static String processText(String text, int shift) {
         log.info("Processing text: {}", text);
-        if(text != null) return text;
+        if (!SHIFT_ENABLED) return text;
         StringBuilder result = new StringBuilder();
         int len = ALPHABET.length();
 
@@ -85,6 +96,45 @@ public class CaesarCipher {
         return result.toString();
     }
 
+    /**
+     * Shifts a single character, for encoders that cipher while writing instead of building a String.
+     * Same mapping as {@link #encrypt}/{@link #decrypt} ({@code shift} negative to decrypt).
+     */
+    static char shiftChar(char character, int shift) {
+        if (!SHIFT_ENABLED || character >= 128 || ALPHABET_INDEX[character] < 0) {
+            return character;
+        }
+        int len = ALPHABET.length();
+        int newIndex = (ALPHABET_INDEX[character] + shift) % len;
+        if (newIndex < 0) {
+            newIndex += len;
+        }
+        return ALPHABET.charAt(newIndex);
+    }
+
+    /**
+     * {@link #shiftChar} for every ASCII character, as a lookup table for encoders that write bytes.
+     * ASCII maps to ASCII, so each entry is also the UTF-8 byte.
+     */
+    static byte[] shiftTable(int shift) {
+        byte[] table = new byte[128];
+        for (char c = 0; c < 128; c++) {
+            table[c] = (byte) shiftChar(c, shift);
+        }
+        return table;
+    }
+
+    /**
+     * @return true if both keys decrypt every text to the same result, making a retry with the other key pointless.
+     */
+    static boolean sameShift(String keyA, String keyB) {
+        if (!SHIFT_ENABLED) {
+            return true;
+        }
+        int len = ALPHABET.length();
+        return keyA.length() % len == keyB.length() % len;
+    }
+
     /**
      * Counts the frequency of each alphabetic character (a-z, A-Z) in a string.
      * Used for the confirmation step after decryption.
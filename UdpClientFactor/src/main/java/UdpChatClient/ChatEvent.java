@@ -0,0 +1,73 @@
+package UdpChatClient;
+
+import com.google.gson.JsonObject;
+
+/**
+ * One confirmed server push, as handed to a {@link ChatEventPublisher} subscriber.
+ */
+public final class ChatEvent {
+
+    public enum Type {
+        MESSAGE, // receive_message: a chat message in a room
+        CONTROL // Everything else the server pushes: command results, room changes, activity counts
+    }
+
+    private final Type type;
+    private final String action;
+    private final JsonObject data;
+
+    ChatEvent(String action, JsonObject data) {
+        this.type = Constants.ACTION_RECEIVE_MESSAGE.equals(action) ? Type.MESSAGE : Type.CONTROL;
+        this.action = action;
+        this.data = data;
+    }
+
+    /** Builds the event for a server push, or returns null if the JSON has no action. */
+    static ChatEvent of(JsonObject json) {
+        if (!json.has(Constants.KEY_ACTION)) {
+            return null;
+        }
+        JsonObject data = json.has(Constants.KEY_DATA) && json.get(Constants.KEY_DATA).isJsonObject()
+                ? json.getAsJsonObject(Constants.KEY_DATA) : new JsonObject();
+        return new ChatEvent(json.get(Constants.KEY_ACTION).getAsString(), data);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /** The push's data object; the subscriber owns it. */
+    public JsonObject getData() {
+        return data;
+    }
+
+    /** @return The room, or null if the push is not about one. */
+    public String getRoomId() {
+        return string(Constants.KEY_ROOM_ID);
+    }
+
+    public String getSender() {
+        return string(Constants.KEY_SENDER_CHAT_ID);
+    }
+
+    public String getContent() {
+        return string(Constants.KEY_CONTENT);
+    }
+
+    public String getTimestamp() {
+        return string(Constants.KEY_TIMESTAMP);
+    }
+
+    private String string(String key) {
+        return data.has(key) && data.get(key).isJsonPrimitive() ? data.get(key).getAsString() : null;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + action + " " + data;
+    }
+}
@@ -0,0 +1,341 @@
+package UdpChatClient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Server pushes as a {@link Flow.Publisher}, for embedding the client in another program. While a
+ * subscriber is attached, a push is only acknowledged to the server once it has been handed to
+ * {@link Flow.Subscriber#onNext}, which needs the subscriber's demand. At most
+ * {@link Constants#EVENT_BUFFER_MAX} pushes wait for demand. Beyond that, new pushes are left
+ * unanswered, so the server keeps them and sends them again later. A slow subscriber therefore holds
+ * the server back through the protocol, and the client's heap stays bounded.
+ * <p>
+ * Flow control depends on that resend. A push refused by {@link #admit} is neither shown on the
+ * console nor acknowledged, and no failure ACK is sent, because the server would count that as a
+ * final answer. The client only sees the push again when the server resends it. If the server gives
+ * up on it first, the push is lost to this client.
+ * <p>
+ * One subscriber at a time. Events are delivered on a dedicated thread, never on the receive path,
+ * in the order their handshakes completed. Sequenced room messages keep their {@link Constants#KEY_SEQ}
+ * in the event data; only the console puts them back in order.
+ * Without a subscriber, pushes are acknowledged at once, as before. The console still shows every push.
+ */
+public class ChatEventPublisher implements Flow.Publisher<ChatEvent> {
+    private static final Logger log = LoggerFactory.getLogger(ChatEventPublisher.class);
+
+    private static final class Pending {
+        final String transactionId;
+        final ChatEvent event;
+        final Runnable ack;
+
+        Pending(String transactionId, ChatEvent event, Runnable ack) {
+            this.transactionId = transactionId;
+            this.event = event;
+            this.ack = ack;
+        }
+    }
+
+    private final Object lock = new Object();
+    // All guarded by lock
+    private final ArrayDeque<Pending> buffer = new ArrayDeque<>();
+    private final Set<String> buffered = new HashSet<>(); // Transaction ids in buffer
+    private final Map<String, Long> admitted = new LinkedHashMap<>(); // Admitted, not yet published -> nanoTime admitted
+    private EventSubscription subscription;
+    private boolean closed;
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private ExecutorService deliverer; // Created on the first subscribe
+
+    private final class EventSubscription implements Flow.Subscription {
+        final Flow.Subscriber<? super ChatEvent> subscriber;
+        long demand; // Guarded by lock
+
+        EventSubscription(Flow.Subscriber<? super ChatEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // Rule 3.9; once ended (cancelled or completed by close) nothing more is signalled
+                if (end()) {
+                    signal(() -> subscriber.onError(new IllegalArgumentException("request(" + n + "): demand must be positive")));
+                }
+                return;
+            }
+            synchronized (lock) {
+                if (subscription != this) {
+                    return;
+                }
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            scheduleDrain();
+        }
+
+        @Override
+        public void cancel() {
+            end();
+        }
+
+        /** @return false if this subscription had already ended. */
+        private boolean end() {
+            List<Pending> abandoned;
+            synchronized (lock) {
+                if (subscription != this) {
+                    return false;
+                }
+                subscription = null;
+                abandoned = takeBuffer();
+            }
+            // Already shown on the console; acknowledge them so the server stops resending
+            for (Pending pending : abandoned) {
+                runAck(pending);
+            }
+            log.info("Event subscriber cancelled; {} buffered pushes acknowledged", abandoned.size());
+            return true;
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ChatEvent> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        EventSubscription created = null;
+        String refusal = null;
+        synchronized (lock) {
+            if (closed) {
+                refusal = "closed";
+            } else if (subscription != null) {
+                refusal = "busy";
+            } else {
+                if (deliverer == null) {
+                    deliverer = Executors.newSingleThreadExecutor(r -> {
+                        Thread t = new Thread(r, "ChatEventDelivery");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+                created = new EventSubscription(subscriber);
+                subscription = created;
+                // Queued under the lock, so a concurrent close() queues onComplete after it
+                EventSubscription subscribed = created;
+                deliverer.execute(() -> subscriber.onSubscribe(subscribed));
+            }
+        }
+        if (created == null) {
+            boolean busy = "busy".equals(refusal);
+            signal(() -> {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                if (busy) {
+                    subscriber.onError(new IllegalStateException("Only one subscriber at a time"));
+                } else {
+                    subscriber.onComplete();
+                }
+            });
+        }
+    }
+
+    /**
+     * Called when a push arrives, before its handshake starts.
+     *
+     * @return false to leave the push unanswered: too many are waiting for demand, or this one is
+     *         a resend of a push already waiting. Either way the server's resend brings it back.
+     */
+    public boolean admit(String transactionId) {
+        synchronized (lock) {
+            if (subscription == null) {
+                return true;
+            }
+            if (buffered.contains(transactionId) || admitted.containsKey(transactionId)) {
+                return false; // Its ACK is held back on purpose; the resend changes nothing
+            }
+            expireAdmissions();
+            if (buffer.size() + admitted.size() >= Constants.EVENT_BUFFER_MAX) {
+                return false;
+            }
+            admitted.put(transactionId, System.nanoTime());
+            return true;
+        }
+    }
+
+    /** The handshake of an admitted push failed; it will not be published. */
+    public void abandon(String transactionId) {
+        synchronized (lock) {
+            admitted.remove(transactionId);
+        }
+    }
+
+    /**
+     * Hands a confirmed push to the subscriber. {@code ack} acknowledges it to the server. It runs once the
+     * subscriber has taken the push, or at once if there is no subscriber.
+     */
+    public void publish(String transactionId, String json, Runnable ack) {
+        ChatEvent event;
+        synchronized (lock) {
+            admitted.remove(transactionId);
+            if (subscription == null) {
+                event = null;
+            } else {
+                event = ChatEvent.of(JsonParser.parseString(json).getAsJsonObject());
+                if (event != null) {
+                    buffer.add(new Pending(transactionId, event, ack));
+                    buffered.add(transactionId);
+                }
+            }
+        }
+        if (event == null) {
+            ack.run();
+            return;
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * @return true if the push was confirmed and is waiting for the subscriber's demand, so its ACK
+     *         is held back on purpose.
+     */
+    public boolean isHeld(String transactionId) {
+        synchronized (lock) {
+            return buffered.contains(transactionId);
+        }
+    }
+
+    public boolean hasSubscriber() {
+        synchronized (lock) {
+            return subscription != null;
+        }
+    }
+
+    /** Completes the subscriber; pushes still waiting are acknowledged. */
+    public void close() {
+        EventSubscription ended;
+        List<Pending> remaining;
+        synchronized (lock) {
+            closed = true;
+            ended = subscription;
+            subscription = null;
+            remaining = takeBuffer();
+        }
+        for (Pending pending : remaining) {
+            runAck(pending);
+        }
+        if (ended != null) {
+            deliverer.execute(ended.subscriber::onComplete);
+        }
+        if (deliverer != null) {
+            deliverer.shutdown();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                deliverer.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                drainScheduled.set(false); // Closed meanwhile; close() already took the buffer
+            }
+        }
+    }
+
+    /**
+     * Runs a signal on the delivery thread. Once close() has shut that down, or before the first
+     * subscription created it, the signal runs on the caller's thread instead.
+     */
+    private void signal(Runnable signal) {
+        ExecutorService executor;
+        synchronized (lock) {
+            executor = closed ? null : deliverer;
+        }
+        if (executor != null) {
+            try {
+                executor.execute(signal);
+                return;
+            } catch (RejectedExecutionException e) {
+                // Closed between the check and the hand-off
+            }
+        }
+        signal.run();
+    }
+
+    /** Runs on the delivery thread only. */
+    private void drain() {
+        drainScheduled.set(false);
+        while (true) {
+            Pending next;
+            EventSubscription current;
+            synchronized (lock) {
+                current = subscription;
+                if (current == null || current.demand == 0 || buffer.isEmpty()) {
+                    return;
+                }
+                next = buffer.poll();
+                buffered.remove(next.transactionId);
+                if (current.demand != Long.MAX_VALUE) {
+                    current.demand--;
+                }
+            }
+            try {
+                current.subscriber.onNext(next.event);
+            } catch (RuntimeException e) {
+                // Rule 2.13: a throwing subscriber is treated as cancelled
+                log.error("Event subscriber failed on {}: {}", next.event.getAction(), e.getMessage(), e);
+                current.cancel();
+            }
+            runAck(next);
+        }
+    }
+
+    private List<Pending> takeBuffer() {
+        List<Pending> taken = new ArrayList<>(buffer);
+        buffer.clear();
+        buffered.clear();
+        admitted.clear();
+        return taken;
+    }
+
+    /** Forgets admissions whose handshake never finished (the server gave up on them). */
+    private void expireAdmissions() {
+        long cutoff = System.nanoTime() - Constants.EVENT_ADMISSION_TIMEOUT_MS * 1_000_000L;
+        for (Iterator<Long> it = admitted.values().iterator(); it.hasNext();) {
+            if (it.next() - cutoff < 0) {
+                it.remove();
+            } else {
+                break; // Insertion order is admission order
+            }
+        }
+    }
+
+    private static void runAck(Pending pending) {
+        try {
+            pending.ack.run();
+        } catch (RuntimeException e) {
+            log.error("Failed to acknowledge push {}: {}", pending.transactionId, e.getMessage(), e);
+        }
+    }
+}
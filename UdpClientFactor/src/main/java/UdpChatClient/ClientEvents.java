@@ -0,0 +1,142 @@
+package UdpChatClient;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the packet path and the handshake, so latency spikes can be lined
+ * up with GC, safepoints and socket stalls in one recording. Start the client with
+ * {@code -XX:StartFlightRecording=filename=chat.jfr} (or attach with {@code jcmd <pid> JFR.start}).
+ * <p>
+ * Without a recording, JFR keeps these events disabled: {@code begin}/{@code commit} return at once and
+ * the event object is usually scalar-replaced. Call sites set only cheap fields before checking
+ * {@code shouldCommit()}. Stack traces are off: the event names already say where they come from.
+ */
+public final class ClientEvents {
+
+    static final String KEY_TYPE_AEAD = "aead";
+    static final String KEY_TYPE_ENVELOPE = "envelope"; // Caesar with a key-id header
+    static final String KEY_TYPE_LEGACY = "legacy"; // Caesar, key guessed from the session state
+
+    private ClientEvents() {}
+
+    @Name("udpchat.PacketReceived")
+    @Label("Packet Received")
+    @Description("One datagram decrypted and parsed; the duration is the decode time")
+    @Category({"UDP Chat", "Packets"})
+    @StackTrace(false)
+    static final class PacketReceived extends Event {
+        @Label("Size")
+        @DataAmount
+        int size;
+
+        @Label("Action")
+        String action;
+
+        @Label("Key Type")
+        String keyType;
+
+        @Label("Shard")
+        int shard;
+
+        @Label("Decoded")
+        boolean decoded;
+    }
+
+    @Name("udpchat.PacketSent")
+    @Label("Packet Sent")
+    @Description("One datagram handed to the socket; the duration is the time spent in send")
+    @Category({"UDP Chat", "Packets"})
+    @StackTrace(false)
+    static final class PacketSent extends Event {
+        @Label("Size")
+        @DataAmount
+        int size;
+
+        @Label("Action")
+        String action;
+
+        @Label("Key Type")
+        String keyType;
+
+        @Label("Shard")
+        int shard;
+    }
+
+    @Name("udpchat.HandshakeLeg")
+    @Label("Handshake Leg")
+    @Description("A CHARACTER_COUNT, CONFIRM_COUNT or ACK (or the push or response that starts or ends a handshake), in or out")
+    @Category({"UDP Chat", "Handshake"})
+    @StackTrace(false)
+    static final class HandshakeLeg extends Event {
+        @Label("Leg")
+        String leg;
+
+        @Label("Outbound")
+        boolean outbound;
+
+        @Label("Transaction Id")
+        String transactionId;
+
+        @Label("Original Action")
+        String originalAction;
+    }
+
+    @Name("udpchat.RequestCompleted")
+    @Label("Request Completed")
+    @Description("A client request from send to the server's final ACK or error, or to the timeout")
+    @Category({"UDP Chat", "Handshake"})
+    @StackTrace(false)
+    static final class RequestCompleted extends Event {
+        @Label("Action")
+        String action;
+
+        @Label("Temp Id")
+        long tempId;
+
+        @Label("Transaction Id")
+        String transactionId;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("udpchat.ActionRendered")
+    @Label("Action Rendered")
+    @Description("A confirmed server action processed and written to the console")
+    @Category({"UDP Chat", "Console"})
+    @StackTrace(false)
+    static final class ActionRendered extends Event {
+        @Label("Action")
+        String action;
+    }
+
+    /** Records a handshake leg at the current instant; a no-op unless a recording wants it. */
+    static void handshakeLeg(String leg, boolean outbound, String transactionId, String originalAction) {
+        HandshakeLeg event = new HandshakeLeg();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.leg = leg;
+        event.outbound = outbound;
+        event.transactionId = transactionId;
+        event.originalAction = originalAction;
+        event.commit();
+    }
+
+    /** Names the encryption of an encoded datagram from its first byte. */
+    static String keyTypeOf(byte[] data, int offset, int length) {
+        if (length >= Constants.ENVELOPE_HEADER_SIZE && data[offset] == Constants.AEAD_MAGIC) {
+            return KEY_TYPE_AEAD;
+        }
+        if (length >= Constants.ENVELOPE_HEADER_SIZE && data[offset] == Constants.ENVELOPE_MAGIC) {
+            return KEY_TYPE_ENVELOPE;
+        }
+        return KEY_TYPE_LEGACY;
+    }
+}
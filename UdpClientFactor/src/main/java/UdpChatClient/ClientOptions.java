@@ -0,0 +1,231 @@
+package UdpChatClient;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command-line options for the chat client.
+ * Positional arguments are {@code [host] [port]}; everything starting with "--" is a flag.
+ */
+public class ClientOptions {
+    private String serverHost = UdpChatClient.DEFAULT_SERVER_HOST;
+    private int serverPort = Constants.DEFAULT_SERVER_PORT;
+    private boolean batchedAcks = false;
+    private long sendRateBytesPerSec = Constants.OUTBOUND_DEFAULT_RATE_BYTES_PER_SEC;
+    private int downloadStreams = Constants.FILE_DOWNLOAD_STREAMS_DEFAULT;
+    private boolean floodSummary = false;
+    private boolean sessionCache = false;
+    private String capturePath; // Null unless traffic is captured
+    private long heartbeatIntervalMs = Constants.HEARTBEAT_DEFAULT_INTERVAL_MS;
+    private SpscRing.WaitStrategy pipelineWait; // Null unless the receive path runs as a pipeline
+    private int receiveShards = 1;
+    private long receiveBufferBytes = -1; // -1 unless --rcvbuf is given
+    private final List<InetSocketAddress> servers = new ArrayList<>(); // Unresolved; empty means just [host] [port]
+    private boolean startupReport = false;
+    private boolean trainingRun = false;
+
+    /**
+     * Parses the program arguments. Unknown flags and a malformed port are reported
+     * on stderr and otherwise ignored, matching the old positional-only behaviour.
+     *
+     * @param args The arguments passed to main.
+     * @return The parsed options.
+     */
+    public static ClientOptions parse(String[] args) {
+        ClientOptions options = new ClientOptions();
+        List<String> positional = new ArrayList<>();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+            if (arg.startsWith(Constants.OPT_SEND_RATE)) {
+                options.sendRateBytesPerSec = parseLong(arg, Constants.OPT_SEND_RATE, options.sendRateBytesPerSec);
+                continue;
+            }
+            if (arg.startsWith(Constants.OPT_CAPTURE)) {
+                options.capturePath = arg.substring(Constants.OPT_CAPTURE.length());
+                continue;
+            }
+            if (arg.startsWith(Constants.OPT_HEARTBEAT)) {
+                options.heartbeatIntervalMs = parseLong(arg, Constants.OPT_HEARTBEAT, options.heartbeatIntervalMs);
+                continue;
+            }
+            if (arg.startsWith(Constants.OPT_PIPELINE)) {
+                String value = arg.substring(Constants.OPT_PIPELINE.length());
+                if (value.isEmpty() || "=park".equals(value)) {
+                    options.pipelineWait = SpscRing.WaitStrategy.PARK;
+                } else if ("=spin".equals(value)) {
+                    options.pipelineWait = SpscRing.WaitStrategy.SPIN;
+                } else {
+                    System.err.println("Invalid value for " + Constants.OPT_PIPELINE + " '" + value + "', expected =park or =spin. Pipeline disabled.");
+                }
+                continue;
+            }
+            if (arg.startsWith(Constants.OPT_SERVERS)) {
+                parseServers(arg.substring(Constants.OPT_SERVERS.length()), options.servers);
+                continue;
+            }
+            if (arg.startsWith(Constants.OPT_RECEIVE_SHARDS)) {
+                long shards = parseLong(arg, Constants.OPT_RECEIVE_SHARDS, options.receiveShards);
+                options.receiveShards = (int) Math.max(1, Math.min(Constants.RECEIVE_SHARDS_MAX, shards));
+                continue;
+            }
+            if (arg.startsWith(Constants.OPT_RCVBUF)) {
+                options.receiveBufferBytes = Math.min(Integer.MAX_VALUE, parseLong(arg, Constants.OPT_RCVBUF, 0));
+                continue;
+            }
+            if (arg.startsWith(Constants.OPT_DOWNLOAD_STREAMS)) {
+                long streams = parseLong(arg, Constants.OPT_DOWNLOAD_STREAMS, options.downloadStreams);
+                options.downloadStreams = (int) Math.max(1, Math.min(Constants.FILE_DOWNLOAD_STREAMS_MAX, streams));
+                continue;
+            }
+            switch (arg) {
+                case Constants.OPT_BATCHED_ACKS:
+                    options.batchedAcks = true;
+                    break;
+                case Constants.OPT_FLOOD_SUMMARY:
+                    options.floodSummary = true;
+                    break;
+                case Constants.OPT_SESSION_CACHE:
+                    options.sessionCache = true;
+                    break;
+                case Constants.OPT_STARTUP_REPORT:
+                    options.startupReport = true;
+                    break;
+                case Constants.OPT_TRAINING_RUN:
+                    options.trainingRun = true;
+                    break;
+                default:
+                    System.err.println("Unknown option ignored: " + arg);
+                    break;
+            }
+        }
+
+        if (options.receiveShards > 1 && options.pipelineWait != null) {
+            // The pipeline's first ring takes datagrams from a single receive thread
+            System.err.println(Constants.OPT_PIPELINE + " cannot be combined with " + Constants.OPT_RECEIVE_SHARDS + ", pipeline disabled.");
+            options.pipelineWait = null;
+        }
+
+        if (positional.size() >= 1) {
+            options.serverHost = positional.get(0);
+        }
+        if (positional.size() >= 2) {
+            try {
+                options.serverPort = Integer.parseInt(positional.get(1));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid port number provided: " + positional.get(1) + ". Using default port " + options.serverPort + ".");
+            }
+        }
+        return options;
+    }
+
+    /** Parses {@code host[:port],host[:port],...}; a missing port means the default port. */
+    private static void parseServers(String value, List<InetSocketAddress> servers) {
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            String host = colon > 0 ? entry.substring(0, colon) : entry;
+            int port = Constants.DEFAULT_SERVER_PORT;
+            if (colon > 0) {
+                try {
+                    port = Integer.parseInt(entry.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid port in " + Constants.OPT_SERVERS + " entry '" + entry + "', ignoring it.");
+                    continue;
+                }
+            }
+            servers.add(InetSocketAddress.createUnresolved(host, port));
+        }
+    }
+
+    private static long parseLong(String arg, String prefix, long defaultValue) {
+        String value = arg.substring(prefix.length());
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the warning below
+        }
+        System.err.println("Invalid value for " + prefix + " '" + value + "'. Using default " + defaultValue + ".");
+        return defaultValue;
+    }
+
+    // Getters
+    public String getServerHost() {
+        return serverHost;
+    }
+
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    public boolean isBatchedAcks() {
+        return batchedAcks;
+    }
+
+    public long getSendRateBytesPerSec() {
+        return sendRateBytesPerSec;
+    }
+
+    public int getDownloadStreams() {
+        return downloadStreams;
+    }
+
+    public boolean isFloodSummary() {
+        return floodSummary;
+    }
+
+    public List<InetSocketAddress> getServers() {
+        return servers;
+    }
+
+    public boolean isSessionCache() {
+        return sessionCache;
+    }
+
+    public String getCapturePath() {
+        return capturePath;
+    }
+
+    public long getHeartbeatIntervalMs() {
+        return heartbeatIntervalMs;
+    }
+
+    /** @return How the receive pipeline stages wait, or null if the listener thread does all the work. */
+    public SpscRing.WaitStrategy getPipelineWait() {
+        return pipelineWait;
+    }
+
+    /** @return Chat sockets to open, each with its own listener thread; 1 unless {@link Constants#OPT_RECEIVE_SHARDS} is given. */
+    public int getReceiveShards() {
+        return receiveShards;
+    }
+
+    /**
+     * @return SO_RCVBUF to ask for on each chat socket, or 0 to keep the OS default. Several shards
+     *         get {@link Constants#RECEIVE_SHARD_DEFAULT_RCVBUF} unless {@link Constants#OPT_RCVBUF} says otherwise.
+     */
+    public int getReceiveBufferBytes() {
+        if (receiveBufferBytes >= 0) {
+            return (int) receiveBufferBytes;
+        }
+        return receiveShards > 1 ? Constants.RECEIVE_SHARD_DEFAULT_RCVBUF : 0;
+    }
+
+    public boolean isStartupReport() {
+        return startupReport;
+    }
+
+    public boolean isTrainingRun() {
+        return trainingRun;
+    }
+}
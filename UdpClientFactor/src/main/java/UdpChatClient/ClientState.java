@@ -2,46 +2,178 @@ package UdpChatClient;
 
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.Collections;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ClientState {
-    private final String serverHost;
-    private final int serverPort;
-    private final DatagramSocket socket;
-    private final InetAddress serverAddress;
+    private static final Logger log = LoggerFactory.getLogger(ClientState.class);
+
+    private final List<ServerEndpoint> endpoints; // Replicas from --servers, or just the host/port given
+    private volatile ServerEndpoint endpoint; // Where requests go; moved by EndpointManager
+    private final DatagramSocket[] sockets; // One per receive shard; the first is the primary socket
+    private final ClientOptions options;
+    // Capabilities the server accepted in the login ACK; empty for legacy servers. Replaced as a whole, never modified
+    private volatile Set<String> activeCapabilities = Set.of();
     private String sessionKey;
-    private String currentChatId;
+    private int sessionKeyId = 1;
+    // The key replaced by the last rotation, still accepted for packets already in flight
+    private String previousSessionKey;
+    private int previousSessionKeyId = -1;
+    // AES-GCM state of the current and previous key, created on first use once CAP_AEAD is active
+    private AeadSession aead;
+    private AeadSession previousAead;
+    private volatile String currentChatId;
+    private final RoomDirectory roomDirectory = new RoomDirectory();
+    private final DeliveryModes deliveryModes = new DeliveryModes();
     private volatile boolean running = true;
+    private final List<Runnable> sessionListeners = new CopyOnWriteArrayList<>(); // See addSessionListener
 
     public ClientState(String serverHost, int serverPort) throws SocketException, UnknownHostException {
-        this.serverHost = serverHost;
-        this.serverPort = serverPort;
-        this.socket = new DatagramSocket();
-        this.serverAddress = InetAddress.getByName(serverHost);
+        this(serverHost, serverPort, ClientOptions.parse(new String[0]));
+    }
+
+    public ClientState(String serverHost, int serverPort, ClientOptions options) throws SocketException, UnknownHostException {
+        this.options = options;
+        this.sockets = openSockets(options.getReceiveShards(), options.getReceiveBufferBytes());
+        // Each endpoint starts its DNS lookup in the background while the client starts
+        List<ServerEndpoint> list = new ArrayList<>();
+        if (options.getServers().isEmpty()) {
+            list.add(new ServerEndpoint(serverHost, serverPort));
+        } else {
+            for (InetSocketAddress server : options.getServers()) {
+                list.add(new ServerEndpoint(server.getHostString(), server.getPort()));
+            }
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+        this.endpoint = list.get(0);
+    }
+
+    private static DatagramSocket[] openSockets(int count, int receiveBufferBytes) throws SocketException {
+        DatagramSocket[] opened = new DatagramSocket[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                opened[i] = new DatagramSocket();
+                if (receiveBufferBytes > 0) {
+                    opened[i].setReceiveBufferSize(receiveBufferBytes);
+                    // The kernel caps the size silently (net.core.rmem_max on Linux)
+                    int granted = opened[i].getReceiveBufferSize();
+                    if (granted < receiveBufferBytes) {
+                        log.warn("Socket {} got a {} byte receive buffer instead of {}; raise the OS limit to avoid drops", i, granted, receiveBufferBytes);
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            for (DatagramSocket socket : opened) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+            throw e;
+        }
+        if (count > 1) {
+            log.info("Opened {} receive shards", count);
+        }
+        return opened;
+    }
+
+    /**
+     * Waits for the DNS lookups started by the constructor. If the current endpoint does not
+     * resolve, the first one that does takes its place.
+     *
+     * @throws UnknownHostException if no endpoint resolves.
+     */
+    public InetAddress awaitServerAddress() throws UnknownHostException {
+        UnknownHostException firstFailure = null;
+        for (ServerEndpoint candidate : endpoints) {
+            try {
+                candidate.awaitAddress();
+            } catch (UnknownHostException e) {
+                if (firstFailure == null) {
+                    firstFailure = e;
+                }
+            }
+        }
+        if (!endpoint.isResolved()) {
+            for (ServerEndpoint candidate : endpoints) {
+                if (candidate.isResolved()) {
+                    endpoint = candidate;
+                    break;
+                }
+            }
+        }
+        if (!endpoint.isResolved()) {
+            throw firstFailure;
+        }
+        return endpoint.getAddress();
     }
 
     // Getters
     public String getServerHost() {
-        return serverHost;
+        return endpoint.getHost();
     }
 
     public int getServerPort() {
-        return serverPort;
+        return endpoint.getPort();
+    }
+
+    public ServerEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public List<ServerEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /** The first configured endpoint; identifies the deployment (e.g. for the session cache). */
+    public ServerEndpoint getPrimaryEndpoint() {
+        return endpoints.get(0);
     }
 
+    /** The primary socket; the only one without {@link Constants#OPT_RECEIVE_SHARDS}. */
     public DatagramSocket getSocket() {
-        return socket;
+        return sockets[0];
+    }
+
+    public DatagramSocket getSocket(int shard) {
+        return sockets[shard];
+    }
+
+    public DatagramSocket[] getSockets() {
+        return sockets.clone();
     }
 
+    public int getShardCount() {
+        return sockets.length;
+    }
+
+    /** The shard a client-initiated transaction is sent from; its whole handshake stays on that socket. */
+    public int shardFor(long transactionId) {
+        return (int) Math.floorMod(transactionId, (long) sockets.length);
+    }
+
+    /** The current endpoint's address; only valid once {@link #awaitServerAddress()} has succeeded. */
     public InetAddress getServerAddress() {
-        return serverAddress;
+        return endpoint.getAddress();
     }
 
-    public String getSessionKey() {
+    public synchronized String getSessionKey() {
         return sessionKey;
     }
 
+    public synchronized int getSessionKeyId() {
+        return sessionKeyId;
+    }
+
     public String getCurrentChatId() {
         return currentChatId;
     }
@@ -50,13 +182,180 @@ public class ClientState {
         return running;
     }
 
+    public ClientOptions getOptions() {
+        return options;
+    }
+
+    public boolean hasCapability(String capability) {
+        return activeCapabilities.contains(capability);
+    }
+
+    public Collection<String> getActiveCapabilities() {
+        return activeCapabilities;
+    }
+
+    /**
+     * Optional protocol features to offer when logging in or resuming; a legacy server ignores them.
+     */
+    public List<String> offeredCapabilities() {
+        List<String> capabilities = new ArrayList<>();
+        capabilities.add(Constants.CAP_KEY_HINT);
+        capabilities.add(Constants.CAP_AEAD);
+        capabilities.add(Constants.CAP_DELTA_SYNC);
+        capabilities.add(Constants.CAP_DELIVERY_MODES);
+        if (options.isBatchedAcks()) {
+            capabilities.add(Constants.CAP_BATCHED_ACK);
+        }
+        if (options.getHeartbeatIntervalMs() > 0) {
+            capabilities.add(Constants.CAP_HEARTBEAT);
+        }
+        return capabilities;
+    }
+
+    /**
+     * Resolves the key id of an incoming envelope header.
+     *
+     * @return The key, or null if the id is unknown (stale or foreign packet).
+     */
+    public synchronized String keyForId(int keyId) {
+        if (keyId == Constants.KEY_ID_FIXED) {
+            return Constants.FIXED_LOGIN_KEY_STRING;
+        }
+        if (sessionKey != null && keyId == sessionKeyId) {
+            return sessionKey;
+        }
+        if (previousSessionKey != null && keyId == previousSessionKeyId) {
+            return previousSessionKey;
+        }
+        return null;
+    }
+
+    /**
+     * @return The envelope key id for sending with {@code key}, or -1 when the server has not accepted
+     *         key hints (packets then go out without an envelope).
+     */
+    public synchronized int keyHintFor(String key) {
+        if (!hasCapability(Constants.CAP_KEY_HINT)) {
+            return -1;
+        }
+        return key != null && key.equals(sessionKey) ? sessionKeyId : Constants.KEY_ID_FIXED;
+    }
+
+    /**
+     * @return The AES-GCM session for sending with {@code key}, or null when packets under that key go
+     *         out Caesar-encrypted (no {@link Constants#CAP_AEAD}, or not the session key).
+     */
+    public synchronized AeadSession aeadFor(String key) {
+        if (key == null || !key.equals(sessionKey) || !hasCapability(Constants.CAP_AEAD)) {
+            return null;
+        }
+        if (aead == null || !aead.isFor(sessionKey, sessionKeyId)) {
+            aead = new AeadSession(sessionKey, sessionKeyId);
+        }
+        return aead;
+    }
+
+    /**
+     * Resolves the key id of an incoming AES-GCM packet.
+     *
+     * @return The session, or null if the id is unknown or AEAD was not negotiated.
+     */
+    public synchronized AeadSession aeadForId(int keyId) {
+        if (!hasCapability(Constants.CAP_AEAD)) {
+            return null;
+        }
+        if (sessionKey != null && keyId == sessionKeyId) {
+            return aeadFor(sessionKey);
+        }
+        if (previousSessionKey != null && keyId == previousSessionKeyId) {
+            if (previousAead == null || !previousAead.isFor(previousSessionKey, previousSessionKeyId)) {
+                previousAead = new AeadSession(previousSessionKey, previousSessionKeyId);
+            }
+            return previousAead;
+        }
+        return null;
+    }
+
     // Setters
     public void setSessionKey(String sessionKey) {
+        setSessionKey(sessionKey, 1);
+    }
+
+    public synchronized void setSessionKey(String sessionKey, int keyId) {
+        if (this.sessionKey != null && !this.sessionKey.equals(sessionKey)) {
+            previousSessionKey = this.sessionKey;
+            previousSessionKeyId = this.sessionKeyId;
+            previousAead = aead; // Keeps its replay window for packets still in flight
+        }
+        aead = null; // A new or resumed session starts a fresh replay window (the peer may be another replica)
         this.sessionKey = sessionKey;
+        this.sessionKeyId = keyId;
+    }
+
+    public void setEndpoint(ServerEndpoint endpoint) {
+        ServerEndpoint previous = this.endpoint;
+        this.endpoint = endpoint;
+        if (previous != endpoint) {
+            sessionChanged();
+        }
+    }
+
+    /** Forgets the session (it could not be carried over to another endpoint). */
+    public void clearSession() {
+        synchronized (this) {
+            sessionKey = null;
+            previousSessionKey = null;
+            previousSessionKeyId = -1;
+            aead = null;
+            previousAead = null;
+            currentChatId = null;
+            activeCapabilities = Set.of();
+            roomDirectory.clear();
+        }
+        sessionChanged();
+    }
+
+    /**
+     * Installs the session a login or resume ACK granted. The capabilities are in place before the
+     * key becomes visible, all under the state's lock, so no thread sends with the new key while the
+     * capability set is still the previous session's (or empty).
+     */
+    public void startSession(String sessionKey, int keyId, String chatId, Collection<String> capabilities) {
+        synchronized (this) {
+            activeCapabilities = Set.copyOf(capabilities);
+            setSessionKey(sessionKey, keyId);
+            String previous = this.currentChatId;
+            if (previous != null && !previous.equals(chatId)) {
+                roomDirectory.clear(); // Another user's rooms
+            }
+            if (chatId != null) {
+                deliveryModes.setOwner(chatId);
+            }
+            this.currentChatId = chatId;
+        }
+        sessionChanged();
+    }
+
+    /**
+     * Runs {@code listener} whenever a session starts (login, resume) or ends, or requests move to
+     * another server, for state that only holds within one session. Called without the state's lock.
+     */
+    public void addSessionListener(Runnable listener) {
+        sessionListeners.add(listener);
+    }
+
+    private void sessionChanged() {
+        for (Runnable listener : sessionListeners) {
+            listener.run();
+        }
+    }
+
+    public DeliveryModes getDeliveryModes() {
+        return deliveryModes;
     }
 
-    public void setCurrentChatId(String currentChatId) {
-        this.currentChatId = currentChatId;
+    public RoomDirectory getRoomDirectory() {
+        return roomDirectory;
     }
 
     public void setRunning(boolean running) {
@@ -64,8 +363,10 @@ public class ClientState {
     }
 
     public void closeSocket() {
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
+        for (DatagramSocket socket : sockets) {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
         }
     }
 }
@@ -2,11 +2,14 @@ package UdpChatClient;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import UdpChatClient.command.AddUserHandler;
 import UdpChatClient.command.CommandHandler;
 import UdpChatClient.command.CreateRoomHandler;
 import UdpChatClient.command.DeleteRoomHandler;
+import UdpChatClient.command.DeliveryModeHandler;
+import UdpChatClient.command.DownloadHandler;
 import UdpChatClient.command.ExitHandler;
 import UdpChatClient.command.GetRoomUsersHandler;
 import UdpChatClient.command.GetUsersHandler;
@@ -14,40 +17,86 @@ import UdpChatClient.command.HelpHandler;
 import UdpChatClient.command.ListMessagesHandler;
 import UdpChatClient.command.ListRoomsHandler;
 import UdpChatClient.command.LoginHandler;
+import UdpChatClient.command.MoreMessagesHandler;
 import UdpChatClient.command.RegisterHandler;
 import UdpChatClient.command.RemoveUserHandler;
 import UdpChatClient.command.RenameRoomHandler;
+import UdpChatClient.command.ResumeHandler;
+import UdpChatClient.command.SearchHandler;
 import UdpChatClient.command.SendHandler;
+import UdpChatClient.command.StatsHandler;
+import UdpChatClient.command.UploadHandler;
+import UdpChatClient.file.FileTransferClient;
 
 public class CommandProcessor {
 
     private final ClientState clientState;
     private final HandshakeManager handshakeManager;
-    private final Map<String, CommandHandler> commandHandlers = new HashMap<>();
+    private final Map<String, LazyHandler> commandHandlers = new HashMap<>();
 
-    public CommandProcessor(ClientState clientState, HandshakeManager handshakeManager) {
+    private static final class LazyHandler {
+        final String description;
+        private final Supplier<CommandHandler> factory;
+        private CommandHandler handler;
+
+        LazyHandler(String description, Supplier<CommandHandler> factory) {
+            this.description = description;
+            this.factory = factory;
+        }
+
+        CommandHandler get() {
+            if (handler == null) {
+                handler = factory.get();
+            }
+            return handler;
+        }
+    }
+
+    public CommandProcessor(ClientState clientState, HandshakeManager handshakeManager, FileTransferClient fileTransferClient,
+                            HistoryPager historyPager, SearchIndex searchIndex, SessionResumer sessionResumer,
+                            Heartbeat heartbeat, ReceivePipeline pipeline) {
         this.clientState = clientState;
         this.handshakeManager = handshakeManager;
         
-        // Register all command handlers
-        registerCommandHandler(Constants.CMD_REGISTER, new RegisterHandler());
-        registerCommandHandler(Constants.CMD_GET_USERS, new GetUsersHandler());
-        registerCommandHandler(Constants.CMD_LOGIN, new LoginHandler());
-        registerCommandHandler(Constants.CMD_CREATE_ROOM, new CreateRoomHandler());
-        registerCommandHandler(Constants.CMD_SEND, new SendHandler());
-        registerCommandHandler(Constants.CMD_LIST_ROOMS, new ListRoomsHandler());
-        registerCommandHandler(Constants.CMD_LIST_MESSAGES, new ListMessagesHandler());
-        registerCommandHandler(Constants.CMD_ADD_USER, new AddUserHandler());
-        registerCommandHandler(Constants.CMD_REMOVE_USER, new RemoveUserHandler());
-        registerCommandHandler(Constants.CMD_DELETE_ROOM, new DeleteRoomHandler());
-        registerCommandHandler(Constants.CMD_RENAME_ROOM, new RenameRoomHandler());
-        registerCommandHandler(Constants.CMD_GET_ROOM_USERS, new GetRoomUsersHandler());
-        registerCommandHandler(Constants.CMD_HELP, new HelpHandler(this));
-        registerCommandHandler(Constants.CMD_EXIT, new ExitHandler());
+        // Handlers are built on first use. Lambdas rather than constructor references, so a
+        // handler's class is not even loaded until its command is typed.
+        registerCommandHandler(Constants.CMD_REGISTER, Constants.CMD_REGISTER_DESC, () -> new RegisterHandler());
+        registerCommandHandler(Constants.CMD_GET_USERS, Constants.CMD_GET_USERS_DESC, () -> new GetUsersHandler());
+        registerCommandHandler(Constants.CMD_LOGIN, Constants.CMD_LOGIN_DESC, () -> new LoginHandler(sessionResumer));
+        registerCommandHandler(Constants.CMD_RESUME, Constants.CMD_RESUME_DESC, () -> new ResumeHandler(sessionResumer));
+        registerCommandHandler(Constants.CMD_CREATE_ROOM, Constants.CMD_CREATE_ROOM_DESC, () -> new CreateRoomHandler());
+        registerCommandHandler(Constants.CMD_SEND, Constants.CMD_SEND_DESC, () -> new SendHandler());
+        registerCommandHandler(Constants.CMD_LIST_ROOMS, Constants.CMD_LIST_ROOMS_DESC, () -> new ListRoomsHandler());
+        registerCommandHandler(Constants.CMD_LIST_MESSAGES, Constants.CMD_LIST_MESSAGES_DESC, () -> new ListMessagesHandler(historyPager));
+        registerCommandHandler(Constants.CMD_MORE, Constants.CMD_MORE_DESC, () -> new MoreMessagesHandler(historyPager));
+        registerCommandHandler(Constants.CMD_ADD_USER, Constants.CMD_ADD_USER_DESC, () -> new AddUserHandler());
+        registerCommandHandler(Constants.CMD_REMOVE_USER, Constants.CMD_REMOVE_USER_DESC, () -> new RemoveUserHandler());
+        registerCommandHandler(Constants.CMD_DELETE_ROOM, Constants.CMD_DELETE_ROOM_DESC, () -> new DeleteRoomHandler());
+        registerCommandHandler(Constants.CMD_RENAME_ROOM, Constants.CMD_RENAME_ROOM_DESC, () -> new RenameRoomHandler());
+        registerCommandHandler(Constants.CMD_GET_ROOM_USERS, Constants.CMD_GET_ROOM_USERS_DESC, () -> new GetRoomUsersHandler());
+        registerCommandHandler(Constants.CMD_SUBSCRIBE, Constants.CMD_SUBSCRIBE_DESC,
+                () -> new DeliveryModeHandler(DeliveryModes.Mode.FULL, Constants.ACTION_SUBSCRIBE, Constants.CMD_SUBSCRIBE_DESC));
+        registerCommandHandler(Constants.CMD_MUTE, Constants.CMD_MUTE_DESC,
+                () -> new DeliveryModeHandler(DeliveryModes.Mode.NOTIFY, Constants.ACTION_MUTE, Constants.CMD_MUTE_DESC));
+        registerCommandHandler(Constants.CMD_UNSUBSCRIBE, Constants.CMD_UNSUBSCRIBE_DESC,
+                () -> new DeliveryModeHandler(DeliveryModes.Mode.NONE, Constants.ACTION_UNSUBSCRIBE, Constants.CMD_UNSUBSCRIBE_DESC));
+        registerCommandHandler(Constants.CMD_UPLOAD, Constants.CMD_UPLOAD_DESC, () -> new UploadHandler(fileTransferClient));
+        registerCommandHandler(Constants.CMD_DOWNLOAD, Constants.CMD_DOWNLOAD_DESC, () -> new DownloadHandler(fileTransferClient));
+        registerCommandHandler(Constants.CMD_SEARCH, Constants.CMD_SEARCH_DESC, () -> new SearchHandler(searchIndex));
+        registerCommandHandler(Constants.CMD_STATS, Constants.CMD_STATS_DESC, () -> new StatsHandler(heartbeat, pipeline));
+        registerCommandHandler(Constants.CMD_HELP, Constants.CMD_HELP_DESC, () -> new HelpHandler(this));
+        registerCommandHandler(Constants.CMD_EXIT, Constants.CMD_EXIT_DESC, () -> new ExitHandler());
     }
-    
-    private void registerCommandHandler(String command, CommandHandler handler) {
-        commandHandlers.put(command.toLowerCase(), handler);
+
+    private void registerCommandHandler(String command, String description, Supplier<CommandHandler> factory) {
+        commandHandlers.put(command.toLowerCase(), new LazyHandler(description, factory));
+    }
+
+    /** Forces every handler to be built (AppCDS training runs, so their classes land in the archive). */
+    public void initializeAllHandlers() {
+        for (LazyHandler handler : commandHandlers.values()) {
+            handler.get();
+        }
     }
 
     public void processCommand(String line) {
@@ -61,9 +110,9 @@ public class CommandProcessor {
         String command = parts[0].toLowerCase();
         String args = parts.length > 1 ? parts[1] : "";
 
-        CommandHandler handler = commandHandlers.get(command);
+        LazyHandler handler = commandHandlers.get(command);
         if (handler != null) {
-            handler.handle(args, clientState, handshakeManager);
+            handler.get().handle(args, clientState, handshakeManager);
         } else {
             System.out.println("Invalid command. Type /help for available commands.");
             System.out.print("> ");
@@ -72,15 +121,19 @@ public class CommandProcessor {
 
     public void showHelp() {
         System.out.println("\nAvailable commands:");
-        for (Map.Entry<String, CommandHandler> entry : commandHandlers.entrySet()) {
-            System.out.println("  " + entry.getValue().getDescription());
+        for (LazyHandler handler : commandHandlers.values()) {
+            System.out.println("  " + handler.description); // Listing help does not build the handlers
         }
         System.out.println("    Time options: e.g., '12"+Constants.TIME_OPTION_HOURS+"', '7"+Constants.TIME_OPTION_DAYS+"', '3"+Constants.TIME_OPTION_WEEKS+"', '"+Constants.TIME_OPTION_ALL+"', ISO format, or 'yyyy-MM-dd HH:mm:ss'");
         System.out.print("> ");
     }
     
-    // Get command handlers - used by HelpHandler
-    public Map<String, CommandHandler> getCommandHandlers() {
-        return commandHandlers;
+    // Command -> description, without building any handler
+    public Map<String, String> getCommandDescriptions() {
+        Map<String, String> descriptions = new HashMap<>();
+        for (Map.Entry<String, LazyHandler> entry : commandHandlers.entrySet()) {
+            descriptions.put(entry.getKey(), entry.getValue().description);
+        }
+        return descriptions;
     }
 }
@@ -0,0 +1,308 @@
+package UdpChatClient;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loss-based (AIMD) window on outstanding client-initiated handshakes.
+ * The window grows by one per acknowledged request in slow start and by 1/cwnd
+ * per request afterwards; it halves when a request sees no CHARACTER_COUNT within
+ * the RTO, times out, or fails a frequency check. RTT is measured from the moment the
+ * sender thread puts a request on the wire (after pacing and queueing) to receiving its
+ * CHARACTER_COUNT, and smoothed as in RFC 6298.
+ */
+public class CongestionController implements CongestionControllerMXBean {
+    private static final Logger log = LoggerFactory.getLogger(CongestionController.class);
+
+    private final Object lock = new Object();
+    private double cwnd = Constants.CWND_INITIAL;
+    private double ssthresh = Constants.CWND_MAX;
+    private int inFlight = 0;
+    private long lastDecreaseNanos = 0;
+
+    // RTT estimator state (milliseconds)
+    private double srttMs = -1;
+    private double rttVarMs = 0;
+    private long rtoMs = Constants.RTO_INITIAL_MS;
+    private long lastRttMs = -1;
+
+    private final AtomicLong requestsAcked = new AtomicLong();
+    private final AtomicLong lossEvents = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong confirmFailures = new AtomicLong();
+    private volatile ObjectName mbeanName; // Null if not registered
+
+    /**
+     * One outstanding request holding a window slot.
+     */
+    public static final class Permit {
+        volatile long sentNanos; // When the slot was taken, until the request is actually sent
+        boolean rttSampled;
+        boolean released;
+
+        Permit(long sentNanos) {
+            this.sentNanos = sentNanos;
+        }
+
+        /** Called by the sender thread once the request's datagram is on the wire. */
+        void markSent(long nanos) {
+            sentNanos = nanos;
+        }
+    }
+
+    public CongestionController() {
+        try {
+            ObjectName name = new ObjectName("UdpChatClient:type=CongestionController,id=" + System.identityHashCode(this));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            mbeanName = name;
+        } catch (Exception e) {
+            log.debug("Could not register congestion metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the metrics MBean, so clients created and dropped in one JVM (replays, training runs)
+     * do not leave entries behind.
+     */
+    public void shutdown() {
+        ObjectName name = mbeanName;
+        mbeanName = null;
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (Exception e) {
+            log.debug("Could not unregister congestion metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Blocks until the window has room for another outstanding request.
+     *
+     * @return the permit, or null if no slot became free within the timeout.
+     */
+    public Permit acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (inFlight >= windowSize()) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return null;
+                }
+                lock.wait(remainingMs);
+            }
+            inFlight++;
+            return new Permit(System.nanoTime());
+        }
+    }
+
+    /**
+     * First server response (CHARACTER_COUNT) arrived for the request: take an RTT sample.
+     */
+    public void onFirstResponse(Permit permit) {
+        synchronized (lock) {
+            if (permit.rttSampled) {
+                return;
+            }
+            permit.rttSampled = true;
+            long rttMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - permit.sentNanos);
+            sampleRttLocked(rttMs);
+        }
+    }
+
+    /**
+     * Feeds an externally measured RTT sample (e.g. from a probe) into the estimator.
+     */
+    public void onRttSample(long rttMs) {
+        synchronized (lock) {
+            sampleRttLocked(rttMs);
+        }
+    }
+
+    private void sampleRttLocked(long rttMs) {
+        lastRttMs = rttMs;
+        if (srttMs < 0) {
+            srttMs = rttMs;
+            rttVarMs = rttMs / 2.0;
+        } else {
+            rttVarMs = 0.75 * rttVarMs + 0.25 * Math.abs(srttMs - rttMs);
+            srttMs = 0.875 * srttMs + 0.125 * rttMs;
+        }
+        rtoMs = Math.max(Constants.RTO_MIN_MS, Math.min(Constants.RTO_MAX_MS, (long) (srttMs + 4 * rttVarMs)));
+    }
+
+    /**
+     * Request completed with an ACK: release the slot and grow the window.
+     */
+    public void onSuccess(Permit permit) {
+        synchronized (lock) {
+            if (!releaseLocked(permit)) {
+                return;
+            }
+            requestsAcked.incrementAndGet();
+            if (cwnd < ssthresh) {
+                cwnd += 1; // slow start
+            } else {
+                cwnd += 1.0 / cwnd; // congestion avoidance
+            }
+            cwnd = Math.min(cwnd, Constants.CWND_MAX);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * No CHARACTER_COUNT within the RTO. The request keeps waiting for its full timeout,
+     * but the window shrinks now.
+     */
+    public void onLate(Permit permit) {
+        synchronized (lock) {
+            decreaseLocked(permit.sentNanos, "no response within RTO " + rtoMs + "ms");
+            rtoMs = Math.min(Constants.RTO_MAX_MS, rtoMs * 2); // back off as in RFC 6298 5.5
+        }
+    }
+
+    /**
+     * Request gave up (timeout or error): release the slot and shrink the window.
+     */
+    public void onTimeout(Permit permit) {
+        synchronized (lock) {
+            if (!releaseLocked(permit)) {
+                return;
+            }
+            timeouts.incrementAndGet();
+            decreaseLocked(permit.sentNanos, "request timed out");
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Frequency check failed on either side of a handshake: treat as a loss signal.
+     */
+    public void onConfirmFailure() {
+        synchronized (lock) {
+            confirmFailures.incrementAndGet();
+            decreaseLocked(System.nanoTime(), "CONFIRM_COUNT mismatch");
+        }
+    }
+
+    /**
+     * Releases the slot without touching the window (e.g. server returned an application error).
+     */
+    public void release(Permit permit) {
+        synchronized (lock) {
+            if (releaseLocked(permit)) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private boolean releaseLocked(Permit permit) {
+        if (permit == null || permit.released) {
+            return false;
+        }
+        permit.released = true;
+        inFlight--;
+        return true;
+    }
+
+    /**
+     * Multiplicative decrease, at most once per RTT: losses of requests sent before the
+     * last decrease belong to the same congestion event.
+     */
+    private void decreaseLocked(long eventSentNanos, String reason) {
+        if (eventSentNanos < lastDecreaseNanos) {
+            return;
+        }
+        lossEvents.incrementAndGet();
+        ssthresh = Math.max(cwnd / 2, Constants.CWND_MIN);
+        cwnd = ssthresh;
+        lastDecreaseNanos = System.nanoTime();
+        log.info("Congestion window reduced to {} ({})", String.format("%.2f", cwnd), reason);
+    }
+
+    private int windowSize() {
+        return Math.max(Constants.CWND_MIN, (int) cwnd);
+    }
+
+    @Override
+    public long getRtoMs() {
+        synchronized (lock) {
+            return rtoMs;
+        }
+    }
+
+    /**
+     * One-line summary for the /stats command.
+     */
+    public String snapshot() {
+        synchronized (lock) {
+            return String.format("cwnd=%.2f ssthresh=%.2f inflight=%d srtt=%s rttvar=%.1fms rto=%dms acked=%d losses=%d timeouts=%d confirm_failures=%d",
+                    cwnd, ssthresh, inFlight, srttMs < 0 ? "n/a" : String.format("%.1fms", srttMs), rttVarMs, rtoMs,
+                    requestsAcked.get(), lossEvents.get(), timeouts.get(), confirmFailures.get());
+        }
+    }
+
+    // --- CongestionControllerMXBean ---
+
+    @Override
+    public double getCongestionWindow() {
+        synchronized (lock) {
+            return cwnd;
+        }
+    }
+
+    @Override
+    public double getSlowStartThreshold() {
+        synchronized (lock) {
+            return ssthresh;
+        }
+    }
+
+    @Override
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    @Override
+    public double getSmoothedRttMs() {
+        synchronized (lock) {
+            return srttMs;
+        }
+    }
+
+    @Override
+    public long getLastRttMs() {
+        synchronized (lock) {
+            return lastRttMs;
+        }
+    }
+
+    @Override
+    public long getRequestsAcked() {
+        return requestsAcked.get();
+    }
+
+    @Override
+    public long getLossEvents() {
+        return lossEvents.get();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    @Override
+    public long getConfirmFailures() {
+        return confirmFailures.get();
+    }
+}
@@ -0,0 +1,26 @@
+package UdpChatClient;
+
+/**
+ * JMX view of the client's congestion window, so it can be scraped by the usual JVM metrics tooling.
+ */
+public interface CongestionControllerMXBean {
+    double getCongestionWindow();
+
+    double getSlowStartThreshold();
+
+    int getInFlight();
+
+    double getSmoothedRttMs();
+
+    long getLastRttMs();
+
+    long getRtoMs();
+
+    long getRequestsAcked();
+
+    long getLossEvents();
+
+    long getTimeouts();
+
+    long getConfirmFailures();
+}
@@ -0,0 +1,146 @@
+package UdpChatClient;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Console output stage for server pushes. Callers collect a packet's lines in a buffer and hand
+ * it over in one {@link #flush} call, so a 500-message history is one console write instead of 500.
+ * <p>
+ * With flood summaries enabled, a room that delivers more than {@link Constants#CONSOLE_FLOOD_THRESHOLD}
+ * messages within {@link Constants#CONSOLE_FLOOD_WINDOW_MS} stops printing them one by one and
+ * instead gets an "N new messages in room X" line per window until it calms down.
+ */
+public class ConsoleRenderer {
+    private static final Logger log = LoggerFactory.getLogger(ConsoleRenderer.class);
+
+    // DateTimeFormatter is immutable and thread-safe, unlike the SimpleDateFormat it replaces
+    public static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+    public static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private static final int MAX_RETAINED_BUFFER_CHARS = 64 * 1024;
+
+    private static class RoomFlood {
+        long windowStartMillis;
+        int countInWindow;
+        int suppressed;
+        boolean summarising;
+    }
+
+    private final boolean floodSummary;
+    private final Map<String, RoomFlood> floods = new HashMap<>(); // Guarded by this
+    private ScheduledExecutorService summaryTimer;
+
+    public ConsoleRenderer(boolean floodSummary) {
+        this.floodSummary = floodSummary;
+    }
+
+    /**
+     * Appends an ISO-8601 timestamp formatted with {@code format}, or the raw text if it does not parse.
+     */
+    public void appendTimestamp(StringBuilder out, String isoTimestamp, DateTimeFormatter format) {
+        try {
+            format.formatTo(Instant.parse(isoTimestamp), out);
+        } catch (Exception e) {
+            log.warn("Failed to parse or format timestamp '{}': {}", isoTimestamp, e.getMessage());
+            out.append(isoTimestamp);
+        }
+    }
+
+    /**
+     * Counts a live message for {@code roomId}.
+     *
+     * @return true if it should be printed, false if the room is being summarised.
+     */
+    public synchronized boolean admitRoomMessage(String roomId) {
+        if (!floodSummary) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        RoomFlood flood = floods.computeIfAbsent(roomId, id -> new RoomFlood());
+        if (now - flood.windowStartMillis > Constants.CONSOLE_FLOOD_WINDOW_MS) {
+            flood.windowStartMillis = now;
+            flood.countInWindow = 0;
+        }
+        flood.countInWindow++;
+        if (!flood.summarising && flood.countInWindow > Constants.CONSOLE_FLOOD_THRESHOLD) {
+            flood.summarising = true;
+            ensureSummaryTimer();
+        }
+        if (flood.summarising) {
+            flood.suppressed++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a message of a muted room towards the next "N new messages" line, whether or not
+     * flood summaries are enabled.
+     */
+    public synchronized void countMutedMessage(String roomId) {
+        floods.computeIfAbsent(roomId, id -> new RoomFlood()).suppressed++;
+        ensureSummaryTimer();
+    }
+
+    private void ensureSummaryTimer() {
+        if (summaryTimer != null) {
+            return;
+        }
+        summaryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ConsoleSummaryTimer");
+            t.setDaemon(true);
+            return t;
+        });
+        summaryTimer.scheduleWithFixedDelay(this::printSummaries, Constants.CONSOLE_FLOOD_WINDOW_MS, Constants.CONSOLE_FLOOD_WINDOW_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void printSummaries() {
+        StringBuilder summary = new StringBuilder();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Iterator<Map.Entry<String, RoomFlood>> it = floods.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, RoomFlood> entry = it.next();
+                RoomFlood flood = entry.getValue();
+                if (flood.suppressed > 0) {
+                    summary.append('\n').append(flood.suppressed).append(" new messages in room ").append(entry.getKey())
+                            .append(" (use /messages ").append(entry.getKey()).append(" to read them)");
+                    flood.suppressed = 0;
+                }
+                boolean quiet = now - flood.windowStartMillis > Constants.CONSOLE_FLOOD_WINDOW_MS
+                        || flood.countInWindow <= Constants.CONSOLE_FLOOD_THRESHOLD;
+                if (quiet) {
+                    it.remove(); // Back to printing each message
+                }
+            }
+        }
+        if (summary.length() > 0) {
+            summary.append("\n> ");
+            flush(summary);
+        }
+    }
+
+    /**
+     * Writes the buffer to the console with a single write and flush, then empties it.
+     */
+    public void flush(StringBuilder out) {
+        if (out.length() > 0) {
+            System.out.print(out);
+            System.out.flush();
+        }
+        out.setLength(0);
+        if (out.capacity() > MAX_RETAINED_BUFFER_CHARS) {
+            out.trimToSize(); // Do not keep a huge history listing's buffer around
+        }
+    }
+}
@@ -8,6 +8,12 @@ public final class Constants {
     // --- Network ---
     public static final int DEFAULT_SERVER_PORT = 9876;
     public static final int MAX_UDP_PACKET_SIZE = 65507;
+    public static final byte ENVELOPE_MAGIC = (byte) 0xFE; // Never valid UTF-8, so never the first byte of a legacy packet
+    public static final int ENVELOPE_HEADER_SIZE = 2; // magic, key id
+    public static final int KEY_ID_FIXED = 0; // Envelope key id of FIXED_LOGIN_KEY_STRING
+    public static final byte AEAD_MAGIC = (byte) 0xFD; // AES-GCM sealed packet (CAP_AEAD), also never valid UTF-8
+    public static final int AEAD_HEADER_SIZE = 14; // magic, key id, 12-byte nonce
+    public static final int FILE_TRANSFER_SERVER_PORT = 9877; // Separate plain-JSON file server (same host as chat server)
     
 
     // --- Security ---
@@ -17,6 +23,7 @@ public final class Constants {
      * DO NOT use this for encrypting replies or any other communication.
      */
     public static final String FIXED_LOGIN_KEY_STRING = "LoginKey9"; // Length 9
+    public static final String AEAD_KEY_LABEL = "udpchat-aead-v1:"; // AES key = HMAC-SHA256(session key, label + key id)
 
     // --- JSON Keys ---
     // Common
@@ -44,8 +51,50 @@ public final class Constants {
     public static final String KEY_CONFIRM = "confirm"; // Boolean key in CONFIRM_COUNT
     public static final String KEY_ORIGINAL_ACTION = "original_action"; // Key to store the action being confirmed/acked
     public static final String KEY_FROM_TIME = "from_time"; // Key for filtering messages by time
+    public static final String KEY_LIMIT = "limit"; // get_messages: page size
+    public static final String KEY_CURSOR = "cursor"; // get_messages: opaque position returned as next_cursor by the previous page
+    public static final String KEY_SEQ = "seq"; // receive_message: per-room sequence number of the push to this client (optional)
+    public static final String KEY_NEXT_CURSOR = "next_cursor"; // messages_list: cursor of the next (older) page, null on the last page
+    public static final String KEY_CAPABILITIES = "capabilities"; // Optional protocol features offered at login / accepted in the login ACK
+    public static final String KEY_ACKS = "acks"; // Piggybacked or batched ACK entries (transaction_id + status)
+    public static final String KEY_ACK_RANGES = "ack_ranges"; // [from, to] pairs of numeric transaction IDs acknowledged with success
+    public static final String KEY_NONCE = "nonce"; // Ping/pong: probe identifier echoed by the server
+    public static final String KEY_REQUEST_ID = "request_id"; // AEAD mode: client id of a request, echoed in its response
+    public static final String KEY_PROOF = "proof"; // Resume: Base64 HMAC-SHA256(session key, chatid + "\n" + timestamp)
+    public static final String KEY_ROOMS = "rooms"; // rooms_list: full room list (snapshot)
+    public static final String KEY_USERS = "users"; // users_list / room_users_list: full user list (snapshot)
+    public static final String KEY_VERSION = "version"; // rooms_list / room_users_list: version of the list after this reply
+    public static final String KEY_SINCE_VERSION = "since_version"; // get_rooms / get_room_users: last version seen; echoed on a delta reply
+    public static final String KEY_ADDED = "added"; // Delta reply: rooms ({id, name}) or users added since since_version
+    public static final String KEY_REMOVED = "removed"; // Delta reply: room ids or users removed since since_version
+    public static final String KEY_RENAMED = "renamed"; // Delta rooms_list: rooms ({id, name}) renamed since since_version
+    public static final String KEY_DELIVERY_MODES = "delivery_modes"; // Login / resume: room id -> delivery mode (full, notify, none) for rooms not in full mode
+    public static final String KEY_DELIVERY_MODE = "delivery_mode"; // delivery_mode: the room's mode now in effect
+    public static final String KEY_UNREAD = "unread"; // room_activity: messages not pushed since the last count
+    public static final String KEY_KEY_ID = "key_id"; // Login ACK: id (1-255) of the issued session key, used in envelope headers
     // Note: KEY_CONFIRMATION is removed as the new flow uses KEY_CONFIRM within CONFIRM_COUNT action
 
+    // File Transfer (file server uses "chat_id", not "chatid")
+    public static final String KEY_FILE_CHAT_ID = "chat_id";
+    public static final String KEY_FILE_PATH = "file_path";
+    public static final String KEY_FILE_NAME = "file_name";
+    public static final String KEY_FILE_SIZE = "file_size";
+    public static final String KEY_FILE_TYPE = "file_type";
+    public static final String KEY_TOTAL_PACKETS = "total_packets";
+    public static final String KEY_SEQUENCE_NUMBER = "sequence_number";
+    public static final String KEY_CHUNK_SIZE = "chunk_size";
+    public static final String KEY_FILE_DATA = "file_data"; // Base64 chunk payload (JSON path only)
+    public static final String KEY_WINDOW = "window"; // Chunks in flight; absent in a reply means legacy stop-and-wait
+    public static final String KEY_BINARY = "binary"; // Raw binary chunk frames instead of Base64-in-JSON
+    public static final String KEY_TRANSFER_ID = "transfer_id"; // Server-assigned int identifying binary frames
+    public static final String KEY_RECEIVED_RANGES = "received_ranges"; // [from, to] sequence ranges already held (resume)
+    public static final String KEY_MISSING = "missing"; // Sequence numbers to resend
+    public static final String KEY_STREAMS = "streams"; // Parallel range streams the client can open for a download
+    public static final String KEY_RANGES = "ranges"; // [from, to] sequence ranges the server split a download into; fill_gap: missing pushes
+    public static final String KEY_RANGE = "range"; // [from, to] sequence range requested on / finished by one stream
+    public static final String KEY_RANGE_CRC32C = "range_crc32c"; // CRC32C of each range's bytes, parallel to "ranges"
+    public static final String KEY_SHA256 = "sha256"; // Hex SHA-256 of the whole file
+
     // --- Action Values ---
     public static final String ACTION_REGISTER = "register"; // Dăng ký
     public static final String ACTION_REGISTER_SUCCESS = "register_success"; // Phản hồi đăng ký thành công
@@ -55,6 +104,7 @@ public final class Constants {
     public static final String ACTION_CREATE_ROOM = "create_room";
     public static final String ACTION_GET_ROOMS = "get_rooms"; // Thêm action xem danh sách room
     public static final String ACTION_GET_MESSAGES = "get_messages"; // Thêm action xem tin nhắn
+    public static final String ACTION_FILL_GAP = "fill_gap"; // Ask for sequenced receive_message pushes to be sent again
     public static final String ACTION_SEND_MESSAGE = "send_message"; // Initial request from client
     public static final String ACTION_RECEIVE_MESSAGE = "receive_message"; // Server forwarding message to other clients
     public static final String ACTION_ERROR = "error";
@@ -81,6 +131,32 @@ public final class Constants {
     public static final String ACTION_ROOM_RENAMED = "room_renamed";
     public static final String ACTION_GET_ROOM_USERS = "get_room_users";
     public static final String ACTION_ROOM_USERS_LIST = "room_users_list";
+    public static final String ACTION_SUBSCRIBE = "subscribe"; // Room back to full push delivery
+    public static final String ACTION_MUTE = "mute"; // Room delivered as room_activity counts only
+    public static final String ACTION_UNSUBSCRIBE = "unsubscribe"; // Room not pushed at all
+    public static final String ACTION_DELIVERY_MODE = "delivery_mode"; // Server response to subscribe / mute / unsubscribe
+    public static final String ACTION_ROOM_ACTIVITY = "room_activity"; // S->C count of new messages in a muted room
+    public static final String ACTION_PING = "ping"; // Endpoint probe, answered directly with a pong
+    public static final String ACTION_PONG = "pong";
+    public static final String ACTION_RESUME = "resume"; // Revalidate a cached session in one round trip (request and direct reply)
+
+    // --- Capabilities (negotiated at login) ---
+    public static final String CAP_BATCHED_ACK = "batched_ack"; // Final ACKs of S->C pushes piggybacked/batched
+    public static final String CAP_KEY_HINT = "key_hint"; // Packets carry an unencrypted [magic, key id] envelope header
+    public static final String CAP_AEAD = "aead_gcm"; // Session packets sealed with AES-GCM; request -> response without frequency legs
+    public static final String CAP_DELIVERY_MODES = "delivery_modes"; // Server filters pushes by per-room delivery mode
+    public static final String CAP_DELTA_SYNC = "delta_sync"; // get_rooms / get_room_users answered with changes since a version
+    public static final String CAP_HEARTBEAT = "heartbeat"; // Server answers ping with pong; idle keepalives are only sent once granted
+
+    // File transfer actions (file server, port FILE_TRANSFER_SERVER_PORT)
+    public static final String ACTION_FILE_SEND_INIT = "file_send_init";
+    public static final String ACTION_FILE_SEND_DATA = "file_send_data";
+    public static final String ACTION_FILE_SEND_FIN = "file_send_fin";
+    public static final String ACTION_FILE_DOWN_REQ = "file_down_req";
+    public static final String ACTION_FILE_DOWN_META = "file_down_meta";
+    public static final String ACTION_FILE_DOWN_DATA = "file_down_data";
+    public static final String ACTION_FILE_DOWN_FIN = "file_down_fin";
+    public static final String ACTION_FILE_DOWN_ACK = "file_down_ack"; // Client -> Server selective ACK / resend request
 
     // --- Status Values ---
     public static final String STATUS_SUCCESS = "success";
@@ -134,13 +210,112 @@ public final class Constants {
     public static final String CMD_RENAME_ROOM_DESC = "/renameroom <room_id> <new_room_name> - Rename an existing room";
     public static final String CMD_GET_ROOM_USERS = "/roomusers";
     public static final String CMD_GET_ROOM_USERS_DESC = "/roomusers <room_id> - Get the list of users in a room";
+    public static final String CMD_UPLOAD = "/upload";
+    public static final String CMD_UPLOAD_DESC = "/upload <room_id> <file_path> - Send a file to a room";
+    public static final String CMD_DOWNLOAD = "/download";
+    public static final String CMD_DOWNLOAD_DESC = "/download <room_id> <file_name> - Download a file shared in a room (resumes partial downloads)";
+    public static final String CMD_MORE = "/more";
+    public static final String CMD_MORE_DESC = "/more <room_id> - Show the next (older) page of the history opened with /messages";
+    public static final String CMD_SEARCH = "/search";
+    public static final String CMD_SEARCH_DESC = "/search <words> [room_id] - Search the messages seen on this device (newest first)";
+    public static final String CMD_RESUME = "/resume";
+    public static final String CMD_RESUME_DESC = "/resume - Resume the session cached by the last run (needs --session-cache)";
+    public static final String CMD_STATS = "/stats";
+    public static final String CMD_STATS_DESC = "/stats - Show connection statistics (congestion window, RTT, losses)";
+    public static final String CMD_SUBSCRIBE = "/subscribe";
+    public static final String CMD_SUBSCRIBE_DESC = "/subscribe <room_id> - Receive every message of a room as it arrives (default)";
+    public static final String CMD_MUTE = "/mute";
+    public static final String CMD_MUTE_DESC = "/mute <room_id> - Only show how many new messages a room has";
+    public static final String CMD_UNSUBSCRIBE = "/unsubscribe";
+    public static final String CMD_UNSUBSCRIBE_DESC = "/unsubscribe <room_id> - Stop receiving a room's messages; read them with /messages";
     public static final String TIME_OPTION_HOURS = "hours";
     public static final String TIME_OPTION_DAYS = "days";
     public static final String TIME_OPTION_WEEKS = "weeks";
     public static final String TIME_OPTION_ALL = "all";
 
+    // --- File Transfer ---
+    public static final int FILE_CHUNK_SIZE = 32 * 1024; // Same chunk size as the Flutter client and server
+    public static final int FILE_WINDOW_SIZE = 32; // Chunks in flight once the server accepts windowing
+    public static final long FILE_CHUNK_RETRY_MS = 500; // Resend an unacknowledged chunk after this long
+    public static final int FILE_MAX_CHUNK_RETRIES = 8;
+    public static final long FILE_TRANSFER_IDLE_TIMEOUT_MS = 30 * 1000; // Give up when the server stays silent this long
+    public static final long FILE_MAP_SEGMENT_SIZE = 64L * 1024 * 1024; // Files are mapped in segments of this size
+    public static final int FILE_STATE_FLUSH_INTERVAL_CHUNKS = 64; // Persist download progress every N chunks
+    public static final byte FILE_FRAME_MAGIC = (byte) 0xB1; // First byte of a binary chunk frame (never '{')
+    public static final String FILE_DOWNLOAD_DIR = "downloads";
+    public static final String FILE_PARTIAL_SUFFIX = ".part";
+    public static final String FILE_STATE_SUFFIX = ".state";
+    public static final int FILE_DOWNLOAD_STREAMS_DEFAULT = 4; // Ranges fetched concurrently, each on its own port
+    public static final int FILE_DOWNLOAD_STREAMS_MAX = 16;
+
+    // --- Command Line Options ---
+    public static final String OPT_BATCHED_ACKS = "--batched-acks";
+    public static final String OPT_SEND_RATE = "--send-rate="; // --send-rate=<bytes per second>, 0 disables pacing
+    public static final String OPT_DOWNLOAD_STREAMS = "--download-streams="; // --download-streams=<n>, 1 disables parallel downloads
+    public static final String OPT_FLOOD_SUMMARY = "--flood-summary"; // Summarise rooms that flood instead of printing every message
+    public static final String OPT_STARTUP_REPORT = "--startup-report"; // Print a per-phase breakdown of startup time
+    public static final String OPT_TRAINING_RUN = "--training-run"; // Start, load every command, exit (AppCDS archive dump)
+    public static final String OPT_SERVERS = "--servers="; // --servers=host[:port],host[:port],... replicas to choose from and fail over between
+    public static final String OPT_SESSION_CACHE = "--session-cache"; // Keep the session on disk and resume it on the next start
+    public static final String OPT_PIPELINE = "--pipeline"; // --pipeline[=park|spin] runs the receive path as threaded stages
+    public static final String OPT_CAPTURE = "--capture="; // --capture=<file> records all chat datagrams for ReplayDriver
+    public static final String OPT_HEARTBEAT = "--heartbeat="; // --heartbeat=<ms> keepalive interval when idle, 0 disables
+    public static final String OPT_RECEIVE_SHARDS = "--receive-shards="; // --receive-shards=<n> chat sockets, each with its own listener thread
+    public static final String OPT_RCVBUF = "--rcvbuf="; // --rcvbuf=<bytes> SO_RCVBUF asked for on every chat socket, 0 keeps the OS default
+
     // --- Other ---
     public static final long SESSION_CLEANUP_INTERVAL_MS = 5 * 60 * 1000; // 5 minutes
     public static final long SESSION_MAX_INACTIVE_INTERVAL_MS = 30 * 60 * 1000; // 30 minutes
     public static final long PENDING_MESSAGE_TIMEOUT_MS = 60 * 1000; // 1 minute timeout for pending confirmations/acks
+    public static final long ACK_BATCH_FLUSH_INTERVAL_MS = 200; // Max time a batched ACK waits for a CHARACTER_COUNT to ride on
+    public static final int ACK_BATCH_MAX_SIZE = 64; // Flush immediately once this many ACKs are pending
+    public static final long CLIENT_REQUEST_TIMEOUT_MS = 15 * 1000; // Max wait for the server ACK of a client request
+    public static final int CWND_INITIAL = 2; // Outstanding client handshakes allowed before any feedback
+    public static final int CWND_MIN = 1;
+    public static final int CWND_MAX = 64;
+    public static final long RTO_INITIAL_MS = 1000; // Retransmission timeout before the first RTT sample (RFC 6298)
+    public static final long RTO_MIN_MS = 200;
+    public static final long RTO_MAX_MS = CLIENT_REQUEST_TIMEOUT_MS;
+    public static final long OUTBOUND_DEFAULT_RATE_BYTES_PER_SEC = 2 * 1024 * 1024; // Token bucket refill rate for non-control packets
+    public static final int OUTBOUND_BURST_BYTES = 256 * 1024; // Token bucket depth
+    public static final int OUTBOUND_BATCH_SIZE = 32; // Max packets handed to the socket per sender wake-up
+    public static final int OUTBOUND_QUEUE_CAPACITY = 1024; // Per non-control priority class
+    public static final int OUTBOUND_CONTROL_QUEUE_CAPACITY = 4096; // Control legs dropped beyond this are recovered by the server's resend
+    public static final int OUTBOUND_BUFFER_POOL_SIZE = 32; // Encoded-packet buffers kept for reuse
+    public static final int PACKET_BUFFER_INITIAL_BYTES = 2048; // A new encode buffer; fits every control leg and most requests
+    public static final int PACKET_BUFFER_RETAINED_BYTES = 16 * 1024; // Buffers grown past this go to the GC instead of the pool
+    public static final int CONSOLE_FLOOD_THRESHOLD = 20; // Live messages per room and window before summarising
+    public static final long CONSOLE_FLOOD_WINDOW_MS = 2000;
+    public static final int HISTORY_PAGE_SIZE = 50; // Messages per get_messages page
+    public static final long REORDER_WINDOW_MS = 300; // How long an early push waits for the ones before it before a gap fill
+    public static final long GAP_FILL_TIMEOUT_MS = 3000; // After the gap fill, wait this long before reporting the messages missing
+    public static final int REORDER_BUFFER_MAX = 256; // Held pushes per room; beyond this the oldest gap is given up at once
+    public static final String APP_DATA_DIR = ".udpchat"; // Per-user data directory, in the home directory
+    public static final String SEARCH_INDEX_DIR = "search-index"; // Under APP_DATA_DIR; one <chat_id>.idx file per user
+    public static final int SEARCH_MAX_RESULTS = 20;
+    public static final long SEARCH_INDEX_SAVE_INTERVAL_MS = 30 * 1000; // Save a changed index at most this often
+    public static final String SESSION_CACHE_DIR = "session-cache";
+    public static final String SESSION_CACHE_SUFFIX = ".session"; // One sealed file per server host:port
+    public static final String SESSION_CACHE_KEY_FILE = "cache.key"; // Random AES key sealing the cache files
+    public static final long ENDPOINT_PROBE_INTERVAL_MS = 5 * 1000; // Probe every replica this often (only with several)
+    public static final int ENDPOINT_PROBE_HISTORY = 16; // Probes the loss rate is computed over
+    public static final int ENDPOINT_FAILOVER_SILENT_HANDSHAKES = 2; // Unanswered requests in a row before failing over
+    public static final long HEARTBEAT_DEFAULT_INTERVAL_MS = 15 * 1000; // Well below common NAT UDP binding timeouts (30 s and up)
+    public static final long HEARTBEAT_TIMEOUT_MS = 5 * 1000; // An unanswered heartbeat counts as lost after this
+    public static final int HEARTBEAT_WINDOW = 64; // Heartbeats the RTT/jitter histograms and loss rate cover (at most 64)
+    public static final int CAPTURE_BUFFER_BYTES = 256 * 1024; // Capture records are written to the file in chunks of this size
+    public static final long CAPTURE_FLUSH_INTERVAL_MS = 1000; // ... or at least this often
+    public static final int SESSION_RESUME_ATTEMPTS = 3; // Resume requests sent (one per RTO_INITIAL_MS) before falling back to /login
+
+    // --- Event Publisher ---
+    public static final int EVENT_BUFFER_MAX = 256; // Pushes waiting for subscriber demand; more are left for the server to resend
+    public static final long EVENT_ADMISSION_TIMEOUT_MS = 30 * 1000; // An admitted push whose handshake never finished stops holding a slot
+
+    // --- Receive Pipeline ---
+    public static final int PIPELINE_RING_SIZE = 1024; // Slots in each ring between receive stages
+    public static final int PIPELINE_SLOT_BYTES = 2048; // Initial datagram buffer per slot; grows for larger datagrams
+
+    // --- Receive Shards ---
+    public static final int RECEIVE_SHARDS_MAX = 16;
+    public static final int RECEIVE_SHARD_DEFAULT_RCVBUF = 4 * 1024 * 1024; // SO_RCVBUF per socket with several shards and no --rcvbuf
 }
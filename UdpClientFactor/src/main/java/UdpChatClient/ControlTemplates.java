@@ -0,0 +1,377 @@
+package UdpChatClient;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes the handshake's own packets (CHARACTER_COUNT, CONFIRM_COUNT and ACK) without Gson. Their
+ * fixed parts are serialized and ciphered once per shift; each packet copies those bytes into a pooled
+ * {@link PacketBuffer} and writes only the transaction id, status and counts, ciphered through
+ * {@link CaesarCipher#shiftTable}. The JSON is what {@link PacketEncoder} writes for the same message,
+ * escaping included; only the order of the letter frequencies may differ.
+ * <p>
+ * Each method returns null when the template cannot express the message (for example a transaction id
+ * that would need escaping); the caller then builds the JsonObject and sends it the usual way.
+ * One instance per thread (see {@link #get()}).
+ */
+public final class ControlTemplates {
+    private static final Logger log = LoggerFactory.getLogger(ControlTemplates.class);
+    private static final ThreadLocal<ControlTemplates> TEMPLATES = ThreadLocal.withInitial(ControlTemplates::new);
+    private static final Map<Integer, Fragments> FRAGMENTS = new ConcurrentHashMap<>(); // Shift -> ciphered fragments
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Fixed parts, in the member order of the objects built by JsonHelper.createRequest/createReply
+    private static final String ACK_HEAD = "{\"" + Constants.KEY_ACTION + "\":\"" + Constants.ACTION_ACK + "\",\"" + Constants.KEY_STATUS + "\":\"";
+    private static final String ACK_DATA = "\",\"" + Constants.KEY_DATA + "\":{\"transaction_id\":\"";
+    private static final String CONFIRM_HEAD = "{\"" + Constants.KEY_ACTION + "\":\"" + Constants.ACTION_CONFIRM_COUNT + "\",\""
+            + Constants.KEY_DATA + "\":{\"transaction_id\":\"";
+    private static final String CONFIRM_TRUE = "\",\"" + Constants.KEY_CONFIRM + "\":true}}";
+    private static final String CONFIRM_FALSE = "\",\"" + Constants.KEY_CONFIRM + "\":false}}";
+    private static final String COUNT_HEAD = "{\"" + Constants.KEY_ACTION + "\":\"" + Constants.ACTION_CHARACTER_COUNT + "\",\""
+            + Constants.KEY_DATA + "\":{\"transaction_id\":\"";
+    private static final String COUNT_FREQUENCIES = "\",\"" + Constants.KEY_LETTER_FREQUENCIES + "\":{";
+    private static final String CLOSE_STRING_TWO = "\"}}";
+    private static final String CLOSE_THREE = "}}}";
+
+    /** The fixed parts ciphered with one shift, plus that shift's lookup table. */
+    private static final class Fragments {
+        final byte[] table;
+        final byte[] ackHead;
+        final byte[] ackData;
+        final byte[] confirmHead;
+        final byte[] confirmTrue;
+        final byte[] confirmFalse;
+        final byte[] countHead;
+        final byte[] countFrequencies;
+        final byte[] closeStringTwo;
+        final byte[] closeThree;
+
+        Fragments(int shift) {
+            table = CaesarCipher.shiftTable(shift);
+            ackHead = cipher(ACK_HEAD);
+            ackData = cipher(ACK_DATA);
+            confirmHead = cipher(CONFIRM_HEAD);
+            confirmTrue = cipher(CONFIRM_TRUE);
+            confirmFalse = cipher(CONFIRM_FALSE);
+            countHead = cipher(COUNT_HEAD);
+            countFrequencies = cipher(COUNT_FREQUENCIES);
+            closeStringTwo = cipher(CLOSE_STRING_TWO);
+            closeThree = cipher(CLOSE_THREE);
+        }
+
+        private byte[] cipher(String plain) {
+            byte[] out = new byte[plain.length()];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = table[plain.charAt(i)];
+            }
+            return out;
+        }
+    }
+
+    private final int[] asciiCounts = new int[128];
+    // Non-ASCII characters, sorted, with their counts at the same index
+    private char[] otherChars = new char[16];
+    private int[] otherCounts = new int[16];
+    private int otherSize;
+
+    // The packet being written
+    private PacketBuffer buffer;
+    private byte[] table;
+    private int limit;
+    private boolean overflow;
+
+    private ControlTemplates() {}
+
+    public static ControlTemplates get() {
+        return TEMPLATES.get();
+    }
+
+    /**
+     * {@code {"action":"ack","status":…,"data":{"transaction_id":…}}}, as sent by {@code sendAck}
+     * without a message.
+     *
+     * @param keyHint As for {@link PacketEncoder#encode}; {@code aead} non-null seals the packet instead.
+     * @return The filled buffer, or null if the caller has to fall back to the generic encoder.
+     */
+    public PacketBuffer ack(String transactionId, String status, String keyString, int keyHint, AeadSession aead) {
+        if (!isPlain(transactionId) || !isPlain(status)) {
+            return null;
+        }
+        Fragments fragments = begin(keyString, keyHint, aead);
+        if (fragments == null) {
+            return null;
+        }
+        put(fragments.ackHead);
+        putPlain(status);
+        put(fragments.ackData);
+        putPlain(transactionId);
+        put(fragments.closeStringTwo);
+        return finish(Constants.ACTION_ACK, aead);
+    }
+
+    /**
+     * {@code {"action":"confirm_count","data":{"transaction_id":…,"confirm":…}}}.
+     *
+     * @return The filled buffer, or null if the caller has to fall back to the generic encoder.
+     */
+    public PacketBuffer confirmCount(String transactionId, boolean confirm, String keyString, int keyHint, AeadSession aead) {
+        if (!isPlain(transactionId)) {
+            return null;
+        }
+        Fragments fragments = begin(keyString, keyHint, aead);
+        if (fragments == null) {
+            return null;
+        }
+        put(fragments.confirmHead);
+        putPlain(transactionId);
+        put(confirm ? fragments.confirmTrue : fragments.confirmFalse);
+        return finish(Constants.ACTION_CONFIRM_COUNT, aead);
+    }
+
+    /**
+     * {@code {"action":"character_count","data":{"transaction_id":…,"letter_frequencies":{…}}}} for a
+     * push received as {@code receivedJson}. Counts the same characters as
+     * {@link CaesarCipher#countLetterFrequencies}, without boxing them.
+     *
+     * @return The filled buffer, or null if the caller has to fall back to the generic encoder.
+     */
+    public PacketBuffer characterCount(String transactionId, String receivedJson, String keyString, int keyHint, AeadSession aead) {
+        if (!isPlain(transactionId) || !count(receivedJson)) {
+            return null;
+        }
+        Fragments fragments = begin(keyString, keyHint, aead);
+        if (fragments == null) {
+            return null;
+        }
+        put(fragments.countHead);
+        putPlain(transactionId);
+        put(fragments.countFrequencies);
+        boolean first = true;
+        for (char c = 0; c < 128; c++) {
+            if (asciiCounts[c] > 0) {
+                putFrequency(c, asciiCounts[c], first);
+                first = false;
+            }
+        }
+        for (int i = 0; i < otherSize; i++) {
+            putFrequency(otherChars[i], otherCounts[i], first);
+            first = false;
+        }
+        put(fragments.closeThree);
+        return finish(Constants.ACTION_CHARACTER_COUNT, aead);
+    }
+
+    /**
+     * Tallies {@code text} into the count tables.
+     *
+     * @return false if it contains a surrogate, which the generic encoder replaces rather than escapes.
+     */
+    private boolean count(String text) {
+        Arrays.fill(asciiCounts, 0);
+        otherSize = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 128) {
+                asciiCounts[c]++;
+            } else if (Character.isSurrogate(c)) {
+                return false;
+            } else {
+                countOther(c);
+            }
+        }
+        return true;
+    }
+
+    private void countOther(char c) {
+        int index = Arrays.binarySearch(otherChars, 0, otherSize, c);
+        if (index >= 0) {
+            otherCounts[index]++;
+            return;
+        }
+        index = -index - 1;
+        if (otherSize == otherChars.length) {
+            otherChars = Arrays.copyOf(otherChars, otherSize * 2);
+            otherCounts = Arrays.copyOf(otherCounts, otherSize * 2);
+        }
+        System.arraycopy(otherChars, index, otherChars, index + 1, otherSize - index);
+        System.arraycopy(otherCounts, index, otherCounts, index + 1, otherSize - index);
+        otherChars[index] = c;
+        otherCounts[index] = 1;
+        otherSize++;
+    }
+
+    private Fragments begin(String keyString, int keyHint, AeadSession aead) {
+        if (keyString == null || keyString.isEmpty()) {
+            log.error("Attempted encryption with null or empty key.");
+            return null;
+        }
+        Fragments fragments = FRAGMENTS.computeIfAbsent(aead != null ? 0 : keyString.length(), Fragments::new);
+        buffer = PacketBuffer.acquire();
+        if (aead != null) {
+            buffer.length = Constants.AEAD_HEADER_SIZE;
+        } else if (keyHint >= 0) {
+            buffer.data[0] = Constants.ENVELOPE_MAGIC;
+            buffer.data[1] = (byte) keyHint;
+            buffer.length = Constants.ENVELOPE_HEADER_SIZE;
+        }
+        table = fragments.table;
+        limit = Constants.MAX_UDP_PACKET_SIZE - (aead != null ? AeadSession.overhead() - Constants.AEAD_HEADER_SIZE : 0);
+        overflow = false;
+        return fragments;
+    }
+
+    private PacketBuffer finish(String action, AeadSession aead) {
+        PacketBuffer done = buffer;
+        buffer = null;
+        if (overflow) {
+            done.release();
+            return null; // The generic encoder reports it
+        }
+        if (aead != null) {
+            done.ensureCapacity(done.length + AeadSession.overhead() - Constants.AEAD_HEADER_SIZE); // Room for the tag; within limit
+            try {
+                done.length = aead.seal(done.data, done.length - Constants.AEAD_HEADER_SIZE);
+            } catch (GeneralSecurityException e) {
+                done.release();
+                log.error("Error sealing packet: {}", e.getMessage(), e);
+                return null;
+            }
+        }
+        done.action = action;
+        return done;
+    }
+
+    private void put(byte[] ciphered) {
+        if (buffer.length + ciphered.length > limit) {
+            overflow = true;
+            return;
+        }
+        buffer.ensureCapacity(buffer.length + ciphered.length);
+        System.arraycopy(ciphered, 0, buffer.data, buffer.length, ciphered.length);
+        buffer.length += ciphered.length;
+    }
+
+    /** Writes a character as is, ciphered; the caller has checked that it needs no escaping. */
+    private void putChar(char c) {
+        if (buffer.length >= limit) {
+            overflow = true;
+            return;
+        }
+        buffer.ensureCapacity(buffer.length + 1);
+        buffer.data[buffer.length++] = table[c];
+    }
+
+    private void putPlain(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            putChar(value.charAt(i));
+        }
+    }
+
+    private void putFrequency(char c, int count, boolean first) {
+        if (!first) {
+            putChar(',');
+        }
+        putChar('"');
+        putKeyChar(c);
+        putChar('"');
+        putChar(':');
+        putPlain(Integer.toString(count));
+    }
+
+    /** One character of a JSON string, escaped the way Gson's default (HTML-safe) writer does. */
+    private void putKeyChar(char c) {
+        switch (c) {
+            case '"':
+            case '\\':
+                putChar('\\');
+                putChar(c);
+                return;
+            case '\t':
+                putChar('\\');
+                putChar('t');
+                return;
+            case '\b':
+                putChar('\\');
+                putChar('b');
+                return;
+            case '\n':
+                putChar('\\');
+                putChar('n');
+                return;
+            case '\r':
+                putChar('\\');
+                putChar('r');
+                return;
+            case '\f':
+                putChar('\\');
+                putChar('f');
+                return;
+            case '<':
+            case '>':
+            case '&':
+            case '=':
+            case '\'':
+            case '\u2028':
+            case '\u2029':
+                putUnicodeEscape(c);
+                return;
+            default:
+                break;
+        }
+        if (c < 0x20) {
+            putUnicodeEscape(c);
+        } else if (c < 128) {
+            putChar(c);
+        } else {
+            putUtf8(c); // The cipher leaves non-ASCII alone
+        }
+    }
+
+    private void putUnicodeEscape(char c) {
+        putChar('\\');
+        putChar('u');
+        putChar(HEX[(c >> 12) & 0xF]);
+        putChar(HEX[(c >> 8) & 0xF]);
+        putChar(HEX[(c >> 4) & 0xF]);
+        putChar(HEX[c & 0xF]);
+    }
+
+    private void putUtf8(char c) {
+        int bytes = c < 0x800 ? 2 : 3;
+        if (buffer.length + bytes > limit) {
+            overflow = true;
+            return;
+        }
+        buffer.ensureCapacity(buffer.length + bytes);
+        byte[] data = buffer.data;
+        int pos = buffer.length;
+        if (bytes == 2) {
+            data[pos++] = (byte) (0xC0 | (c >> 6));
+            data[pos++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            data[pos++] = (byte) (0xE0 | (c >> 12));
+            data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            data[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+        buffer.length = pos;
+    }
+
+    /** @return true if every character of {@code value} is written unescaped by Gson and is ASCII. */
+    private static boolean isPlain(String value) {
+        if (value == null) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c >= 128 || c == '"' || c == '\\' || c == '<' || c == '>' || c == '&' || c == '=' || c == '\'') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+package UdpChatClient;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * How each room's messages reach this user, set with /subscribe, /mute and /unsubscribe. Rooms not
+ * listed get {@link Mode#FULL}. With {@link Constants#CAP_DELIVERY_MODES} the server filters its
+ * pushes, so muted and unsubscribed rooms cost no handshake packets; without it the modes only
+ * decide what is printed.
+ * <p>
+ * The modes belong to one user and outlive a lost session: a later login or resume of the same user
+ * presents them again, and the server's answer (its effective modes) replaces them. Thread-safe.
+ */
+public class DeliveryModes {
+
+    public enum Mode {
+        FULL("full"), // Every message is pushed and printed
+        NOTIFY("notify"), // Only a count of new messages
+        NONE("none"); // Nothing; read the room with /messages
+
+        public final String wire;
+
+        Mode(String wire) {
+            this.wire = wire;
+        }
+
+        /** @return The mode, or null for a value this client does not know. */
+        public static Mode fromWire(String wire) {
+            for (Mode mode : values()) {
+                if (mode.wire.equals(wire)) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+    }
+
+    private String owner; // Chat id the modes belong to
+    private final Map<String, Mode> modes = new HashMap<>(); // Rooms not in FULL mode
+
+    public synchronized Mode get(String roomId) {
+        return modes.getOrDefault(roomId, Mode.FULL);
+    }
+
+    public synchronized void set(String roomId, Mode mode) {
+        if (mode == Mode.FULL) {
+            modes.remove(roomId);
+        } else {
+            modes.put(roomId, mode);
+        }
+    }
+
+    /** Called when a user logs in; another user's modes are dropped. */
+    public synchronized void setOwner(String chatId) {
+        if (owner != null && !owner.equals(chatId)) {
+            modes.clear();
+        }
+        owner = chatId;
+    }
+
+    /**
+     * @return The modes to present when {@code chatId} logs in or resumes, or null if there are none.
+     */
+    public synchronized JsonObject toJson(String chatId) {
+        if (modes.isEmpty() || !chatId.equals(owner)) {
+            return null;
+        }
+        JsonObject json = new JsonObject();
+        for (Map.Entry<String, Mode> entry : modes.entrySet()) {
+            json.addProperty(entry.getKey(), entry.getValue().wire);
+        }
+        return json;
+    }
+
+    /**
+     * Takes the modes the server reported after a login or resume as the effective ones.
+     */
+    public synchronized void reconcile(JsonObject serverModes) {
+        modes.clear();
+        for (Map.Entry<String, JsonElement> entry : serverModes.entrySet()) {
+            Mode mode = Mode.fromWire(entry.getValue().getAsString());
+            if (mode != null && mode != Mode.FULL) {
+                modes.put(entry.getKey(), mode);
+            }
+        }
+    }
+}
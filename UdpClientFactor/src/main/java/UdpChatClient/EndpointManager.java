@@ -0,0 +1,196 @@
+package UdpChatClient;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Chooses among the server replicas given with {@link Constants#OPT_SERVERS}. Every replica is
+ * probed with a small {@code ping} every {@link Constants#ENDPOINT_PROBE_INTERVAL_MS}; any reply
+ * (a {@code pong}, or the error a server without the action sends) measures RTT, a missing one
+ * counts as loss. Logins go to the best-scoring replica. When the current one lets client
+ * requests go unanswered while others still answer probes, the client moves over and
+ * re-establishes its session there (see {@link SessionResumer#resumeOnCurrentEndpoint}).
+ * <p>
+ * With a single server nothing is probed and nothing changes.
+ */
+public class EndpointManager {
+    private static final Logger log = LoggerFactory.getLogger(EndpointManager.class);
+
+    private final ClientState clientState;
+    private final OutboundScheduler outbound;
+    private final SessionResumer sessionResumer;
+    private final List<ServerEndpoint> endpoints;
+    private ScheduledExecutorService prober;
+
+    public EndpointManager(ClientState clientState, OutboundScheduler outbound, SessionResumer sessionResumer) {
+        this.clientState = clientState;
+        this.outbound = outbound;
+        this.sessionResumer = sessionResumer;
+        this.endpoints = clientState.getEndpoints();
+    }
+
+    public boolean isMultiEndpoint() {
+        return endpoints.size() > 1;
+    }
+
+    /**
+     * Probes every replica once, waits up to one initial RTO for the answers, moves to the best one
+     * and keeps probing in the background. Does nothing with a single server.
+     */
+    public void start() {
+        if (!isMultiEndpoint()) {
+            return;
+        }
+        probeAll();
+        try {
+            Thread.sleep(Math.min(Constants.RTO_INITIAL_MS, Constants.ENDPOINT_PROBE_INTERVAL_MS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        routeNewSession();
+        prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "EndpointProber");
+            t.setDaemon(true);
+            return t;
+        });
+        prober.scheduleWithFixedDelay(this::probeAll, Constants.ENDPOINT_PROBE_INTERVAL_MS, Constants.ENDPOINT_PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void probeAll() {
+        for (ServerEndpoint endpoint : endpoints) {
+            endpoint.expireProbe(Constants.ENDPOINT_PROBE_INTERVAL_MS);
+            if (!endpoint.isResolved()) {
+                continue;
+            }
+            long nonce = endpoint.startProbe(ThreadLocalRandom.current().nextLong());
+            JsonObject data = new JsonObject();
+            data.addProperty(Constants.KEY_NONCE, Long.toString(nonce));
+            outbound.send(endpoint.getAddress(), endpoint.getPort(), JsonHelper.createRequest(Constants.ACTION_PING, data), Constants.FIXED_LOGIN_KEY_STRING);
+        }
+    }
+
+    /**
+     * Takes a reply to a probe: a {@code pong} echoing the nonce, or an error for the ping.
+     *
+     * @return false if the packet is not from a configured replica.
+     */
+    public boolean onProbeReply(InetAddress from, int fromPort, JsonObject reply) {
+        ServerEndpoint endpoint = find(from, fromPort);
+        if (endpoint == null) {
+            return false;
+        }
+        JsonObject data = reply.has(Constants.KEY_DATA) && reply.get(Constants.KEY_DATA).isJsonObject() ? reply.getAsJsonObject(Constants.KEY_DATA) : null;
+        double rttMs = -1;
+        if (data != null && data.has(Constants.KEY_NONCE)) {
+            try {
+                rttMs = endpoint.completeProbe(Long.parseLong(data.get(Constants.KEY_NONCE).getAsString()));
+            } catch (NumberFormatException e) {
+                log.debug("Malformed probe nonce from {}", endpoint);
+            }
+        } else {
+            // Legacy error reply without the nonce: it can only answer the outstanding probe
+            rttMs = endpoint.completeOutstandingProbe();
+        }
+        if (rttMs >= 0 && log.isDebugEnabled()) {
+            log.debug("Probe {}: rtt {} ms, srtt {} ms, loss {}", endpoint, String.format("%.1f", rttMs),
+                    String.format("%.1f", endpoint.getSrttMs()), endpoint.getLossRate());
+        }
+        return true;
+    }
+
+    /** Any packet from a replica shows it is alive. */
+    public void onHeard(InetAddress from, int fromPort) {
+        ServerEndpoint endpoint = find(from, fromPort);
+        if (endpoint != null) {
+            endpoint.onHeard();
+        }
+    }
+
+    private ServerEndpoint find(InetAddress from, int fromPort) {
+        for (ServerEndpoint endpoint : endpoints) {
+            if (endpoint.matches(from, fromPort)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    /** Sends a session that is about to be created (a login) to the best replica. */
+    public void routeNewSession() {
+        if (!isMultiEndpoint() || clientState.getSessionKey() != null) {
+            return;
+        }
+        ServerEndpoint best = best(null);
+        if (best != null && best != clientState.getEndpoint()) {
+            log.info("Routing new session to {} (score {} vs {} for {})", best, best.score(), clientState.getEndpoint().score(), clientState.getEndpoint());
+            clientState.setEndpoint(best);
+        }
+    }
+
+    /**
+     * A client request to {@code endpoint} got no CHARACTER_COUNT within the RTO. Fails over when
+     * this keeps happening, or the replica also stopped answering probes, and another replica is healthier.
+     *
+     * @return true if the client moved to another replica (the caller should resend there).
+     */
+    public boolean onHandshakeSilent(ServerEndpoint endpoint) {
+        if (!isMultiEndpoint() || endpoint != clientState.getEndpoint()) {
+            return false;
+        }
+        int silent = endpoint.onHandshakeSilent();
+        boolean degraded = silent >= Constants.ENDPOINT_FAILOVER_SILENT_HANDSHAKES || endpoint.lastProbeLost();
+        if (!degraded) {
+            return false;
+        }
+        ServerEndpoint next = best(endpoint);
+        if (next == null || next.score() >= endpoint.score()) {
+            return false; // Nowhere better to go
+        }
+        failOver(endpoint, next);
+        return true;
+    }
+
+    private synchronized void failOver(ServerEndpoint from, ServerEndpoint to) {
+        if (clientState.getEndpoint() != from) {
+            return; // Another thread already moved
+        }
+        log.warn("Server {} stopped answering (loss {}), failing over to {}", from, from.getLossRate(), to);
+        clientState.setEndpoint(to);
+        StringBuilder out = new StringBuilder("\nServer ").append(from).append(" is not answering, switched to ").append(to).append('.');
+        if (clientState.getSessionKey() != null) {
+            if (sessionResumer.resumeOnCurrentEndpoint()) {
+                out.append(" Session restored.");
+            } else {
+                clientState.clearSession();
+                out.append(" Your session could not be moved; please ").append(Constants.CMD_LOGIN).append(" again.");
+            }
+        }
+        System.out.println(out);
+    }
+
+    /** Best-scoring replica other than {@code exclude}, or null. */
+    private ServerEndpoint best(ServerEndpoint exclude) {
+        ServerEndpoint best = null;
+        for (ServerEndpoint endpoint : endpoints) {
+            if (endpoint != exclude && endpoint.isResolved() && (best == null || endpoint.score() < best.score())) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    public void shutdown() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+}
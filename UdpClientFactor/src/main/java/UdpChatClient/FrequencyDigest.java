@@ -0,0 +1,62 @@
+package UdpChatClient;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Character frequencies of a sent request, as {@link CaesarCipher#countLetterFrequencies} would count
+ * them, filled in by {@link PacketEncoder} while the JSON is written. Keeping this instead of the
+ * request text lets the CHARACTER_COUNT check run without re-serializing or re-scanning the request.
+ */
+public class FrequencyDigest {
+    private final int[] ascii = new int[128];
+    private Map<Character, Integer> other; // Non-ASCII characters, rare in practice
+
+    void add(char c) {
+        if (c < 128) {
+            ascii[c]++;
+        } else {
+            if (other == null) {
+                other = new HashMap<>();
+            }
+            other.merge(c, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @return true if {@code frequencies} holds exactly the same characters with the same counts.
+     */
+    public boolean matches(Map<Character, Integer> frequencies) {
+        if (frequencies == null) {
+            return false;
+        }
+        int distinct = other != null ? other.size() : 0;
+        for (int count : ascii) {
+            if (count > 0) {
+                distinct++;
+            }
+        }
+        if (frequencies.size() != distinct) {
+            return false;
+        }
+        for (Map.Entry<Character, Integer> entry : frequencies.entrySet()) {
+            char c = entry.getKey();
+            int expected = c < 128 ? ascii[c] : (other != null ? other.getOrDefault(c, 0) : 0);
+            if (entry.getValue() == null || entry.getValue() != expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Builds the equivalent map; only used for logging mismatches. */
+    public Map<Character, Integer> toMap() {
+        Map<Character, Integer> map = other != null ? new HashMap<>(other) : new HashMap<>();
+        for (char c = 0; c < 128; c++) {
+            if (ascii[c] > 0) {
+                map.put(c, ascii[c]);
+            }
+        }
+        return map;
+    }
+}
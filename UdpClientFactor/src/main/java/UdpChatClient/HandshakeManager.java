@@ -1,52 +1,79 @@
 package UdpChatClient;
 
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 public class HandshakeManager {
     private static final Logger log = LoggerFactory.getLogger(HandshakeManager.class);
-    private static final Gson gson = new Gson(); // For converting frequency map
 
     private final ClientState clientState;
-    private final MessageProcessor messageProcessor; // To process confirmed server actions
+    // Processes confirmed server actions: the MessageProcessor, or the application stage of a ReceivePipeline
+    private volatile Consumer<String> actionSink;
+    private final OutboundScheduler outbound; // All handshake legs and requests go through the scheduler
+    private final EndpointManager endpointManager; // Picks the replica requests go to
 
     // --- State Management for Handshake ---
-    // Key: Client-generated temporary UUID for C->S flow
-    private final ConcurrentHashMap<String, ClientPendingRequest> pendingClientRequestsByTempId = new ConcurrentHashMap<>();
+    // Key: Client-generated temporary id for C->S flow
+    private final TransactionTable<ClientPendingRequest> pendingClientRequestsByTempId = new TransactionTable<>();
     // Key: Server-generated transactionId for C->S flow (used after CHARACTER_COUNT is received)
-    private final ConcurrentHashMap<String, ClientPendingRequest> pendingClientRequestsByServerId = new ConcurrentHashMap<>();
-    // Key: Server-generated transactionId for S->C flow
-    private final ConcurrentHashMap<String, String> pendingServerActionsJson = new ConcurrentHashMap<>();
+    private final TransactionTable<ClientPendingRequest> pendingClientRequestsByServerId = new TransactionTable<>();
+    // Key: Server-generated transactionId for S->C flow; value: the action's JSON as UTF-8
+    private final TransactionTable<byte[]> pendingServerActionsJson = new TransactionTable<>();
+    // Temp ids start at a random point so a server never sees the same request id from two runs
+    private final AtomicLong nextTempId = new AtomicLong(ThreadLocalRandom.current().nextLong(1L << 48));
+    private final AckBatcher ackBatcher;
+    private final CongestionController congestionController = new CongestionController();
+    // Pushes for an embedding program; while it subscribes, ACKs wait for its demand
+    private final ChatEventPublisher eventPublisher = new ChatEventPublisher();
 
     // Inner class to hold pending request state
     private static class ClientPendingRequest {
+        final long tempId;
         final String originalAction;
-        final String originalSentJson;
+        final FrequencyDigest sentDigest; // Frequencies of the request as sent, filled in while encoding
         final CountDownLatch latch;
         JsonObject ackData; // Stores the final ACK or ERROR response
-        String serverTransactionId; // Set when CHARACTER_COUNT is received
+        volatile String serverTransactionId; // Set when CHARACTER_COUNT is received
+        CongestionController.Permit permit; // Window slot held while the handshake is outstanding
+        boolean failedOver; // The endpoint went silent and the client moved to another one
 
-        ClientPendingRequest(String action, String sentJson) {
+        ClientPendingRequest(long tempId, String action, FrequencyDigest sentDigest) {
+            this.tempId = tempId;
             this.originalAction = action;
-            this.originalSentJson = sentJson;
+            this.sentDigest = sentDigest;
             this.latch = new CountDownLatch(1);
         }
     }
 
-    public HandshakeManager(ClientState clientState, MessageProcessor messageProcessor) {
+    public HandshakeManager(ClientState clientState, MessageProcessor messageProcessor, OutboundScheduler outbound,
+                            EndpointManager endpointManager) {
         this.clientState = clientState;
-        this.messageProcessor = messageProcessor;
+        this.actionSink = messageProcessor::processServerAction;
+        this.outbound = outbound;
+        this.endpointManager = endpointManager;
+        this.ackBatcher = new AckBatcher(clientState, outbound);
+    }
+
+    /**
+     * Routes confirmed server actions to {@code sink} instead of processing them on the calling thread.
+     */
+    public void setActionSink(Consumer<String> sink) {
+        this.actionSink = sink;
     }
 
     // --- Handling Incoming Handshake Messages ---
@@ -66,50 +93,48 @@ public class HandshakeManager {
         String originalAction = data.get(Constants.KEY_ORIGINAL_ACTION).getAsString();
         JsonObject serverFrequenciesJson = data.getAsJsonObject(Constants.KEY_LETTER_FREQUENCIES);
         log.info("Received CHARACTER_COUNT for original action '{}', server tx ID: {}", originalAction, transactionId);
+        ClientEvents.handshakeLeg(Constants.ACTION_CHARACTER_COUNT, false, transactionId, originalAction);
 
-        ClientPendingRequest pendingReq = null;
-        String tempIdToRemove = null;
-        for (Map.Entry<String, ClientPendingRequest> entry : pendingClientRequestsByTempId.entrySet()) {
-            if (entry.getValue().originalAction.equals(originalAction) && entry.getValue().serverTransactionId == null) {
-                pendingReq = entry.getValue();
-                tempIdToRemove = entry.getKey();
-                log.info("Found matching pending request (TempID: {}) for original action {}", tempIdToRemove, originalAction);
-                break;
-            }
-        }
+        ClientPendingRequest pendingReq = pendingClientRequestsByTempId.removeFirst(
+                req -> req.originalAction.equals(originalAction) && req.serverTransactionId == null);
 
         if (pendingReq == null) {
             log.warn("Received CHARACTER_COUNT for original action '{}', but no matching pending request found or it was already processed (Server TxID: {}).", originalAction, transactionId);
             return;
         }
+        log.info("Found matching pending request (TempID: {}) for original action {}", pendingReq.tempId, originalAction);
 
         pendingReq.serverTransactionId = transactionId;
-        if (tempIdToRemove != null) {
-            pendingClientRequestsByTempId.remove(tempIdToRemove);
-        } else {
-             log.warn("Could not find tempIdToRemove while processing CHARACTER_COUNT for tx {}", transactionId);
-        }
         pendingClientRequestsByServerId.put(transactionId, pendingReq);
-        log.info("Associated server tx ID {} with pending action {} (TempID: {})", transactionId, originalAction, tempIdToRemove);
+        log.info("Associated server tx ID {} with pending action {} (TempID: {})", transactionId, originalAction, pendingReq.tempId);
+        if (pendingReq.permit != null) {
+            congestionController.onFirstResponse(pendingReq.permit);
+        }
 
-        Map<Character, Integer> clientCalculatedFrequencies = CaesarCipher.countLetterFrequencies(pendingReq.originalSentJson);
         Map<Character, Integer> serverFrequencies = parseFrequencyJson(serverFrequenciesJson);
-        boolean isValid = areFrequenciesEqual(clientCalculatedFrequencies, serverFrequencies);
+        boolean isValid = pendingReq.sentDigest.matches(serverFrequencies);
 
         if (!isValid) {
             log.warn("Frequency check failed for transaction: {}. Client: {}, Server: {}",
-                     transactionId, clientCalculatedFrequencies, serverFrequencies);
+                     transactionId, pendingReq.sentDigest.toMap(), serverFrequencies);
+            congestionController.onConfirmFailure();
         } else {
              log.info("Frequency check successful for transaction: {}", transactionId);
         }
 
-        JsonObject confirmData = new JsonObject();
-        confirmData.addProperty("transaction_id", transactionId);
-        confirmData.addProperty(Constants.KEY_CONFIRM, isValid);
-
-        JsonObject confirmRequest = JsonHelper.createRequest(Constants.ACTION_CONFIRM_COUNT, confirmData);
         String key = clientState.getSessionKey() != null ? clientState.getSessionKey() : Constants.FIXED_LOGIN_KEY_STRING;
-        JsonHelper.sendPacket(clientState.getSocket(), serverAddress, serverPort, confirmRequest, key, log);
+        PacketBuffer templated = ControlTemplates.get().confirmCount(transactionId, isValid, key, clientState.keyHintFor(key), clientState.aeadFor(key));
+        if (templated != null) {
+            outbound.send(serverAddress, serverPort, templated);
+        } else {
+            JsonObject confirmData = new JsonObject();
+            confirmData.addProperty("transaction_id", transactionId);
+            confirmData.addProperty(Constants.KEY_CONFIRM, isValid);
+
+            JsonObject confirmRequest = JsonHelper.createRequest(Constants.ACTION_CONFIRM_COUNT, confirmData);
+            outbound.send(serverAddress, serverPort, confirmRequest, key);
+        }
+        ClientEvents.handshakeLeg(Constants.ACTION_CONFIRM_COUNT, true, transactionId, originalAction);
         log.info("Sent CONFIRM_COUNT (confirmed: {}) for transaction: {}", isValid, transactionId);
     }
 
@@ -127,8 +152,19 @@ public class HandshakeManager {
         String transactionId = data.get("transaction_id").getAsString();
         boolean confirmed = data.get(Constants.KEY_CONFIRM).getAsBoolean();
         log.info("Received CONFIRM_COUNT for transaction: {} (confirmed: {})", transactionId, confirmed);
+        ClientEvents.handshakeLeg(Constants.ACTION_CONFIRM_COUNT, false, transactionId, null);
+        int shard = MessageListener.currentShard(); // The ACK may be sent later, from another thread
+        if (!confirmed) {
+            congestionController.onConfirmFailure();
+        }
 
-        String pendingJson = pendingServerActionsJson.remove(transactionId);
+        byte[] pendingBytes = pendingServerActionsJson.remove(transactionId);
+        String pendingJson = pendingBytes != null ? new String(pendingBytes, StandardCharsets.UTF_8) : null;
+        if (pendingJson == null && eventPublisher.isHeld(transactionId)) {
+            // A resent CONFIRM_COUNT for a push the subscriber has not taken yet; its ACK follows then
+            log.debug("Ignoring repeated CONFIRM_COUNT for transaction {} waiting for subscriber demand", transactionId);
+            return;
+        }
         if (pendingJson == null) {
             log.warn("No pending server action found for transaction: {}", transactionId);
         }
@@ -139,8 +175,9 @@ public class HandshakeManager {
         if (confirmed) {
             if (pendingJson != null) {
                 // Delegate processing to MessageProcessor
-                messageProcessor.processServerAction(pendingJson);
-                ackStatus = Constants.STATUS_SUCCESS;
+                actionSink.accept(pendingJson);
+                eventPublisher.publish(transactionId, pendingJson, () -> ackDelivered(transactionId, serverAddress, serverPort, shard));
+                return;
             } else {
                 ackMessage = "Client lost original action state.";
                 log.warn("Cannot process action for transaction {} because pending JSON was lost.", transactionId);
@@ -150,7 +187,8 @@ public class HandshakeManager {
             ackMessage = "Frequency mismatch detected by server.";
             log.warn("Server indicated frequency mismatch for transaction: {}, not processing", transactionId);
         }
-        sendAck(transactionId, ackStatus, ackMessage, serverAddress, serverPort);
+        eventPublisher.abandon(transactionId);
+        sendAck(transactionId, ackStatus, ackMessage, serverAddress, serverPort, shard);
     }
 
     public void handleServerAck(JsonObject responseJson) {
@@ -166,15 +204,24 @@ public class HandshakeManager {
         }
         JsonObject data = responseJson.getAsJsonObject(Constants.KEY_DATA);
 
-        if (!data.has("transaction_id")) {
+        String requestId = data.has(Constants.KEY_REQUEST_ID) ? data.get(Constants.KEY_REQUEST_ID).getAsString() : null;
+        if (!data.has("transaction_id") && requestId == null) {
             log.error("Received ACK missing 'transaction_id' field within 'data'.");
             return;
         }
-        String transactionId = data.get("transaction_id").getAsString();
+        String transactionId = data.has("transaction_id") ? data.get("transaction_id").getAsString() : requestId;
         String originalAction = data.has(Constants.KEY_ORIGINAL_ACTION) ? data.get(Constants.KEY_ORIGINAL_ACTION).getAsString() : "unknown";
         log.info("Received Server ACK for transaction: {} (Original Action: {}) with status: {}", transactionId, originalAction, status);
+        ClientEvents.handshakeLeg(Constants.ACTION_ACK, false, transactionId, originalAction);
 
         ClientPendingRequest pendingReq = pendingClientRequestsByServerId.remove(transactionId);
+        if (pendingReq == null && requestId != null) {
+            // AEAD mode: the response answers the request directly, with no CHARACTER_COUNT before it
+            pendingReq = pendingClientRequestsByTempId.remove(requestId);
+            if (pendingReq != null && pendingReq.permit != null) {
+                congestionController.onFirstResponse(pendingReq.permit);
+            }
+        }
 
         if (pendingReq != null) {
             pendingReq.ackData = responseJson; // Store the full ACK response
@@ -182,8 +229,12 @@ public class HandshakeManager {
             if (Constants.ACTION_LOGIN.equals(originalAction)) {
                 if (Constants.STATUS_SUCCESS.equals(status)) {
                     if (data.has(Constants.KEY_SESSION_KEY) && data.has(Constants.KEY_CHAT_ID)) {
-                        clientState.setSessionKey(data.get(Constants.KEY_SESSION_KEY).getAsString());
-                        clientState.setCurrentChatId(data.get(Constants.KEY_CHAT_ID).getAsString());
+                        int keyId = data.has(Constants.KEY_KEY_ID) ? data.get(Constants.KEY_KEY_ID).getAsInt() : 1;
+                        clientState.startSession(data.get(Constants.KEY_SESSION_KEY).getAsString(), keyId,
+                                data.get(Constants.KEY_CHAT_ID).getAsString(), parseCapabilities(data));
+                        if (data.has(Constants.KEY_DELIVERY_MODES) && data.get(Constants.KEY_DELIVERY_MODES).isJsonObject()) {
+                            clientState.getDeliveryModes().reconcile(data.getAsJsonObject(Constants.KEY_DELIVERY_MODES));
+                        }
                         log.info("Login successful via ACK! Updated sessionKey for user '{}'. Session: {}", clientState.getCurrentChatId(), clientState.getSessionKey());
                         System.out.println("\nLogin successful! Welcome " + clientState.getCurrentChatId() + ".");
                         System.out.println("Type /help");
@@ -230,7 +281,6 @@ public class HandshakeManager {
         System.out.println("\nServer Error (" + originalAction + "): " + errorMessage);
 
         ClientPendingRequest pendingReqToFail = null;
-        String tempIdToFail = null;
         String serverIdToFail = null;
 
         if (responseJson.has(Constants.KEY_DATA)) {
@@ -239,16 +289,15 @@ public class HandshakeManager {
                 serverIdToFail = data.get("transaction_id").getAsString();
                 pendingReqToFail = pendingClientRequestsByServerId.get(serverIdToFail);
             }
+            if (pendingReqToFail == null && data.has(Constants.KEY_REQUEST_ID)) {
+                pendingReqToFail = pendingClientRequestsByTempId.get(data.get(Constants.KEY_REQUEST_ID).getAsString());
+            }
         }
 
         if (pendingReqToFail == null) {
-            for (Map.Entry<String, ClientPendingRequest> entry : pendingClientRequestsByTempId.entrySet()) {
-                 if (entry.getValue().originalAction.equals(originalAction)) {
-                     pendingReqToFail = entry.getValue();
-                     tempIdToFail = entry.getKey();
-                     serverIdToFail = pendingReqToFail.serverTransactionId;
-                     break;
-                 }
+            pendingReqToFail = pendingClientRequestsByTempId.find(req -> req.originalAction.equals(originalAction));
+            if (pendingReqToFail != null) {
+                serverIdToFail = pendingReqToFail.serverTransactionId;
             }
         }
 
@@ -256,7 +305,7 @@ public class HandshakeManager {
              log.warn("Signaling failure for pending action {} due to server error.", originalAction);
              pendingReqToFail.ackData = responseJson; // Store error info
              pendingReqToFail.latch.countDown(); // Signal completion (as failure)
-             if (tempIdToFail != null) pendingClientRequestsByTempId.remove(tempIdToFail);
+             pendingClientRequestsByTempId.remove(pendingReqToFail.tempId);
              if (serverIdToFail != null) pendingClientRequestsByServerId.remove(serverIdToFail);
         } else {
              log.warn("Could not find pending request for action '{}' to signal server error.", originalAction);
@@ -266,7 +315,12 @@ public class HandshakeManager {
 
     // --- Handling Server-Initiated Actions (S->C Flow) ---
 
-    public void handleInitialServerAction(String decryptedJsonString, JsonObject responseJson, InetAddress serverAddress, int serverPort) {
+    /**
+     * @param authenticated The packet was sealed with AES-GCM ({@link Constants#CAP_AEAD}): its integrity
+     *                      is already verified, so it is processed at once and ACKed without the frequency legs.
+     */
+    public void handleInitialServerAction(String decryptedJsonString, JsonObject responseJson, InetAddress serverAddress, int serverPort,
+                                          boolean authenticated) {
         log.info("Received initial action '{}' from server, starting S->C flow", responseJson.get(Constants.KEY_ACTION).getAsString());
         String transactionId = null;
         if (responseJson.has(Constants.KEY_DATA)) {
@@ -281,7 +335,23 @@ public class HandshakeManager {
             return;
         }
 
-        pendingServerActionsJson.put(transactionId, decryptedJsonString);
+        ClientEvents.handshakeLeg(responseJson.get(Constants.KEY_ACTION).getAsString(), false, transactionId, null);
+
+        if (!eventPublisher.admit(transactionId)) {
+            log.debug("Event subscriber is behind; leaving push {} for the server to resend", transactionId);
+            return;
+        }
+
+        if (authenticated) {
+            actionSink.accept(decryptedJsonString);
+            String id = transactionId;
+            int shard = MessageListener.currentShard();
+            eventPublisher.publish(id, decryptedJsonString, () -> ackDelivered(id, serverAddress, serverPort, shard));
+            return;
+        }
+
+        // Only processed once CONFIRM_COUNT says the digest matched; with batched ACKs just the final ACK is deferred
+        pendingServerActionsJson.put(transactionId, decryptedJsonString.getBytes(StandardCharsets.UTF_8));
         sendCharacterCount(decryptedJsonString, transactionId, serverAddress, serverPort);
     }
 
@@ -289,6 +359,17 @@ public class HandshakeManager {
 
     private void sendCharacterCount(String receivedJsonString, String transactionId, InetAddress serverAddress, int serverPort) {
         try {
+            // Use sessionKey if available, otherwise fixed key (should only be null for S->C before login)
+            String key = clientState.getSessionKey() != null ? clientState.getSessionKey() : Constants.FIXED_LOGIN_KEY_STRING;
+            // Nothing to piggyback: the common case, encoded from the template
+            PacketBuffer templated = ackBatcher.isEmpty() ? ControlTemplates.get().characterCount(transactionId, receivedJsonString, key,
+                    clientState.keyHintFor(key), clientState.aeadFor(key)) : null;
+            if (templated != null) {
+                outbound.send(serverAddress, serverPort, templated);
+                ClientEvents.handshakeLeg(Constants.ACTION_CHARACTER_COUNT, true, transactionId, null);
+                log.info("Sent CHARACTER_COUNT for server-initiated transaction: {}", transactionId);
+                return;
+            }
             Map<Character, Integer> freqMap = CaesarCipher.countLetterFrequencies(receivedJsonString);
             JsonObject frequenciesJson = new JsonObject();
             for (Map.Entry<Character, Integer> entry : freqMap.entrySet()) {
@@ -297,24 +378,48 @@ public class HandshakeManager {
             JsonObject data = new JsonObject();
             data.addProperty("transaction_id", transactionId);
             data.add(Constants.KEY_LETTER_FREQUENCIES, frequenciesJson);
+            int piggybacked = ackBatcher.attachTo(data, serverAddress, serverPort, MessageListener.currentShard());
+            if (piggybacked > 0) {
+                log.debug("Piggybacked {} pending ACK(s) on CHARACTER_COUNT for transaction: {}", piggybacked, transactionId);
+            }
             JsonObject request = JsonHelper.createRequest(Constants.ACTION_CHARACTER_COUNT, data);
-            // Use sessionKey if available, otherwise fixed key (should only be null for S->C before login)
-            String key = clientState.getSessionKey() != null ? clientState.getSessionKey() : Constants.FIXED_LOGIN_KEY_STRING;
-            JsonHelper.sendPacket(clientState.getSocket(), serverAddress, serverPort, request, key, log);
+            outbound.send(serverAddress, serverPort, request, key);
+            ClientEvents.handshakeLeg(Constants.ACTION_CHARACTER_COUNT, true, transactionId, null);
             log.info("Sent CHARACTER_COUNT for server-initiated transaction: {}", transactionId);
         } catch (Exception e) {
             log.error("Error sending CHARACTER_COUNT for transaction {}: {}", transactionId, e.getMessage(), e);
         }
     }
 
-    private void sendAck(String transactionId, String status, String message, InetAddress serverAddress, int serverPort) {
+    /**
+     * Final ACK of a processed S->C push: batched if the server accepted that, else sent at once.
+     *
+     * @param shard The receive shard the push came in on; runs on the delivery thread, which has none.
+     */
+    private void ackDelivered(String transactionId, InetAddress serverAddress, int serverPort, int shard) {
+        if (clientState.hasCapability(Constants.CAP_BATCHED_ACK)) {
+            ackBatcher.enqueue(transactionId, Constants.STATUS_SUCCESS, null, serverAddress, serverPort, shard);
+        } else {
+            sendAck(transactionId, Constants.STATUS_SUCCESS, null, serverAddress, serverPort, shard);
+        }
+    }
+
+    private void sendAck(String transactionId, String status, String message, InetAddress serverAddress, int serverPort, int shard) {
         try {
-            JsonObject data = new JsonObject();
-            data.addProperty("transaction_id", transactionId);
-            JsonObject request = JsonHelper.createReply(Constants.ACTION_ACK, status, message, data);
             // Use sessionKey if available
             String key = clientState.getSessionKey() != null ? clientState.getSessionKey() : Constants.FIXED_LOGIN_KEY_STRING;
-            JsonHelper.sendPacket(clientState.getSocket(), serverAddress, serverPort, request, key, log);
+            PacketBuffer templated = message == null
+                    ? ControlTemplates.get().ack(transactionId, status, key, clientState.keyHintFor(key), clientState.aeadFor(key)) : null;
+            if (templated != null) {
+                templated.shard = shard;
+                outbound.send(serverAddress, serverPort, templated);
+            } else {
+                JsonObject data = new JsonObject();
+                data.addProperty("transaction_id", transactionId);
+                JsonObject request = JsonHelper.createReply(Constants.ACTION_ACK, status, message, data);
+                outbound.send(serverAddress, serverPort, request, key, shard);
+            }
+            ClientEvents.handshakeLeg(Constants.ACTION_ACK, true, transactionId, null);
             log.info("Sent ACK for transaction: {} with status: {}", transactionId, status);
         } catch (Exception e) {
              log.error("Error sending ACK for transaction {}: {}", transactionId, e.getMessage(), e);
@@ -324,18 +429,92 @@ public class HandshakeManager {
     // --- Sending Client-Initiated Requests with Handshake ---
 
     public void sendClientRequestWithAck(JsonObject request, String action, String encryptionKey) {
-        String tempId = UUID.randomUUID().toString();
-        System.out.println("\nSending action: " + action + " (TempID: " + tempId + ")");
-        String jsonToSend = gson.toJson(request);
-        System.out.println("---------------------"+jsonToSend);
-        ClientPendingRequest pendingReq = new ClientPendingRequest(action, jsonToSend);
-        pendingClientRequestsByTempId.put(tempId, pendingReq);
+        sendRequest(request, action, encryptionKey, false);
+    }
 
-        try {
-            JsonHelper.sendPacket(clientState.getSocket(), clientState.getServerAddress(), clientState.getServerPort(), request, encryptionKey, log);
-            log.info("Sent action: {} (TempID: {}) - waiting for server CHARACTER_COUNT...", action, tempId);
+    /**
+     * Like {@link #sendClientRequestWithAck}, but writes nothing to the console: for requests the client
+     * makes on its own (history prefetch, gap fills) while the user may be typing. Outcomes are only logged.
+     */
+    public void sendBackgroundRequest(JsonObject request, String action, String encryptionKey) {
+        sendRequest(request, action, encryptionKey, true);
+    }
 
-            boolean completed = pendingReq.latch.await(15, TimeUnit.SECONDS);
+    private void sendRequest(JsonObject request, String action, String encryptionKey, boolean quiet) {
+        long tempId = nextTempId.getAndIncrement();
+        console(quiet, "\nSending action: " + action + " (TempID: " + tempId + ")");
+        ClientPendingRequest pendingReq = new ClientPendingRequest(tempId, action, new FrequencyDigest());
+        ClientEvents.RequestCompleted requestEvent = null; // Started when the request goes on the wire
+        String outcome = null;
+
+        try {
+            // Wait for a slot in the congestion window before anything goes on the wire
+            pendingReq.permit = congestionController.acquire(Constants.CLIENT_REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (pendingReq.permit == null) {
+                log.warn("Congestion window stayed full, dropping action: {} (TempID: {}). {}", action, tempId, congestionController.snapshot());
+                console(quiet, "\nToo many outstanding requests. Please try again.");
+                return;
+            }
+            // With AES-GCM the server answers the request directly; the id matches the answer to it
+            AeadSession aead = clientState.aeadFor(encryptionKey);
+            if (aead != null) {
+                request.addProperty(Constants.KEY_REQUEST_ID, Long.toString(tempId));
+            }
+            // Encode first: the digest must be complete before the server can answer
+            PacketBuffer packet = PacketEncoder.get().encode(request, encryptionKey, clientState.keyHintFor(encryptionKey), aead,
+                    aead != null ? null : pendingReq.sentDigest);
+            if (packet == null) {
+                congestionController.release(pendingReq.permit);
+                console(quiet, "\nCould not encode request for action: " + action);
+                return;
+            }
+            if (Constants.ACTION_LOGIN.equals(action)) {
+                endpointManager.routeNewSession();
+            }
+            packet.shard = clientState.shardFor(tempId);
+            packet.permit = pendingReq.permit;
+            pendingClientRequestsByTempId.put(tempId, pendingReq);
+
+            ServerEndpoint endpoint = clientState.getEndpoint();
+            requestEvent = new ClientEvents.RequestCompleted();
+            requestEvent.begin();
+            outbound.send(endpoint.getAddress(), endpoint.getPort(), packet);
+            log.info("Sent action: {} (TempID: {}) - waiting for server {}...", action, tempId, aead != null ? "response" : "CHARACTER_COUNT");
+
+            boolean completed = awaitCompletion(pendingReq, action, tempId, endpoint);
+            if (!completed && pendingReq.failedOver) {
+                // Same request on the replica the client moved to, with the key the session has there
+                pendingClientRequestsByTempId.remove(tempId);
+                String retryKey = Constants.FIXED_LOGIN_KEY_STRING.equals(encryptionKey) ? encryptionKey : clientState.getSessionKey();
+                if (retryKey == null) {
+                    congestionController.release(pendingReq.permit);
+                    console(quiet, "\nRequest not sent: the session was lost when switching servers.");
+                    return;
+                }
+                ClientPendingRequest retry = new ClientPendingRequest(tempId, action, new FrequencyDigest());
+                retry.permit = pendingReq.permit;
+                pendingReq = retry;
+                aead = clientState.aeadFor(retryKey);
+                if (aead != null) {
+                    request.addProperty(Constants.KEY_REQUEST_ID, Long.toString(tempId));
+                } else {
+                    request.remove(Constants.KEY_REQUEST_ID);
+                }
+                packet = PacketEncoder.get().encode(request, retryKey, clientState.keyHintFor(retryKey), aead,
+                        aead != null ? null : retry.sentDigest);
+                if (packet == null) {
+                    congestionController.release(retry.permit);
+                    console(quiet, "\nCould not encode request for action: " + action);
+                    return;
+                }
+                packet.shard = clientState.shardFor(tempId);
+                packet.permit = retry.permit;
+                pendingClientRequestsByTempId.put(tempId, retry);
+                endpoint = clientState.getEndpoint();
+                outbound.send(endpoint.getAddress(), endpoint.getPort(), packet);
+                log.info("Resent action: {} (TempID: {}) to {} after failover", action, tempId, endpoint);
+                completed = awaitCompletion(retry, action, tempId, endpoint);
+            }
 
             pendingClientRequestsByTempId.remove(tempId);
             if (pendingReq.serverTransactionId != null) {
@@ -343,54 +522,118 @@ public class HandshakeManager {
             }
 
             if (!completed) {
+                outcome = "timeout";
+                congestionController.onTimeout(pendingReq.permit);
                 log.warn("Timeout waiting for server ACK for action: {} (TempID: {})", action, tempId);
-                System.out.println("\nRequest timed out. Server did not respond.");
+                console(quiet, "\nRequest timed out. Server did not respond.");
             } else {
                 JsonObject ackResponse = pendingReq.ackData;
                 if (ackResponse != null && ackResponse.has(Constants.KEY_STATUS)) {
                     String status = ackResponse.get(Constants.KEY_STATUS).getAsString();
+                    outcome = status;
                     if (!Constants.STATUS_SUCCESS.equals(status)) {
+                        congestionController.release(pendingReq.permit);
                         String serverMessage = ackResponse.has(Constants.KEY_MESSAGE) ? ackResponse.get(Constants.KEY_MESSAGE).getAsString() : "No details";
                         log.warn("Action {} (TempID: {}) failed on server. Status: {}, Message: {}", action, tempId, status, serverMessage);
                         // Display error, but don't re-process login failure here (handled in handleServerAck)
                         if (!action.equals(Constants.ACTION_LOGIN)) {
-                             System.out.println("\nServer couldn't process request: " + serverMessage + " (Status: " + status + ")");
+                             console(quiet, "\nServer couldn't process request: " + serverMessage + " (Status: " + status + ")");
                         }
                     }
                     else if (action.equals(Constants.ACTION_GET_USERS)) {
+                        congestionController.onSuccess(pendingReq.permit);
                         // Thông báo thành công cho get_users được xử lý trong handleConfirmCountResponse (S->C flow)
                         log.info("Action {} (TempID: {}) acknowledged successfully by server.", action, tempId);
                     }
                     else {
+                        congestionController.onSuccess(pendingReq.permit);
                         log.info("Action {} (TempID: {}) acknowledged successfully by server.", action, tempId);
                         // Specific success messages for non-login actions
-                        if (action.equals(Constants.ACTION_SEND_MESSAGE)) System.out.println("\nMessage sent successfully!");
-                        else if (action.equals(Constants.ACTION_CREATE_ROOM)) System.out.println("\nRoom creation request acknowledged."); // Room ID comes via S->C flow now
+                        if (action.equals(Constants.ACTION_SEND_MESSAGE)) console(quiet, "\nMessage sent successfully!");
+                        else if (action.equals(Constants.ACTION_CREATE_ROOM)) console(quiet, "\nRoom creation request acknowledged."); // Room ID comes via S->C flow now
                         // Login success message is handled in handleServerAck
                     }
                 } else if (ackResponse != null && ackResponse.has(Constants.KEY_ACTION) && Constants.ACTION_ERROR.equals(ackResponse.get(Constants.KEY_ACTION).getAsString())) {
+                    outcome = Constants.ACTION_ERROR;
+                    congestionController.release(pendingReq.permit);
                     // Error was already logged by handleServerError, just log completion here
                     log.warn("Action {} (TempID: {}) completed with server ERROR.", action, tempId);
                 }
                  else {
+                     outcome = "invalid";
+                     congestionController.release(pendingReq.permit);
                      log.error("ACK/ERROR received for action {} (TempID: {}) but status/format missing/invalid.", action, tempId);
-                     System.out.println("\nReceived invalid response from server.");
+                     console(quiet, "\nReceived invalid response from server.");
                 }
             }
         } catch (InterruptedException e) {
+             outcome = "interrupted";
              log.warn("Interrupted waiting for ACK for {} (TempID: {})", action, tempId);
-             System.out.println("\nRequest interrupted.");
+             console(quiet, "\nRequest interrupted.");
              pendingClientRequestsByTempId.remove(tempId);
+             congestionController.release(pendingReq.permit);
              Thread.currentThread().interrupt();
         } catch (Exception e) {
+             outcome = Constants.ACTION_ERROR;
              log.error("Unexpected error sending {} (TempID: {}): {}", action, tempId, e.getMessage(), e);
-             System.out.println("Error: " + e.getMessage());
+             console(quiet, "Error: " + e.getMessage());
              pendingClientRequestsByTempId.remove(tempId);
+             congestionController.release(pendingReq.permit);
         } finally {
-             System.out.print("> ");
+             if (requestEvent != null) {
+                 requestEvent.end();
+                 if (requestEvent.shouldCommit()) {
+                     requestEvent.action = action;
+                     requestEvent.tempId = tempId;
+                     requestEvent.transactionId = pendingReq.serverTransactionId;
+                     requestEvent.outcome = outcome;
+                     requestEvent.commit();
+                 }
+             }
+             if (!quiet) {
+                 System.out.print("> ");
+             }
         }
     }
 
+    /**
+     * Waits for the final ACK (in AEAD mode, the direct response). If the server has not even sent
+     * CHARACTER_COUNT within the RTO, the congestion window is cut early while the request keeps waiting, unless the
+     * endpoint manager fails over to another replica: then it returns false at once with
+     * {@code failedOver} set.
+     */
+    private boolean awaitCompletion(ClientPendingRequest pendingReq, String action, long tempId, ServerEndpoint endpoint) throws InterruptedException {
+        long rtoMs = congestionController.getRtoMs();
+        if (pendingReq.latch.await(rtoMs, TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        if (pendingReq.serverTransactionId == null) {
+            log.info("No first response within RTO ({} ms) for action: {} (TempID: {})", rtoMs, action, tempId);
+            congestionController.onLate(pendingReq.permit);
+            if (!pendingReq.failedOver && endpointManager.onHandshakeSilent(endpoint)) {
+                pendingReq.failedOver = true;
+                return false; // Do not sit out the full timeout on a replica that is gone
+            }
+        }
+        return pendingReq.latch.await(Math.max(0, Constants.CLIENT_REQUEST_TIMEOUT_MS - rtoMs), TimeUnit.MILLISECONDS);
+    }
+
+    /** Prints request feedback unless the request was made in the background. */
+    private static void console(boolean quiet, String text) {
+        if (!quiet) {
+            System.out.println(text);
+        }
+    }
+
+    /** Server pushes for a program embedding the client; see {@link ChatEventPublisher}. */
+    public ChatEventPublisher getEventPublisher() {
+        return eventPublisher;
+    }
+
+    public CongestionController getCongestionController() {
+        return congestionController;
+    }
+
     // --- Utility Methods ---
 
     private Map<Character, Integer> parseFrequencyJson(JsonObject freqJson) {
@@ -411,11 +654,17 @@ public class HandshakeManager {
         return map;
     }
 
-    private boolean areFrequenciesEqual(Map<Character, Integer> map1, Map<Character, Integer> map2) {
-        // Ensure null safety and handle empty maps correctly
-        if (map1 == null && map2 == null) return true;
-        if (map1 == null || map2 == null) return false;
-        return map1.equals(map2);
+    private List<String> parseCapabilities(JsonObject data) {
+        List<String> capabilities = new ArrayList<>();
+        if (data.has(Constants.KEY_CAPABILITIES) && data.get(Constants.KEY_CAPABILITIES).isJsonArray()) {
+            for (JsonElement element : data.getAsJsonArray(Constants.KEY_CAPABILITIES)) {
+                capabilities.add(element.getAsString());
+            }
+        }
+        if (!capabilities.isEmpty()) {
+            log.info("Server accepted capabilities: {}", capabilities);
+        }
+        return capabilities;
     }
 
     // Method to clean up pending requests on shutdown (optional but good practice)
@@ -424,5 +673,8 @@ public class HandshakeManager {
         pendingClientRequestsByTempId.clear();
         pendingClientRequestsByServerId.clear();
         pendingServerActionsJson.clear();
+        eventPublisher.close(); // Before the batcher, so the ACKs it still holds get flushed
+        ackBatcher.shutdown();
+        congestionController.shutdown();
     }
 }
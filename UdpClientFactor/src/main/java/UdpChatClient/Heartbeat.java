@@ -0,0 +1,275 @@
+package UdpChatClient;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Keepalive for idle clients. Every {@link Constants#OPT_HEARTBEAT} interval without traffic from
+ * the server, a {@code ping} goes to the current endpoint. That keeps NAT bindings open, so the first
+ * request after a pause is not lost. Each answer gives an RTT sample; missing answers count as loss.
+ * RTT and jitter (RFC 3550 style, from consecutive RTTs) go into {@link RollingHistogram}s over the
+ * last {@link Constants#HEARTBEAT_WINDOW} heartbeats. The samples also feed the retransmission
+ * timeout (see {@link CongestionController#onRttSample}).
+ * <p>
+ * While requests or server pushes are flowing, no heartbeat is sent. Nor is one sent until the server
+ * has granted {@link Constants#CAP_HEARTBEAT} at login or resume: a server without the action would
+ * answer every ping with an error.
+ */
+public class Heartbeat implements HeartbeatMXBean {
+    private static final Logger log = LoggerFactory.getLogger(Heartbeat.class);
+
+    private final ClientState clientState;
+    private final OutboundScheduler outbound;
+    private final CongestionController congestionController;
+    private final long intervalMs;
+    private ScheduledExecutorService timer;
+    private volatile long lastTrafficNanos = System.nanoTime();
+    private volatile ObjectName mbeanName; // Null if not registered
+
+    // Guarded by this
+    private final Map<Long, Outstanding> outstanding = new LinkedHashMap<>(); // By nonce, oldest first
+    private final RollingHistogram rtt = new RollingHistogram(Constants.HEARTBEAT_WINDOW);
+    private final RollingHistogram jitterSamples = new RollingHistogram(Constants.HEARTBEAT_WINDOW);
+    private long lossHistory; // One bit per finished heartbeat, 1 = lost; newest in bit 0
+    private int inHistory;
+    private double lastRttMs = -1;
+    private double jitterMs;
+    private long sent;
+    private long lost;
+    private long skipped;
+
+    private static final class Outstanding {
+        final long sentNanos = System.nanoTime();
+        final ServerEndpoint endpoint;
+
+        Outstanding(ServerEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+    }
+
+    public Heartbeat(ClientState clientState, OutboundScheduler outbound, CongestionController congestionController) {
+        this.clientState = clientState;
+        this.outbound = outbound;
+        this.congestionController = congestionController;
+        this.intervalMs = clientState.getOptions().getHeartbeatIntervalMs();
+        try {
+            ObjectName name = new ObjectName("UdpChatClient:type=Heartbeat,id=" + System.identityHashCode(this));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            mbeanName = name;
+        } catch (Exception e) {
+            log.debug("Could not register heartbeat MBean: {}", e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return intervalMs > 0;
+    }
+
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        try {
+            expireOutstanding();
+            if (!clientState.hasCapability(Constants.CAP_HEARTBEAT)) {
+                return;
+            }
+            if (System.nanoTime() - lastTrafficNanos < TimeUnit.MILLISECONDS.toNanos(intervalMs)) {
+                synchronized (this) {
+                    skipped++;
+                }
+                return; // The session is busy, so the path is warm already
+            }
+            ServerEndpoint endpoint = clientState.getEndpoint();
+            if (!endpoint.isResolved()) {
+                return;
+            }
+            long nonce = ThreadLocalRandom.current().nextLong();
+            synchronized (this) {
+                outstanding.put(nonce, new Outstanding(endpoint));
+                sent++;
+            }
+            JsonObject data = new JsonObject();
+            data.addProperty(Constants.KEY_NONCE, Long.toString(nonce));
+            outbound.send(endpoint.getAddress(), endpoint.getPort(), JsonHelper.createRequest(Constants.ACTION_PING, data), Constants.FIXED_LOGIN_KEY_STRING);
+        } catch (Exception e) {
+            log.warn("Heartbeat failed: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void expireOutstanding() {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Constants.HEARTBEAT_TIMEOUT_MS);
+        long now = System.nanoTime();
+        Iterator<Outstanding> it = outstanding.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().sentNanos <= timeoutNanos) {
+                break; // Ordered by send time
+            }
+            it.remove();
+            lost++;
+            recordOutcome(true);
+        }
+    }
+
+    /** Any packet from the server other than a probe reply: the session is active. */
+    public void onTraffic() {
+        lastTrafficNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a {@code pong}, or an error for a {@code ping}, if it answers one of our heartbeats.
+     * Replies without a nonce (legacy servers) answer the oldest heartbeat sent to that endpoint.
+     *
+     * @return false if the reply belongs to someone else (e.g. an {@link EndpointManager} probe).
+     */
+    public boolean onReply(InetAddress from, int fromPort, JsonObject reply) {
+        JsonObject data = reply.has(Constants.KEY_DATA) && reply.get(Constants.KEY_DATA).isJsonObject() ? reply.getAsJsonObject(Constants.KEY_DATA) : null;
+        double rttMs;
+        synchronized (this) {
+            Outstanding answered = null;
+            if (data != null && data.has(Constants.KEY_NONCE)) {
+                try {
+                    answered = outstanding.remove(Long.parseLong(data.get(Constants.KEY_NONCE).getAsString()));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            } else {
+                Iterator<Outstanding> it = outstanding.values().iterator();
+                while (it.hasNext()) {
+                    Outstanding candidate = it.next();
+                    if (candidate.endpoint.matches(from, fromPort)) {
+                        answered = candidate;
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+            if (answered == null) {
+                return false;
+            }
+            rttMs = (System.nanoTime() - answered.sentNanos) / 1e6;
+            recordSampleLocked(rttMs);
+        }
+        congestionController.onRttSample((long) rttMs);
+        log.debug("Heartbeat rtt {} ms", String.format("%.1f", rttMs));
+        return true;
+    }
+
+    private void recordSampleLocked(double rttMs) {
+        if (lastRttMs >= 0) {
+            double delta = Math.abs(rttMs - lastRttMs);
+            jitterMs += (delta - jitterMs) / 16;
+            jitterSamples.add(delta);
+        }
+        lastRttMs = rttMs;
+        rtt.add(rttMs);
+        recordOutcome(false);
+    }
+
+    private void recordOutcome(boolean wasLost) {
+        lossHistory = (lossHistory << 1) | (wasLost ? 1 : 0);
+        inHistory = Math.min(inHistory + 1, Constants.HEARTBEAT_WINDOW);
+    }
+
+    public void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        ObjectName name = mbeanName;
+        mbeanName = null;
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (Exception e) {
+                log.debug("Could not unregister heartbeat MBean: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * One-line summary for the /stats command.
+     */
+    public synchronized String snapshot() {
+        if (!isEnabled()) {
+            return "disabled";
+        }
+        return String.format("interval=%dms rtt=%s (%s) jitter=%s (%s) loss=%.1f%% sent=%d lost=%d skipped=%d",
+                intervalMs, lastRttMs < 0 ? "n/a" : String.format("%.1fms", lastRttMs), rtt.summary(),
+                lastRttMs < 0 ? "n/a" : String.format("%.1fms", jitterMs), jitterSamples.summary(),
+                getLossRate() * 100, sent, lost, skipped);
+    }
+
+    // --- HeartbeatMXBean ---
+
+    @Override
+    public synchronized double getLastRttMs() {
+        return lastRttMs;
+    }
+
+    @Override
+    public synchronized double getMeanRttMs() {
+        return rtt.mean();
+    }
+
+    @Override
+    public synchronized double getRttP50Ms() {
+        return rtt.percentile(50);
+    }
+
+    @Override
+    public synchronized double getRttP99Ms() {
+        return rtt.percentile(99);
+    }
+
+    @Override
+    public synchronized double getJitterMs() {
+        return jitterMs;
+    }
+
+    @Override
+    public synchronized double getLossRate() {
+        if (inHistory == 0) {
+            return 0;
+        }
+        long mask = inHistory == 64 ? -1L : (1L << inHistory) - 1;
+        return Long.bitCount(lossHistory & mask) / (double) inHistory;
+    }
+
+    @Override
+    public synchronized long getHeartbeatsSent() {
+        return sent;
+    }
+
+    @Override
+    public synchronized long getHeartbeatsLost() {
+        return lost;
+    }
+
+    @Override
+    public synchronized long getHeartbeatsSkipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,24 @@
+package UdpChatClient;
+
+/**
+ * JMX view of the path quality measured by the keepalive heartbeat.
+ */
+public interface HeartbeatMXBean {
+    double getLastRttMs();
+
+    double getMeanRttMs();
+
+    double getRttP50Ms();
+
+    double getRttP99Ms();
+
+    double getJitterMs();
+
+    double getLossRate();
+
+    long getHeartbeatsSent();
+
+    long getHeartbeatsLost();
+
+    long getHeartbeatsSkipped();
+}
@@ -0,0 +1,137 @@
+package UdpChatClient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Owns the open {@link HistoryStream}s (at most one per room) and routes messages_list replies to them.
+ * Page requests go through the full handshake, which blocks until the server's ACK, so they are sent
+ * from a background thread and never from the listener or the console thread. They use the quiet
+ * request path, so a prefetch never writes over what the user is typing.
+ */
+public class HistoryPager {
+    private static final Logger log = LoggerFactory.getLogger(HistoryPager.class);
+
+    /** Renders one page on the console. */
+    public interface PageRenderer {
+        void render(String roomId, HistoryStream.Page page);
+    }
+
+    private final ClientState clientState;
+    private final PageRenderer renderer;
+    private final Map<String, HistoryStream> streams = new ConcurrentHashMap<>();
+    // Rooms whose stream was closed with a page request still out, until when its reply is dropped
+    private final Map<String, Long> lateReplyDeadlines = new ConcurrentHashMap<>();
+    private final ExecutorService requestExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "HistoryPrefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public HistoryPager(ClientState clientState, PageRenderer renderer) {
+        this.clientState = clientState;
+        this.renderer = renderer;
+    }
+
+    /**
+     * Opens a new stream over {@code roomId}, replacing (and closing) any earlier one for the room.
+     *
+     * @param fromTime ISO-8601 lower bound, or null for the whole history.
+     */
+    public HistoryStream open(String roomId, String fromTime, HandshakeManager handshakeManager) {
+        HistoryStream stream = new HistoryStream(this, handshakeManager, roomId, fromTime);
+        HistoryStream previous = streams.put(roomId, stream);
+        if (previous != null) {
+            previous.close();
+        }
+        return stream;
+    }
+
+    /** The room's open stream, or null. */
+    public HistoryStream get(String roomId) {
+        return streams.get(roomId);
+    }
+
+    public void render(String roomId, HistoryStream.Page page) {
+        renderer.render(roomId, page);
+    }
+
+    void submitRequest(HandshakeManager handshakeManager, JsonObject data) {
+        data.addProperty(Constants.KEY_CHAT_ID, clientState.getCurrentChatId());
+        JsonObject request = JsonHelper.createRequest(Constants.ACTION_GET_MESSAGES, data);
+        requestExecutor.execute(() -> handshakeManager.sendBackgroundRequest(request, Constants.ACTION_GET_MESSAGES, clientState.getSessionKey()));
+    }
+
+    /**
+     * Asks the server to push the given sequence ranges of a room again (see {@link RoomSequencer}).
+     * Sent on the same background thread as page requests.
+     */
+    public void submitGapFill(HandshakeManager handshakeManager, String roomId, List<long[]> ranges) {
+        JsonObject data = new JsonObject();
+        data.addProperty(Constants.KEY_CHAT_ID, clientState.getCurrentChatId());
+        data.addProperty(Constants.KEY_ROOM_ID, roomId);
+        JsonArray rangesJson = new JsonArray();
+        for (long[] range : ranges) {
+            JsonArray rangeJson = new JsonArray();
+            rangeJson.add(range[0]);
+            rangeJson.add(range[1]);
+            rangesJson.add(rangeJson);
+        }
+        data.add(Constants.KEY_RANGES, rangesJson);
+        JsonObject request = JsonHelper.createRequest(Constants.ACTION_FILL_GAP, data);
+        requestExecutor.execute(() -> handshakeManager.sendBackgroundRequest(request, Constants.ACTION_FILL_GAP, clientState.getSessionKey()));
+    }
+
+    /**
+     * @param requestOutstanding The stream still had a page request out; its reply is dropped when it
+     *                           comes, rather than shown as a history dump after the stream gave up.
+     */
+    void closed(HistoryStream stream, boolean requestOutstanding) {
+        streams.remove(stream.getRoomId(), stream);
+        if (requestOutstanding) {
+            lateReplyDeadlines.put(stream.getRoomId(), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Constants.CLIENT_REQUEST_TIMEOUT_MS));
+        }
+    }
+
+    /**
+     * Hands a messages_list reply to the room's stream if one is waiting for a page. The first reply for
+     * a room after its stream was closed mid-request is that request's late page and is dropped.
+     *
+     * @return true if a stream took the page (it is rendered when the stream's consumer shows it), or
+     *         it was a late page that must not be shown.
+     */
+    public boolean onPage(String roomId, JsonObject data) {
+        if (!(data.get("messages") instanceof JsonArray)) {
+            return false;
+        }
+        Long lateDeadline = lateReplyDeadlines.remove(roomId);
+        if (lateDeadline != null && lateDeadline - System.nanoTime() > 0) {
+            log.debug("Dropping late history page for room {}: its stream was closed", roomId);
+            return true;
+        }
+        HistoryStream stream = streams.get(roomId);
+        if (stream == null || !stream.isWaiting()) {
+            return false;
+        }
+        log.debug("History page for room {} with {} message(s)", roomId, data.getAsJsonArray("messages").size());
+        stream.onPage(data);
+        return true;
+    }
+
+    public void shutdown() {
+        for (HistoryStream stream : streams.values()) {
+            stream.close();
+        }
+        requestExecutor.shutdownNow();
+    }
+}
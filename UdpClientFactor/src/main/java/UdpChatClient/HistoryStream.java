@@ -0,0 +1,173 @@
+package UdpChatClient;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Cursor-paged view of one room's history, newest page first. Each page holds up to
+ * {@link Constants#HISTORY_PAGE_SIZE} messages in the server's order. Taking a page immediately
+ * requests the one after it, so the next page is usually on hand by the time the current one has
+ * been rendered. Only pages that are actually taken (plus one prefetched) are ever fetched.
+ * <p>
+ * Consumers either pull pages with {@link #nextPage} or iterate message by message;
+ * {@link #close()} stops the stream early.
+ */
+public class HistoryStream implements Iterable<JsonObject>, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(HistoryStream.class);
+
+    /** One page of messages; {@code hasMore} is false on the last page. */
+    public static class Page {
+        public final JsonArray messages;
+        public final boolean hasMore;
+        public final int number;
+
+        Page(JsonArray messages, boolean hasMore, int number) {
+            this.messages = messages;
+            this.hasMore = hasMore;
+            this.number = number;
+        }
+    }
+
+    private final HistoryPager pager;
+    private final HandshakeManager handshakeManager;
+    private final String roomId;
+    private final String fromTime;
+    private final LinkedBlockingQueue<Page> ready = new LinkedBlockingQueue<>();
+
+    // Guarded by this
+    private String nextCursor;
+    private boolean inFlight;
+    private boolean exhausted;
+    private boolean closed;
+    private int pagesReceived;
+
+    HistoryStream(HistoryPager pager, HandshakeManager handshakeManager, String roomId, String fromTime) {
+        this.pager = pager;
+        this.handshakeManager = handshakeManager;
+        this.roomId = roomId;
+        this.fromTime = fromTime;
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    /**
+     * Returns the next page, waiting for it if it has not arrived yet, and starts fetching the one after.
+     *
+     * @return The page, or null when the history is exhausted, the stream is closed or the server did not answer in time.
+     *         A request that timed out stays outstanding: its reply, if it still comes, is the next page.
+     */
+    public Page nextPage(long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (this) {
+            if (closed || (exhausted && ready.isEmpty())) {
+                return null;
+            }
+        }
+        requestNext();
+        Page page = ready.poll(timeout, unit);
+        if (page == null) {
+            log.warn("No history page for room {} within {} {}", roomId, timeout, unit);
+            return null;
+        }
+        if (page.hasMore) {
+            requestNext(); // Prefetch while the caller renders this page
+        }
+        return page;
+    }
+
+    private void requestNext() {
+        JsonObject data;
+        synchronized (this) {
+            if (inFlight || exhausted || closed || !ready.isEmpty()) {
+                return;
+            }
+            inFlight = true;
+            data = new JsonObject();
+            data.addProperty(Constants.KEY_ROOM_ID, roomId);
+            data.addProperty(Constants.KEY_LIMIT, Constants.HISTORY_PAGE_SIZE);
+            if (fromTime != null) {
+                data.addProperty(Constants.KEY_FROM_TIME, fromTime);
+            }
+            if (nextCursor != null) {
+                data.addProperty(Constants.KEY_CURSOR, nextCursor);
+            }
+        }
+        pager.submitRequest(handshakeManager, data);
+    }
+
+    /**
+     * A page arrived. A reply without a cursor field comes from a server that does not page:
+     * it holds the whole history and ends the stream.
+     */
+    synchronized void onPage(JsonObject data) {
+        JsonArray messages = data.getAsJsonArray("messages");
+        JsonElement cursor = data.get(Constants.KEY_NEXT_CURSOR);
+        inFlight = false;
+        nextCursor = cursor != null && !cursor.isJsonNull() ? cursor.getAsString() : null;
+        exhausted = nextCursor == null || messages.size() == 0;
+        if (!closed) {
+            ready.offer(new Page(messages, !exhausted, ++pagesReceived));
+        }
+    }
+
+    synchronized boolean isWaiting() {
+        return inFlight && !closed;
+    }
+
+    @Override
+    public void close() {
+        boolean requestOutstanding;
+        synchronized (this) {
+            requestOutstanding = inFlight && !closed;
+            closed = true;
+            ready.clear();
+        }
+        pager.closed(this, requestOutstanding);
+    }
+
+    /**
+     * Iterates message by message, fetching pages as needed. Stops early (without fetching further)
+     * when the stream is closed; a page that does not arrive in time ends the iteration.
+     */
+    @Override
+    public Iterator<JsonObject> iterator() {
+        return new Iterator<JsonObject>() {
+            private Page page;
+            private int index;
+            private boolean finished;
+
+            @Override
+            public boolean hasNext() {
+                while (!finished && (page == null || index >= page.messages.size())) {
+                    try {
+                        page = nextPage(Constants.CLIENT_REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        page = null;
+                    }
+                    index = 0;
+                    finished = page == null;
+                }
+                return !finished;
+            }
+
+            @Override
+            public JsonObject next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.messages.get(index++).getAsJsonObject();
+            }
+        };
+    }
+}
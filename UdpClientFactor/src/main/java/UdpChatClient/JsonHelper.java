@@ -44,9 +44,17 @@ public final class JsonHelper {
         public final JsonObject jsonObject;
         public final String decryptedJsonString;
 
+        // True if the packet was sealed with AES-GCM, i.e. its integrity is already verified
+        public final boolean authenticated;
+
         public DecryptedResult(JsonObject jsonObject, String decryptedJsonString) {
+            this(jsonObject, decryptedJsonString, false);
+        }
+
+        public DecryptedResult(JsonObject jsonObject, String decryptedJsonString, boolean authenticated) {
             this.jsonObject = jsonObject;
             this.decryptedJsonString = decryptedJsonString;
+            this.authenticated = authenticated;
         }
     }
 
@@ -61,7 +69,16 @@ public final class JsonHelper {
      *         or null if decryption or parsing fails.
      */
     public static DecryptedResult decryptAndParse(DatagramPacket packet, String keyString, Logger log) {
-        if (packet == null || packet.getData() == null || packet.getLength() == 0) {
+        return decryptAndParse(packet, 0, keyString, log);
+    }
+
+    /**
+     * Same as {@link #decryptAndParse(DatagramPacket, String, Logger)} for a payload that starts
+     * after an unencrypted header of {@code headerLength} bytes (see {@link Constants#ENVELOPE_MAGIC}).
+     * Text that cannot be a JSON object is rejected before the parser runs.
+     */
+    public static DecryptedResult decryptAndParse(DatagramPacket packet, int headerLength, String keyString, Logger log) {
+        if (packet == null || packet.getData() == null || packet.getLength() <= headerLength) {
             log.warn("Received empty or null packet for decryption.");
             return null;
         }
@@ -72,7 +89,7 @@ public final class JsonHelper {
 
         try {
             // Assume the entire data payload is the encrypted string
-            String encryptedString = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+            String encryptedString = new String(packet.getData(), headerLength, packet.getLength() - headerLength, StandardCharsets.UTF_8);
             // log.trace("Received raw encrypted string: {}", encryptedString); // Can be noisy
 
             // Decrypt using Caesar cipher
@@ -82,6 +99,10 @@ public final class JsonHelper {
                  return null; // Decryption failed critically
             }
             // log.trace("Decrypted JSON string: {}", decryptedJsonString); // Can be noisy
+            if (!looksLikeJsonObject(decryptedJsonString)) {
+                log.warn("Decrypted payload from {}:{} is not a JSON object (wrong key?), skipping parse", packet.getAddress().getHostAddress(), packet.getPort());
+                return null;
+            }
 
             // Parse the decrypted string
             JsonObject jsonObject = JsonParser.parseString(decryptedJsonString).getAsJsonObject();
@@ -91,7 +112,7 @@ public final class JsonHelper {
             // Log the decrypted string *only* if logging level allows, as it might contain sensitive info if decryption failed partially
             log.error("Invalid JSON syntax after decryption with key length {} from {}:{}. Decrypted content (potential garbage): '{}'. Error: {}",
                       keyString.length(), packet.getAddress().getHostAddress(), packet.getPort(),
-                      log.isTraceEnabled() ? CaesarCipher.decrypt(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8), keyString) : "[hidden]",
+                      log.isTraceEnabled() ? CaesarCipher.decrypt(new String(packet.getData(), headerLength, packet.getLength() - headerLength, StandardCharsets.UTF_8), keyString) : "[hidden]",
                       e.getMessage());
             return null;
         } catch (IllegalStateException e) {
@@ -103,6 +124,21 @@ public final class JsonHelper {
         }
     }
 
+    /**
+     * Cheap check that {@code text} is braced like a JSON object, so garbage never reaches the parser.
+     */
+    private static boolean looksLikeJsonObject(String text) {
+        int start = 0;
+        int end = text.length() - 1;
+        while (start <= end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end))) {
+            end--;
+        }
+        return start < end && text.charAt(start) == '{' && text.charAt(end) == '}';
+    }
+
     /**
      * Creates a standard JSON reply object.
      * (No changes needed here)
@@ -133,8 +169,44 @@ public final class JsonHelper {
         return reply;
     }
 
+    /**
+     * Serializes and encrypts a JsonObject into the bytes of a UDP payload.
+     *
+     * @param json      The JsonObject to encode.
+     * @param keyString The key string for Caesar encryption.
+     * @param log       The logger instance from the calling class.
+     * @return The encrypted payload, or null if the key is invalid or the payload is too large.
+     */
+    public static byte[] encodePacket(JsonObject json, String keyString, Logger log) {
+        if (json == null) {
+            log.error("Attempted to encode null JSON data.");
+            return null;
+        }
+        if (keyString == null || keyString.isEmpty()) {
+            log.error("Attempted encryption with null or empty key.");
+            return null;
+        }
+
+        String jsonString = gson.toJson(json);
+
+        // log.trace("Plain JSON string to send: {}", jsonString); // Can be noisy
+        System.out.println("--------------------------------------Plain JSON string to send: " + jsonString); // For debugging
+        // Encrypt the JSON string
+        String encryptedString = CaesarCipher.encrypt(jsonString, keyString);
+        // log.trace("Encrypted JSON string to send: {}", encryptedString); // Can be noisy
+        System.out.println("--------------------------------------Encrypted JSON string to send: " + encryptedString); // For debugging
+        byte[] sendData = encryptedString.getBytes(StandardCharsets.UTF_8);
+
+        if (sendData.length > Constants.MAX_UDP_PACKET_SIZE) {
+            log.error("Attempted to send UDP packet larger than max size ({} bytes) after encryption", sendData.length);
+            return null;
+        }
+        return sendData;
+    }
+
     /**
      * Encrypts a JsonObject using the provided key and sends it as a UDP DatagramPacket.
+     * Sends synchronously on the calling thread; client code goes through {@link OutboundScheduler} instead.
      *
      * @param socket    The DatagramSocket to send from.
      * @param address   The destination IP address.
@@ -149,25 +221,11 @@ public final class JsonHelper {
             log.error("Attempted to send packet with null socket, address, or JSON data.");
             return false;
         }
-         if (keyString == null || keyString.isEmpty()) {
-            log.error("Attempted encryption with null or empty key for packet to {}:{}", address.getHostAddress(), port);
-            return false;
-        }
 
         try {
-            String jsonString = gson.toJson(json);
-
-            // log.trace("Plain JSON string to send: {}", jsonString); // Can be noisy
-            System.out.println("--------------------------------------Plain JSON string to send: " + jsonString); // For debugging
-            // Encrypt the JSON string
-            String encryptedString = CaesarCipher.encrypt(jsonString, keyString);
-            // log.trace("Encrypted JSON string to send: {}", encryptedString); // Can be noisy
-            System.out.println("--------------------------------------Encrypted JSON string to send: " + encryptedString); // For debugging
-            byte[] sendData = encryptedString.getBytes(StandardCharsets.UTF_8);
-
-            if (sendData.length > Constants.MAX_UDP_PACKET_SIZE) {
-                 log.error("Attempted to send UDP packet larger than max size ({} bytes) after encryption to {}:{}", sendData.length, address.getHostAddress(), port);
-                 return false;
+            byte[] sendData = encodePacket(json, keyString, log);
+            if (sendData == null) {
+                return false;
             }
 
             DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, address, port);
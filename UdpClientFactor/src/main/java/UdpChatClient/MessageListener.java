@@ -2,6 +2,7 @@ package UdpChatClient;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.SocketException;
 
 import org.slf4j.Logger;
@@ -12,75 +13,71 @@ import com.google.gson.JsonSyntaxException;
 
 public class MessageListener implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(MessageListener.class);
+    // Shard of the listener running on this thread; replies sent from it leave through the same socket
+    private static final ThreadLocal<Integer> CURRENT_SHARD = ThreadLocal.withInitial(() -> 0);
 
     private final ClientState clientState;
     private final HandshakeManager handshakeManager;
+    private final SessionResumer sessionResumer;
+    private final EndpointManager endpointManager;
+    private final Heartbeat heartbeat;
+    private final WireCapture capture; // Null unless --capture is given
+    private volatile ReceivePipeline pipeline; // Null unless --pipeline is given; then this thread only receives
+    private final int shard; // Socket this listener receives on
 
-    public MessageListener(ClientState clientState, HandshakeManager handshakeManager) {
+    public MessageListener(ClientState clientState, HandshakeManager handshakeManager, SessionResumer sessionResumer,
+                           EndpointManager endpointManager, Heartbeat heartbeat, WireCapture capture) {
+        this(clientState, handshakeManager, sessionResumer, endpointManager, heartbeat, capture, 0);
+    }
+
+    /**
+     * @param shard Which of the client's sockets to receive on (see {@link Constants#OPT_RECEIVE_SHARDS}).
+     */
+    public MessageListener(ClientState clientState, HandshakeManager handshakeManager, SessionResumer sessionResumer,
+                           EndpointManager endpointManager, Heartbeat heartbeat, WireCapture capture, int shard) {
+        this.shard = shard;
         this.clientState = clientState;
         this.handshakeManager = handshakeManager;
+        this.sessionResumer = sessionResumer;
+        this.endpointManager = endpointManager;
+        this.heartbeat = heartbeat;
+        this.capture = capture;
+    }
+
+    /**
+     * Hands every received datagram to {@code pipeline} instead of processing it on the receive thread.
+     */
+    public void setPipeline(ReceivePipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /** @return The shard of the listener running the calling thread; 0 on any other thread. */
+    static int currentShard() {
+        return CURRENT_SHARD.get();
     }
 
     @Override
     public void run() {
         byte[] receiveData = new byte[Constants.MAX_UDP_PACKET_SIZE];
-        log.info("Message listener started.");
+        CURRENT_SHARD.set(shard);
+        DatagramSocket socket = clientState.getSocket(shard);
+        log.info("Message listener started (shard {}).", shard);
 
         while (clientState.isRunning()) {
             try {
                 DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
                 // Blocking call - waits for a packet
-                clientState.getSocket().receive(receivePacket);
+                socket.receive(receivePacket);
 
-                // Determine decryption key (session key if logged in, otherwise fixed key)
-                String decryptionKey = clientState.getSessionKey() != null ? clientState.getSessionKey() : Constants.FIXED_LOGIN_KEY_STRING;
-
-                // Attempt decryption and parsing
-                JsonHelper.DecryptedResult decryptedResult = JsonHelper.decryptAndParse(receivePacket, decryptionKey, log);
-
-                // If decryption failed with session key, try the fixed key (might be a late login response)
-                if (decryptedResult == null && clientState.getSessionKey() != null) {
-                    log.warn("Decryption failed with session key, trying fixed key...");
-                    decryptionKey = Constants.FIXED_LOGIN_KEY_STRING;
-                    decryptedResult = JsonHelper.decryptAndParse(receivePacket, decryptionKey, log);
-                }
-
-                // If still failed, log error and skip packet
-                if (decryptedResult == null) {
-                    log.error("Failed to decrypt or parse packet from server {}:{}.", receivePacket.getAddress().getHostAddress(), receivePacket.getPort());
-                    continue; // Skip to next packet
+                if (capture != null) {
+                    capture.record(WireCapture.INBOUND, receivePacket.getData(), receivePacket.getOffset(), receivePacket.getLength(),
+                            receivePacket.getAddress(), receivePacket.getPort());
                 }
-
-                JsonObject responseJson = decryptedResult.jsonObject;
-                String decryptedJsonString = decryptedResult.decryptedJsonString;
-                log.info("Received decrypted JSON: {}", decryptedJsonString);
-
-                // Basic validation: Check for 'action' field
-                if (!responseJson.has(Constants.KEY_ACTION)) {
-                    log.error("Received packet missing 'action' field: {}", decryptedJsonString);
-                    continue; // Skip invalid packet
-                }
-                String action = responseJson.get(Constants.KEY_ACTION).getAsString();
-
-                // --- Dispatch based on Action ---
-                // Handshake-related actions are handled by HandshakeManager
-                switch (action) {
-                    case Constants.ACTION_CHARACTER_COUNT:
-                        handshakeManager.handleCharacterCountResponse(responseJson, receivePacket.getAddress(), receivePacket.getPort());
-                        break;
-                    case Constants.ACTION_CONFIRM_COUNT:
-                        handshakeManager.handleConfirmCountResponse(responseJson, receivePacket.getAddress(), receivePacket.getPort());
-                        break;
-                    case Constants.ACTION_ACK:
-                        handshakeManager.handleServerAck(responseJson);
-                        break;
-                    case Constants.ACTION_ERROR:
-                        handshakeManager.handleServerError(responseJson);
-                        break;
-                    default:
-                        // If it's not a handshake action, it must be an initial action from the server (S->C flow)
-                        handshakeManager.handleInitialServerAction(decryptedJsonString, responseJson, receivePacket.getAddress(), receivePacket.getPort());
-                        break;
+                ReceivePipeline stages = pipeline;
+                if (stages != null) {
+                    stages.offer(receivePacket);
+                } else {
+                    dispatch(receivePacket);
                 }
 
             } catch (SocketException se) {
@@ -112,4 +109,167 @@ public class MessageListener implements Runnable {
 
         log.info("Message listener thread stopped.");
     }
+
+    /**
+     * Decrypts one datagram from the server and hands it to the component that owns its action.
+     * Called by the receive loop, and by {@link ReplayDriver} for captured traffic.
+     */
+    void dispatch(DatagramPacket receivePacket) {
+        route(receivePacket, decrypt(receivePacket));
+    }
+
+    /**
+     * @return false if the packet names a key id this client does not know (yet). A pipeline stage
+     *         that runs ahead of the handshake may see a packet under a key issued by a login ACK
+     *         still queued behind it.
+     */
+    boolean knowsKey(DatagramPacket packet) {
+        byte[] data = packet.getData();
+        if (packet.getLength() < Constants.ENVELOPE_HEADER_SIZE) {
+            return true;
+        }
+        int keyId = data[packet.getOffset() + 1] & 0xFF;
+        if (data[packet.getOffset()] == Constants.AEAD_MAGIC) {
+            return clientState.aeadForId(keyId) != null;
+        }
+        if (data[packet.getOffset()] == Constants.ENVELOPE_MAGIC) {
+            return clientState.keyForId(keyId) != null;
+        }
+        return true;
+    }
+
+    /**
+     * Hands a decrypted datagram to the component that owns its action; the second half of {@link #dispatch}.
+     */
+    void route(DatagramPacket receivePacket, JsonHelper.DecryptedResult decryptedResult) {
+        // If still failed, log error and skip packet
+        if (decryptedResult == null) {
+            log.error("Failed to decrypt or parse packet from server {}:{}.", receivePacket.getAddress().getHostAddress(), receivePacket.getPort());
+            return; // Skip to next packet
+        }
+
+        JsonObject responseJson = decryptedResult.jsonObject;
+        String decryptedJsonString = decryptedResult.decryptedJsonString;
+        log.info("Received decrypted JSON: {}", decryptedJsonString);
+
+        // Basic validation: Check for 'action' field
+        if (!responseJson.has(Constants.KEY_ACTION)) {
+            log.error("Received packet missing 'action' field: {}", decryptedJsonString);
+            return; // Skip invalid packet
+        }
+        String action = responseJson.get(Constants.KEY_ACTION).getAsString();
+        endpointManager.onHeard(receivePacket.getAddress(), receivePacket.getPort());
+        if (!Constants.ACTION_PONG.equals(action) && !isErrorFor(responseJson, Constants.ACTION_PING)) {
+            heartbeat.onTraffic();
+        }
+
+        // --- Dispatch based on Action ---
+        // Handshake-related actions are handled by HandshakeManager
+        switch (action) {
+            case Constants.ACTION_CHARACTER_COUNT:
+                handshakeManager.handleCharacterCountResponse(responseJson, receivePacket.getAddress(), receivePacket.getPort());
+                break;
+            case Constants.ACTION_CONFIRM_COUNT:
+                handshakeManager.handleConfirmCountResponse(responseJson, receivePacket.getAddress(), receivePacket.getPort());
+                break;
+            case Constants.ACTION_ACK:
+                handshakeManager.handleServerAck(responseJson);
+                break;
+            case Constants.ACTION_PONG:
+                if (heartbeat.onReply(receivePacket.getAddress(), receivePacket.getPort(), responseJson)) {
+                    break;
+                }
+                endpointManager.onProbeReply(receivePacket.getAddress(), receivePacket.getPort(), responseJson);
+                break;
+            case Constants.ACTION_RESUME:
+                if (!sessionResumer.onReply(responseJson)) {
+                    log.warn("Ignoring resume reply, no resume in progress");
+                }
+                break;
+            case Constants.ACTION_ERROR:
+                // A server without session resumption rejects the unknown action
+                if (isErrorFor(responseJson, Constants.ACTION_RESUME) && sessionResumer.onReply(responseJson)) {
+                    break;
+                }
+                if (isErrorFor(responseJson, Constants.ACTION_PING)) {
+                    if (heartbeat.onReply(receivePacket.getAddress(), receivePacket.getPort(), responseJson)) {
+                        break;
+                    }
+                    endpointManager.onProbeReply(receivePacket.getAddress(), receivePacket.getPort(), responseJson);
+                    break;
+                }
+                handshakeManager.handleServerError(responseJson);
+                break;
+            default:
+                // If it's not a handshake action, it must be an initial action from the server (S->C flow)
+                handshakeManager.handleInitialServerAction(decryptedJsonString, responseJson, receivePacket.getAddress(), receivePacket.getPort(),
+                        decryptedResult.authenticated);
+                break;
+        }
+    }
+
+    private static boolean isErrorFor(JsonObject responseJson, String action) {
+        return responseJson.has(Constants.KEY_ORIGINAL_ACTION)
+                && action.equals(responseJson.get(Constants.KEY_ORIGINAL_ACTION).getAsString());
+    }
+
+    /**
+     * Opens AES-GCM packets with the session named in their header (see {@link AeadSession}).
+     * Picks the key from the envelope header when the server sent one, so each packet is decrypted
+     * and parsed exactly once. Legacy packets (no header) use the session key and fall back to the
+     * fixed key only when that can give a different result.
+     *
+     * @return The packet, or null if it cannot be decrypted; the first half of {@link #dispatch}.
+     */
+    JsonHelper.DecryptedResult decrypt(DatagramPacket packet) {
+        ClientEvents.PacketReceived event = new ClientEvents.PacketReceived();
+        event.begin();
+        JsonHelper.DecryptedResult result = decode(packet);
+        event.end();
+        if (event.shouldCommit()) {
+            event.size = packet.getLength();
+            event.keyType = ClientEvents.keyTypeOf(packet.getData(), packet.getOffset(), packet.getLength());
+            event.shard = currentShard();
+            event.decoded = result != null;
+            if (result != null && result.jsonObject.has(Constants.KEY_ACTION)) {
+                event.action = result.jsonObject.get(Constants.KEY_ACTION).getAsString();
+            }
+            event.commit();
+        }
+        return result;
+    }
+
+    private JsonHelper.DecryptedResult decode(DatagramPacket packet) {
+        byte[] data = packet.getData();
+        if (packet.getLength() >= Constants.ENVELOPE_HEADER_SIZE && data[packet.getOffset()] == Constants.AEAD_MAGIC) {
+            int keyId = data[packet.getOffset() + 1] & 0xFF;
+            AeadSession aead = clientState.aeadForId(keyId);
+            if (aead == null) {
+                log.warn("Dropping AES-GCM packet from {}:{} for unknown key id {}", packet.getAddress().getHostAddress(), packet.getPort(), keyId);
+                return null;
+            }
+            return aead.open(packet, log);
+        }
+        if (packet.getLength() >= Constants.ENVELOPE_HEADER_SIZE && data[packet.getOffset()] == Constants.ENVELOPE_MAGIC) {
+            int keyId = data[packet.getOffset() + 1] & 0xFF;
+            String key = clientState.keyForId(keyId);
+            if (key == null) {
+                log.warn("Dropping packet from {}:{} encrypted with unknown key id {}", packet.getAddress().getHostAddress(), packet.getPort(), keyId);
+                return null;
+            }
+            return JsonHelper.decryptAndParse(packet, Constants.ENVELOPE_HEADER_SIZE, key, log);
+        }
+
+        // Determine decryption key (session key if logged in, otherwise fixed key)
+        String sessionKey = clientState.getSessionKey();
+        String decryptionKey = sessionKey != null ? sessionKey : Constants.FIXED_LOGIN_KEY_STRING;
+        JsonHelper.DecryptedResult decryptedResult = JsonHelper.decryptAndParse(packet, decryptionKey, log);
+
+        // If decryption failed with session key, try the fixed key (might be a late login response)
+        if (decryptedResult == null && sessionKey != null && !CaesarCipher.sameShift(sessionKey, Constants.FIXED_LOGIN_KEY_STRING)) {
+            log.warn("Decryption failed with session key, trying fixed key...");
+            decryptedResult = JsonHelper.decryptAndParse(packet, Constants.FIXED_LOGIN_KEY_STRING, log);
+        }
+        return decryptedResult;
+    }
 }
@@ -1,7 +1,10 @@
 package UdpChatClient;
 
-import java.text.SimpleDateFormat;
-import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,25 +17,54 @@ import com.google.gson.JsonParser;
 public class MessageProcessor {
     private static final Logger log = LoggerFactory.getLogger(MessageProcessor.class);
     private final ClientState clientState; // Needed to update state on login success
+    private final ConsoleRenderer renderer;
+    private final StringBuilder out = new StringBuilder(1024); // Output of the packet being processed
+    private final HistoryPager historyPager;
+    private final SearchIndex searchIndex;
+    private final RoomSequencer sequencer = new RoomSequencer(); // Guarded by this
+    private final SequencerListener sequencerListener = new SequencerListener();
+    private ScheduledExecutorService gapTimer; // Created on the first gap
+    private long gapCheckAtNanos; // When the pending gap check runs, 0 if none
+    private volatile GapFiller gapFiller;
 
     public MessageProcessor(ClientState clientState) {
+        this(clientState, new ConsoleRenderer(clientState.getOptions().isFloodSummary()));
+    }
+
+    public MessageProcessor(ClientState clientState, ConsoleRenderer renderer) {
         this.clientState = clientState;
+        this.renderer = renderer;
+        this.historyPager = new HistoryPager(clientState, this::renderHistoryPage);
+        this.searchIndex = new SearchIndex(clientState);
+    }
+
+    public HistoryPager getHistoryPager() {
+        return historyPager;
+    }
+
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
     }
 
     /**
      * Processes the JSON content of a server message after it has been confirmed
      * by the handshake protocol (S->C flow).
+     * Everything the packet prints is collected in one buffer and written to the console at once.
      *
      * @param jsonString The confirmed JSON string received from the server.
      */
-    public void processServerAction(String jsonString) {
+    public synchronized void processServerAction(String jsonString) {
+        ClientEvents.ActionRendered event = new ClientEvents.ActionRendered();
+        event.begin();
+        out.setLength(0);
+        String action = null;
         try {
             JsonObject responseJson = JsonParser.parseString(jsonString).getAsJsonObject();
             if (!responseJson.has(Constants.KEY_ACTION)) {
                 log.error("Confirmed server action JSON missing 'action' field: {}", jsonString);
                 return;
             }
-            String action = responseJson.get(Constants.KEY_ACTION).getAsString();
+            action = responseJson.get(Constants.KEY_ACTION).getAsString();
             String status = responseJson.has(Constants.KEY_STATUS) ? responseJson.get(Constants.KEY_STATUS).getAsString() : null; // Status might not always be present in S->C initial actions
             String message = responseJson.has(Constants.KEY_MESSAGE) ? responseJson.get(Constants.KEY_MESSAGE).getAsString() : null;
             JsonObject data = responseJson.has(Constants.KEY_DATA) ? responseJson.getAsJsonObject(Constants.KEY_DATA) : null;
@@ -46,53 +78,58 @@ public class MessageProcessor {
                 case Constants.ACTION_ROOM_CREATED:
                     if (Constants.STATUS_SUCCESS.equals(status) && data != null && data.has(Constants.KEY_ROOM_ID)) {
                         String roomId = data.get(Constants.KEY_ROOM_ID).getAsString();
-                        System.out.println("\nRoom created successfully! ID: " + roomId);
-                        System.out.println("You can now send messages using: /send " + roomId + " <your_message>");
+                        out.append("\nRoom created successfully! ID: " + roomId).append('\n');
+                        out.append("You can now send messages using: /send " + roomId + " <your_message>").append('\n');
                     } else {
-                        System.out.println("\nRoom creation failed: " + (message != null ? message : "Unknown reason"));
+                        out.append("\nRoom creation failed: " + (message != null ? message : "Unknown reason")).append('\n');
                     }
                     break;
 
                 case Constants.ACTION_RECEIVE_MESSAGE:
                     // RECEIVE_MESSAGE comes directly from server (S->C), status might not be relevant here, focus on data
                     if (data != null && data.has(Constants.KEY_ROOM_ID) && data.has(Constants.KEY_SENDER_CHAT_ID) && data.has(Constants.KEY_CONTENT) && data.has(Constants.KEY_TIMESTAMP)) {
-                        String roomId = data.get(Constants.KEY_ROOM_ID).getAsString();
-                        String sender = data.get(Constants.KEY_SENDER_CHAT_ID).getAsString();
-                        String content = data.get(Constants.KEY_CONTENT).getAsString();
-                        String timestampStr = data.get(Constants.KEY_TIMESTAMP).getAsString();
-                        String formattedTime = formatTimestamp(timestampStr, "HH:mm:ss");
-                        System.out.printf("\n[%s] %s @ %s: %s\n", roomId, sender, formattedTime, content);
+                        if (data.has(Constants.KEY_SEQ)) {
+                            // Sequenced push: may be held until the ones before it arrive
+                            sequencer.offer(data.get(Constants.KEY_ROOM_ID).getAsString(), data.get(Constants.KEY_SEQ).getAsLong(), data, System.nanoTime(), sequencerListener);
+                            scheduleGapCheck();
+                            if (out.length() == 0) {
+                                return;
+                            }
+                        } else if (!appendReceivedMessage(data)) {
+                            return; // Room is flooding; counted towards its periodic summary instead
+                        }
                     } else {
                         log.error("Received invalid RECEIVE_MESSAGE data: {}", jsonString);
-                        System.out.println("\nReceived incomplete message data from server.");
+                        out.append("\nReceived incomplete message data from server.").append('\n');
                     }
                     break;
 
                 case Constants.ACTION_ROOMS_LIST:
-                    // ROOMS_LIST comes directly from server (S->C)
-                     if (data != null && data.has("rooms")) {
-                        JsonArray roomsArray = data.getAsJsonArray("rooms");
-                        System.out.println("\nYour rooms:");
-                        if (roomsArray.size() == 0) {
-                            System.out.println("  (No rooms found)");
+                    // ROOMS_LIST comes directly from server (S->C): the whole list, or the changes since the version we sent
+                    RoomDirectory.Change roomsChange = data != null ? clientState.getRoomDirectory().applyRooms(data) : null;
+                    if (roomsChange != null) {
+                        List<Map.Entry<String, String>> rooms = clientState.getRoomDirectory().rooms();
+                        out.append("\nYour rooms:").append('\n');
+                        if (rooms.isEmpty()) {
+                            out.append("  (No rooms found)").append('\n');
                         } else {
-                            for (int i = 0; i < roomsArray.size(); i++) {
-                                JsonElement roomElement = roomsArray.get(i);
-                                if (roomElement.isJsonObject()) {
-                                    JsonObject roomObject = roomElement.getAsJsonObject();
-                                    // Fix: Use property names that match the server: "id" and "name"
-                                    String roomId = roomObject.has("id") ? roomObject.get("id").getAsString() : "Unknown ID";
-                                    String roomName = roomObject.has("name") ? roomObject.get("name").getAsString() : "Unnamed";
-                                    System.out.println("  " + (i + 1) + ". " + roomName + " (ID: " + roomId + ")");
+                            for (int i = 0; i < rooms.size(); i++) {
+                                Map.Entry<String, String> room = rooms.get(i);
+                                if (room.getValue() != null) {
+                                    out.append("  " + (i + 1) + ". " + room.getValue() + " (ID: " + room.getKey() + ")").append('\n');
                                 } else {
                                     // Fallback for older server implementation that might just send room IDs
-                                    System.out.println("  " + (i + 1) + ". " + roomElement.getAsString());
+                                    out.append("  " + (i + 1) + ". " + room.getKey()).append('\n');
                                 }
                             }
                         }
+                        appendChange(roomsChange, Constants.CMD_LIST_ROOMS);
+                    } else if (data != null && data.has(Constants.KEY_SINCE_VERSION)) {
+                        log.warn("Dropped rooms_list delta from version {}: {}", data.get(Constants.KEY_SINCE_VERSION), jsonString);
+                        out.append("\nYour room list changed while it was being synced; use " + Constants.CMD_LIST_ROOMS + " again.").append('\n');
                     } else {
                          log.error("Received invalid ROOMS_LIST data: {}", jsonString);
-                         System.out.println("\nFailed to retrieve room list from server.");
+                         out.append("\nFailed to retrieve room list from server.").append('\n');
                     }
                     break;
 
@@ -100,23 +137,16 @@ public class MessageProcessor {
                     // MESSAGES_LIST comes directly from server (S->C)
                     if (data != null && data.has("room_id") && data.has("messages")) {
                         String roomId = data.get("room_id").getAsString();
-                        JsonArray messagesArray = data.getAsJsonArray("messages");
-                        System.out.println("\nMessages in room '" + roomId + "':");
-                        if (messagesArray.size() == 0) {
-                            System.out.println("  (No messages found)");
-                        } else {
-                            for (JsonElement msgElement : messagesArray) {
-                                JsonObject msgObject = msgElement.getAsJsonObject();
-                                String sender = msgObject.get("sender_chatid").getAsString();
-                                String content = msgObject.get("content").getAsString();
-                                String timestampStr = msgObject.get("timestamp").getAsString();
-                                String formattedTime = formatTimestamp(timestampStr, "yyyy-MM-dd HH:mm:ss");
-                                System.out.printf("  [%s] %s: %s\n", formattedTime, sender, content);
-                            }
+                        indexMessages(roomId, data.getAsJsonArray("messages"));
+                        if (historyPager.onPage(roomId, data)) {
+                            return; // A history stream asked for this page; it is shown when the stream is read
                         }
+                        JsonArray messagesArray = data.getAsJsonArray("messages");
+                        out.append("\nMessages in room '" + roomId + "':").append('\n');
+                        appendMessages(messagesArray);
                     } else {
                         log.error("Received invalid MESSAGES_LIST data: {}", jsonString);
-                        System.out.println("\nFailed to retrieve messages from server.");
+                        out.append("\nFailed to retrieve messages from server.").append('\n');
                     }
                     break;
 
@@ -124,18 +154,18 @@ public class MessageProcessor {
                     // Handle users list response
                     if (data != null && data.has("users")) {
                         JsonArray usersArray = data.getAsJsonArray("users");
-                        System.out.println("\nUsers in the system:");
+                        out.append("\nUsers in the system:").append('\n');
                         if (usersArray.size() == 0) {
-                            System.out.println("  (No users found)");
+                            out.append("  (No users found)").append('\n');
                         } else {
                             for (int i = 0; i < usersArray.size(); i++) {
                                 String username = usersArray.get(i).getAsString();
-                                System.out.println("  " + (i + 1) + ". " + username);
+                                out.append("  " + (i + 1) + ". " + username).append('\n');
                             }
                         }
                     } else {
                         log.error("Received invalid USERS_LIST data: {}", jsonString);
-                        System.out.println("\nFailed to retrieve users list from server.");
+                        out.append("\nFailed to retrieve users list from server.").append('\n');
                     }
                     break;
 
@@ -144,10 +174,10 @@ public class MessageProcessor {
                         data.has(Constants.KEY_ROOM_ID) && data.has("user_added")) {
                         String roomId = data.get(Constants.KEY_ROOM_ID).getAsString();
                         String userAdded = data.get("user_added").getAsString();
-                        System.out.println("\nUser '" + userAdded + "' successfully added to room: " + roomId);
+                        out.append("\nUser '" + userAdded + "' successfully added to room: " + roomId).append('\n');
                     } else {
-                        System.out.println("\nFailed to add user to room: " + 
-                            (message != null ? message : "Unknown reason"));
+                        out.append("\nFailed to add user to room: " + 
+                            (message != null ? message : "Unknown reason")).append('\n');
                     }
                     break;
 
@@ -156,10 +186,10 @@ public class MessageProcessor {
                             data.has(Constants.KEY_ROOM_ID) && data.has("user_removed")) {
                         String roomId = data.get(Constants.KEY_ROOM_ID).getAsString();
                         String userRemoved = data.get("user_removed").getAsString();
-                        System.out.println("\nUser '" + userRemoved + "' successfully removed from room: " + roomId);
+                        out.append("\nUser '" + userRemoved + "' successfully removed from room: " + roomId).append('\n');
                     } else {
-                        System.out.println("\nFailed to remove user from room: " +
-                                (message != null ? message : "Unknown reason"));
+                        out.append("\nFailed to remove user from room: " +
+                                (message != null ? message : "Unknown reason")).append('\n');
                     }
                     break;
 
@@ -167,10 +197,10 @@ public class MessageProcessor {
                     if (Constants.STATUS_SUCCESS.equals(status) && data != null &&
                             data.has(Constants.KEY_ROOM_ID)) {
                         String roomId = data.get(Constants.KEY_ROOM_ID).getAsString();
-                        System.out.println("\nRoom '" + roomId + "' successfully deleted.");
+                        out.append("\nRoom '" + roomId + "' successfully deleted.").append('\n');
                     } else {
-                        System.out.println("\nFailed to delete room: " +
-                                (message != null ? message : "Unknown reason"));
+                        out.append("\nFailed to delete room: " +
+                                (message != null ? message : "Unknown reason")).append('\n');
                     }
                     break;
 
@@ -179,59 +209,269 @@ public class MessageProcessor {
                             data.has(Constants.KEY_ROOM_ID) && data.has("new_room_name")) {
                         String roomId = data.get(Constants.KEY_ROOM_ID).getAsString();
                         String newRoomName = data.get("new_room_name").getAsString();
-                        System.out.println("\nRoom '" + roomId + "' successfully renamed to '" + newRoomName + "'.");
+                        out.append("\nRoom '" + roomId + "' successfully renamed to '" + newRoomName + "'.").append('\n');
                     } else {
-                        System.out.println("\nFailed to rename room: " +
-                                (message != null ? message : "Unknown reason"));
+                        out.append("\nFailed to rename room: " +
+                                (message != null ? message : "Unknown reason")).append('\n');
                     }
                     break;
 
                 case Constants.ACTION_ROOM_USERS_LIST:
-                    if (Constants.STATUS_SUCCESS.equals(status) && data != null &&
-                            data.has(Constants.KEY_ROOM_ID) && data.has("users")) {
+                    if (Constants.STATUS_SUCCESS.equals(status) && data != null && data.has(Constants.KEY_ROOM_ID)) {
                         String roomId = data.get(Constants.KEY_ROOM_ID).getAsString();
-                        JsonArray usersArray = data.getAsJsonArray("users");
+                        RoomDirectory.Change membersChange = clientState.getRoomDirectory().applyMembers(roomId, data);
+                        if (membersChange == null && !data.has(Constants.KEY_SINCE_VERSION)) {
+                            log.error("Received invalid ROOM_USERS_LIST data: {}", jsonString);
+                            out.append("\nFailed to get room users: Unknown reason").append('\n');
+                            break;
+                        } else if (membersChange == null) {
+                            log.warn("Dropped room_users_list delta for room {}: {}", roomId, jsonString);
+                            out.append("\nThe members of room '" + roomId + "' changed while they were being synced; use "
+                                    + Constants.CMD_GET_ROOM_USERS + " " + roomId + " again.").append('\n');
+                            break;
+                        }
+                        List<String> users = clientState.getRoomDirectory().members(roomId);
 
-                        System.out.println("\nUsers in room '" + roomId + "':");
-                        if (usersArray.size() == 0) {
-                            System.out.println("  (No users found in this room)");
+                        out.append("\nUsers in room '" + roomId + "':").append('\n');
+                        if (users.isEmpty()) {
+                            out.append("  (No users found in this room)").append('\n');
                         } else {
-                            for (int i = 0; i < usersArray.size(); i++) {
-                                String username = usersArray.get(i).getAsString();
-                                System.out.println("  " + (i + 1) + ". " + username);
+                            for (int i = 0; i < users.size(); i++) {
+                                out.append("  " + (i + 1) + ". " + users.get(i)).append('\n');
+                            }
+                        }
+                        appendChange(membersChange, Constants.CMD_GET_ROOM_USERS + " " + roomId);
+                    } else {
+                        out.append("\nFailed to get room users: " +
+                                (message != null ? message : "Unknown reason")).append('\n');
+                    }
+                    break;
+
+                case Constants.ACTION_DELIVERY_MODE:
+                    if (data != null && data.has(Constants.KEY_ROOM_ID) && data.has(Constants.KEY_DELIVERY_MODE)) {
+                        String roomId = data.get(Constants.KEY_ROOM_ID).getAsString();
+                        DeliveryModes.Mode mode = DeliveryModes.Mode.fromWire(data.get(Constants.KEY_DELIVERY_MODE).getAsString());
+                        if (mode != null) {
+                            // The server's word is final, also when it refused the change
+                            clientState.getDeliveryModes().set(roomId, mode);
+                            if (mode == DeliveryModes.Mode.FULL) {
+                                sequencer.restart(roomId, sequencerListener); // Pushes skipped while muted are not gaps
                             }
                         }
+                        if (Constants.STATUS_SUCCESS.equals(status)) {
+                            out.append("\nRoom '" + roomId + "' is now delivered in " + data.get(Constants.KEY_DELIVERY_MODE).getAsString() + " mode.").append('\n');
+                        } else {
+                            out.append("\nFailed to change delivery of room '" + roomId + "': " + (message != null ? message : "Unknown reason")).append('\n');
+                        }
+                    } else {
+                        out.append("\nFailed to change room delivery: " + (message != null ? message : "Unknown reason")).append('\n');
+                    }
+                    break;
+
+                case Constants.ACTION_ROOM_ACTIVITY:
+                    // Muted room: the server sends a count instead of the messages
+                    if (data != null && data.has(Constants.KEY_ROOM_ID) && data.has(Constants.KEY_UNREAD)) {
+                        String roomId = data.get(Constants.KEY_ROOM_ID).getAsString();
+                        int unread = data.get(Constants.KEY_UNREAD).getAsInt();
+                        out.append("\n").append(unread).append(unread == 1 ? " new message" : " new messages").append(" in muted room ").append(roomId)
+                                .append(" (use ").append(Constants.CMD_LIST_MESSAGES).append(' ').append(roomId).append(" to read them)").append('\n');
                     } else {
-                        System.out.println("\nFailed to get room users: " +
-                                (message != null ? message : "Unknown reason"));
+                        log.error("Received invalid ROOM_ACTIVITY data: {}", jsonString);
+                        return;
                     }
                     break;
 
                 default:
                     log.warn("Unhandled confirmed server action: {}", action);
                     if (message != null) {
-                        System.out.println("\nServer message (" + action + "): " + message);
+                        out.append("\nServer message (" + action + "): " + message).append('\n');
                     } else {
-                        System.out.println("\nReceived unhandled action from server: " + action);
+                        out.append("\nReceived unhandled action from server: " + action).append('\n');
                     }
                     break;
             }
-            System.out.print("> "); // Prompt for next user input
+            out.append("> "); // Prompt for next user input
         } catch (Exception e) {
             log.error("Error processing confirmed server JSON: {}", e.getMessage(), e);
-            System.out.println("\nError processing message from server.");
-            System.out.print("> ");
+            out.append("\nError processing message from server.").append('\n');
+            out.append("> ");
+        } finally {
+            renderer.flush(out);
+            event.end();
+            // Only a recording that wants the event pays for its fields; nothing was rendered without an action
+            if (action != null && event.shouldCommit()) {
+                event.action = action;
+                event.commit();
+            }
         }
     }
 
-    private String formatTimestamp(String isoTimestamp, String pattern) {
+    /**
+     * Indexes a live message and appends it to the output.
+     *
+     * @return false if the room is muted, unsubscribed or flooding and the message was only counted.
+     */
+    private boolean appendReceivedMessage(JsonObject data) {
+        String roomId = data.get(Constants.KEY_ROOM_ID).getAsString();
+        String sender = data.get(Constants.KEY_SENDER_CHAT_ID).getAsString();
+        String content = data.get(Constants.KEY_CONTENT).getAsString();
+        String timestampStr = data.get(Constants.KEY_TIMESTAMP).getAsString();
+        searchIndex.add(roomId, sender, timestampStr, content);
+        // A server that does not filter by delivery mode still pushes muted and unsubscribed rooms
+        DeliveryModes.Mode mode = clientState.getDeliveryModes().get(roomId);
+        if (mode == DeliveryModes.Mode.NOTIFY) {
+            renderer.countMutedMessage(roomId);
+            return false;
+        }
+        if (mode == DeliveryModes.Mode.NONE || !renderer.admitRoomMessage(roomId)) {
+            return false;
+        }
+        out.append("\n[").append(roomId).append("] ").append(sender).append(" @ ");
+        renderer.appendTimestamp(out, timestampStr, ConsoleRenderer.TIME_FORMAT);
+        out.append(": ").append(content).append('\n');
+        return true;
+    }
+
+    /** Runs {@link #checkGaps} when the sequencer's next deadline is due. */
+    private void scheduleGapCheck() {
+        long now = System.nanoTime();
+        long delayNanos = sequencer.nextDeadlineNanos(now);
+        if (delayNanos < 0 || (gapCheckAtNanos != 0 && gapCheckAtNanos - (now + delayNanos) <= 0)) {
+            return; // No gap, or a check is already due by then
+        }
+        gapCheckAtNanos = now + delayNanos;
+        if (gapTimer == null) {
+            gapTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "RoomReorder");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        gapTimer.schedule(this::checkGaps, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void checkGaps() {
+        gapCheckAtNanos = 0;
+        out.setLength(0);
         try {
-            Instant instant = Instant.parse(isoTimestamp);
-            // Ensure correct timezone handling if needed, default is system default
-            return new SimpleDateFormat(pattern).format(java.util.Date.from(instant));
+            sequencer.expire(System.nanoTime(), sequencerListener);
+            scheduleGapCheck();
+            if (out.length() > 0) {
+                out.append("> ");
+            }
+        } catch (Exception e) {
+            log.error("Error releasing held messages: {}", e.getMessage(), e);
+        } finally {
+            renderer.flush(out);
+        }
+    }
+
+    /**
+     * Forgets the rooms' sequence positions, delivering any held pushes first. Sequence numbers only
+     * hold within one session on one server (see {@link ClientState#addSessionListener}).
+     */
+    public synchronized void resetSequencing() {
+        out.setLength(0);
+        try {
+            sequencer.reset(sequencerListener);
+            if (out.length() > 0) {
+                out.append("> ");
+            }
         } catch (Exception e) {
-            log.warn("Failed to parse or format timestamp '{}': {}", isoTimestamp, e.getMessage());
-            return isoTimestamp; // Return original string if parsing fails
+            log.error("Error releasing held messages: {}", e.getMessage(), e);
+        } finally {
+            renderer.flush(out);
+        }
+    }
+
+    /**
+     * Sends gap-fill requests for sequenced pushes; without one, gaps are only reported.
+     */
+    public void setGapFiller(GapFiller gapFiller) {
+        this.gapFiller = gapFiller;
+    }
+
+    /** Asks the server to push the missing messages of a room again. */
+    public interface GapFiller {
+        void requestFill(String roomId, List<long[]> ranges);
+    }
+
+    private final class SequencerListener implements RoomSequencer.Listener {
+        @Override
+        public void deliver(String roomId, JsonObject message) {
+            appendReceivedMessage(message);
+        }
+
+        @Override
+        public void requestFill(String roomId, List<long[]> ranges) {
+            GapFiller filler = gapFiller;
+            if (filler != null) {
+                log.info("Requesting {} missing range(s) of room {}", ranges.size(), roomId);
+                filler.requestFill(roomId, ranges);
+            }
+        }
+
+        @Override
+        public void skipped(String roomId, long fromSeq, long toSeq) {
+            long count = toSeq - fromSeq + 1;
+            log.warn("Giving up on messages {}-{} of room {}", fromSeq, toSeq, roomId);
+            out.append("\n(").append(count).append(count == 1 ? " message" : " messages").append(" in room '").append(roomId)
+                    .append("' could not be recovered; ").append(Constants.CMD_LIST_MESSAGES).append(' ').append(roomId).append(" shows the full history)\n");
+        }
+    }
+
+    /** Says what a delta reply changed; a snapshot needs no note. */
+    private void appendChange(RoomDirectory.Change change, String command) {
+        if (change.snapshot) {
+            return;
+        }
+        if (change.added + change.removed + change.renamed == 0) {
+            out.append("  (Unchanged since the last ").append(command).append(')').append('\n');
+            return;
+        }
+        out.append("  (").append(change.added).append(" added, ").append(change.removed).append(" removed");
+        if (change.renamed > 0) {
+            out.append(", ").append(change.renamed).append(" renamed");
+        }
+        out.append(" since the last ").append(command).append(')').append('\n');
+    }
+
+    private void appendMessages(JsonArray messagesArray) {
+        if (messagesArray.size() == 0) {
+            out.append("  (No messages found)").append('\n');
+            return;
+        }
+        for (JsonElement msgElement : messagesArray) {
+            JsonObject msgObject = msgElement.getAsJsonObject();
+            String sender = msgObject.get("sender_chatid").getAsString();
+            String content = msgObject.get("content").getAsString();
+            String timestampStr = msgObject.get("timestamp").getAsString();
+            out.append("  [");
+            renderer.appendTimestamp(out, timestampStr, ConsoleRenderer.DATE_TIME_FORMAT);
+            out.append("] ").append(sender).append(": ").append(content).append('\n');
+        }
+    }
+
+    private void indexMessages(String roomId, JsonArray messagesArray) {
+        for (JsonElement msgElement : messagesArray) {
+            JsonObject msgObject = msgElement.getAsJsonObject();
+            if (msgObject.has("content")) {
+                searchIndex.add(roomId, msgObject.has("sender_chatid") ? msgObject.get("sender_chatid").getAsString() : null,
+                        msgObject.has("timestamp") ? msgObject.get("timestamp").getAsString() : null, msgObject.get("content").getAsString());
+            }
+        }
+    }
+
+    /**
+     * Shows one page of a {@link HistoryStream}, without the prompt (the command prints it).
+     */
+    private synchronized void renderHistoryPage(String roomId, HistoryStream.Page page) {
+        out.setLength(0);
+        out.append("\nMessages in room '").append(roomId).append("' (page ").append(page.number).append("):\n");
+        appendMessages(page.messages);
+        if (page.hasMore) {
+            out.append("  (").append(Constants.CMD_MORE).append(' ').append(roomId).append(" for older messages)\n");
         }
+        renderer.flush(out);
     }
 }
@@ -0,0 +1,304 @@
+package UdpChatClient;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Single outbound path for every packet the client sends.
+ * Callers encode on their own thread into a pooled {@link PacketBuffer} (see {@link PacketEncoder})
+ * and enqueue it; one sender thread drains the queues
+ * in priority order (handshake control legs first, bulk list requests last) and paces
+ * non-control traffic with a byte token bucket so the server's receive buffer is not burst.
+ */
+public class OutboundScheduler {
+    private static final Logger log = LoggerFactory.getLogger(OutboundScheduler.class);
+
+    public enum Priority {
+        CONTROL,  // CHARACTER_COUNT, CONFIRM_COUNT, ACK - never wait for pacing
+        REQUEST,  // Interactive requests (login, send_message, room changes)
+        BULK      // List/history fetches that may be large or frequent
+    }
+
+    private static class OutboundPacket {
+        final PacketBuffer buffer;
+        final int length;
+        final InetAddress address;
+        final int port;
+        final String action;
+        final int shard;
+        final CongestionController.Permit permit;
+
+        OutboundPacket(PacketBuffer buffer, InetAddress address, int port) {
+            this.buffer = buffer;
+            this.length = buffer.length;
+            this.address = address;
+            this.port = port;
+            this.action = buffer.action;
+            this.shard = buffer.shard;
+            this.permit = buffer.permit;
+        }
+    }
+
+    private final PacketTransport transport;
+    private final ClientState clientState;
+    private final List<ArrayDeque<OutboundPacket>> queues; // Indexed by Priority ordinal
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Thread senderThread;
+    private volatile boolean running = true;
+
+    // Token bucket (bytes); rate 0 disables pacing
+    private final long rateBytesPerSec;
+    private final long burstBytes;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public OutboundScheduler(PacketTransport transport, ClientState clientState, long rateBytesPerSec) {
+        this.transport = transport;
+        this.clientState = clientState;
+        this.rateBytesPerSec = rateBytesPerSec;
+        this.burstBytes = Math.max(Constants.OUTBOUND_BURST_BYTES, Constants.MAX_UDP_PACKET_SIZE);
+        this.tokens = burstBytes;
+        this.lastRefillNanos = System.nanoTime();
+        this.queues = new ArrayList<>(Priority.values().length);
+        for (int i = 0; i < Priority.values().length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        this.senderThread = new Thread(this::runSender, "ClientSenderThread");
+        senderThread.setDaemon(true);
+        senderThread.start();
+    }
+
+    /**
+     * Encodes and queues a packet. The priority is derived from the packet's action.
+     *
+     * @return true if the packet was queued, false if encoding failed or the queue was full.
+     */
+    public boolean send(InetAddress address, int port, JsonObject json, String keyString) {
+        return send(address, port, json, keyString, -1);
+    }
+
+    /**
+     * Like {@link #send(InetAddress, int, JsonObject, String)}, from the socket of receive shard
+     * {@code shard}; for replies sent on another thread than the one that received the request.
+     */
+    public boolean send(InetAddress address, int port, JsonObject json, String keyString, int shard) {
+        if (address == null || json == null) {
+            log.error("Attempted to send packet with null address or JSON data.");
+            return false;
+        }
+        PacketBuffer buffer = PacketEncoder.get().encode(json, keyString, clientState.keyHintFor(keyString), clientState.aeadFor(keyString), null);
+        if (buffer == null) {
+            return false;
+        }
+        buffer.shard = shard;
+        return send(address, port, buffer);
+    }
+
+    /**
+     * Queues an already encoded packet. The scheduler owns {@code buffer} from here on,
+     * whether or not it is accepted.
+     *
+     * @return true if the packet was queued.
+     */
+    public boolean send(InetAddress address, int port, PacketBuffer buffer) {
+        if (address == null) {
+            log.error("Attempted to send packet with null address.");
+            buffer.release();
+            return false;
+        }
+        if (buffer.shard < 0) {
+            // A reply leaves from the socket its datagram came in on, so the server's next leg comes back there
+            buffer.shard = MessageListener.currentShard();
+        }
+        if (!enqueue(new OutboundPacket(buffer, address, port), priorityOf(buffer.action))) {
+            buffer.release();
+            return false;
+        }
+        return true;
+    }
+
+    static Priority priorityOf(String action) {
+        switch (action) {
+            case Constants.ACTION_CHARACTER_COUNT:
+            case Constants.ACTION_CONFIRM_COUNT:
+            case Constants.ACTION_ACK:
+            case Constants.ACTION_PING: // Probe RTTs must not include queueing behind bulk traffic
+                return Priority.CONTROL;
+            case Constants.ACTION_GET_MESSAGES:
+            case Constants.ACTION_GET_ROOMS:
+            case Constants.ACTION_GET_USERS:
+            case Constants.ACTION_GET_ROOM_USERS:
+                return Priority.BULK;
+            default:
+                return Priority.REQUEST;
+        }
+    }
+
+    private boolean enqueue(OutboundPacket packet, Priority priority) {
+        lock.lock();
+        try {
+            if (!running) {
+                log.warn("Outbound scheduler stopped, dropping packet (action: {})", packet.action);
+                return false;
+            }
+            ArrayDeque<OutboundPacket> queue = queues.get(priority.ordinal());
+            int capacity = priority == Priority.CONTROL ? Constants.OUTBOUND_CONTROL_QUEUE_CAPACITY : Constants.OUTBOUND_QUEUE_CAPACITY;
+            if (queue.size() >= capacity) {
+                log.warn("Outbound {} queue full ({} packets), dropping packet (action: {})", priority, queue.size(), packet.action);
+                return false;
+            }
+            queue.addLast(packet);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runSender() {
+        List<OutboundPacket> batch = new ArrayList<>(Constants.OUTBOUND_BATCH_SIZE);
+        while (running || hasQueued()) {
+            try {
+                takeBatch(batch);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+                continue;
+            }
+            // Send the whole batch outside the lock so producers are never blocked on socket I/O
+            for (OutboundPacket packet : batch) {
+                ClientEvents.PacketSent event = new ClientEvents.PacketSent();
+                try {
+                    event.begin();
+                    if (packet.permit != null) {
+                        // RTT samples leave out time spent queued here; stamped first so a fast reply cannot precede it
+                        packet.permit.markSent(System.nanoTime());
+                    }
+                    transport.send(packet.buffer.data, packet.length, packet.address, packet.port, packet.shard);
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.size = packet.length;
+                        event.action = packet.action;
+                        event.keyType = ClientEvents.keyTypeOf(packet.buffer.data, 0, packet.length);
+                        event.shard = Math.max(0, packet.shard);
+                        event.commit();
+                    }
+                    log.debug("Sent encrypted packet (action: {}) to {}:{}", packet.action, packet.address.getHostAddress(), packet.port);
+                } catch (IOException e) {
+                    log.error("IOException sending encrypted UDP packet to {}:{}: {}", packet.address.getHostAddress(), packet.port, e.getMessage());
+                } finally {
+                    packet.buffer.release();
+                }
+            }
+            batch.clear();
+        }
+        log.info("Outbound sender thread stopped.");
+    }
+
+    /**
+     * Waits until at least one packet may be sent, then moves up to OUTBOUND_BATCH_SIZE
+     * packets into {@code batch}, highest priority first.
+     */
+    private void takeBatch(List<OutboundPacket> batch) throws InterruptedException {
+        lock.lock();
+        try {
+            while (batch.isEmpty()) {
+                if (!hasQueuedLocked()) {
+                    if (!running) {
+                        return;
+                    }
+                    notEmpty.await();
+                    continue;
+                }
+                refillTokens();
+                long waitNanos = 0;
+                for (Priority priority : Priority.values()) {
+                    ArrayDeque<OutboundPacket> queue = queues.get(priority.ordinal());
+                    while (!queue.isEmpty() && batch.size() < Constants.OUTBOUND_BATCH_SIZE) {
+                        OutboundPacket next = queue.peekFirst();
+                        // Control legs always go out; they borrow tokens from the traffic behind them
+                        if (priority != Priority.CONTROL && rateBytesPerSec > 0 && tokens < next.length) {
+                            waitNanos = (long) ((next.length - tokens) * 1_000_000_000L / rateBytesPerSec);
+                            break;
+                        }
+                        queue.pollFirst();
+                        tokens -= next.length;
+                        batch.add(next);
+                    }
+                    if (waitNanos > 0 || batch.size() >= Constants.OUTBOUND_BATCH_SIZE) {
+                        break;
+                    }
+                }
+                if (batch.isEmpty() && waitNanos > 0) {
+                    // New control packets signal notEmpty and cut the pacing wait short
+                    notEmpty.awaitNanos(waitNanos);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refillTokens() {
+        long now = System.nanoTime();
+        if (rateBytesPerSec > 0) {
+            tokens = Math.min(burstBytes, tokens + (now - lastRefillNanos) * rateBytesPerSec / 1_000_000_000.0);
+        } else {
+            tokens = burstBytes;
+        }
+        lastRefillNanos = now;
+    }
+
+    private boolean hasQueued() {
+        lock.lock();
+        try {
+            return hasQueuedLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean hasQueuedLocked() {
+        for (ArrayDeque<OutboundPacket> queue : queues) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops accepting packets and waits briefly for queued packets to be sent.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            senderThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (senderThread.isAlive()) {
+            log.warn("Outbound sender did not drain in time, interrupting.");
+            senderThread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package UdpChatClient;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pooled byte buffer holding one encoded outbound packet.
+ * Filled by {@link PacketEncoder} on the caller's thread, handed to {@link OutboundScheduler}
+ * and returned to the pool by the sender thread once the datagram is on the wire.
+ * Buffers start at {@link Constants#PACKET_BUFFER_INITIAL_BYTES} and grow while a packet is written,
+ * up to the largest datagram; the pool only keeps buffers that stayed small.
+ */
+public final class PacketBuffer {
+    private static final ArrayBlockingQueue<PacketBuffer> pool = new ArrayBlockingQueue<>(Constants.OUTBOUND_BUFFER_POOL_SIZE);
+
+    byte[] data = new byte[Constants.PACKET_BUFFER_INITIAL_BYTES]; // Replaced when it grows
+    int length;
+    String action;
+    int shard; // Socket to send from (see Constants.OPT_RECEIVE_SHARDS); -1 until the sender decides
+    CongestionController.Permit permit; // Stamped with the transmit time of a client request; null otherwise
+
+    private PacketBuffer() {}
+
+    static PacketBuffer acquire() {
+        PacketBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = new PacketBuffer();
+        }
+        buffer.length = 0;
+        buffer.action = null;
+        buffer.shard = -1;
+        buffer.permit = null;
+        return buffer;
+    }
+
+    /**
+     * Makes {@link #data} at least {@code capacity} bytes long, keeping its contents.
+     *
+     * @return false if that is more than a datagram can hold.
+     */
+    boolean ensureCapacity(int capacity) {
+        if (capacity <= data.length) {
+            return true;
+        }
+        if (capacity > Constants.MAX_UDP_PACKET_SIZE) {
+            return false;
+        }
+        data = Arrays.copyOf(data, Math.min(Constants.MAX_UDP_PACKET_SIZE, Math.max(capacity, data.length * 2)));
+        return true;
+    }
+
+    /**
+     * Returns the buffer to the pool; it must not be used afterwards. Surplus buffers, and buffers a
+     * large packet grew, are left to the GC.
+     */
+    void release() {
+        if (data.length <= Constants.PACKET_BUFFER_RETAINED_BYTES) {
+            pool.offer(this);
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+}
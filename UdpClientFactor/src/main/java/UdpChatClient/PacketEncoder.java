@@ -0,0 +1,242 @@
+package UdpChatClient;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.security.GeneralSecurityException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Encodes outbound JSON in a single pass: Gson's {@link JsonWriter} streams characters into a
+ * sink that counts handshake frequencies, applies the Caesar shift and writes UTF-8 straight
+ * into a pooled {@link PacketBuffer}. No intermediate JSON String, cipher String or byte[] is built.
+ * One encoder per thread (see {@link #get()}); apart from the optional envelope header the output
+ * is byte-for-byte what {@link JsonHelper#encodePacket} produces.
+ */
+public final class PacketEncoder {
+    private static final Logger log = LoggerFactory.getLogger(PacketEncoder.class);
+    private static final Gson gson = new Gson(); // Same settings as JsonHelper, so the escaping matches
+    private static final ThreadLocal<PacketEncoder> ENCODER = ThreadLocal.withInitial(PacketEncoder::new);
+
+    private final Sink sink = new Sink();
+
+    private PacketEncoder() {}
+
+    public static PacketEncoder get() {
+        return ENCODER.get();
+    }
+
+    /**
+     * Runs one encode and one parse so Gson's tree adapters, the cipher and the pool are loaded and
+     * linked before the first real packet. Meant for a background thread during startup.
+     */
+    public static void warmUp() {
+        JsonObject data = new JsonObject();
+        data.addProperty(Constants.KEY_CHAT_ID, "warmup");
+        data.addProperty(Constants.KEY_CONTENT, "Xin chào");
+        PacketBuffer buffer = get().encode(JsonHelper.createRequest(Constants.ACTION_LOGIN, data), Constants.FIXED_LOGIN_KEY_STRING, -1, new FrequencyDigest());
+        if (buffer != null) {
+            buffer.release();
+        }
+        JsonParser.parseString("{\"action\":\"ack\",\"status\":\"success\",\"data\":{\"transaction_id\":\"0\",\"letter_frequencies\":{\"a\":1}}}");
+    }
+
+    /**
+     * Serializes and encrypts {@code json} into a pooled buffer.
+     *
+     * @param keyHint Key id written in an envelope header ahead of the ciphertext, or -1 for none
+     *                (see {@link ClientState#keyHintFor}).
+     * @param digest  If non-null, receives the frequencies of the plain JSON text.
+     * @return The filled buffer (caller owns it until it is sent or released), or null on error.
+     */
+    public PacketBuffer encode(JsonObject json, String keyString, int keyHint, FrequencyDigest digest) {
+        return encode(json, keyString, keyHint, null, digest);
+    }
+
+    /**
+     * Same as {@link #encode(JsonObject, String, int, FrequencyDigest)}, but with {@code aead} non-null
+     * the JSON is written unshifted and sealed in place with AES-GCM (the key hint is then unused,
+     * the AEAD header carries the key id).
+     */
+    public PacketBuffer encode(JsonObject json, String keyString, int keyHint, AeadSession aead, FrequencyDigest digest) {
+        if (json == null) {
+            log.error("Attempted to encode null JSON data.");
+            return null;
+        }
+        if (keyString == null || keyString.isEmpty()) {
+            log.error("Attempted encryption with null or empty key.");
+            return null;
+        }
+        PacketBuffer buffer = PacketBuffer.acquire();
+        if (aead != null) {
+            buffer.length = Constants.AEAD_HEADER_SIZE;
+        } else if (keyHint >= 0) {
+            buffer.data[0] = Constants.ENVELOPE_MAGIC;
+            buffer.data[1] = (byte) keyHint;
+            buffer.length = Constants.ENVELOPE_HEADER_SIZE;
+        }
+        sink.reset(buffer, aead != null ? 0 : keyString.length(), digest);
+        try {
+            gson.toJson(json, gson.newJsonWriter(sink));
+            if (aead != null) {
+                int plainLength = buffer.length - Constants.AEAD_HEADER_SIZE;
+                if (!buffer.ensureCapacity(plainLength + AeadSession.overhead())) {
+                    throw new PacketTooLargeException();
+                }
+                buffer.length = aead.seal(buffer.data, plainLength);
+            }
+        } catch (GeneralSecurityException e) {
+            buffer.release();
+            log.error("Error sealing packet: {}", e.getMessage(), e);
+            return null;
+        } catch (PacketTooLargeException e) {
+            buffer.release();
+            log.error("Attempted to send UDP packet larger than max size ({} bytes) after encryption", Constants.MAX_UDP_PACKET_SIZE);
+            return null;
+        } catch (JsonIOException e) {
+            buffer.release();
+            if (e.getCause() instanceof PacketTooLargeException) {
+                log.error("Attempted to send UDP packet larger than max size ({} bytes) after encryption", Constants.MAX_UDP_PACKET_SIZE);
+            } else {
+                log.error("Error encoding packet: {}", e.getMessage(), e);
+            }
+            return null;
+        } catch (IOException e) {
+            buffer.release();
+            log.error("Error encoding packet: {}", e.getMessage(), e);
+            return null;
+        } finally {
+            sink.reset(null, 0, null);
+        }
+        buffer.action = json.has(Constants.KEY_ACTION) ? json.get(Constants.KEY_ACTION).getAsString() : "unknown";
+        if (log.isDebugEnabled()) {
+            log.debug("Encoded {} bytes for action {}", buffer.length, buffer.action);
+        }
+        return buffer;
+    }
+
+    private static final class PacketTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        PacketTooLargeException() {
+            super("packet exceeds " + Constants.MAX_UDP_PACKET_SIZE + " bytes");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this; // Shared instance; a stack trace would be meaningless
+        }
+    }
+
+    /**
+     * Writer that ciphers and UTF-8 encodes into the current buffer. Surrogate pairs are
+     * combined before encoding, as String.getBytes would.
+     */
+    private static final class Sink extends Writer {
+        private static final PacketTooLargeException TOO_LARGE = new PacketTooLargeException();
+
+        private PacketBuffer buffer;
+        private int shift;
+        private FrequencyDigest digest;
+        private char pendingHighSurrogate;
+
+        void reset(PacketBuffer buffer, int shift, FrequencyDigest digest) {
+            this.buffer = buffer;
+            this.shift = shift;
+            this.digest = digest;
+            this.pendingHighSurrogate = 0;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            put((char) c);
+        }
+
+        @Override
+        public void write(char[] chars, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                put(chars[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                put(str.charAt(i));
+            }
+        }
+
+        private void put(char plain) throws IOException {
+            if (digest != null) {
+                digest.add(plain);
+            }
+            char c = CaesarCipher.shiftChar(plain, shift);
+            byte[] data;
+            int pos = buffer.length;
+            if (pendingHighSurrogate != 0) {
+                char high = pendingHighSurrogate;
+                pendingHighSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(high, c);
+                    data = ensure(pos, 4);
+                    data[pos++] = (byte) (0xF0 | (cp >> 18));
+                    data[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    data[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    data[pos++] = (byte) (0x80 | (cp & 0x3F));
+                    buffer.length = pos;
+                    return;
+                }
+                data = ensure(pos, 1);
+                data[pos++] = '?'; // Unpaired surrogate, replaced as String.getBytes does
+            }
+            if (c < 0x80) {
+                data = ensure(pos, 1);
+                data[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                data = ensure(pos, 2);
+                data[pos++] = (byte) (0xC0 | (c >> 6));
+                data[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                pendingHighSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                data = ensure(pos, 1);
+                data[pos++] = '?';
+            } else {
+                data = ensure(pos, 3);
+                data[pos++] = (byte) (0xE0 | (c >> 12));
+                data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                data[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            buffer.length = pos;
+        }
+
+        /** @return The buffer's array, grown if needed to take {@code bytes} more at {@code pos}. */
+        private byte[] ensure(int pos, int bytes) throws PacketTooLargeException {
+            if (!buffer.ensureCapacity(pos + bytes)) {
+                throw TOO_LARGE;
+            }
+            return buffer.data;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                ensure(buffer.length, 1);
+                buffer.data[buffer.length++] = '?';
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
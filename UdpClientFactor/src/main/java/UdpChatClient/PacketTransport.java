@@ -0,0 +1,49 @@
+package UdpChatClient;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+
+/**
+ * Sink for encoded outbound datagrams. The scheduler owns the only sending thread,
+ * so implementations do not need to be thread-safe.
+ */
+public interface PacketTransport {
+
+    /**
+     * @param shard Index of the socket to send from, as picked for the packet's {@link PacketBuffer};
+     *              transports with a single socket ignore it.
+     */
+    void send(byte[] data, int length, InetAddress address, int port, int shard) throws IOException;
+
+    /**
+     * Transport writing to the chat sockets, reusing a single DatagramPacket.
+     */
+    static PacketTransport of(DatagramSocket... sockets) {
+        DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+        return (data, length, address, port, shard) -> {
+            packet.setData(data, 0, length);
+            packet.setAddress(address);
+            packet.setPort(port);
+            sockets[shard > 0 && shard < sockets.length ? shard : 0].send(packet);
+        };
+    }
+
+    /**
+     * Transport that records every datagram to {@code capture} before handing it to {@code target}.
+     */
+    static PacketTransport capturing(PacketTransport target, WireCapture capture) {
+        return (data, length, address, port, shard) -> {
+            capture.record(WireCapture.OUTBOUND, data, 0, length, address, port);
+            target.send(data, length, address, port, shard);
+        };
+    }
+
+    /**
+     * Transport that drops everything, for replaying captured traffic without a server.
+     */
+    static PacketTransport discard() {
+        return (data, length, address, port, shard) -> { };
+    }
+}
@@ -0,0 +1,81 @@
+package UdpChatClient;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Ascending document ids of one search term, stored as gaps in a growable int array
+ * (and as varints on disk). Documents are only ever appended with increasing ids.
+ */
+final class PostingList {
+    private int[] deltas = new int[4];
+    private int size;
+    private int lastDocId = -1;
+
+    void add(int docId) {
+        if (docId <= lastDocId) {
+            return; // Same term twice in one message
+        }
+        if (size == deltas.length) {
+            deltas = Arrays.copyOf(deltas, size * 2);
+        }
+        deltas[size++] = lastDocId < 0 ? docId : docId - lastDocId;
+        lastDocId = docId;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Decodes the ids into {@code out} (which must hold {@link #size()} ints). */
+    int[] decode(int[] out) {
+        int docId = 0;
+        for (int i = 0; i < size; i++) {
+            docId += deltas[i];
+            out[i] = docId;
+        }
+        return out;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        writeVarInt(out, size);
+        for (int i = 0; i < size; i++) {
+            writeVarInt(out, deltas[i]);
+        }
+    }
+
+    static PostingList read(DataInputStream in) throws IOException {
+        PostingList list = new PostingList();
+        list.size = readVarInt(in);
+        list.deltas = new int[Math.max(4, list.size)];
+        int docId = 0;
+        for (int i = 0; i < list.size; i++) {
+            list.deltas[i] = readVarInt(in);
+            docId += list.deltas[i];
+        }
+        list.lastDocId = list.size > 0 ? docId : -1;
+        return list;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in search index");
+    }
+}
@@ -0,0 +1,48 @@
+package UdpChatClient;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Creates files and directories only the current user can read, for what the client keeps on disk
+ * that must not leak to other accounts: session keys, chat history, wire captures. On file systems
+ * without POSIX permissions the platform defaults apply.
+ */
+public final class PrivateFiles {
+
+    private PrivateFiles() {}
+
+    /** The directory holding the client's per-user data ({@link Constants#APP_DATA_DIR} in the home directory). */
+    public static Path appDataDir() {
+        return Path.of(System.getProperty("user.home"), Constants.APP_DATA_DIR);
+    }
+
+    /** Like {@link Files#createDirectories}; directories it creates are rwx------. */
+    public static void createDirectories(Path dir) throws IOException {
+        if (isPosix()) {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(dir);
+        }
+    }
+
+    /**
+     * Replaces {@code path} with a new empty rw------- file, so opening it for writing afterwards keeps
+     * those permissions. A file left by an earlier run is deleted rather than reused with its old mode.
+     */
+    public static void createFile(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        if (isPosix()) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(path);
+        }
+    }
+
+    private static boolean isPosix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+}
@@ -0,0 +1,234 @@
+package UdpChatClient;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Staged receive path, enabled with {@link Constants#OPT_PIPELINE}. Without it the listener thread
+ * decrypts, runs the handshake and renders every datagram before it reads the next one. With it, the
+ * listener thread only receives, and three more threads do the rest:
+ * <pre>
+ *   receive --raw--&gt; decode --decoded--&gt; handshake --actions--&gt; application
+ * </pre>
+ * Each arrow is an {@link SpscRing} of preallocated slots. Under overload:
+ * <ul>
+ *   <li>raw ring full: the datagram is dropped, so the socket keeps draining. The sender retries
+ *       anything that was not acknowledged.</li>
+ *   <li>decoded ring full: a low-priority push (a room message or activity count) is shed before its
+ *       handshake starts, so the server pushes it again. Handshake legs and replies wait for room.</li>
+ *   <li>actions ring full: the handshake stage waits. Those actions are already confirmed to the
+ *       server, so they are never dropped.</li>
+ * </ul>
+ */
+public class ReceivePipeline {
+    private static final Logger log = LoggerFactory.getLogger(ReceivePipeline.class);
+
+    /** A datagram as received, then as decoded. The byte array moves with the datagram from ring to ring. */
+    private static final class Datagram {
+        byte[] data = new byte[Constants.PIPELINE_SLOT_BYTES];
+        int length;
+        InetAddress address;
+        int port;
+        JsonHelper.DecryptedResult decoded; // Null if decoding was left to the handshake stage
+        final DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+
+        DatagramPacket packet() {
+            packet.setData(data, 0, length);
+            packet.setAddress(address);
+            packet.setPort(port);
+            return packet;
+        }
+    }
+
+    private static final class Action {
+        String json;
+    }
+
+    private final MessageListener listener;
+    private final MessageProcessor messageProcessor;
+    private final SpscRing.WaitStrategy waitStrategy;
+    private final SpscRing<Datagram> raw;
+    private final SpscRing<Datagram> decoded;
+    private final SpscRing<Action> actions;
+    private final List<Thread> threads = new ArrayList<>();
+    private final BooleanSupplier running;
+    private volatile boolean stopped;
+    private volatile Thread handshakeThread;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong droppedAtReceive = new AtomicLong();
+    private final AtomicLong pushesShed = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+
+    public ReceivePipeline(ClientState clientState, MessageListener listener, HandshakeManager handshakeManager,
+                           MessageProcessor messageProcessor, SpscRing.WaitStrategy waitStrategy) {
+        this.listener = listener;
+        this.messageProcessor = messageProcessor;
+        this.waitStrategy = waitStrategy;
+        this.raw = new SpscRing<>(Constants.PIPELINE_RING_SIZE, Datagram::new, waitStrategy);
+        this.decoded = new SpscRing<>(Constants.PIPELINE_RING_SIZE, Datagram::new, waitStrategy);
+        this.actions = new SpscRing<>(Constants.PIPELINE_RING_SIZE, Action::new, waitStrategy);
+        this.running = () -> !stopped && clientState.isRunning();
+        handshakeManager.setActionSink(this::submitAction);
+    }
+
+    public void start() {
+        startStage("ReceiveDecode", this::decodeLoop);
+        startStage("ReceiveHandshake", this::handshakeLoop);
+        startStage("ReceiveApplication", this::applicationLoop);
+        listener.setPipeline(this);
+        log.info("Receive pipeline started ({} wait, {} slots per ring)", waitStrategy, raw.capacity());
+    }
+
+    private void startStage(String name, Runnable loop) {
+        Thread t = new Thread(loop, name);
+        t.setDaemon(true);
+        threads.add(t);
+        t.start();
+    }
+
+    /**
+     * Receive stage: copies a datagram into the raw ring. Called by the listener thread only.
+     */
+    void offer(DatagramPacket packet) {
+        received.incrementAndGet();
+        Datagram slot = raw.tryClaim();
+        if (slot == null) {
+            droppedAtReceive.incrementAndGet();
+            return;
+        }
+        int length = packet.getLength();
+        if (slot.data.length < length) {
+            slot.data = new byte[length]; // Kept for the next datagrams that land in this slot
+        }
+        System.arraycopy(packet.getData(), packet.getOffset(), slot.data, 0, length);
+        slot.length = length;
+        slot.address = packet.getAddress();
+        slot.port = packet.getPort();
+        raw.publish();
+    }
+
+    private void decodeLoop() {
+        Datagram in;
+        while ((in = raw.take(running)) != null) {
+            try {
+                DatagramPacket packet = in.packet();
+                JsonHelper.DecryptedResult result = null;
+                if (listener.knowsKey(packet)) {
+                    result = listener.decrypt(packet);
+                    if (result == null) {
+                        log.error("Failed to decrypt or parse packet from server {}:{}.", in.address.getHostAddress(), in.port);
+                        continue;
+                    }
+                } else {
+                    deferred.incrementAndGet(); // Probably under a key from a login ACK not handled yet
+                }
+                Datagram out = decoded.tryClaim();
+                if (out == null) {
+                    if (result != null && isLowPriorityPush(result)) {
+                        pushesShed.incrementAndGet();
+                        continue;
+                    }
+                    out = decoded.claim(running);
+                    if (out == null) {
+                        return;
+                    }
+                }
+                // Hand the bytes over instead of copying them
+                byte[] data = out.data;
+                out.data = in.data;
+                in.data = data;
+                out.length = in.length;
+                out.address = in.address;
+                out.port = in.port;
+                out.decoded = result;
+                decoded.publish();
+            } catch (Exception e) {
+                log.error("Unexpected error in receive decode stage: {}", e.getMessage(), e);
+            } finally {
+                raw.release();
+            }
+        }
+    }
+
+    private void handshakeLoop() {
+        handshakeThread = Thread.currentThread();
+        Datagram in;
+        while ((in = decoded.take(running)) != null) {
+            try {
+                DatagramPacket packet = in.packet();
+                listener.route(packet, in.decoded != null ? in.decoded : listener.decrypt(packet));
+            } catch (Exception e) {
+                log.error("Unexpected error in receive handshake stage: {}", e.getMessage(), e);
+            } finally {
+                in.decoded = null;
+                decoded.release();
+            }
+        }
+    }
+
+    private void applicationLoop() {
+        Action in;
+        while ((in = actions.take(running)) != null) {
+            try {
+                messageProcessor.processServerAction(in.json);
+            } catch (Exception e) {
+                log.error("Unexpected error in receive application stage: {}", e.getMessage(), e);
+            } finally {
+                in.json = null;
+                actions.release();
+            }
+        }
+    }
+
+    /**
+     * Confirmed server action from the handshake manager. The ring has one producer, the handshake
+     * stage; anything else (there is nothing else today) is processed on its own thread.
+     */
+    private void submitAction(String json) {
+        if (Thread.currentThread() != handshakeThread) {
+            messageProcessor.processServerAction(json);
+            return;
+        }
+        Action slot = actions.claim(running);
+        if (slot == null) {
+            return; // Shutting down
+        }
+        slot.json = json;
+        actions.publish();
+    }
+
+    private static boolean isLowPriorityPush(JsonHelper.DecryptedResult result) {
+        if (!result.jsonObject.has(Constants.KEY_ACTION)) {
+            return false;
+        }
+        String action = result.jsonObject.get(Constants.KEY_ACTION).getAsString();
+        return Constants.ACTION_RECEIVE_MESSAGE.equals(action) || Constants.ACTION_ROOM_ACTIVITY.equals(action);
+    }
+
+    public String snapshot() {
+        return String.format("%d datagrams, %d dropped at receive, %d pushes shed, %d decoded late; queued raw %d, decoded %d, actions %d (%s wait)",
+                received.get(), droppedAtReceive.get(), pushesShed.get(), deferred.get(), raw.size(), decoded.size(), actions.size(),
+                waitStrategy.name().toLowerCase());
+    }
+
+    public void shutdown() {
+        stopped = true;
+        for (Thread t : threads) {
+            try {
+                t.join(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        log.info("Receive pipeline stopped: {}", snapshot());
+    }
+}
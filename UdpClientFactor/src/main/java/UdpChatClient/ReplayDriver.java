@@ -0,0 +1,171 @@
+package UdpChatClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.DatagramPacket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Plays a {@link WireCapture} back through the client's receive path: decryption, listener
+ * dispatch, handshake handling and message processing, as if the datagrams had just arrived.
+ * Everything the client would send in response goes to a transport that drops it, so no server is
+ * needed. Captured outbound datagrams are only counted.
+ * <p>
+ * Usage: {@code ReplayDriver <capture> [--max-speed] [--quiet]}. Without {@code --max-speed} the
+ * original inter-arrival times are kept; {@code --quiet} discards console output so the numbers
+ * measure the pipeline rather than the terminal. The session key is taken from the login ACK in
+ * the capture, so traffic after the login decrypts as it did live.
+ */
+public class ReplayDriver {
+    private static final Logger log = LoggerFactory.getLogger(ReplayDriver.class);
+
+    public static void main(String[] args) throws Exception {
+        Path path = null;
+        boolean maxSpeed = false;
+        boolean quiet = false;
+        for (String arg : args) {
+            if ("--max-speed".equals(arg)) {
+                maxSpeed = true;
+            } else if ("--quiet".equals(arg)) {
+                quiet = true;
+            } else {
+                path = Paths.get(arg);
+            }
+        }
+        if (path == null) {
+            System.err.println("Usage: ReplayDriver <capture> [--max-speed] [--quiet]");
+            return;
+        }
+        new ReplayDriver().replay(path, maxSpeed, quiet);
+    }
+
+    private void replay(Path path, boolean maxSpeed, boolean quiet) throws IOException, InterruptedException {
+        WireCapture.Record first = firstInbound(path);
+        if (first == null) {
+            System.out.println("No inbound datagrams in " + path);
+            return;
+        }
+
+        // Same wiring as UdpChatClient, minus the listener thread, heartbeat and real sends
+        ClientState clientState = new ClientState(first.address.getHostAddress(), first.port,
+                ClientOptions.parse(new String[] {Constants.OPT_HEARTBEAT + "0"}));
+        clientState.awaitServerAddress();
+        AtomicLong responses = new AtomicLong();
+        PacketTransport discard = PacketTransport.discard();
+        OutboundScheduler outbound = new OutboundScheduler((data, length, address, port, shard) -> {
+            responses.incrementAndGet();
+            discard.send(data, length, address, port, shard);
+        }, clientState, 0);
+        MessageProcessor messageProcessor = new MessageProcessor(clientState);
+        SessionResumer sessionResumer = new SessionResumer(clientState, outbound, () -> { });
+        EndpointManager endpointManager = new EndpointManager(clientState, outbound, sessionResumer);
+        HandshakeManager handshakeManager = new HandshakeManager(clientState, messageProcessor, outbound, endpointManager);
+        Heartbeat heartbeat = new Heartbeat(clientState, outbound, handshakeManager.getCongestionController());
+        MessageListener listener = new MessageListener(clientState, handshakeManager, sessionResumer, endpointManager, heartbeat, null);
+
+        PrintStream console = System.out;
+        if (quiet) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        long inbound = 0;
+        long outboundCaptured = 0;
+        long bytes = 0;
+        long startNanos = System.nanoTime();
+        try (WireCapture.Reader reader = new WireCapture.Reader(path)) {
+            WireCapture.Record record;
+            while ((record = reader.next()) != null) {
+                if (record.direction != WireCapture.INBOUND) {
+                    outboundCaptured++;
+                    continue;
+                }
+                if (!maxSpeed) {
+                    long dueNanos = startNanos + record.nanosSinceStart - first.nanosSinceStart;
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+                DatagramPacket packet = new DatagramPacket(record.data, record.data.length, record.address, record.port);
+                if (clientState.getSessionKey() == null) {
+                    adoptSession(packet, clientState);
+                }
+                try {
+                    listener.dispatch(packet);
+                } catch (Exception e) {
+                    log.error("Replayed datagram {} failed: {}", inbound, e.getMessage(), e);
+                }
+                inbound++;
+                bytes += record.data.length;
+            }
+        } finally {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            handshakeManager.shutdown();
+            heartbeat.shutdown();
+            outbound.shutdown();
+            messageProcessor.getHistoryPager().shutdown();
+            clientState.setRunning(false);
+            clientState.closeSocket();
+            System.setOut(console);
+            double seconds = elapsedNanos / 1e9;
+            console.printf("Replayed %d inbound datagrams (%d bytes) in %.3f s%n", inbound, bytes, seconds);
+            if (maxSpeed && inbound > 0) {
+                console.printf("Throughput: %.0f datagrams/s, %.1f us per datagram%n", inbound / Math.max(seconds, 1e-9), elapsedNanos / 1e3 / inbound);
+            }
+            console.printf("Client responses discarded: %d (captured outbound datagrams skipped: %d)%n", responses.get(), outboundCaptured);
+        }
+    }
+
+    private static WireCapture.Record firstInbound(Path path) throws IOException {
+        try (WireCapture.Reader reader = new WireCapture.Reader(path)) {
+            WireCapture.Record record;
+            while ((record = reader.next()) != null) {
+                if (record.direction == WireCapture.INBOUND) {
+                    return record;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The replay never sent the login request, so the handshake manager would ignore its ACK. Take
+     * the session from that ACK here instead, until one is known.
+     */
+    private static void adoptSession(DatagramPacket packet, ClientState clientState) {
+        boolean envelope = packet.getLength() >= Constants.ENVELOPE_HEADER_SIZE && packet.getData()[0] == Constants.ENVELOPE_MAGIC;
+        JsonHelper.DecryptedResult result = JsonHelper.decryptAndParse(packet, envelope ? Constants.ENVELOPE_HEADER_SIZE : 0,
+                Constants.FIXED_LOGIN_KEY_STRING, log);
+        if (result == null || !result.jsonObject.has(Constants.KEY_DATA) || !result.jsonObject.get(Constants.KEY_DATA).isJsonObject()) {
+            return;
+        }
+        JsonObject json = result.jsonObject;
+        JsonObject data = json.getAsJsonObject(Constants.KEY_DATA);
+        boolean loginAck = json.has(Constants.KEY_ACTION) && Constants.ACTION_ACK.equals(json.get(Constants.KEY_ACTION).getAsString())
+                && data.has(Constants.KEY_ORIGINAL_ACTION) && Constants.ACTION_LOGIN.equals(data.get(Constants.KEY_ORIGINAL_ACTION).getAsString());
+        if (!loginAck || !data.has(Constants.KEY_SESSION_KEY) || !data.has(Constants.KEY_CHAT_ID)) {
+            return;
+        }
+        List<String> capabilities = new ArrayList<>();
+        if (data.has(Constants.KEY_CAPABILITIES) && data.get(Constants.KEY_CAPABILITIES).isJsonArray()) {
+            for (JsonElement element : data.getAsJsonArray(Constants.KEY_CAPABILITIES)) {
+                capabilities.add(element.getAsString());
+            }
+        }
+        clientState.startSession(data.get(Constants.KEY_SESSION_KEY).getAsString(),
+                data.has(Constants.KEY_KEY_ID) ? data.get(Constants.KEY_KEY_ID).getAsInt() : 1,
+                data.get(Constants.KEY_CHAT_ID).getAsString(), capabilities);
+        log.info("Replay adopted the session of '{}' from the captured login", clientState.getCurrentChatId());
+    }
+}
@@ -0,0 +1,86 @@
+package UdpChatClient;
+
+/**
+ * Histogram over the last {@code window} samples, in fixed millisecond buckets. Each sample's
+ * bucket is kept in a ring, so the oldest sample leaves its bucket when a new one arrives and
+ * percentiles always describe the recent path rather than the whole run. Not thread-safe.
+ */
+public class RollingHistogram {
+    // Upper bounds (inclusive) in ms; the last bucket takes everything above
+    private static final double[] BOUNDS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private final int[] counts = new int[BOUNDS_MS.length + 1];
+    private final byte[] ring;
+    private int next;
+    private int size;
+    private double sumMs;
+    private final double[] values;
+
+    public RollingHistogram(int window) {
+        this.ring = new byte[window];
+        this.values = new double[window];
+    }
+
+    public void add(double valueMs) {
+        if (size == ring.length) {
+            counts[ring[next]]--;
+            sumMs -= values[next];
+        } else {
+            size++;
+        }
+        int bucket = bucketOf(valueMs);
+        ring[next] = (byte) bucket;
+        values[next] = valueMs;
+        counts[bucket]++;
+        sumMs += valueMs;
+        next = (next + 1) % ring.length;
+    }
+
+    private static int bucketOf(double valueMs) {
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            if (valueMs <= BOUNDS_MS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS_MS.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double mean() {
+        return size == 0 ? -1 : sumMs / size;
+    }
+
+    /**
+     * Upper bound of the bucket holding the {@code p}-th percentile (0 < p <= 100), or -1 without
+     * samples. {@link Double#POSITIVE_INFINITY} if it falls in the overflow bucket.
+     */
+    public double percentile(double p) {
+        if (size == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(p / 100 * size);
+        int seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i < BOUNDS_MS.length ? BOUNDS_MS[i] : Double.POSITIVE_INFINITY;
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /** e.g. {@code p50<=20ms p90<=50ms p99<=100ms}, or {@code n/a} without samples. */
+    public String summary() {
+        if (size == 0) {
+            return "n/a";
+        }
+        return "p50" + bound(percentile(50)) + " p90" + bound(percentile(90)) + " p99" + bound(percentile(99));
+    }
+
+    private static String bound(double ms) {
+        return ms == Double.POSITIVE_INFINITY ? ">" + (long) BOUNDS_MS[BOUNDS_MS.length - 1] + "ms" : "<=" + (long) ms + "ms";
+    }
+}
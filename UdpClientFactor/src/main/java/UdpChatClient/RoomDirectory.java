@@ -0,0 +1,187 @@
+package UdpChatClient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Local copy of the user's room list and of the member lists looked at so far, each with the
+ * version the server last reported for it. Once the server accepts {@link Constants#CAP_DELTA_SYNC},
+ * {@code get_rooms} and {@code get_room_users} present that version and the reply only carries what
+ * was added, removed or renamed since. A reply with the whole list (a legacy server, or a version the
+ * server no longer has a delta for) replaces the copy.
+ * <p>
+ * A delta is only applied on top of the version it was computed from; any other one is dropped and
+ * the copy forgotten, so the next request asks for a snapshot. Thread-safe.
+ */
+public class RoomDirectory {
+    public static final long UNKNOWN = -1;
+
+    /** What a reply did to the local copy. */
+    public static final class Change {
+        public final boolean snapshot;
+        public final int added;
+        public final int removed;
+        public final int renamed;
+
+        Change(boolean snapshot, int added, int removed, int renamed) {
+            this.snapshot = snapshot;
+            this.added = added;
+            this.removed = removed;
+            this.renamed = renamed;
+        }
+    }
+
+    private static final class Members {
+        long version = UNKNOWN;
+        final Set<String> users = new LinkedHashSet<>();
+    }
+
+    private long roomsVersion = UNKNOWN;
+    private final Map<String, String> rooms = new LinkedHashMap<>(); // Room id -> name (null if the server sent ids only)
+    private final Map<String, Members> members = new HashMap<>();
+
+    public synchronized long roomsVersion() {
+        return roomsVersion;
+    }
+
+    public synchronized long membersVersion(String roomId) {
+        Members room = members.get(roomId);
+        return room == null ? UNKNOWN : room.version;
+    }
+
+    /** Room ids and names, in the server's order with later additions at the end. */
+    public synchronized List<Map.Entry<String, String>> rooms() {
+        return new ArrayList<>(rooms.entrySet());
+    }
+
+    public synchronized List<String> members(String roomId) {
+        Members room = members.get(roomId);
+        return room == null ? new ArrayList<>() : new ArrayList<>(room.users);
+    }
+
+    /**
+     * Applies the data of a {@code rooms_list} reply.
+     *
+     * @return What changed, or null if the reply was a delta from another version and was dropped.
+     */
+    public synchronized Change applyRooms(JsonObject data) {
+        long version = versionOf(data);
+        if (data.has(Constants.KEY_ROOMS)) {
+            rooms.clear();
+            for (JsonElement element : data.getAsJsonArray(Constants.KEY_ROOMS)) {
+                if (element.isJsonObject()) {
+                    JsonObject room = element.getAsJsonObject();
+                    // Property names match the server: "id" and "name"
+                    String id = room.has("id") ? room.get("id").getAsString() : "Unknown ID";
+                    rooms.put(id, room.has("name") ? room.get("name").getAsString() : "Unnamed");
+                } else {
+                    rooms.put(element.getAsString(), null); // Older servers send room IDs only
+                }
+            }
+            members.keySet().retainAll(rooms.keySet());
+            roomsVersion = version;
+            return new Change(true, rooms.size(), 0, 0);
+        }
+        if (!appliesTo(data, roomsVersion) || version == UNKNOWN) {
+            forgetRooms();
+            return null;
+        }
+        int added = 0;
+        int removed = 0;
+        int renamed = 0;
+        for (JsonElement element : array(data, Constants.KEY_ADDED)) {
+            JsonObject room = element.getAsJsonObject();
+            String id = room.get("id").getAsString();
+            if (rooms.put(id, room.has("name") ? room.get("name").getAsString() : "Unnamed") == null) {
+                added++;
+            }
+        }
+        for (JsonElement element : array(data, Constants.KEY_REMOVED)) {
+            String id = element.getAsString();
+            if (rooms.containsKey(id)) {
+                rooms.remove(id);
+                members.remove(id);
+                removed++;
+            }
+        }
+        for (JsonElement element : array(data, Constants.KEY_RENAMED)) {
+            JsonObject room = element.getAsJsonObject();
+            String id = room.get("id").getAsString();
+            if (rooms.containsKey(id)) {
+                rooms.put(id, room.get("name").getAsString());
+                renamed++;
+            }
+        }
+        roomsVersion = version;
+        return new Change(false, added, removed, renamed);
+    }
+
+    /**
+     * Applies the data of a {@code room_users_list} reply for {@code roomId}.
+     *
+     * @return What changed, or null if the reply was a delta from another version and was dropped.
+     */
+    public synchronized Change applyMembers(String roomId, JsonObject data) {
+        long version = versionOf(data);
+        Members room = members.computeIfAbsent(roomId, id -> new Members());
+        if (data.has(Constants.KEY_USERS)) {
+            room.users.clear();
+            for (JsonElement element : data.getAsJsonArray(Constants.KEY_USERS)) {
+                room.users.add(element.getAsString());
+            }
+            room.version = version;
+            return new Change(true, room.users.size(), 0, 0);
+        }
+        if (!appliesTo(data, room.version) || version == UNKNOWN) {
+            members.remove(roomId);
+            return null;
+        }
+        int added = 0;
+        int removed = 0;
+        for (JsonElement element : array(data, Constants.KEY_ADDED)) {
+            if (room.users.add(element.getAsString())) {
+                added++;
+            }
+        }
+        for (JsonElement element : array(data, Constants.KEY_REMOVED)) {
+            if (room.users.remove(element.getAsString())) {
+                removed++;
+            }
+        }
+        room.version = version;
+        return new Change(false, added, removed, 0);
+    }
+
+    /** Drops everything, e.g. when another user logs in. */
+    public synchronized void clear() {
+        forgetRooms();
+        members.clear();
+    }
+
+    private void forgetRooms() {
+        rooms.clear();
+        roomsVersion = UNKNOWN;
+    }
+
+    private static boolean appliesTo(JsonObject data, long localVersion) {
+        return localVersion != UNKNOWN && data.has(Constants.KEY_SINCE_VERSION)
+                && data.get(Constants.KEY_SINCE_VERSION).getAsLong() == localVersion;
+    }
+
+    private static long versionOf(JsonObject data) {
+        return data.has(Constants.KEY_VERSION) ? data.get(Constants.KEY_VERSION).getAsLong() : UNKNOWN;
+    }
+
+    private static JsonArray array(JsonObject data, String key) {
+        return data.has(key) && data.get(key).isJsonArray() ? data.getAsJsonArray(key) : new JsonArray();
+    }
+}
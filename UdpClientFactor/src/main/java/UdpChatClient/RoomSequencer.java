@@ -0,0 +1,193 @@
+package UdpChatClient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Puts {@code receive_message} pushes that carry a per-room sequence number ({@link Constants#KEY_SEQ})
+ * back in order. A push ahead of the next expected number is held. If the hole is still open after
+ * {@link Constants#REORDER_WINDOW_MS}, one gap-fill request names every missing range. After
+ * {@link Constants#GAP_FILL_TIMEOUT_MS} more the client gives up: it releases what it holds and
+ * reports the messages as missing. Pushes without a sequence number never get here.
+ * <p>
+ * A room's first push need not be the first one sent, so the room's start is only fixed
+ * {@link Constants#REORDER_WINDOW_MS} after it arrives, at the lowest number seen by then. Numbering
+ * belongs to one session on one server; {@link #reset} forgets it when that changes.
+ * <p>
+ * Not thread-safe; {@link MessageProcessor} calls it under its own lock.
+ */
+public class RoomSequencer {
+
+    /** Receives the outcome of {@link #offer} and {@link #expire}, on the calling thread. */
+    public interface Listener {
+        void deliver(String roomId, JsonObject message);
+
+        void requestFill(String roomId, List<long[]> ranges);
+
+        void skipped(String roomId, long fromSeq, long toSeq);
+    }
+
+    private static final class Room {
+        long next = -1; // Next sequence number to deliver; -1 while starting
+        boolean starting = true; // Collecting pushes until the start is fixed; see offer
+        final TreeMap<Long, JsonObject> held = new TreeMap<>();
+        long gapSinceNanos; // When the current run of held pushes started
+        boolean fillRequested;
+    }
+
+    private final Map<String, Room> rooms = new HashMap<>();
+
+    /**
+     * Takes one push. It is delivered now if it is the next one (followed by any held pushes it unblocks),
+     * held if it is early, dropped if it was delivered before.
+     */
+    public void offer(String roomId, long seq, JsonObject message, long nowNanos, Listener listener) {
+        Room room = rooms.get(roomId);
+        if (room == null) {
+            room = new Room();
+            room.gapSinceNanos = nowNanos;
+            rooms.put(roomId, room);
+        }
+        if (room.starting) {
+            // Joined mid-stream: an earlier push may still be on its way, so hold everything for now
+            room.held.putIfAbsent(seq, message);
+            if (room.held.size() > Constants.REORDER_BUFFER_MAX) {
+                start(roomId, room, nowNanos, listener);
+            }
+            return;
+        }
+        if (seq < room.next || room.held.containsKey(seq)) {
+            return; // Duplicate, e.g. a gap fill racing the late original
+        }
+        if (seq > room.next) {
+            if (room.held.isEmpty()) {
+                room.gapSinceNanos = nowNanos;
+                room.fillRequested = false;
+            }
+            room.held.put(seq, message);
+            if (room.held.size() > Constants.REORDER_BUFFER_MAX) {
+                skipTo(roomId, room, room.held.firstKey(), listener);
+            }
+            return;
+        }
+        listener.deliver(roomId, message);
+        room.next++;
+        drain(roomId, room, listener);
+    }
+
+    /**
+     * Delivers whatever is held and forgets the position of every room. Called when the session
+     * changes (login, resume, logout, failover): the server may number the rooms afresh.
+     */
+    public void reset(Listener listener) {
+        for (Map.Entry<String, Room> entry : rooms.entrySet()) {
+            for (JsonObject message : entry.getValue().held.values()) {
+                listener.deliver(entry.getKey(), message);
+            }
+        }
+        rooms.clear();
+    }
+
+    /**
+     * Delivers whatever is held for the room and forgets its position, so the next push starts it
+     * afresh. Used when the server resumes pushing a room it had stopped pushing.
+     */
+    public void restart(String roomId, Listener listener) {
+        Room room = rooms.remove(roomId);
+        if (room != null) {
+            for (JsonObject message : room.held.values()) {
+                listener.deliver(roomId, message);
+            }
+        }
+    }
+
+    /**
+     * Sends the gap-fill requests and gives up on the gaps whose time has come.
+     */
+    public void expire(long nowNanos, Listener listener) {
+        long windowNanos = Constants.REORDER_WINDOW_MS * 1_000_000L;
+        long giveUpNanos = windowNanos + Constants.GAP_FILL_TIMEOUT_MS * 1_000_000L;
+        for (Map.Entry<String, Room> entry : rooms.entrySet()) {
+            Room room = entry.getValue();
+            if (room.held.isEmpty()) {
+                continue;
+            }
+            long age = nowNanos - room.gapSinceNanos;
+            if (room.starting) {
+                if (age >= windowNanos) {
+                    start(entry.getKey(), room, nowNanos, listener);
+                }
+            } else if (age >= giveUpNanos) {
+                // Release everything held, reporting each hole on the way
+                while (!room.held.isEmpty()) {
+                    skipTo(entry.getKey(), room, room.held.firstKey(), listener);
+                }
+            } else if (age >= windowNanos && !room.fillRequested) {
+                room.fillRequested = true;
+                listener.requestFill(entry.getKey(), holes(room));
+            }
+        }
+    }
+
+    /**
+     * @return Nanoseconds until {@link #expire} has something to do, or -1 if no gap is open.
+     */
+    public long nextDeadlineNanos(long nowNanos) {
+        long earliest = -1;
+        for (Room room : rooms.values()) {
+            if (room.held.isEmpty()) {
+                continue;
+            }
+            long deadline = room.gapSinceNanos + Constants.REORDER_WINDOW_MS * 1_000_000L
+                    + (room.fillRequested ? Constants.GAP_FILL_TIMEOUT_MS * 1_000_000L : 0);
+            long remaining = Math.max(0, deadline - nowNanos);
+            if (earliest < 0 || remaining < earliest) {
+                earliest = remaining;
+            }
+        }
+        return earliest;
+    }
+
+    /** Fixes the room's start at the lowest number held and delivers from there. */
+    private void start(String roomId, Room room, long nowNanos, Listener listener) {
+        room.starting = false;
+        room.next = room.held.firstKey();
+        drain(roomId, room, listener);
+        room.gapSinceNanos = nowNanos; // Anything still held is an ordinary gap from now on
+        room.fillRequested = false;
+    }
+
+    private void skipTo(String roomId, Room room, long seq, Listener listener) {
+        if (seq > room.next) {
+            listener.skipped(roomId, room.next, seq - 1);
+            room.next = seq;
+        }
+        drain(roomId, room, listener);
+    }
+
+    private void drain(String roomId, Room room, Listener listener) {
+        JsonObject message;
+        while ((message = room.held.remove(room.next)) != null) {
+            listener.deliver(roomId, message);
+            room.next++;
+        }
+    }
+
+    /** Inclusive [from, to] ranges missing between the next expected number and the last held one. */
+    private static List<long[]> holes(Room room) {
+        List<long[]> ranges = new ArrayList<>();
+        long expected = room.next;
+        for (long seq : room.held.keySet()) {
+            if (seq > expected) {
+                ranges.add(new long[] {expected, seq - 1});
+            }
+            expected = seq + 1;
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,373 @@
+package UdpChatClient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client-side full-text index over every message that passes through {@link MessageProcessor}.
+ * Terms map to {@link PostingList}s of message (document) ids; a query intersects the lists of
+ * its terms, rarest first. The index belongs to the logged-in user and is saved compactly under
+ * {@link Constants#SEARCH_INDEX_DIR} (periodically and on shutdown), so it is loaded rather than
+ * rebuilt when the client restarts.
+ */
+public class SearchIndex {
+    private static final Logger log = LoggerFactory.getLogger(SearchIndex.class);
+    private static final int FILE_MAGIC = 0x55435358; // "UCSX"
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_TERM_LENGTH = 64;
+
+    /** A stored message returned by {@link #search}. */
+    public static class Hit {
+        public final String roomId;
+        public final String sender;
+        public final String timestamp;
+        public final String content;
+
+        Hit(String roomId, String sender, String timestamp, String content) {
+            this.roomId = roomId;
+            this.sender = sender;
+            this.timestamp = timestamp;
+            this.content = content;
+        }
+    }
+
+    private final ClientState clientState;
+
+    // All guarded by this
+    private String ownerChatId; // User whose index is loaded
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private final List<String> rooms = new ArrayList<>();
+    private final Map<String, Integer> roomIndex = new HashMap<>();
+    private int[] docRoom = new int[256];
+    private final List<String> docSender = new ArrayList<>();
+    private final List<String> docTimestamp = new ArrayList<>();
+    private final List<String> docContent = new ArrayList<>();
+    private final Set<Long> seen = new HashSet<>(); // Fingerprints of indexed messages (history is re-fetched often)
+    private boolean dirty;
+    private ScheduledExecutorService saveTimer;
+
+    public SearchIndex(ClientState clientState) {
+        this.clientState = clientState;
+    }
+
+    /**
+     * Indexes a message unless it is already in the index.
+     */
+    public synchronized void add(String roomId, String sender, String timestamp, String content) {
+        if (!ensureLoaded() || roomId == null || content == null) {
+            return;
+        }
+        if (!seen.add(fingerprint(roomId, sender, timestamp, content))) {
+            return;
+        }
+        int docId = docContent.size();
+        Integer room = roomIndex.get(roomId);
+        if (room == null) {
+            room = rooms.size();
+            rooms.add(roomId);
+            roomIndex.put(roomId, room);
+        }
+        if (docId == docRoom.length) {
+            docRoom = Arrays.copyOf(docRoom, docId * 2);
+        }
+        docRoom[docId] = room;
+        docSender.add(sender);
+        docTimestamp.add(timestamp);
+        docContent.add(content);
+        for (String term : tokenize(content)) {
+            postings.computeIfAbsent(term, t -> new PostingList()).add(docId);
+        }
+        if (sender != null) {
+            for (String term : tokenize(sender)) {
+                postings.computeIfAbsent(term, t -> new PostingList()).add(docId);
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Finds messages containing every term of {@code query}, newest first.
+     *
+     * @param roomId Restricts the search to one room, or null for all rooms.
+     */
+    public synchronized List<Hit> search(String query, String roomId, int limit) {
+        List<Hit> hits = new ArrayList<>();
+        if (!ensureLoaded()) {
+            return hits;
+        }
+        List<String> terms = tokenize(query);
+        Integer room = roomId != null ? roomIndex.get(roomId) : null;
+        if (terms.isEmpty() || (roomId != null && room == null)) {
+            return hits;
+        }
+        List<PostingList> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                return hits; // A term no message contains
+            }
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        int[] result = lists.get(0).decode(new int[lists.get(0).size()]);
+        int resultSize = result.length;
+        for (int i = 1; i < lists.size() && resultSize > 0; i++) {
+            int[] other = lists.get(i).decode(new int[lists.get(i).size()]);
+            resultSize = intersect(result, resultSize, other);
+        }
+        for (int i = resultSize - 1; i >= 0 && hits.size() < limit; i--) {
+            int docId = result[i];
+            if (room == null || docRoom[docId] == room) {
+                hits.add(new Hit(rooms.get(docRoom[docId]), docSender.get(docId), docTimestamp.get(docId), docContent.get(docId)));
+            }
+        }
+        return hits;
+    }
+
+    /** Loads the logged-in user's index now rather than on the first message or search. */
+    public synchronized void warmUp() {
+        ensureLoaded();
+    }
+
+    public synchronized boolean hasRoom(String roomId) {
+        return ensureLoaded() && roomIndex.containsKey(roomId);
+    }
+
+    public synchronized int size() {
+        return docContent.size();
+    }
+
+    /** Intersects sorted {@code a[0..aSize)} with sorted {@code b} in place; returns the new size of {@code a}. */
+    private static int intersect(int[] a, int aSize, int[] b) {
+        int i = 0, j = 0, out = 0;
+        while (i < aSize && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                a[out++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Lower-cased runs of letters and digits (so Vietnamese words with diacritics stay whole).
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                if (term.length() <= MAX_TERM_LENGTH) {
+                    terms.add(term.toString());
+                }
+                term.setLength(0);
+            }
+        }
+        return terms;
+    }
+
+    private static long fingerprint(String roomId, String sender, String timestamp, String content) {
+        long h = 1125899906842597L;
+        for (String part : new String[] { roomId, sender, timestamp, content }) {
+            if (part != null) {
+                for (int i = 0; i < part.length(); i++) {
+                    h = 31 * h + part.charAt(i);
+                }
+            }
+            h = 31 * h + 0x1F; // Field separator
+        }
+        return h;
+    }
+
+    // --- Persistence ---
+
+    /**
+     * Makes sure the index of the logged-in user is the one in memory, switching (and saving the
+     * previous user's) when someone else logs in.
+     *
+     * @return false when nobody is logged in.
+     */
+    private boolean ensureLoaded() {
+        String chatId = clientState.getCurrentChatId();
+        if (chatId == null) {
+            return false;
+        }
+        if (chatId.equals(ownerChatId)) {
+            return true;
+        }
+        if (ownerChatId != null) {
+            save();
+        }
+        clear();
+        ownerChatId = chatId;
+        load();
+        if (saveTimer == null) {
+            saveTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "SearchIndexSaver");
+                t.setDaemon(true);
+                return t;
+            });
+            saveTimer.scheduleWithFixedDelay(this::saveIfDirty, Constants.SEARCH_INDEX_SAVE_INTERVAL_MS,
+                    Constants.SEARCH_INDEX_SAVE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    private void clear() {
+        postings.clear();
+        rooms.clear();
+        roomIndex.clear();
+        docRoom = new int[256];
+        docSender.clear();
+        docTimestamp.clear();
+        docContent.clear();
+        seen.clear();
+        dirty = false;
+    }
+
+    private Path indexPath() {
+        // Chat ids are user names; keep only characters that are safe in a file name
+        return PrivateFiles.appDataDir().resolve(Constants.SEARCH_INDEX_DIR).resolve(ownerChatId.replaceAll("[^A-Za-z0-9._-]", "_") + ".idx");
+    }
+
+    private void load() {
+        Path path = indexPath();
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                log.warn("Ignoring search index {} with unknown format", path);
+                return;
+            }
+            int roomCount = in.readInt();
+            for (int i = 0; i < roomCount; i++) {
+                String roomId = in.readUTF();
+                roomIndex.put(roomId, rooms.size());
+                rooms.add(roomId);
+            }
+            int docCount = in.readInt();
+            docRoom = new int[Math.max(256, docCount)];
+            for (int i = 0; i < docCount; i++) {
+                docRoom[i] = in.readInt();
+                docSender.add(readString(in));
+                docTimestamp.add(readString(in));
+                docContent.add(readString(in));
+                seen.add(fingerprint(rooms.get(docRoom[i]), docSender.get(i), docTimestamp.get(i), docContent.get(i)));
+            }
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = in.readUTF();
+                postings.put(term, PostingList.read(in));
+            }
+            log.info("Loaded search index for '{}': {} messages, {} terms, {} rooms", ownerChatId, docCount, termCount, roomCount);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Search index {} is unreadable, starting empty: {}", path, e.getMessage());
+            clear();
+        }
+    }
+
+    private synchronized void saveIfDirty() {
+        if (dirty) {
+            save();
+        }
+    }
+
+    /** Writes the whole index to a temp file and swaps it in atomically. */
+    private void save() {
+        if (ownerChatId == null) {
+            return;
+        }
+        Path path = indexPath();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            // Plain chat history: owner-only, like the session cache
+            PrivateFiles.createDirectories(path.getParent());
+            PrivateFiles.createFile(tmp);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(rooms.size());
+                for (String roomId : rooms) {
+                    out.writeUTF(roomId);
+                }
+                out.writeInt(docContent.size());
+                for (int i = 0; i < docContent.size(); i++) {
+                    out.writeInt(docRoom[i]);
+                    writeString(out, docSender.get(i));
+                    writeString(out, docTimestamp.get(i));
+                    writeString(out, docContent.get(i));
+                }
+                out.writeInt(postings.size());
+                for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+            log.debug("Saved search index for '{}' ({} messages)", ownerChatId, docContent.size());
+        } catch (IOException e) {
+            log.warn("Cannot save search index {}: {}", path, e.getMessage());
+        }
+    }
+
+    // Message text may exceed writeUTF's 64 KB limit, so strings are length-prefixed UTF-8
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public synchronized void shutdown() {
+        if (saveTimer != null) {
+            saveTimer.shutdownNow();
+        }
+        if (dirty) {
+            save();
+        }
+    }
+}
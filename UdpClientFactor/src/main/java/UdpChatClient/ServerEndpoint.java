@@ -0,0 +1,159 @@
+package UdpChatClient;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * One chat server replica: its address (looked up in the background) and what the probes of
+ * {@link EndpointManager} have measured about it. Stats are guarded by the instance.
+ */
+public class ServerEndpoint {
+    private final String host;
+    private final int port;
+    private final CompletableFuture<InetAddress> address;
+
+    private double srttMs = -1; // Smoothed probe RTT, -1 before the first answer
+    private int lossHistory; // One bit per recent probe, 1 = lost; newest in bit 0
+    private int probesInHistory;
+    private long probeNonce;
+    private long probeSentNanos;
+    private boolean probeOutstanding;
+    private int silentHandshakes; // Client requests in a row without even a CHARACTER_COUNT
+
+    public ServerEndpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.address = CompletableFuture.supplyAsync(() -> {
+            try {
+                return InetAddress.getByName(host);
+            } catch (UnknownHostException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /** Waits for the DNS lookup; throws {@link CompletionException} if it failed. */
+    public InetAddress getAddress() {
+        return address.join();
+    }
+
+    /**
+     * @throws UnknownHostException if the host does not resolve.
+     */
+    public InetAddress awaitAddress() throws UnknownHostException {
+        try {
+            return address.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UnknownHostException) {
+                throw (UnknownHostException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public boolean isResolved() {
+        return address.isDone() && !address.isCompletedExceptionally();
+    }
+
+    /** Whether a packet from {@code from:fromPort} came from this endpoint. */
+    public boolean matches(InetAddress from, int fromPort) {
+        return fromPort == port && isResolved() && address.join().equals(from);
+    }
+
+    // --- Probe bookkeeping (EndpointManager) ---
+
+    /** Starts a probe; an earlier one still unanswered is counted as lost. */
+    synchronized long startProbe(long nonce) {
+        if (probeOutstanding) {
+            recordOutcome(true);
+        }
+        probeNonce = nonce;
+        probeSentNanos = System.nanoTime();
+        probeOutstanding = true;
+        return nonce;
+    }
+
+    /**
+     * @return The probe's RTT in ms, or -1 if {@code nonce} is not the outstanding probe.
+     */
+    synchronized double completeProbe(long nonce) {
+        if (!probeOutstanding || nonce != probeNonce) {
+            return -1;
+        }
+        probeOutstanding = false;
+        double rttMs = (System.nanoTime() - probeSentNanos) / 1e6;
+        srttMs = srttMs < 0 ? rttMs : 0.875 * srttMs + 0.125 * rttMs;
+        recordOutcome(false);
+        return rttMs;
+    }
+
+    /** Completes whatever probe is outstanding (for replies that do not echo the nonce). */
+    synchronized double completeOutstandingProbe() {
+        return completeProbe(probeNonce);
+    }
+
+    /** Marks the outstanding probe as lost once it is older than {@code timeoutMs}. */
+    synchronized void expireProbe(long timeoutMs) {
+        if (probeOutstanding && System.nanoTime() - probeSentNanos > timeoutMs * 1_000_000L) {
+            probeOutstanding = false;
+            recordOutcome(true);
+        }
+    }
+
+    private void recordOutcome(boolean lost) {
+        lossHistory = (lossHistory << 1) | (lost ? 1 : 0);
+        probesInHistory = Math.min(probesInHistory + 1, Constants.ENDPOINT_PROBE_HISTORY);
+    }
+
+    public synchronized double getSrttMs() {
+        return srttMs;
+    }
+
+    public synchronized double getLossRate() {
+        if (probesInHistory == 0) {
+            return 0;
+        }
+        int mask = (1 << probesInHistory) - 1;
+        return Integer.bitCount(lossHistory & mask) / (double) probesInHistory;
+    }
+
+    /** Whether the most recent finished probe was lost. */
+    synchronized boolean lastProbeLost() {
+        return probesInHistory > 0 && (lossHistory & 1) != 0;
+    }
+
+    synchronized int onHandshakeSilent() {
+        return ++silentHandshakes;
+    }
+
+    synchronized void onHeard() {
+        silentHandshakes = 0;
+    }
+
+    /**
+     * Lower is better: smoothed RTT inflated by recent loss and silent handshakes. Endpoints that
+     * never answered count as one initial RTO; those that do not resolve rank last.
+     */
+    synchronized double score() {
+        if (!isResolved()) {
+            return Double.MAX_VALUE;
+        }
+        double rtt = srttMs < 0 ? Constants.RTO_INITIAL_MS : srttMs;
+        return rtt * (1 + 4 * getLossRate()) + silentHandshakes * Constants.RTO_INITIAL_MS;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
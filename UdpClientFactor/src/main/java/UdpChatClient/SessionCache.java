@@ -0,0 +1,171 @@
+package UdpChatClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of the last session with a server, so a restarted client can resume it instead of
+ * logging in again. Each server gets one file under {@link Constants#SESSION_CACHE_DIR}, sealed with
+ * AES-GCM under a random key kept next to it with owner-only permissions; the server address is
+ * bound in as associated data, so a file copied to another server's name does not open.
+ */
+public class SessionCache {
+    private static final Logger log = LoggerFactory.getLogger(SessionCache.class);
+    private static final int FILE_MAGIC = 0x55435343; // "UCSC"
+    private static final int FILE_VERSION = 1;
+    private static final int GCM_IV_BYTES = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final int AES_KEY_BYTES = 32;
+    private static final SecureRandom random = new SecureRandom();
+
+    /** A cached session. {@code lastActiveMillis} is when the client last used it. */
+    public static class Entry {
+        public final String chatId;
+        public final String sessionKey;
+        public final int keyId;
+        public final List<String> capabilities;
+        public final long lastActiveMillis;
+
+        public Entry(String chatId, String sessionKey, int keyId, List<String> capabilities, long lastActiveMillis) {
+            this.chatId = chatId;
+            this.sessionKey = sessionKey;
+            this.keyId = keyId;
+            this.capabilities = capabilities;
+            this.lastActiveMillis = lastActiveMillis;
+        }
+
+        /** Whether the server can still hold the session (it drops sessions idle for longer). */
+        public boolean isFresh(long nowMillis) {
+            return nowMillis - lastActiveMillis < Constants.SESSION_MAX_INACTIVE_INTERVAL_MS;
+        }
+    }
+
+    private final Path dir;
+    private final Path file;
+    private final byte[] associatedData;
+
+    public SessionCache(String serverHost, int serverPort) {
+        this.dir = Path.of(Constants.SESSION_CACHE_DIR);
+        String server = serverHost + ":" + serverPort;
+        this.file = dir.resolve(server.replaceAll("[^A-Za-z0-9._-]", "_") + Constants.SESSION_CACHE_SUFFIX);
+        this.associatedData = server.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The cached session, or null if there is none or it cannot be opened.
+     */
+    public synchronized Entry load() {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            byte[] sealed = Files.readAllBytes(file);
+            ByteBuffer header = ByteBuffer.wrap(sealed);
+            if (sealed.length < 8 + GCM_IV_BYTES || header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION) {
+                log.warn("Ignoring session cache {} with unknown format", file);
+                return null;
+            }
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(loadOrCreateKey(), "AES"), new GCMParameterSpec(GCM_TAG_BITS, sealed, 8, GCM_IV_BYTES));
+            cipher.updateAAD(associatedData);
+            byte[] plain = cipher.doFinal(sealed, 8 + GCM_IV_BYTES, sealed.length - 8 - GCM_IV_BYTES);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+            String chatId = in.readUTF();
+            String sessionKey = in.readUTF();
+            int keyId = in.readInt();
+            int capabilityCount = in.readInt();
+            List<String> capabilities = new ArrayList<>(capabilityCount);
+            for (int i = 0; i < capabilityCount; i++) {
+                capabilities.add(in.readUTF());
+            }
+            long lastActive = in.readLong();
+            return new Entry(chatId, sessionKey, keyId, capabilities, lastActive);
+        } catch (IOException | GeneralSecurityException e) {
+            // Wrong key (cache.key was replaced), tampering or truncation: the entry is useless
+            log.warn("Cannot open session cache {}: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    /** Seals and atomically replaces the cached session. */
+    public synchronized void save(Entry entry) {
+        try {
+            ByteArrayOutputStream plainBytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(plainBytes);
+            out.writeUTF(entry.chatId);
+            out.writeUTF(entry.sessionKey);
+            out.writeInt(entry.keyId);
+            out.writeInt(entry.capabilities.size());
+            for (String capability : entry.capabilities) {
+                out.writeUTF(capability);
+            }
+            out.writeLong(entry.lastActiveMillis);
+
+            byte[] iv = new byte[GCM_IV_BYTES];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(loadOrCreateKey(), "AES"), new GCMParameterSpec(GCM_TAG_BITS, iv));
+            cipher.updateAAD(associatedData);
+            byte[] ciphertext = cipher.doFinal(plainBytes.toByteArray());
+
+            ByteBuffer sealed = ByteBuffer.allocate(8 + GCM_IV_BYTES + ciphertext.length);
+            sealed.putInt(FILE_MAGIC).putInt(FILE_VERSION).put(iv).put(ciphertext);
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            writePrivate(tmp, sealed.array());
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved session cache for '{}' to {}", entry.chatId, file);
+        } catch (IOException | GeneralSecurityException e) {
+            log.warn("Cannot save session cache {}: {}", file, e.toString());
+        }
+    }
+
+    /** Forgets the cached session (the server rejected it). */
+    public synchronized void clear() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Cannot delete session cache {}: {}", file, e.getMessage());
+        }
+    }
+
+    private byte[] loadOrCreateKey() throws IOException {
+        Path keyFile = dir.resolve(Constants.SESSION_CACHE_KEY_FILE);
+        if (Files.exists(keyFile)) {
+            byte[] key = Files.readAllBytes(keyFile);
+            if (key.length == AES_KEY_BYTES) {
+                return key;
+            }
+            log.warn("Session cache key {} is malformed, generating a new one", keyFile);
+        }
+        byte[] key = new byte[AES_KEY_BYTES];
+        random.nextBytes(key);
+        writePrivate(keyFile, key);
+        return key;
+    }
+
+    private void writePrivate(Path path, byte[] content) throws IOException {
+        PrivateFiles.createDirectories(dir);
+        PrivateFiles.createFile(path);
+        Files.write(path, content);
+    }
+}
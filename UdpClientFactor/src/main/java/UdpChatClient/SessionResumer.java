@@ -0,0 +1,222 @@
+package UdpChatClient;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Resumes a cached session (see {@link SessionCache}) with a single {@code resume} request and its
+ * direct reply, instead of the three-leg login handshake. The request never carries the session key:
+ * it proves possession with an HMAC over the chat id and the current time, so the server can check it
+ * against the session it still holds and reject replays. A server that does not know the action
+ * answers with an error (or not at all) and the client falls back to {@code /login}.
+ * <p>
+ * The cache is only used with {@link Constants#OPT_SESSION_CACHE}; otherwise nothing is written to disk.
+ * The same request moves a live session to another replica after a failover.
+ */
+public class SessionResumer {
+    private static final Logger log = LoggerFactory.getLogger(SessionResumer.class);
+
+    private final ClientState clientState;
+    private final OutboundScheduler outbound;
+    private final SessionCache cache;
+    private final Runnable warmUp;
+    private volatile PendingResume pending;
+
+    private static class PendingResume {
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile JsonObject reply;
+    }
+
+    /**
+     * @param warmUp Loads local caches of the resumed user; run on a background thread after a resume.
+     */
+    public SessionResumer(ClientState clientState, OutboundScheduler outbound, Runnable warmUp) {
+        this.clientState = clientState;
+        this.outbound = outbound;
+        ServerEndpoint primary = clientState.getPrimaryEndpoint();
+        this.cache = new SessionCache(primary.getHost(), primary.getPort());
+        this.warmUp = warmUp;
+    }
+
+    public boolean isEnabled() {
+        return clientState.getOptions().isSessionCache();
+    }
+
+    /**
+     * Tries to resume the cached session. Blocks for at most {@link Constants#SESSION_RESUME_ATTEMPTS}
+     * retransmission timeouts.
+     *
+     * @return true if the client is now logged in with the resumed session.
+     */
+    public boolean resume() {
+        if (!isEnabled() || clientState.getSessionKey() != null) {
+            return false;
+        }
+        SessionCache.Entry entry = cache.load();
+        if (entry == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (!entry.isFresh(now)) {
+            log.info("Cached session for '{}' has been idle too long, discarding it", entry.chatId);
+            cache.clear();
+            return false;
+        }
+
+        JsonObject reply = revalidate(entry);
+        if (reply == null) {
+            log.info("Server did not answer the resume request; a full login is needed");
+            return false;
+        }
+        if (!apply(entry, reply)) {
+            cache.clear();
+            return false;
+        }
+        Thread warmUpThread = new Thread(warmUp, "SessionWarmUp");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+        return true;
+    }
+
+    /**
+     * Re-establishes the session held in memory on the endpoint the client just moved to
+     * (see {@link EndpointManager}); works whether or not the session cache is enabled.
+     *
+     * @return true if the new endpoint accepted the session.
+     */
+    public boolean resumeOnCurrentEndpoint() {
+        String sessionKey = clientState.getSessionKey();
+        String chatId = clientState.getCurrentChatId();
+        if (sessionKey == null || chatId == null) {
+            return false;
+        }
+        SessionCache.Entry entry = new SessionCache.Entry(chatId, sessionKey, clientState.getSessionKeyId(),
+                new ArrayList<>(clientState.getActiveCapabilities()), System.currentTimeMillis());
+        JsonObject reply = revalidate(entry);
+        return reply != null && apply(entry, reply);
+    }
+
+    /**
+     * Sends the resume request to the current endpoint until it answers.
+     *
+     * @return The reply, or null if there was none.
+     */
+    private JsonObject revalidate(SessionCache.Entry entry) {
+        ServerEndpoint endpoint = clientState.getEndpoint();
+        PendingResume attempt = new PendingResume();
+        pending = attempt;
+        try {
+            for (int i = 0; i < Constants.SESSION_RESUME_ATTEMPTS && attempt.reply == null; i++) {
+                outbound.send(endpoint.getAddress(), endpoint.getPort(), createRequest(entry), Constants.FIXED_LOGIN_KEY_STRING);
+                attempt.latch.await(Constants.RTO_INITIAL_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (GeneralSecurityException e) {
+            log.error("Cannot sign resume request: {}", e.getMessage());
+        } finally {
+            pending = null;
+        }
+        return attempt.reply;
+    }
+
+    /**
+     * Takes over the session from a successful reply.
+     *
+     * @return false if the server rejected the session.
+     */
+    private boolean apply(SessionCache.Entry entry, JsonObject reply) {
+        String status = reply.has(Constants.KEY_STATUS) ? reply.get(Constants.KEY_STATUS).getAsString() : null;
+        if (!Constants.STATUS_SUCCESS.equals(status)) {
+            String message = reply.has(Constants.KEY_MESSAGE) ? reply.get(Constants.KEY_MESSAGE).getAsString() : "Unknown reason";
+            log.info("Server rejected the session of '{}': {}", entry.chatId, message);
+            return false;
+        }
+
+        // The server may rotate the key or change the accepted features while resuming
+        JsonObject data = reply.has(Constants.KEY_DATA) ? reply.getAsJsonObject(Constants.KEY_DATA) : new JsonObject();
+        String sessionKey = data.has(Constants.KEY_SESSION_KEY) ? data.get(Constants.KEY_SESSION_KEY).getAsString() : entry.sessionKey;
+        int keyId = data.has(Constants.KEY_KEY_ID) ? data.get(Constants.KEY_KEY_ID).getAsInt() : entry.keyId;
+        List<String> capabilities = entry.capabilities;
+        if (data.has(Constants.KEY_CAPABILITIES) && data.get(Constants.KEY_CAPABILITIES).isJsonArray()) {
+            capabilities = new ArrayList<>();
+            for (JsonElement element : data.getAsJsonArray(Constants.KEY_CAPABILITIES)) {
+                capabilities.add(element.getAsString());
+            }
+        }
+        clientState.startSession(sessionKey, keyId, entry.chatId, capabilities);
+        if (data.has(Constants.KEY_DELIVERY_MODES) && data.get(Constants.KEY_DELIVERY_MODES).isJsonObject()) {
+            clientState.getDeliveryModes().reconcile(data.getAsJsonObject(Constants.KEY_DELIVERY_MODES));
+        }
+        remember();
+        log.info("Resumed session for user '{}' on {}", entry.chatId, clientState.getEndpoint());
+        return true;
+    }
+
+    private JsonObject createRequest(SessionCache.Entry entry) throws GeneralSecurityException {
+        long timestamp = System.currentTimeMillis();
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(entry.sessionKey.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] proof = mac.doFinal((entry.chatId + "\n" + timestamp).getBytes(StandardCharsets.UTF_8));
+
+        JsonObject data = new JsonObject();
+        data.addProperty(Constants.KEY_CHAT_ID, entry.chatId);
+        data.addProperty(Constants.KEY_KEY_ID, entry.keyId);
+        data.addProperty(Constants.KEY_TIMESTAMP, timestamp);
+        data.addProperty(Constants.KEY_PROOF, Base64.getEncoder().encodeToString(proof));
+        JsonArray capabilities = new JsonArray();
+        for (String capability : clientState.offeredCapabilities()) {
+            capabilities.add(capability);
+        }
+        data.add(Constants.KEY_CAPABILITIES, capabilities);
+        JsonObject deliveryModes = clientState.getDeliveryModes().toJson(entry.chatId);
+        if (deliveryModes != null) {
+            data.add(Constants.KEY_DELIVERY_MODES, deliveryModes);
+        }
+        return JsonHelper.createRequest(Constants.ACTION_RESUME, data);
+    }
+
+    /**
+     * Takes the server's reply to a resume request (a {@code resume} packet, or an {@code error} for it).
+     *
+     * @return false if no resume is in progress.
+     */
+    public boolean onReply(JsonObject reply) {
+        PendingResume attempt = pending;
+        if (attempt == null) {
+            return false;
+        }
+        if (attempt.reply == null) {
+            attempt.reply = reply;
+            attempt.latch.countDown();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the current session to the cache, stamped with the current time. Called after a
+     * login or resume and again on shutdown, so the cache knows when the session was last used.
+     */
+    public void remember() {
+        if (!isEnabled() || clientState.getSessionKey() == null || clientState.getCurrentChatId() == null) {
+            return;
+        }
+        cache.save(new SessionCache.Entry(clientState.getCurrentChatId(), clientState.getSessionKey(), clientState.getSessionKeyId(),
+                new ArrayList<>(clientState.getActiveCapabilities()), System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,174 @@
+package UdpChatClient;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Bounded ring between exactly one producer thread and one consumer thread. The slots are created
+ * up front and reused: the producer claims the next free slot, fills it in place and publishes it,
+ * and the consumer reads it and releases it. Nothing is allocated or locked per item; the two sides
+ * only meet on two sequence counters, and each keeps a cached copy of the other's so it reads the
+ * shared one only when the cache says the ring is full (or empty).
+ *
+ * @param <E> Mutable slot type.
+ */
+public final class SpscRing<E> {
+
+    /** How a side waits for the other one. */
+    public enum WaitStrategy {
+        SPIN, // Burns a core; lowest latency
+        PARK // Spins briefly, then parks in short naps
+    }
+
+    private static final int SPINS_BEFORE_PARK = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    // A counter with 56 bytes of padding on each side. The JVM lays out superclass fields first, so the
+    // hierarchy keeps the padding in place: the producer's and the consumer's counters never share a
+    // cache line with each other or with the ring's read-only fields.
+    @SuppressWarnings("unused")
+    private static class LeftPadding {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class SequenceFields extends LeftPadding {
+        volatile long value;
+        long cachedPeer; // The owning side's copy of the other side's counter
+    }
+
+    @SuppressWarnings("unused")
+    private static final class Sequence extends SequenceFields {
+        long q1, q2, q3, q4, q5, q6, q7;
+    }
+
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(SequenceFields.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final Sequence head = new Sequence(); // Next slot to consume; written by the consumer, which caches tail in it
+    private final Sequence tail = new Sequence(); // Next slot to publish; written by the producer, which caches head in it
+
+    /**
+     * @param capacity Rounded up to a power of two.
+     */
+    public SpscRing(int capacity, Supplier<E> slotFactory, WaitStrategy waitStrategy) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new Object[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = slotFactory.get();
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Producer: the next free slot, to be filled and then {@link #publish}ed.
+     *
+     * @return The slot, or null if the ring is full.
+     */
+    public E tryClaim() {
+        long t = tail.value;
+        if (t - tail.cachedPeer > mask) {
+            tail.cachedPeer = (long) VALUE.getAcquire(head);
+            if (t - tail.cachedPeer > mask) {
+                return null;
+            }
+        }
+        return slot(t);
+    }
+
+    /**
+     * Producer: like {@link #tryClaim}, but waits for the consumer to free a slot.
+     *
+     * @return The slot, or null if {@code running} turned false while waiting.
+     */
+    public E claim(BooleanSupplier running) {
+        E slot;
+        int idle = 0;
+        while ((slot = tryClaim()) == null) {
+            if (!running.getAsBoolean()) {
+                return null;
+            }
+            idle = idle(idle);
+        }
+        return slot;
+    }
+
+    /** Producer: makes the claimed slot visible to the consumer. */
+    public void publish() {
+        VALUE.setRelease(tail, tail.value + 1);
+    }
+
+    /**
+     * Consumer: the oldest published slot, to be {@link #release}d once read.
+     *
+     * @return The slot, or null if the ring is empty.
+     */
+    public E poll() {
+        long h = head.value;
+        if (h >= head.cachedPeer) {
+            head.cachedPeer = (long) VALUE.getAcquire(tail);
+            if (h >= head.cachedPeer) {
+                return null;
+            }
+        }
+        return slot(h);
+    }
+
+    /**
+     * Consumer: like {@link #poll}, but waits for the producer.
+     *
+     * @return The slot, or null if {@code running} turned false while waiting.
+     */
+    public E take(BooleanSupplier running) {
+        E slot;
+        int idle = 0;
+        while ((slot = poll()) == null) {
+            if (!running.getAsBoolean()) {
+                return null;
+            }
+            idle = idle(idle);
+        }
+        return slot;
+    }
+
+    /** Consumer: hands the slot read last back to the producer. */
+    public void release() {
+        VALUE.setRelease(head, head.value + 1);
+    }
+
+    /** Items published and not yet released; approximate when read by a third thread. */
+    public int size() {
+        return (int) Math.max(0, tail.value - head.value);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E slot(long sequence) {
+        return (E) slots[(int) sequence & mask];
+    }
+
+    private int idle(int idle) {
+        if (waitStrategy == WaitStrategy.SPIN || idle < SPINS_BEFORE_PARK) {
+            Thread.onSpinWait();
+            return idle + 1;
+        }
+        LockSupport.parkNanos(PARK_NANOS);
+        return idle;
+    }
+}
@@ -0,0 +1,53 @@
+package UdpChatClient;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-phase wall-clock breakdown of client startup, printed with {@link Constants#OPT_STARTUP_REPORT}.
+ * The first phase runs from JVM start to {@code main}, which covers class loading and the logging
+ * setup triggered by static loggers; each later phase ends at a {@link #mark} call.
+ */
+public class StartupProfile {
+    private final boolean enabled;
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> durationsNanos = new ArrayList<>();
+    private final long mainNanos = System.nanoTime();
+    private long lastNanos = mainNanos;
+    private final long jvmToMainMillis;
+
+    public StartupProfile(boolean enabled) {
+        this.enabled = enabled;
+        long jvmStart = ProcessHandle.current().info().startInstant().map(Instant::toEpochMilli).orElse(-1L);
+        this.jvmToMainMillis = jvmStart > 0 ? System.currentTimeMillis() - jvmStart : -1;
+    }
+
+    /** Ends the current phase under {@code phase}. */
+    public synchronized void mark(String phase) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        phases.add(phase);
+        durationsNanos.add(now - lastNanos);
+        lastNanos = now;
+    }
+
+    public void print() {
+        if (!enabled) {
+            return;
+        }
+        StringBuilder out = new StringBuilder("\nStartup report:\n");
+        if (jvmToMainMillis >= 0) {
+            out.append(String.format("  %-24s %8d ms%n", "jvm start -> main", jvmToMainMillis));
+        }
+        synchronized (this) {
+            for (int i = 0; i < phases.size(); i++) {
+                out.append(String.format("  %-24s %8.1f ms%n", phases.get(i), durationsNanos.get(i) / 1e6));
+            }
+            out.append(String.format("  %-24s %8.1f ms%n", "main -> ready", (lastNanos - mainNanos) / 1e6));
+        }
+        System.out.print(out);
+    }
+}
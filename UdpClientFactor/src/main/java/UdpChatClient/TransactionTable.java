@@ -0,0 +1,371 @@
+package UdpChatClient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Map from transaction id to pending state, for the handshake's in-flight tables. Ids are numbers
+ * almost always (the client's own request ids, and the server's transaction ids), so they are kept as
+ * primitive longs in open-addressing arrays: no String key, no boxed Long and no node object per entry.
+ * The table is split into lock-striped segments so the receive thread and the request threads rarely
+ * contend. Servers that use UUIDs get the same treatment: the canonical lowercase form is stored as
+ * two longs in stripes of their own. Any other id goes to a small ConcurrentHashMap instead.
+ *
+ * @param <V> Value type; null values are not allowed.
+ */
+public final class TransactionTable<V> {
+    private static final int STRIPES = 16; // Power of two
+    private static final int INITIAL_CAPACITY = 16; // Slots per stripe, power of two
+    private static final int MAX_NUMERIC_DIGITS = 18; // Parses without overflow checks
+    private static final int UUID_LENGTH = 36; // 8-4-4-4-12 hex digits
+
+    /**
+     * One segment: linear probing, an empty slot has a null value. UUID stripes also keep the high
+     * half of each key; in numeric stripes {@code highs} is null.
+     */
+    private static final class Stripe {
+        long[] keys = new long[INITIAL_CAPACITY];
+        long[] highs;
+        Object[] values = new Object[INITIAL_CAPACITY];
+        int size;
+
+        Stripe(boolean twoLongKeys) {
+            highs = twoLongKeys ? new long[INITIAL_CAPACITY] : null;
+        }
+
+        boolean matches(int slot, long high, long key) {
+            return keys[slot] == key && (highs == null || highs[slot] == high);
+        }
+
+        long hashAt(int slot) {
+            return highs == null ? mix(keys[slot]) : mix(highs[slot], keys[slot]);
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Stripe[] uuidStripes = new Stripe[STRIPES];
+    private final ConcurrentHashMap<String, V> nonNumeric = new ConcurrentHashMap<>();
+
+    public TransactionTable() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(false);
+            uuidStripes[i] = new Stripe(true);
+        }
+    }
+
+    /** @return The previous value, or null. */
+    public V put(long key, V value) {
+        long hash = mix(key);
+        return put(stripeFor(stripes, hash), hash, 0, key, value);
+    }
+
+    public V get(long key) {
+        long hash = mix(key);
+        return get(stripeFor(stripes, hash), hash, 0, key);
+    }
+
+    /** @return The removed value, or null if there was none. */
+    public V remove(long key) {
+        long hash = mix(key);
+        return remove(stripeFor(stripes, hash), hash, 0, key);
+    }
+
+    public V put(String id, V value) {
+        if (isNumeric(id)) {
+            return put(parse(id), value);
+        }
+        if (isUuid(id)) {
+            long high = parseHex(id, 0, 18);
+            long low = parseHex(id, 19, UUID_LENGTH);
+            long hash = mix(high, low);
+            return put(stripeFor(uuidStripes, hash), hash, high, low, value);
+        }
+        return nonNumeric.put(id, Objects.requireNonNull(value, "value"));
+    }
+
+    public V get(String id) {
+        if (isNumeric(id)) {
+            return get(parse(id));
+        }
+        if (isUuid(id)) {
+            long high = parseHex(id, 0, 18);
+            long low = parseHex(id, 19, UUID_LENGTH);
+            long hash = mix(high, low);
+            return get(stripeFor(uuidStripes, hash), hash, high, low);
+        }
+        return nonNumeric.get(id);
+    }
+
+    public V remove(String id) {
+        if (isNumeric(id)) {
+            return remove(parse(id));
+        }
+        if (isUuid(id)) {
+            long high = parseHex(id, 0, 18);
+            long low = parseHex(id, 19, UUID_LENGTH);
+            long hash = mix(high, low);
+            return remove(stripeFor(uuidStripes, hash), hash, high, low);
+        }
+        return nonNumeric.remove(id);
+    }
+
+    /** {@code high} is ignored in numeric stripes. */
+    @SuppressWarnings("unchecked")
+    private V put(Stripe stripe, long hash, long high, long key, V value) {
+        Objects.requireNonNull(value, "value");
+        synchronized (stripe) {
+            int mask = stripe.keys.length - 1;
+            for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+                Object existing = stripe.values[i];
+                if (existing == null) {
+                    stripe.keys[i] = key;
+                    if (stripe.highs != null) {
+                        stripe.highs[i] = high;
+                    }
+                    stripe.values[i] = value;
+                    if (++stripe.size * 3 > stripe.keys.length * 2) {
+                        grow(stripe);
+                    }
+                    return null;
+                }
+                if (stripe.matches(i, high, key)) {
+                    stripe.values[i] = value;
+                    return (V) existing;
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V get(Stripe stripe, long hash, long high, long key) {
+        synchronized (stripe) {
+            int slot = indexOf(stripe, hash, high, key);
+            return slot < 0 ? null : (V) stripe.values[slot];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V remove(Stripe stripe, long hash, long high, long key) {
+        synchronized (stripe) {
+            int slot = indexOf(stripe, hash, high, key);
+            if (slot < 0) {
+                return null;
+            }
+            Object removed = stripe.values[slot];
+            deleteAt(stripe, slot);
+            return (V) removed;
+        }
+    }
+
+    /** @return Some value matching {@code filter}, or null. Stripe by stripe, not a snapshot. */
+    @SuppressWarnings("unchecked")
+    public V find(Predicate<? super V> filter) {
+        for (Stripe[] group : List.of(stripes, uuidStripes)) {
+            for (Stripe stripe : group) {
+                synchronized (stripe) {
+                    for (Object value : stripe.values) {
+                        if (value != null && filter.test((V) value)) {
+                            return (V) value;
+                        }
+                    }
+                }
+            }
+        }
+        for (V value : nonNumeric.values()) {
+            if (filter.test(value)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Like {@link #find}, but removes the match under the same lock, so two callers never both take it.
+     */
+    @SuppressWarnings("unchecked")
+    public V removeFirst(Predicate<? super V> filter) {
+        for (Stripe[] group : List.of(stripes, uuidStripes)) {
+            for (Stripe stripe : group) {
+                synchronized (stripe) {
+                    for (int i = 0; i < stripe.values.length; i++) {
+                        Object value = stripe.values[i];
+                        if (value != null && filter.test((V) value)) {
+                            deleteAt(stripe, i);
+                            return (V) value;
+                        }
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, V> entry : nonNumeric.entrySet()) {
+            if (filter.test(entry.getValue()) && nonNumeric.remove(entry.getKey(), entry.getValue())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        int size = nonNumeric.size();
+        for (Stripe[] group : List.of(stripes, uuidStripes)) {
+            for (Stripe stripe : group) {
+                synchronized (stripe) {
+                    size += stripe.size;
+                }
+            }
+        }
+        return size;
+    }
+
+    /** Empties the table and gives back the memory of stripes that had grown. */
+    public void clear() {
+        for (Stripe[] group : List.of(stripes, uuidStripes)) {
+            for (Stripe stripe : group) {
+                synchronized (stripe) {
+                    stripe.keys = new long[INITIAL_CAPACITY];
+                    stripe.highs = stripe.highs != null ? new long[INITIAL_CAPACITY] : null;
+                    stripe.values = new Object[INITIAL_CAPACITY];
+                    stripe.size = 0;
+                }
+            }
+        }
+        nonNumeric.clear();
+    }
+
+    private static Stripe stripeFor(Stripe[] group, long hash) {
+        return group[(int) (hash >>> 60) & (STRIPES - 1)]; // Top bits; the slot index uses the bottom ones
+    }
+
+    private static int indexOf(Stripe stripe, long hash, long high, long key) {
+        int mask = stripe.keys.length - 1;
+        for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+            if (stripe.values[i] == null) {
+                return -1;
+            }
+            if (stripe.matches(i, high, key)) {
+                return i;
+            }
+        }
+    }
+
+    /** Empties a slot and moves later entries of its probe run back, so lookups need no tombstones. */
+    private static void deleteAt(Stripe stripe, int slot) {
+        long[] keys = stripe.keys;
+        long[] highs = stripe.highs;
+        Object[] values = stripe.values;
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int i = (hole + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = (int) stripe.hashAt(i) & mask;
+            // The entry may fill the hole unless its home slot lies cyclically in (hole, i]
+            boolean staysPut = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+            if (!staysPut) {
+                keys[hole] = keys[i];
+                if (highs != null) {
+                    highs[hole] = highs[i];
+                }
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = null;
+        stripe.size--;
+    }
+
+    private static void grow(Stripe stripe) {
+        long[] oldKeys = stripe.keys;
+        long[] oldHighs = stripe.highs;
+        Object[] oldValues = stripe.values;
+        long[] keys = new long[oldKeys.length * 2];
+        long[] highs = oldHighs != null ? new long[keys.length] : null;
+        Object[] values = new Object[oldValues.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] == null) {
+                continue;
+            }
+            int i = (int) stripe.hashAt(j) & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            if (highs != null) {
+                highs[i] = oldHighs[j];
+            }
+            values[i] = oldValues[j];
+        }
+        stripe.keys = keys;
+        stripe.highs = highs;
+        stripe.values = values;
+    }
+
+    /** Spreads sequential ids over stripes and slots (MurmurHash3 finalizer). */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static long mix(long high, long low) {
+        return mix(high * 31 + mix(low));
+    }
+
+    /** @return true if {@code id} is the canonical decimal form of a non-negative long, so it can be stored as one. */
+    static boolean isNumeric(String id) {
+        int length = id.length();
+        if (length == 0 || length > MAX_NUMERIC_DIGITS || (length > 1 && id.charAt(0) == '0')) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if {@code id} is a UUID in canonical form (lowercase, as {@link java.util.UUID#toString}
+     *         writes it), so the two longs map back to exactly this string.
+     */
+    static boolean isUuid(String id) {
+        if (id.length() != UUID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = id.charAt(i);
+            boolean dash = i == 8 || i == 13 || i == 18 || i == 23;
+            if (dash ? c != '-' : !((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Hex digits of {@code id} in [from, to) as one long, skipping dashes; assumes {@link #isUuid}. */
+    private static long parseHex(String id, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = id.charAt(i);
+            if (c != '-') {
+                value = value << 4 | (c <= '9' ? c - '0' : c - 'a' + 10);
+            }
+        }
+        return value;
+    }
+
+    private static long parse(String id) {
+        long value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            value = value * 10 + (id.charAt(i) - '0');
+        }
+        return value;
+    }
+}
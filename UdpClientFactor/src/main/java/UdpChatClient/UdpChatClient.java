@@ -5,49 +5,168 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // Import classes from the same package
+import UdpChatClient.ClientOptions;
 import UdpChatClient.ClientState;
 import UdpChatClient.CommandProcessor;
+import UdpChatClient.EndpointManager;
 import UdpChatClient.Constants;
 import UdpChatClient.HandshakeManager;
+import UdpChatClient.Heartbeat;
 import UdpChatClient.MessageListener;
 import UdpChatClient.MessageProcessor;
+import UdpChatClient.OutboundScheduler;
+import UdpChatClient.PacketEncoder;
+import UdpChatClient.PacketTransport;
+import UdpChatClient.SearchIndex;
+import UdpChatClient.SessionResumer;
+import UdpChatClient.StartupProfile;
+import UdpChatClient.WireCapture;
+import UdpChatClient.file.FileTransferClient;
 
 public class UdpChatClient {
     private static final Logger log = LoggerFactory.getLogger(UdpChatClient.class);
     public static final String DEFAULT_SERVER_HOST = "localhost"; // Keep default host here
 
     private final ClientState clientState;
+    private final OutboundScheduler outboundScheduler;
     private final MessageProcessor messageProcessor;
     private final HandshakeManager handshakeManager;
+    private final SessionResumer sessionResumer;
+    private final EndpointManager endpointManager;
+    private final Heartbeat heartbeat;
+    private final FileTransferClient fileTransferClient;
     private final CommandProcessor commandProcessor;
-    private final MessageListener messageListener;
-    private Thread listenerThread;
+    private final MessageListener[] messageListeners; // One per receive shard
+    private final ReceivePipeline receivePipeline; // Null unless --pipeline is given
+    private final StartupProfile startupProfile;
+    private final WireCapture capture; // Null unless --capture is given
+    private final CompletableFuture<Void> codecWarmUp;
+    private final List<Thread> listenerThreads = new ArrayList<>();
 
     public UdpChatClient(String serverHost, int serverPort) throws SocketException, UnknownHostException {
+        this(serverHost, serverPort, ClientOptions.parse(new String[0]));
+    }
+
+    public UdpChatClient(String serverHost, int serverPort, ClientOptions options) throws SocketException, UnknownHostException {
+        this(serverHost, serverPort, options, new StartupProfile(false));
+    }
+
+    public UdpChatClient(String serverHost, int serverPort, ClientOptions options, StartupProfile startupProfile) throws SocketException, UnknownHostException {
         log.info("Initializing UDP Chat Client for server {}:{}", serverHost, serverPort);
-        this.clientState = new ClientState(serverHost, serverPort);
+        this.startupProfile = startupProfile;
+        // Opens the socket and starts the DNS lookup, which runs while the rest is built
+        this.clientState = new ClientState(serverHost, serverPort, options);
+        // Load Gson's adapters and the encode path off the main thread as well
+        this.codecWarmUp = CompletableFuture.runAsync(PacketEncoder::warmUp);
+        startupProfile.mark("socket");
+        this.capture = openCapture(options.getCapturePath());
+        // Every outbound packet goes through one paced, prioritized sender on the shared socket
+        PacketTransport transport = PacketTransport.of(clientState.getSockets());
+        if (capture != null) {
+            transport = PacketTransport.capturing(transport, capture);
+        }
+        this.outboundScheduler = new OutboundScheduler(transport, clientState, options.getSendRateBytesPerSec());
         // Order matters: MessageProcessor needs ClientState
         this.messageProcessor = new MessageProcessor(clientState);
-        // HandshakeManager needs ClientState and MessageProcessor
-        this.handshakeManager = new HandshakeManager(clientState, messageProcessor);
-        // CommandProcessor needs ClientState and HandshakeManager
-        this.commandProcessor = new CommandProcessor(clientState, handshakeManager);
-        // MessageListener needs ClientState and HandshakeManager
-        this.messageListener = new MessageListener(clientState, handshakeManager);
+        // Resuming a cached session warms the user's local caches in the background
+        SearchIndex searchIndex = messageProcessor.getSearchIndex();
+        this.sessionResumer = new SessionResumer(clientState, outboundScheduler, searchIndex::warmUp);
+        // With several replicas, the endpoint manager probes them and moves the session on failure
+        this.endpointManager = new EndpointManager(clientState, outboundScheduler, sessionResumer);
+        // HandshakeManager needs ClientState, MessageProcessor, the outbound scheduler and the endpoints
+        this.handshakeManager = new HandshakeManager(clientState, messageProcessor, outboundScheduler, endpointManager);
+        // Sequenced pushes that went missing are asked for again, on the history request thread
+        messageProcessor.setGapFiller((roomId, ranges) -> messageProcessor.getHistoryPager().submitGapFill(handshakeManager, roomId, ranges));
+        // A new session or server may number the rooms afresh
+        clientState.addSessionListener(messageProcessor::resetSequencing);
+        // Idle keepalive; its RTT samples feed the handshake retransmission timeout
+        this.heartbeat = new Heartbeat(clientState, outboundScheduler, handshakeManager.getCongestionController());
+        // MessageListener needs ClientState and HandshakeManager; one per socket
+        this.messageListeners = new MessageListener[clientState.getShardCount()];
+        for (int shard = 0; shard < messageListeners.length; shard++) {
+            messageListeners[shard] = new MessageListener(clientState, handshakeManager, sessionResumer, endpointManager, heartbeat, capture, shard);
+        }
+        // Optionally split the receive path into stages on their own threads (single shard only)
+        this.receivePipeline = options.getPipelineWait() == null ? null
+                : new ReceivePipeline(clientState, messageListeners[0], handshakeManager, messageProcessor, options.getPipelineWait());
+        // File transfers use their own channel to the file server, opened on first use
+        this.fileTransferClient = new FileTransferClient(clientState);
+        // CommandProcessor needs ClientState, HandshakeManager and the file transfer client
+        this.commandProcessor = new CommandProcessor(clientState, handshakeManager, fileTransferClient, messageProcessor.getHistoryPager(),
+                searchIndex, sessionResumer, heartbeat, receivePipeline);
+        startupProfile.mark("components");
+        // Unresolvable hosts still fail here, before anything is sent
+        clientState.awaitServerAddress();
+        startupProfile.mark("dns (remaining wait)");
         log.info("Client components initialized.");
     }
 
+    private static WireCapture openCapture(String path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            return new WireCapture(Paths.get(path));
+        } catch (IOException e) {
+            System.err.println("Cannot write capture file '" + path + "', continuing without capture. " + e.getMessage());
+            log.error("Cannot open capture {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Server pushes as a reactive stream, for programs embedding the client. Subscribe before
+     * {@link #start()}; see {@link ChatEventPublisher} for how demand throttles the server.
+     */
+    public ChatEventPublisher getEventPublisher() {
+        return handshakeManager.getEventPublisher();
+    }
+
     public void start() {
-        // Start the listener thread
-        listenerThread = new Thread(messageListener, "ClientListenerThread");
-        listenerThread.setDaemon(true); // Allow JVM to exit if only daemon threads are running
-        listenerThread.start();
-        log.info("Message listener thread started.");
+        if (receivePipeline != null) {
+            receivePipeline.start(); // Before the listener, so no datagram takes the single-thread path
+        }
+        // Start the listener threads
+        for (int shard = 0; shard < messageListeners.length; shard++) {
+            Thread listenerThread = new Thread(messageListeners[shard], shard == 0 ? "ClientListenerThread" : "ClientListenerThread-" + shard);
+            listenerThread.setDaemon(true); // Allow JVM to exit if only daemon threads are running
+            listenerThread.start();
+            listenerThreads.add(listenerThread);
+        }
+        log.info("Message listener thread(s) started.");
+        startupProfile.mark("listener");
+
+        // Pick the best replica before anything creates a session (no-op with one server)
+        endpointManager.start();
+        heartbeat.start();
+        startupProfile.mark("endpoint probes");
+
+        // A cached session saves the login handshake; without one the user logs in as usual
+        if (sessionResumer.resume()) {
+            System.out.println("Resumed session as " + clientState.getCurrentChatId() + ".");
+        }
+        startupProfile.mark("session resume");
+        codecWarmUp.join();
+        startupProfile.mark("gson warm-up (wait)");
+
+        if (clientState.getOptions().isTrainingRun()) {
+            // Touch what an interactive session would, so the class list covers it, then exit
+            commandProcessor.initializeAllHandlers();
+            startupProfile.mark("all handlers");
+            startupProfile.print();
+            cleanup();
+            return;
+        }
+        startupProfile.print();
 
         // Show initial help message
         commandProcessor.showHelp();
@@ -73,51 +192,64 @@ public class UdpChatClient {
         // Ensure running state is false to signal listener thread
         clientState.setRunning(false);
 
+        // Record when the session was last used, so the next start knows whether it can still resume
+        sessionResumer.remember();
+
+        // Shutdown handshake manager (clears pending requests, flushes batched ACKs)
+        // and drain the outbound queue while the socket is still open
+        handshakeManager.shutdown();
+        endpointManager.shutdown();
+        heartbeat.shutdown();
+        outboundScheduler.shutdown();
+        fileTransferClient.shutdown();
+        messageProcessor.getHistoryPager().shutdown();
+        messageProcessor.getSearchIndex().shutdown();
+
         // Close the socket (this will interrupt the listener's blocking receive call)
         clientState.closeSocket();
 
-        // Optionally wait for the listener thread to finish
-        if (listenerThread != null && listenerThread.isAlive()) {
+        // Optionally wait for the listener threads to finish
+        for (Thread listenerThread : listenerThreads) {
+            if (!listenerThread.isAlive()) {
+                continue;
+            }
             try {
-                log.debug("Waiting for listener thread to join...");
+                log.debug("Waiting for listener thread {} to join...", listenerThread.getName());
                 listenerThread.join(1000); // Wait max 1 second
                 if (listenerThread.isAlive()) {
-                    log.warn("Listener thread did not exit gracefully, interrupting.");
+                    log.warn("Listener thread {} did not exit gracefully, interrupting.", listenerThread.getName());
                     listenerThread.interrupt(); // Force interruption if needed
                 } else {
-                     log.debug("Listener thread joined successfully.");
+                     log.debug("Listener thread {} joined successfully.", listenerThread.getName());
                 }
             } catch (InterruptedException e) {
                 log.warn("Interrupted while waiting for listener thread to join.");
                 Thread.currentThread().interrupt();
+                break;
             }
         }
 
-        // Shutdown handshake manager (clears pending requests)
-        handshakeManager.shutdown();
+        if (receivePipeline != null) {
+            receivePipeline.shutdown(); // Its stages stop with the running flag; wait for them briefly
+        }
+
+        // After the listener is gone, so no datagram is recorded into a closed file
+        if (capture != null) {
+            capture.close();
+        }
 
         log.info("Client cleanup finished.");
         System.out.println("\nClient connection closed.");
     }
 
     public static void main(String[] args) {
-        String host = DEFAULT_SERVER_HOST;
-        int port = Constants.DEFAULT_SERVER_PORT;
-
-        if (args.length >= 1) {
-            host = args[0];
-        }
-        if (args.length >= 2) {
-            try {
-                port = Integer.parseInt(args[1]);
-            } catch (NumberFormatException e) {
-                System.err.println("Invalid port number provided: " + args[1] + ". Using default port " + port + ".");
-                log.warn("Invalid port argument '{}', using default {}", args[1], port);
-            }
-        }
+        ClientOptions options = ClientOptions.parse(args);
+        StartupProfile startupProfile = new StartupProfile(options.isStartupReport());
+        String host = options.getServerHost();
+        int port = options.getServerPort();
 
         try {
-            UdpChatClient client = new UdpChatClient(host, port);
+            UdpChatClient client = new UdpChatClient(host, port, options, startupProfile);
             client.start();
         } catch (SocketException e) {
             System.err.println("Network error: Could not create socket. " + e.getMessage());
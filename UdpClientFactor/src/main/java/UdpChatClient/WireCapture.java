@@ -0,0 +1,184 @@
+package UdpChatClient;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records every datagram the chat socket sends or receives, exactly as it was on the wire, to a
+ * binary log (enabled with {@link Constants#OPT_CAPTURE}). {@link ReplayDriver} plays a capture
+ * back through the receive path.
+ * <p>
+ * Format, big-endian: a header {@code int magic, short version, long startEpochMillis}, then one
+ * record per datagram: {@code byte direction, long nanosSinceStart, byte addressLength,
+ * address, short port, int length, payload}. Records go into a direct buffer that is written to
+ * the file when it fills up and every {@link Constants#CAPTURE_FLUSH_INTERVAL_MS}, so capturing
+ * costs a copy per packet on the hot path. A write error stops the capture, not the client.
+ */
+public class WireCapture implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(WireCapture.class);
+
+    public static final byte INBOUND = 0;
+    public static final byte OUTBOUND = 1;
+    private static final int MAGIC = 0x55435743; // "UCWC"
+    private static final short VERSION = 1;
+    private static final int RECORD_OVERHEAD = 1 + 8 + 1 + 16 + 2 + 4;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(Constants.CAPTURE_BUFFER_BYTES);
+    private final long startNanos = System.nanoTime();
+    private final ScheduledExecutorService flusher;
+    private boolean failed;
+    private long records;
+
+    public WireCapture(Path path) throws IOException {
+        this.path = path;
+        // Logins and session keys are in there, readable under the Caesar cipher: owner-only, like the session cache
+        PrivateFiles.createFile(path);
+        this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        buffer.putInt(MAGIC).putShort(VERSION).putLong(System.currentTimeMillis());
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "WireCaptureFlusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, Constants.CAPTURE_FLUSH_INTERVAL_MS, Constants.CAPTURE_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        log.info("Capturing chat traffic to {}", path.toAbsolutePath());
+    }
+
+    /**
+     * Appends one datagram. Called by the listener (inbound) and the outbound sender thread.
+     */
+    public synchronized void record(byte direction, byte[] data, int offset, int length, InetAddress address, int port) {
+        if (failed) {
+            return;
+        }
+        try {
+            if (buffer.remaining() < RECORD_OVERHEAD + length) {
+                writeBuffer();
+            }
+            byte[] addr = address.getAddress();
+            buffer.put(direction).putLong(System.nanoTime() - startNanos)
+                    .put((byte) addr.length).put(addr).putShort((short) port)
+                    .putInt(length).put(data, offset, length);
+            records++;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void flush() {
+        if (failed) {
+            return;
+        }
+        try {
+            writeBuffer();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        log.error("Capture to {} stopped: {}", path, e.getMessage());
+    }
+
+    @Override
+    public synchronized void close() {
+        flusher.shutdownNow();
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close capture {}: {}", path, e.getMessage());
+        }
+        log.info("Capture {} closed after {} datagrams", path, records);
+    }
+
+    /** One captured datagram. */
+    public static final class Record {
+        public final byte direction;
+        public final long nanosSinceStart;
+        public final InetAddress address;
+        public final int port;
+        public final byte[] data;
+
+        Record(byte direction, long nanosSinceStart, InetAddress address, int port, byte[] data) {
+            this.direction = direction;
+            this.nanosSinceStart = nanosSinceStart;
+            this.address = address;
+            this.port = port;
+            this.data = data;
+        }
+    }
+
+    /** Reads a capture written by {@link WireCapture}, one record at a time. */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long startEpochMillis;
+
+        public Reader(Path path) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException(path + " is not a wire capture");
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                in.close();
+                throw new IOException("Unsupported capture version " + version);
+            }
+            this.startEpochMillis = in.readLong();
+        }
+
+        public long getStartEpochMillis() {
+            return startEpochMillis;
+        }
+
+        /**
+         * @return The next record, or null at the end of the capture (a record cut short by a crash counts as the end).
+         */
+        public Record next() throws IOException {
+            try {
+                byte direction = in.readByte();
+                long nanos = in.readLong();
+                byte[] addr = new byte[in.readUnsignedByte()];
+                in.readFully(addr);
+                int port = in.readUnsignedShort();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                return new Record(direction, nanos, InetAddress.getByAddress(addr), port, data);
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package UdpChatClient.command;
+
+import com.google.gson.JsonObject;
+
+import UdpChatClient.ClientState;
+import UdpChatClient.Constants;
+import UdpChatClient.DeliveryModes;
+import UdpChatClient.HandshakeManager;
+import UdpChatClient.JsonHelper;
+
+/**
+ * /subscribe, /mute and /unsubscribe: sets how a room's messages are delivered. The mode applies on
+ * this device at once and is sent to the server when it filters pushes itself.
+ */
+public class DeliveryModeHandler implements CommandHandler {
+    private final DeliveryModes.Mode mode;
+    private final String action;
+    private final String description;
+
+    public DeliveryModeHandler(DeliveryModes.Mode mode, String action, String description) {
+        this.mode = mode;
+        this.action = action;
+        this.description = description;
+    }
+
+    @Override
+    public void handle(String args, ClientState clientState, HandshakeManager handshakeManager) {
+        String roomId = args.trim();
+
+        if (clientState.getSessionKey() == null) {
+            System.out.println("You must be logged in to change room delivery. Use /login <id> <pw>");
+            System.out.print("> ");
+            return;
+        }
+
+        // Validate input
+        if (roomId.isEmpty() || roomId.contains(" ")) {
+            System.out.println("Usage: " + description);
+            System.out.print("> ");
+            return;
+        }
+
+        // Pushes already on their way are filtered from now on
+        clientState.getDeliveryModes().set(roomId, mode);
+        if (!clientState.hasCapability(Constants.CAP_DELIVERY_MODES)) {
+            System.out.println("Room '" + roomId + "' set to " + mode.wire + " delivery on this device only; the server does not filter pushes.");
+            System.out.print("> ");
+            return;
+        }
+
+        JsonObject data = new JsonObject();
+        data.addProperty(Constants.KEY_CHAT_ID, clientState.getCurrentChatId());
+        data.addProperty(Constants.KEY_ROOM_ID, roomId);
+
+        JsonObject request = JsonHelper.createRequest(action, data);
+        handshakeManager.sendClientRequestWithAck(request, action, clientState.getSessionKey());
+        // No need to print "> " here - done in the handshakeManager
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+}
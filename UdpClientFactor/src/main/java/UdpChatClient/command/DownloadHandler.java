@@ -0,0 +1,50 @@
+package UdpChatClient.command;
+
+import UdpChatClient.ClientState;
+import UdpChatClient.Constants;
+import UdpChatClient.HandshakeManager;
+import UdpChatClient.file.FileTransferClient;
+
+public class DownloadHandler implements CommandHandler {
+    private final FileTransferClient fileTransferClient;
+
+    public DownloadHandler(FileTransferClient fileTransferClient) {
+        this.fileTransferClient = fileTransferClient;
+    }
+
+    @Override
+    public void handle(String args, ClientState clientState, HandshakeManager handshakeManager) {
+        String[] downloadArgs = args.split("\\s+", 2);
+        if (downloadArgs.length != 2 || downloadArgs[0].trim().isEmpty() || downloadArgs[1].trim().isEmpty()) {
+            System.out.println("Usage: " + Constants.CMD_DOWNLOAD + " <room_id> <file_name>");
+            System.out.print("> ");
+            return;
+        }
+
+        if (clientState.getSessionKey() == null) {
+            System.out.println("You must be logged in to download files. Use /login <id> <pw>");
+            System.out.print("> ");
+            return;
+        }
+
+        String roomId = downloadArgs[0].trim();
+        String fileName = downloadArgs[1].trim();
+
+        System.out.println("Downloading '" + fileName + "' from room " + roomId + "...");
+        fileTransferClient.download(roomId, fileName).whenComplete((path, error) -> {
+            if (error == null) {
+                System.out.println("\nDownload completed: " + path.toAbsolutePath());
+            } else {
+                System.out.println("\nDownload of '" + fileName + "' failed: " + error.getMessage()
+                        + " (run the command again to resume)");
+            }
+            System.out.print("> ");
+        });
+        System.out.print("> ");
+    }
+
+    @Override
+    public String getDescription() {
+        return Constants.CMD_DOWNLOAD_DESC;
+    }
+}
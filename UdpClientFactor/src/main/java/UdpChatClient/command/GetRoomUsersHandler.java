@@ -6,6 +6,7 @@ import UdpChatClient.ClientState;
 import UdpChatClient.Constants;
 import UdpChatClient.HandshakeManager;
 import UdpChatClient.JsonHelper;
+import UdpChatClient.RoomDirectory;
 
 public class GetRoomUsersHandler implements CommandHandler {
 
@@ -29,6 +30,10 @@ public class GetRoomUsersHandler implements CommandHandler {
         JsonObject data = new JsonObject();
         data.addProperty(Constants.KEY_CHAT_ID, clientState.getCurrentChatId());
         data.addProperty(Constants.KEY_ROOM_ID, roomId);
+        long version = clientState.getRoomDirectory().membersVersion(roomId);
+        if (clientState.hasCapability(Constants.CAP_DELTA_SYNC) && version != RoomDirectory.UNKNOWN) {
+            data.addProperty(Constants.KEY_SINCE_VERSION, version); // Only the changes since the members we hold
+        }
 
         JsonObject request = JsonHelper.createRequest(Constants.ACTION_GET_ROOM_USERS, data);
         handshakeManager.sendClientRequestWithAck(request, Constants.ACTION_GET_ROOM_USERS, clientState.getSessionKey());
@@ -3,17 +3,22 @@ package UdpChatClient.command;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import com.google.gson.JsonObject;
-
 import UdpChatClient.ClientState;
 import UdpChatClient.Constants;
 import UdpChatClient.HandshakeManager;
-import UdpChatClient.JsonHelper;
+import UdpChatClient.HistoryPager;
+import UdpChatClient.HistoryStream;
 
 public class ListMessagesHandler implements CommandHandler {
+    private final HistoryPager historyPager;
+
+    public ListMessagesHandler(HistoryPager historyPager) {
+        this.historyPager = historyPager;
+    }
 
     @Override
     public void handle(String args, ClientState clientState, HandshakeManager handshakeManager) {
@@ -34,26 +39,35 @@ public class ListMessagesHandler implements CommandHandler {
             return;
         }
 
-        JsonObject data = new JsonObject();
-        data.addProperty(Constants.KEY_CHAT_ID, clientState.getCurrentChatId());
-        data.addProperty(Constants.KEY_ROOM_ID, roomId);
-
-        // Only add from_time if a specific time option (not "all") is provided and valid
+        // Only filter by from_time if a specific time option (not "all") is provided and valid
+        String fromTimeIso = null;
         if (!timeOption.equalsIgnoreCase(Constants.TIME_OPTION_ALL)) {
-            String fromTimeIso = parseTimeOption(timeOption);
-            if (fromTimeIso != null) {
-                data.addProperty(Constants.KEY_FROM_TIME, fromTimeIso);
-            } else {
+            fromTimeIso = parseTimeOption(timeOption);
+            if (fromTimeIso == null) {
                 // parseTimeOption prints error, just return
                 System.out.print("> ");
                 return;
             }
         }
-        // If timeOption is "all", don't add from_time
 
-        JsonObject request = JsonHelper.createRequest(Constants.ACTION_GET_MESSAGES, data);
-        handshakeManager.sendClientRequestWithAck(request, Constants.ACTION_GET_MESSAGES, clientState.getSessionKey());
-        // No need to print "> " here
+        // Newest page first; /more pages further back, the next page is prefetched meanwhile
+        HistoryStream stream = historyPager.open(roomId, fromTimeIso, handshakeManager);
+        try {
+            HistoryStream.Page page = stream.nextPage(Constants.CLIENT_REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (page == null) {
+                System.out.println("\nFailed to retrieve messages from server.");
+                stream.close();
+            } else {
+                historyPager.render(roomId, page);
+                if (!page.hasMore) {
+                    stream.close();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stream.close();
+        }
+        System.out.print("> ");
     }
 
     /**
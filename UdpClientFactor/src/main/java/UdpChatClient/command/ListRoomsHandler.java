@@ -6,6 +6,7 @@ import UdpChatClient.ClientState;
 import UdpChatClient.Constants;
 import UdpChatClient.HandshakeManager;
 import UdpChatClient.JsonHelper;
+import UdpChatClient.RoomDirectory;
 
 public class ListRoomsHandler implements CommandHandler {
 
@@ -20,6 +21,10 @@ public class ListRoomsHandler implements CommandHandler {
 
         JsonObject data = new JsonObject();
         data.addProperty(Constants.KEY_CHAT_ID, clientState.getCurrentChatId());
+        long version = clientState.getRoomDirectory().roomsVersion();
+        if (clientState.hasCapability(Constants.CAP_DELTA_SYNC) && version != RoomDirectory.UNKNOWN) {
+            data.addProperty(Constants.KEY_SINCE_VERSION, version); // Only the changes since the list we hold
+        }
         JsonObject request = JsonHelper.createRequest(Constants.ACTION_GET_ROOMS, data);
         handshakeManager.sendClientRequestWithAck(request, Constants.ACTION_GET_ROOMS, clientState.getSessionKey());
         // No need to print "> " here
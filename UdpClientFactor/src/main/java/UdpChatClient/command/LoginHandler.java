@@ -4,9 +4,16 @@ import UdpChatClient.ClientState;
 import UdpChatClient.Constants;
 import UdpChatClient.HandshakeManager;
 import UdpChatClient.JsonHelper;
+import UdpChatClient.SessionResumer;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 public class LoginHandler implements CommandHandler {
+    private final SessionResumer sessionResumer;
+
+    public LoginHandler(SessionResumer sessionResumer) {
+        this.sessionResumer = sessionResumer;
+    }
 
     @Override
     public void handle(String args, ClientState clientState, HandshakeManager handshakeManager) {
@@ -29,9 +36,23 @@ public class LoginHandler implements CommandHandler {
         JsonObject data = new JsonObject();
         data.addProperty(Constants.KEY_CHAT_ID, chatId);
         data.addProperty(Constants.KEY_PASSWORD, password);
+        // Offer optional protocol features; a legacy server ignores the field and none get enabled
+        JsonArray capabilities = new JsonArray();
+        for (String capability : clientState.offeredCapabilities()) {
+            capabilities.add(capability);
+        }
+        if (capabilities.size() > 0) {
+            data.add(Constants.KEY_CAPABILITIES, capabilities);
+        }
+        // Logging in again after a lost session: ask the server to keep the rooms muted as before
+        JsonObject deliveryModes = clientState.getDeliveryModes().toJson(chatId);
+        if (deliveryModes != null) {
+            data.add(Constants.KEY_DELIVERY_MODES, deliveryModes);
+        }
         JsonObject request = JsonHelper.createRequest(Constants.ACTION_LOGIN, data);
         // Login uses the fixed key for the initial request
         handshakeManager.sendClientRequestWithAck(request, Constants.ACTION_LOGIN, Constants.FIXED_LOGIN_KEY_STRING);
+        sessionResumer.remember(); // No-op unless the login succeeded and the session cache is enabled
         // No need to print "> " here, the response handler will do it or the loop continues
     }
 
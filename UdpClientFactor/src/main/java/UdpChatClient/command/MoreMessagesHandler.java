@@ -0,0 +1,56 @@
+package UdpChatClient.command;
+
+import java.util.concurrent.TimeUnit;
+
+import UdpChatClient.ClientState;
+import UdpChatClient.Constants;
+import UdpChatClient.HandshakeManager;
+import UdpChatClient.HistoryPager;
+import UdpChatClient.HistoryStream;
+
+public class MoreMessagesHandler implements CommandHandler {
+    private final HistoryPager historyPager;
+
+    public MoreMessagesHandler(HistoryPager historyPager) {
+        this.historyPager = historyPager;
+    }
+
+    @Override
+    public void handle(String args, ClientState clientState, HandshakeManager handshakeManager) {
+        String roomId = args.trim();
+        if (roomId.isEmpty()) {
+            System.out.println("Usage: " + Constants.CMD_MORE + " <room_id>");
+            System.out.print("> ");
+            return;
+        }
+
+        HistoryStream stream = historyPager.get(roomId);
+        if (stream == null) {
+            System.out.println("No more messages for room " + roomId + ". Use " + Constants.CMD_LIST_MESSAGES + " " + roomId + " to start from the newest.");
+            System.out.print("> ");
+            return;
+        }
+
+        try {
+            HistoryStream.Page page = stream.nextPage(Constants.CLIENT_REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (page == null) {
+                System.out.println("No more messages for room " + roomId + ".");
+                stream.close();
+            } else {
+                historyPager.render(roomId, page);
+                if (!page.hasMore) {
+                    stream.close();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stream.close();
+        }
+        System.out.print("> ");
+    }
+
+    @Override
+    public String getDescription() {
+        return Constants.CMD_MORE_DESC;
+    }
+}
@@ -0,0 +1,33 @@
+package UdpChatClient.command;
+
+import UdpChatClient.ClientState;
+import UdpChatClient.Constants;
+import UdpChatClient.HandshakeManager;
+import UdpChatClient.SessionResumer;
+
+public class ResumeHandler implements CommandHandler {
+    private final SessionResumer sessionResumer;
+
+    public ResumeHandler(SessionResumer sessionResumer) {
+        this.sessionResumer = sessionResumer;
+    }
+
+    @Override
+    public void handle(String args, ClientState clientState, HandshakeManager handshakeManager) {
+        if (clientState.getSessionKey() != null) {
+            System.out.println("Already logged in as " + clientState.getCurrentChatId() + ".");
+        } else if (!sessionResumer.isEnabled()) {
+            System.out.println("Session cache is disabled. Start the client with " + Constants.OPT_SESSION_CACHE + " to use it.");
+        } else if (sessionResumer.resume()) {
+            System.out.println("Resumed session as " + clientState.getCurrentChatId() + ".");
+        } else {
+            System.out.println("No resumable session. Use " + Constants.CMD_LOGIN + " <chatid> <password>");
+        }
+        System.out.print("> ");
+    }
+
+    @Override
+    public String getDescription() {
+        return Constants.CMD_RESUME_DESC;
+    }
+}
@@ -0,0 +1,68 @@
+package UdpChatClient.command;
+
+import java.time.Instant;
+import java.util.List;
+
+import UdpChatClient.ClientState;
+import UdpChatClient.ConsoleRenderer;
+import UdpChatClient.Constants;
+import UdpChatClient.HandshakeManager;
+import UdpChatClient.SearchIndex;
+
+public class SearchHandler implements CommandHandler {
+    private final SearchIndex searchIndex;
+
+    public SearchHandler(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    @Override
+    public void handle(String args, ClientState clientState, HandshakeManager handshakeManager) {
+        if (clientState.getSessionKey() == null) {
+            System.out.println("You must be logged in to search. Use /login <chatid> <password>");
+            System.out.print("> ");
+            return;
+        }
+        String query = args.trim();
+        if (query.isEmpty()) {
+            System.out.println("Usage: " + Constants.CMD_SEARCH + " <words> [room_id]");
+            System.out.print("> ");
+            return;
+        }
+
+        // A trailing word that names a known room restricts the search to that room
+        String roomId = null;
+        int lastSpace = query.lastIndexOf(' ');
+        if (lastSpace > 0 && searchIndex.hasRoom(query.substring(lastSpace + 1))) {
+            roomId = query.substring(lastSpace + 1);
+            query = query.substring(0, lastSpace).trim();
+        }
+
+        List<SearchIndex.Hit> hits = searchIndex.search(query, roomId, Constants.SEARCH_MAX_RESULTS);
+        StringBuilder out = new StringBuilder();
+        out.append("\nSearch results for '").append(query).append('\'');
+        if (roomId != null) {
+            out.append(" in room '").append(roomId).append('\'');
+        }
+        out.append(" (").append(searchIndex.size()).append(" messages indexed):\n");
+        if (hits.isEmpty()) {
+            out.append("  (No matching messages; only messages received or listed on this device are searched)\n");
+        }
+        for (SearchIndex.Hit hit : hits) {
+            out.append("  [").append(hit.roomId).append("] [");
+            try {
+                ConsoleRenderer.DATE_TIME_FORMAT.formatTo(Instant.parse(hit.timestamp), out);
+            } catch (Exception e) {
+                out.append(hit.timestamp);
+            }
+            out.append("] ").append(hit.sender).append(": ").append(hit.content).append('\n');
+        }
+        System.out.print(out);
+        System.out.print("> ");
+    }
+
+    @Override
+    public String getDescription() {
+        return Constants.CMD_SEARCH_DESC;
+    }
+}
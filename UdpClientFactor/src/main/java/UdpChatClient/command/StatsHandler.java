@@ -0,0 +1,33 @@
+package UdpChatClient.command;
+
+import UdpChatClient.ClientState;
+import UdpChatClient.Constants;
+import UdpChatClient.HandshakeManager;
+import UdpChatClient.Heartbeat;
+import UdpChatClient.ReceivePipeline;
+
+public class StatsHandler implements CommandHandler {
+    private final Heartbeat heartbeat;
+    private final ReceivePipeline pipeline; // Null without --pipeline
+
+    public StatsHandler(Heartbeat heartbeat, ReceivePipeline pipeline) {
+        this.heartbeat = heartbeat;
+        this.pipeline = pipeline;
+    }
+
+    @Override
+    public void handle(String args, ClientState clientState, HandshakeManager handshakeManager) {
+        System.out.println("\nConnection statistics:");
+        System.out.println("  Congestion: " + handshakeManager.getCongestionController().snapshot());
+        System.out.println("  Path (heartbeat): " + heartbeat.snapshot());
+        if (pipeline != null) {
+            System.out.println("  Receive pipeline: " + pipeline.snapshot());
+        }
+        System.out.print("> ");
+    }
+
+    @Override
+    public String getDescription() {
+        return Constants.CMD_STATS_DESC;
+    }
+}
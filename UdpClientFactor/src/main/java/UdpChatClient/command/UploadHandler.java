@@ -0,0 +1,57 @@
+package UdpChatClient.command;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import UdpChatClient.ClientState;
+import UdpChatClient.Constants;
+import UdpChatClient.HandshakeManager;
+import UdpChatClient.file.FileTransferClient;
+
+public class UploadHandler implements CommandHandler {
+    private final FileTransferClient fileTransferClient;
+
+    public UploadHandler(FileTransferClient fileTransferClient) {
+        this.fileTransferClient = fileTransferClient;
+    }
+
+    @Override
+    public void handle(String args, ClientState clientState, HandshakeManager handshakeManager) {
+        String[] uploadArgs = args.split("\\s+", 2);
+        if (uploadArgs.length != 2 || uploadArgs[0].trim().isEmpty() || uploadArgs[1].trim().isEmpty()) {
+            System.out.println("Usage: " + Constants.CMD_UPLOAD + " <room_id> <file_path>");
+            System.out.print("> ");
+            return;
+        }
+
+        if (clientState.getSessionKey() == null) {
+            System.out.println("You must be logged in to send files. Use /login <id> <pw>");
+            System.out.print("> ");
+            return;
+        }
+
+        String roomId = uploadArgs[0].trim();
+        Path file = Path.of(uploadArgs[1].trim());
+        if (!Files.isRegularFile(file)) {
+            System.out.println("File not found: " + file);
+            System.out.print("> ");
+            return;
+        }
+
+        System.out.println("Uploading '" + file.getFileName() + "' to room " + roomId + "...");
+        fileTransferClient.upload(roomId, file).whenComplete((path, error) -> {
+            if (error == null) {
+                System.out.println("\nUpload of '" + path.getFileName() + "' completed.");
+            } else {
+                System.out.println("\nUpload of '" + file.getFileName() + "' failed: " + error.getMessage());
+            }
+            System.out.print("> ");
+        });
+        System.out.print("> ");
+    }
+
+    @Override
+    public String getDescription() {
+        return Constants.CMD_UPLOAD_DESC;
+    }
+}
@@ -0,0 +1,54 @@
+package UdpChatClient.file;
+
+import java.nio.ByteBuffer;
+
+import UdpChatClient.Constants;
+
+/**
+ * Binary chunk frame used once both sides negotiated {@link Constants#KEY_BINARY}.
+ * Layout (big endian): magic(1) | transfer_id(4) | sequence_number(4) | chunk_size(4) | payload.
+ * JSON packets always start with '{', so the magic byte tells the two apart.
+ */
+public final class ChunkFrame {
+    public static final int HEADER_SIZE = 13;
+
+    public final int transferId;
+    public final int sequenceNumber;
+    public final ByteBuffer payload;
+
+    private ChunkFrame(int transferId, int sequenceNumber, ByteBuffer payload) {
+        this.transferId = transferId;
+        this.sequenceNumber = sequenceNumber;
+        this.payload = payload;
+    }
+
+    public static boolean isFrame(ByteBuffer packet) {
+        return packet.remaining() >= HEADER_SIZE && packet.get(packet.position()) == Constants.FILE_FRAME_MAGIC;
+    }
+
+    /**
+     * Writes a frame header into {@code header} (cleared first) and flips it for writing.
+     */
+    public static ByteBuffer writeHeader(ByteBuffer header, int transferId, int sequenceNumber, int chunkSize) {
+        header.clear();
+        header.put(Constants.FILE_FRAME_MAGIC).putInt(transferId).putInt(sequenceNumber).putInt(chunkSize);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Parses a received frame. The payload is a view into {@code packet}, valid until it is reused.
+     *
+     * @return the frame, or null if the header is inconsistent with the packet length.
+     */
+    public static ChunkFrame parse(ByteBuffer packet) {
+        int start = packet.position();
+        int transferId = packet.getInt(start + 1);
+        int sequenceNumber = packet.getInt(start + 5);
+        int chunkSize = packet.getInt(start + 9);
+        if (chunkSize < 0 || chunkSize != packet.remaining() - HEADER_SIZE) {
+            return null;
+        }
+        return new ChunkFrame(transferId, sequenceNumber, packet.slice(start + HEADER_SIZE, chunkSize));
+    }
+}
@@ -0,0 +1,645 @@
+package UdpChatClient.file;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import UdpChatClient.Constants;
+import UdpChatClient.JsonHelper;
+
+/**
+ * Receives a file into a pre-allocated, memory-mapped {@code .part} file, writing each chunk
+ * at its offset as it arrives. Progress (which chunks are on disk) is persisted next to it in a
+ * {@code .state} file, so a download interrupted by a crash resumes with only the missing chunks.
+ * When the server finishes a pass with chunks missing, the client asks for exactly those.
+ * <p>
+ * The request offers up to {@code streams} parallel streams. A server that supports this splits
+ * the file into ranges: the first is served on the shared control lane, every other range is
+ * requested on a lane of its own, so one RTT-bound window no longer caps throughput. Each range
+ * is checked against the server's CRC32C and the whole file against its SHA-256; both are
+ * updated as the verified prefix grows, so completion never re-reads the file.
+ * A legacy server ignores the offer and the download runs as a single range.
+ */
+class FileDownload extends FileTransfer {
+    private static final Logger log = LoggerFactory.getLogger(FileDownload.class);
+    private static final int STATE_MAGIC = 0x55434446; // "UCDF"
+    private static final int MAX_MISSING_PER_REQUEST = 512;
+
+    /** One contiguous run of chunks fetched on one lane. Indices are 0-based and inclusive. */
+    private static final class Range {
+        final int index;
+        final int from;
+        final int to;
+        final Long expectedCrc;
+        TransferLane lane; // null for the control lane
+        int transferId = -1;
+        boolean started;
+        boolean finSeen;
+        int chunksSinceAck;
+        long requestSentNanos;
+        long lastHeardNanos = System.nanoTime();
+        int retries;
+        CRC32C crc;
+        int crcNext;
+        boolean verified;
+
+        Range(int index, int from, int to, Long expectedCrc) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.expectedCrc = expectedCrc;
+            this.crcNext = from;
+            if (expectedCrc != null) {
+                crc = new CRC32C();
+            }
+        }
+
+        boolean contains(int chunk) {
+            return chunk >= from && chunk <= to;
+        }
+    }
+
+    private final String chatId;
+    private final String roomId;
+    private final String fileName;
+    private final Path target;
+    private final Path partPath;
+    private final Path statePath;
+    private final int streams;
+
+    private MappedFile file;
+    private long fileSize = -1;
+    private int chunkSize = Constants.FILE_CHUNK_SIZE;
+    private int totalChunks = -1;
+    private BitSet received = new BitSet();
+    private List<Range> ranges;
+    private boolean windowed = false;
+    private int chunksSinceFlush = 0;
+    private long requestSentNanos;
+    private int requestRetries = 0;
+
+    private MessageDigest sha256;
+    private String expectedSha256;
+    private int shaNext = 0; // First chunk not yet fed into sha256
+
+    FileDownload(FileTransferClient client, String chatId, String roomId, String fileName, Path target, int streams) {
+        super(client);
+        this.chatId = chatId;
+        this.roomId = roomId;
+        this.fileName = fileName;
+        this.target = target;
+        this.partPath = target.resolveSibling(target.getFileName() + Constants.FILE_PARTIAL_SUFFIX);
+        this.statePath = target.resolveSibling(target.getFileName() + Constants.FILE_STATE_SUFFIX);
+        this.streams = streams;
+    }
+
+    @Override
+    String key() {
+        return fileName;
+    }
+
+    @Override
+    void start() throws IOException {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        loadState();
+        sendRequest();
+    }
+
+    private JsonObject baseData(Range range) {
+        JsonObject data = new JsonObject();
+        data.addProperty(Constants.KEY_ROOM_ID, roomId);
+        data.addProperty(Constants.KEY_FILE_CHAT_ID, chatId);
+        data.addProperty(Constants.KEY_FILE_NAME, fileName);
+        int id = range == null || range.lane == null ? transferId : range.transferId;
+        if (id >= 0) {
+            data.addProperty(Constants.KEY_TRANSFER_ID, id);
+        }
+        return data;
+    }
+
+    private void send(Range range, JsonObject request) {
+        if (range == null || range.lane == null) {
+            client.sendJson(request);
+        } else {
+            range.lane.sendJson(request);
+        }
+    }
+
+    private void sendRequest() {
+        JsonObject data = baseData(null);
+        data.addProperty(Constants.KEY_WINDOW, Constants.FILE_WINDOW_SIZE);
+        data.addProperty(Constants.KEY_BINARY, true);
+        if (streams > 1) {
+            data.addProperty(Constants.KEY_STREAMS, streams);
+        }
+        if (!received.isEmpty()) {
+            data.add(Constants.KEY_RECEIVED_RANGES, SequenceRanges.toJson(received));
+        }
+        client.sendJson(JsonHelper.createRequest(Constants.ACTION_FILE_DOWN_REQ, data));
+        requestSentNanos = System.nanoTime();
+    }
+
+    /**
+     * Asks for one range on its own lane, listing the chunks of it already held.
+     */
+    private void sendRangeRequest(Range range) {
+        JsonObject data = baseData(range);
+        JsonArray bounds = new JsonArray();
+        bounds.add(range.from + 1);
+        bounds.add(range.to + 1);
+        data.add(Constants.KEY_RANGE, bounds);
+        data.addProperty(Constants.KEY_WINDOW, Constants.FILE_WINDOW_SIZE);
+        data.addProperty(Constants.KEY_BINARY, true);
+        BitSet held = received.get(0, range.to + 1);
+        held.clear(0, range.from);
+        if (!held.isEmpty()) {
+            data.add(Constants.KEY_RECEIVED_RANGES, SequenceRanges.toJson(held));
+        }
+        send(range, JsonHelper.createRequest(Constants.ACTION_FILE_DOWN_REQ, data));
+        range.requestSentNanos = System.nanoTime();
+    }
+
+    @Override
+    void onJson(String action, JsonObject response) {
+        JsonObject data = response.getAsJsonObject(Constants.KEY_DATA);
+        if (Constants.ACTION_FILE_DOWN_META.equals(action)) {
+            onMeta(data);
+        } else {
+            onRangeJson(rangeFor(data), action, response);
+        }
+    }
+
+    /**
+     * Replies on the control lane name their range in a FIN; everything else belongs to range 0.
+     */
+    private int rangeFor(JsonObject data) {
+        if (ranges == null || data == null || !data.has(Constants.KEY_RANGE)) {
+            return 0;
+        }
+        int from = data.getAsJsonArray(Constants.KEY_RANGE).get(0).getAsInt() - 1;
+        for (Range range : ranges) {
+            if (range.from == from) {
+                return range.index;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Handles a JSON reply for one range; range 0 also covers the control lane.
+     */
+    void onRangeJson(int rangeIndex, String action, JsonObject response) {
+        JsonObject data = response.getAsJsonObject(Constants.KEY_DATA);
+        Range range = ranges != null && rangeIndex < ranges.size() ? ranges.get(rangeIndex) : null;
+        if (range != null) {
+            range.lastHeardNanos = System.nanoTime();
+        }
+        switch (action) {
+            case Constants.ACTION_FILE_DOWN_REQ:
+                // The server only echoes the request action to report an error
+                if (Constants.STATUS_ERROR.equals(response.has(Constants.KEY_STATUS) ? response.get(Constants.KEY_STATUS).getAsString() : null)) {
+                    fail("Server rejected download: " + (response.has(Constants.KEY_MESSAGE) ? response.get(Constants.KEY_MESSAGE).getAsString() : "no details"));
+                }
+                break;
+
+            case Constants.ACTION_FILE_DOWN_META:
+                // Only lanes of their own get here: the range's session is set up
+                if (range != null && data != null) {
+                    range.started = true;
+                    range.retries = 0;
+                    if (data.has(Constants.KEY_TRANSFER_ID)) {
+                        range.transferId = data.get(Constants.KEY_TRANSFER_ID).getAsInt();
+                    }
+                }
+                break;
+
+            case Constants.ACTION_FILE_DOWN_DATA:
+                if (file == null || data == null || !data.has(Constants.KEY_SEQUENCE_NUMBER) || !data.has(Constants.KEY_FILE_DATA)) {
+                    return;
+                }
+                byte[] bytes = Base64.getDecoder().decode(data.get(Constants.KEY_FILE_DATA).getAsString());
+                onChunk(data.get(Constants.KEY_SEQUENCE_NUMBER).getAsInt(), ByteBuffer.wrap(bytes));
+                break;
+
+            case Constants.ACTION_FILE_DOWN_FIN:
+                if (range == null) {
+                    return;
+                }
+                range.finSeen = true;
+                if (!isReceived(range)) {
+                    requestMissing(range);
+                }
+                checkComplete();
+                break;
+
+            default:
+                log.debug("Ignoring file action '{}' during download of '{}'", action, fileName);
+                break;
+        }
+    }
+
+    private void onMeta(JsonObject data) {
+        long size = data.get(Constants.KEY_FILE_SIZE).getAsLong();
+        if (data.has(Constants.KEY_CHUNK_SIZE)) {
+            chunkSize = data.get(Constants.KEY_CHUNK_SIZE).getAsInt();
+        }
+        int total = data.has(Constants.KEY_TOTAL_PACKETS)
+                ? data.get(Constants.KEY_TOTAL_PACKETS).getAsInt()
+                : (int) ((size + chunkSize - 1) / chunkSize);
+        if (fileSize >= 0 && (fileSize != size || totalChunks != total)) {
+            log.warn("File '{}' changed on the server since the partial download; starting over", fileName);
+            received.clear();
+        }
+        fileSize = size;
+        totalChunks = total;
+        requestRetries = 0;
+        windowed = data.has(Constants.KEY_WINDOW);
+        if (data.has(Constants.KEY_TRANSFER_ID)) {
+            client.registerTransferId(this, data.get(Constants.KEY_TRANSFER_ID).getAsInt());
+        }
+        try {
+            if (file == null) {
+                file = MappedFile.openForWrite(partPath, fileSize);
+            }
+        } catch (IOException e) {
+            fail("Cannot create '" + partPath + "': " + e.getMessage());
+            return;
+        }
+        if (ranges == null) {
+            setUpRanges(data);
+        }
+        log.info("Download of '{}': {} bytes in {} chunks over {} stream(s), {} already on disk",
+                fileName, fileSize, totalChunks, ranges.size(), received.cardinality());
+        for (Range range : ranges) {
+            advance(range); // Chunks kept from an earlier run
+        }
+        checkComplete();
+    }
+
+    private void setUpRanges(JsonObject data) {
+        ranges = new ArrayList<>();
+        JsonArray split = data.has(Constants.KEY_RANGES) ? data.getAsJsonArray(Constants.KEY_RANGES) : null;
+        JsonArray crcs = data.has(Constants.KEY_RANGE_CRC32C) ? data.getAsJsonArray(Constants.KEY_RANGE_CRC32C) : null;
+        if (split == null || split.isEmpty()) {
+            Long crc = crcs != null && crcs.size() == 1 ? crcs.get(0).getAsLong() : null;
+            ranges.add(new Range(0, 0, totalChunks - 1, crc));
+        } else {
+            for (int i = 0; i < split.size(); i++) {
+                JsonArray bounds = split.get(i).getAsJsonArray();
+                Long crc = crcs != null && crcs.size() == split.size() ? crcs.get(i).getAsLong() : null;
+                ranges.add(new Range(i, bounds.get(0).getAsInt() - 1, bounds.get(1).getAsInt() - 1, crc));
+            }
+        }
+        ranges.get(0).started = true; // Already being served on the control lane
+
+        if (data.has(Constants.KEY_SHA256)) {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+                expectedSha256 = data.get(Constants.KEY_SHA256).getAsString();
+            } catch (NoSuchAlgorithmException e) {
+                log.warn("SHA-256 unavailable; '{}' will only be checked per range", fileName);
+            }
+        }
+
+        for (int i = 1; i < ranges.size(); i++) {
+            Range range = ranges.get(i);
+            if (isReceived(range)) {
+                range.started = true;
+                continue;
+            }
+            try {
+                range.lane = client.openLane(this, i);
+            } catch (IOException e) {
+                log.warn("Cannot open stream {} for '{}', fetching its range on the control lane: {}", i, fileName, e.getMessage());
+            }
+            sendRangeRequest(range);
+        }
+    }
+
+    @Override
+    void onFrame(ChunkFrame frame) {
+        if (file != null) {
+            onChunk(frame.sequenceNumber, frame.payload);
+        }
+    }
+
+    void onRangeFrame(int rangeIndex, ChunkFrame frame) {
+        if (file != null && ranges != null && rangeIndex < ranges.size()) {
+            ranges.get(rangeIndex).lastHeardNanos = System.nanoTime();
+            onChunk(frame.sequenceNumber, frame.payload);
+        }
+    }
+
+    private void onChunk(int sequenceNumber, ByteBuffer payload) {
+        int index = sequenceNumber - 1;
+        if (index < 0 || index >= totalChunks || received.get(index) || ranges == null) {
+            return; // out of range or duplicate
+        }
+        long offset = (long) index * chunkSize;
+        int expected = chunkLength(index);
+        if (payload.remaining() != expected) {
+            log.warn("Chunk {} of '{}' has {} bytes, expected {}; dropping", sequenceNumber, fileName, payload.remaining(), expected);
+            return;
+        }
+        try {
+            file.slice(offset, expected).put(payload);
+        } catch (IOException e) {
+            fail("Cannot write chunk " + sequenceNumber + ": " + e.getMessage());
+            return;
+        }
+        received.set(index);
+        requestRetries = 0;
+        Range range = rangeOf(index);
+        range.retries = 0;
+        if (++chunksSinceFlush >= Constants.FILE_STATE_FLUSH_INTERVAL_CHUNKS) {
+            saveState();
+        }
+        if (windowed && ++range.chunksSinceAck >= Constants.FILE_WINDOW_SIZE / 2) {
+            sendAck(range);
+        }
+        advance(range);
+        checkComplete();
+    }
+
+    private int chunkLength(int index) {
+        return (int) Math.min(chunkSize, fileSize - (long) index * chunkSize);
+    }
+
+    private Range rangeOf(int index) {
+        for (Range range : ranges) {
+            if (range.contains(index)) {
+                return range;
+            }
+        }
+        return ranges.get(0); // Ranges cover every chunk; only reached on a malformed split
+    }
+
+    // --- Integrity ---
+
+    /**
+     * Feeds the range's newly contiguous chunks into its CRC32C while they are still hot in the
+     * page cache, checks the range once it is whole, then moves the file-wide SHA-256 forward.
+     */
+    private void advance(Range range) {
+        if (range.crc != null && !range.verified) {
+            try {
+                while (range.crcNext <= range.to && received.get(range.crcNext)) {
+                    range.crc.update(file.slice((long) range.crcNext * chunkSize, chunkLength(range.crcNext)));
+                    range.crcNext++;
+                }
+            } catch (IOException e) {
+                fail("Cannot read back chunk " + (range.crcNext + 1) + ": " + e.getMessage());
+                return;
+            }
+            if (range.crcNext > range.to) {
+                if (range.crc.getValue() == range.expectedCrc) {
+                    range.verified = true;
+                } else {
+                    log.warn("Range {}-{} of '{}' failed its CRC32C check; fetching it again", range.from + 1, range.to + 1, fileName);
+                    received.clear(range.from, range.to + 1);
+                    range.crc.reset();
+                    range.crcNext = range.from;
+                    range.finSeen = false;
+                    sendRangeRequest(range);
+                    return;
+                }
+            }
+        }
+        advanceSha256();
+    }
+
+    /**
+     * SHA-256 has to see the file in order, so it follows the received prefix, stopping at any
+     * range still waiting for its CRC32C (a failed range is refetched and must not be hashed yet).
+     */
+    private void advanceSha256() {
+        if (sha256 == null) {
+            return;
+        }
+        try {
+            while (shaNext < totalChunks && received.get(shaNext)) {
+                Range range = rangeOf(shaNext);
+                if (range.crc != null && !range.verified) {
+                    return;
+                }
+                sha256.update(file.slice((long) shaNext * chunkSize, chunkLength(shaNext)));
+                shaNext++;
+            }
+        } catch (IOException e) {
+            fail("Cannot read back chunk " + (shaNext + 1) + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isReceived(Range range) {
+        return received.nextClearBit(range.from) > range.to;
+    }
+
+    // --- Acknowledgements ---
+
+    /**
+     * Selective ACK: highest contiguous chunk of the range plus the holes above it, so the server resends only those.
+     */
+    private void sendAck(Range range) {
+        range.chunksSinceAck = 0;
+        JsonObject data = baseData(range);
+        int contiguous = received.nextClearBit(range.from);
+        data.addProperty(Constants.KEY_SEQUENCE_NUMBER, contiguous); // all of from..contiguous are held
+        int highest = received.previousSetBit(range.to) + 1;
+        if (highest > contiguous) {
+            data.add(Constants.KEY_MISSING, SequenceRanges.missing(received, contiguous + 1, highest, MAX_MISSING_PER_REQUEST));
+        }
+        send(range, JsonHelper.createRequest(Constants.ACTION_FILE_DOWN_ACK, data));
+    }
+
+    private void checkComplete() {
+        if (file == null || ranges == null) {
+            return;
+        }
+        for (Range range : ranges) {
+            if (!isReceived(range) || (range.crc != null && !range.verified)) {
+                return;
+            }
+        }
+        if (sha256 != null) {
+            if (shaNext < totalChunks) {
+                return;
+            }
+            String actual = HexFormat.of().formatHex(sha256.digest());
+            if (!actual.equalsIgnoreCase(expectedSha256)) {
+                discardCorrupt(actual);
+                return;
+            }
+        }
+        finish();
+    }
+
+    private void requestMissing(Range range) {
+        JsonObject data = baseData(range);
+        data.add(Constants.KEY_MISSING, SequenceRanges.missing(received, range.from + 1, range.to + 1, MAX_MISSING_PER_REQUEST));
+        send(range, JsonHelper.createRequest(Constants.ACTION_FILE_DOWN_ACK, data));
+        range.requestSentNanos = System.nanoTime();
+        log.info("Download of '{}' missing {} chunk(s) in range {}-{} after server FIN; requested resend",
+                fileName, range.to - range.from + 1 - received.get(range.from, range.to + 1).cardinality(), range.from + 1, range.to + 1);
+    }
+
+    private void finish() {
+        try {
+            closeLanes();
+            file.close();
+            file = null;
+            Files.move(partPath, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(statePath);
+            log.info("Download of '{}' completed: {}", fileName, target);
+            succeed(target);
+        } catch (IOException e) {
+            fail("Cannot finalize '" + target + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Every range passed (or had no) CRC32C but the file hash is wrong; the damage cannot be
+     * located, so nothing of this attempt is kept for resume.
+     */
+    private void discardCorrupt(String actual) {
+        log.error("SHA-256 of '{}' is {}, server sent {}; discarding download", fileName, actual, expectedSha256);
+        try {
+            closeLanes();
+            file.close();
+            file = null;
+            Files.deleteIfExists(partPath);
+            Files.deleteIfExists(statePath);
+        } catch (IOException e) {
+            log.debug("Error discarding '{}': {}", partPath, e.getMessage());
+        }
+        fail("Downloaded file failed its SHA-256 check");
+    }
+
+    @Override
+    void onTick(long nowNanos) {
+        long retryNanos = TimeUnit.MILLISECONDS.toNanos(Constants.FILE_CHUNK_RETRY_MS);
+        if (ranges == null) {
+            if (nowNanos - requestSentNanos <= retryNanos || nowNanos - lastHeardNanos <= retryNanos) {
+                return;
+            }
+            if (++requestRetries > Constants.FILE_MAX_CHUNK_RETRIES) {
+                fail("No reply from file server");
+            } else {
+                sendRequest();
+            }
+            return;
+        }
+        for (Range range : ranges) {
+            if (isReceived(range) || nowNanos - range.requestSentNanos <= retryNanos || nowNanos - range.lastHeardNanos <= retryNanos) {
+                continue;
+            }
+            if (++range.retries > Constants.FILE_MAX_CHUNK_RETRIES) {
+                fail("No reply from file server for chunks " + (range.from + 1) + "-" + (range.to + 1));
+                return;
+            } else if (!range.started) {
+                sendRangeRequest(range);
+            } else if (range.finSeen || windowed) {
+                requestMissing(range);
+            }
+        }
+    }
+
+    // --- Resume state ---
+
+    private void loadState() {
+        if (!Files.exists(statePath) || !Files.exists(partPath)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(statePath))) {
+            if (in.readInt() != STATE_MAGIC) {
+                return;
+            }
+            fileSize = in.readLong();
+            chunkSize = in.readInt();
+            totalChunks = in.readInt();
+            byte[] bits = new byte[in.readInt()];
+            in.readFully(bits);
+            received = BitSet.valueOf(bits);
+            log.info("Found partial download of '{}': {}/{} chunks", fileName, received.cardinality(), totalChunks);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable download state {}: {}", statePath, e.getMessage());
+            fileSize = -1;
+            totalChunks = -1;
+            received = new BitSet();
+        }
+    }
+
+    /**
+     * Flushes the mapping before writing the bitmap, so the state never claims chunks
+     * that are not on disk. The state file is replaced atomically.
+     */
+    private void saveState() {
+        chunksSinceFlush = 0;
+        if (file == null) {
+            return;
+        }
+        file.force();
+        Path tmp = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+        byte[] bits = received.toByteArray();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+            out.writeInt(STATE_MAGIC);
+            out.writeLong(fileSize);
+            out.writeInt(chunkSize);
+            out.writeInt(totalChunks);
+            out.writeInt(bits.length);
+            out.write(bits);
+        } catch (IOException e) {
+            log.warn("Cannot save download state for '{}': {}", fileName, e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Cannot replace download state for '{}': {}", fileName, e.getMessage());
+        }
+    }
+
+    private void closeLanes() {
+        if (ranges == null) {
+            return;
+        }
+        for (Range range : ranges) {
+            if (range.lane != null) {
+                range.lane.close();
+                range.lane = null;
+            }
+        }
+    }
+
+    @Override
+    void close() {
+        closeLanes();
+        if (file != null) {
+            saveState();
+            try {
+                file.close();
+            } catch (IOException e) {
+                log.debug("Error closing '{}': {}", partPath, e.getMessage());
+            }
+            file = null;
+        }
+    }
+}
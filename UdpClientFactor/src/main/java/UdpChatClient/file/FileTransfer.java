@@ -0,0 +1,52 @@
+package UdpChatClient.file;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.gson.JsonObject;
+
+/**
+ * One upload or download driven by {@link FileTransferClient}.
+ * All callbacks for a transfer arrive on the listener or timer thread and are synchronized on the transfer.
+ */
+abstract class FileTransfer {
+    protected final FileTransferClient client;
+    protected final CompletableFuture<Path> completion = new CompletableFuture<>();
+    protected volatile int transferId = -1; // Set when the server assigns one (binary frames)
+    protected long lastHeardNanos = System.nanoTime();
+
+    FileTransfer(FileTransferClient client) {
+        this.client = client;
+    }
+
+    /** Key used to route JSON replies: the file path/name as sent to the server. */
+    abstract String key();
+
+    abstract void start() throws Exception;
+
+    abstract void onJson(String action, JsonObject response);
+
+    abstract void onFrame(ChunkFrame frame);
+
+    /** Called periodically for retransmissions and timeouts. */
+    abstract void onTick(long nowNanos);
+
+    /** Releases files; must be safe to call more than once. */
+    abstract void close();
+
+    CompletableFuture<Path> completion() {
+        return completion;
+    }
+
+    protected void fail(String reason) {
+        close();
+        client.finished(this);
+        completion.completeExceptionally(new IllegalStateException(reason));
+    }
+
+    protected void succeed(Path result) {
+        close();
+        client.finished(this);
+        completion.complete(result);
+    }
+}
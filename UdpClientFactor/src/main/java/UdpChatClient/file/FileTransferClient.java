@@ -0,0 +1,258 @@
+package UdpChatClient.file;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import UdpChatClient.ClientState;
+import UdpChatClient.Constants;
+
+/**
+ * Java side of the file transfer protocol spoken by the Flutter client's File module.
+ * Talks plain JSON to the file server on {@link Constants#FILE_TRANSFER_SERVER_PORT} over its own
+ * DatagramChannel, so large transfers never compete with chat handshakes on the chat socket.
+ * The channel and its threads are only created when the first transfer starts. Parallel downloads
+ * open extra {@link TransferLane}s whose packets go straight to the owning download.
+ */
+public class FileTransferClient {
+    private static final Logger log = LoggerFactory.getLogger(FileTransferClient.class);
+
+    private final ClientState clientState;
+    private InetSocketAddress serverEndpoint; // Null until the first transfer when derived from the chat server's address
+    private final Map<String, FileTransfer> transfersByKey = new ConcurrentHashMap<>();
+    private final Map<Integer, FileTransfer> transfersById = new ConcurrentHashMap<>();
+    private TransferLane controlLane;
+    private ScheduledExecutorService timer;
+
+    public FileTransferClient(ClientState clientState) {
+        this(clientState, null); // Do not wait for the chat server's DNS lookup before anything uses it
+    }
+
+    public FileTransferClient(ClientState clientState, InetSocketAddress serverEndpoint) {
+        this.clientState = clientState;
+        this.serverEndpoint = serverEndpoint;
+    }
+
+    /**
+     * Starts uploading {@code file} to {@code roomId}. If the server already holds part of the
+     * file (an earlier attempt crashed), only the missing chunks are sent.
+     */
+    public CompletableFuture<Path> upload(String roomId, Path file) {
+        return begin(new FileUpload(this, clientState.getCurrentChatId(), roomId, file));
+    }
+
+    /**
+     * Starts downloading {@code fileName} from {@code roomId} into {@link Constants#FILE_DOWNLOAD_DIR}.
+     * A partial download left by an earlier run is resumed. Large files are fetched as up to
+     * {@code --download-streams} ranges in parallel when the server supports it.
+     */
+    public CompletableFuture<Path> download(String roomId, String fileName) {
+        Path target = Path.of(Constants.FILE_DOWNLOAD_DIR).resolve(Path.of(fileName).getFileName());
+        int streams = clientState.getOptions().getDownloadStreams();
+        return begin(new FileDownload(this, clientState.getCurrentChatId(), roomId, fileName, target, streams));
+    }
+
+    private CompletableFuture<Path> begin(FileTransfer transfer) {
+        try {
+            ensureStarted();
+            if (transfersByKey.putIfAbsent(transfer.key(), transfer) != null) {
+                return CompletableFuture.failedFuture(new IllegalStateException("A transfer for '" + transfer.key() + "' is already running"));
+            }
+            synchronized (transfer) {
+                transfer.start();
+            }
+        } catch (Exception e) {
+            log.error("Failed to start file transfer for '{}': {}", transfer.key(), e.getMessage(), e);
+            transfer.fail(e.getMessage());
+        }
+        return transfer.completion();
+    }
+
+    private synchronized void ensureStarted() throws IOException {
+        if (controlLane != null) {
+            return;
+        }
+        if (serverEndpoint == null) {
+            serverEndpoint = new InetSocketAddress(clientState.getServerAddress(), Constants.FILE_TRANSFER_SERVER_PORT);
+        }
+        controlLane = new TransferLane(serverEndpoint, "FileTransferListener", this::dispatch);
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "FileTransferTimer");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::tick, Constants.FILE_CHUNK_RETRY_MS / 4, Constants.FILE_CHUNK_RETRY_MS / 4, TimeUnit.MILLISECONDS);
+        log.info("File transfer channel connected to {}", serverEndpoint);
+    }
+
+    // --- Sending ---
+
+    void sendJson(JsonObject json) {
+        controlLane.sendJson(json);
+    }
+
+    void sendFrame(int transferId, int sequenceNumber, ByteBuffer payload) {
+        controlLane.sendFrame(transferId, sequenceNumber, payload);
+    }
+
+    /**
+     * Opens an extra lane (new local port) for one range of a parallel download.
+     * Everything received on it is handed to {@code owner} as range {@code rangeIndex}.
+     */
+    TransferLane openLane(FileDownload owner, int rangeIndex) throws IOException {
+        return new TransferLane(serverEndpoint, "FileTransferLane-" + rangeIndex,
+                packet -> deliverToRange(owner, rangeIndex, packet));
+    }
+
+    void registerTransferId(FileTransfer transfer, int transferId) {
+        transfer.transferId = transferId;
+        transfersById.put(transferId, transfer);
+    }
+
+    void finished(FileTransfer transfer) {
+        transfersByKey.remove(transfer.key(), transfer);
+        if (transfer.transferId >= 0) {
+            transfersById.remove(transfer.transferId, transfer);
+        }
+    }
+
+    // --- Receiving ---
+
+    private void dispatch(ByteBuffer packet) {
+        if (ChunkFrame.isFrame(packet)) {
+            ChunkFrame frame = ChunkFrame.parse(packet);
+            FileTransfer transfer = frame != null ? transfersById.get(frame.transferId) : null;
+            if (transfer == null) {
+                log.debug("Dropping file frame for unknown transfer");
+                return;
+            }
+            synchronized (transfer) {
+                transfer.lastHeardNanos = System.nanoTime();
+                transfer.onFrame(frame);
+            }
+            return;
+        }
+
+        JsonObject response = parseJson(packet);
+        if (response == null) {
+            return;
+        }
+        String action = response.has(Constants.KEY_ACTION) ? response.get(Constants.KEY_ACTION).getAsString() : null;
+        JsonObject data = response.has(Constants.KEY_DATA) && response.get(Constants.KEY_DATA).isJsonObject()
+                ? response.getAsJsonObject(Constants.KEY_DATA) : null;
+        FileTransfer transfer = findTransfer(data);
+        if (action == null || transfer == null) {
+            log.warn("File server reply (action: {}) does not match an active transfer", action);
+            return;
+        }
+        synchronized (transfer) {
+            transfer.lastHeardNanos = System.nanoTime();
+            transfer.onJson(action, response);
+        }
+    }
+
+    private void deliverToRange(FileDownload owner, int rangeIndex, ByteBuffer packet) {
+        if (ChunkFrame.isFrame(packet)) {
+            ChunkFrame frame = ChunkFrame.parse(packet);
+            if (frame != null) {
+                synchronized (owner) {
+                    owner.lastHeardNanos = System.nanoTime();
+                    owner.onRangeFrame(rangeIndex, frame);
+                }
+            }
+            return;
+        }
+        JsonObject response = parseJson(packet);
+        if (response == null || !response.has(Constants.KEY_ACTION)) {
+            return;
+        }
+        synchronized (owner) {
+            owner.lastHeardNanos = System.nanoTime();
+            owner.onRangeJson(rangeIndex, response.get(Constants.KEY_ACTION).getAsString(), response);
+        }
+    }
+
+    private static JsonObject parseJson(ByteBuffer packet) {
+        String text = StandardCharsets.UTF_8.decode(packet).toString();
+        try {
+            return JsonParser.parseString(text).getAsJsonObject();
+        } catch (Exception e) {
+            log.error("Invalid JSON from file server: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private FileTransfer findTransfer(JsonObject data) {
+        if (data == null) {
+            return null;
+        }
+        if (data.has(Constants.KEY_TRANSFER_ID)) {
+            FileTransfer byId = transfersById.get(data.get(Constants.KEY_TRANSFER_ID).getAsInt());
+            if (byId != null) {
+                return byId;
+            }
+        }
+        for (String keyField : new String[] { Constants.KEY_FILE_PATH, Constants.KEY_FILE_NAME }) {
+            if (data.has(keyField)) {
+                String value = data.get(keyField).getAsString();
+                FileTransfer transfer = transfersByKey.get(value);
+                if (transfer == null) {
+                    // Downloads are keyed by bare file name; the server may echo a full path
+                    Path fileName = Path.of(value).getFileName();
+                    transfer = fileName != null ? transfersByKey.get(fileName.toString()) : null;
+                }
+                if (transfer != null) {
+                    return transfer;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        for (FileTransfer transfer : transfersByKey.values()) {
+            try {
+                synchronized (transfer) {
+                    if (now - transfer.lastHeardNanos > TimeUnit.MILLISECONDS.toNanos(Constants.FILE_TRANSFER_IDLE_TIMEOUT_MS)) {
+                        transfer.fail("File server stopped responding");
+                    } else {
+                        transfer.onTick(now);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Error in file transfer timer for '{}': {}", transfer.key(), e.getMessage(), e);
+            }
+        }
+    }
+
+    public void shutdown() {
+        for (FileTransfer transfer : transfersByKey.values()) {
+            synchronized (transfer) {
+                transfer.fail("Client shutting down");
+            }
+        }
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+            if (controlLane != null) {
+                controlLane.close();
+            }
+        }
+    }
+}
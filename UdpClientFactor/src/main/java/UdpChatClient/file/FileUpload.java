@@ -0,0 +1,284 @@
+package UdpChatClient.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import UdpChatClient.Constants;
+import UdpChatClient.JsonHelper;
+
+/**
+ * Sends a file in {@link Constants#FILE_CHUNK_SIZE} chunks read straight from a memory mapping.
+ * Up to {@code window} chunks are in flight; each is acknowledged individually by a
+ * file_send_data reply, unacknowledged chunks are resent after {@link Constants#FILE_CHUNK_RETRY_MS}
+ * and chunks the server lists as missing are resent at once. A legacy server that does not
+ * answer with a window gets the old stop-and-wait behaviour (window 1).
+ */
+class FileUpload extends FileTransfer {
+    private static final Logger log = LoggerFactory.getLogger(FileUpload.class);
+
+    private enum State { INIT_SENT, SENDING, FIN_SENT, DONE }
+
+    private final String chatId;
+    private final String roomId;
+    private final Path path;
+    private final String fileKey;
+    private MappedFile file;
+    private int totalChunks;
+    private State state = State.INIT_SENT;
+    private int window = 1;
+    private boolean binary = false;
+
+    private BitSet acked;
+    private BitSet inFlightChunks;
+    private long[] sentAtNanos;
+    private int[] retries;
+    private int inFlight = 0;
+    private int nextToSend = 0; // 0-based index of the first chunk never sent
+    private long controlSentNanos;
+    private int controlRetries = 0;
+
+    FileUpload(FileTransferClient client, String chatId, String roomId, Path path) {
+        super(client);
+        this.chatId = chatId;
+        this.roomId = roomId;
+        this.path = path;
+        this.fileKey = path.toString();
+    }
+
+    @Override
+    String key() {
+        return fileKey;
+    }
+
+    @Override
+    void start() throws IOException {
+        file = MappedFile.openForRead(path);
+        totalChunks = (int) ((file.size() + Constants.FILE_CHUNK_SIZE - 1) / Constants.FILE_CHUNK_SIZE);
+        acked = new BitSet(totalChunks);
+        inFlightChunks = new BitSet(totalChunks);
+        sentAtNanos = new long[totalChunks];
+        retries = new int[totalChunks];
+        sendInit();
+        log.info("Upload of '{}' started: {} bytes in {} chunks", fileKey, file.size(), totalChunks);
+    }
+
+    private JsonObject baseData() {
+        JsonObject data = new JsonObject();
+        data.addProperty(Constants.KEY_FILE_CHAT_ID, chatId);
+        data.addProperty(Constants.KEY_ROOM_ID, roomId);
+        data.addProperty(Constants.KEY_FILE_PATH, fileKey);
+        return data;
+    }
+
+    private void sendInit() {
+        JsonObject data = baseData();
+        data.addProperty(Constants.KEY_FILE_SIZE, file.size());
+        data.addProperty(Constants.KEY_FILE_TYPE, fileType());
+        data.addProperty(Constants.KEY_TOTAL_PACKETS, totalChunks);
+        // Offers; the server answers with what it accepts
+        data.addProperty(Constants.KEY_WINDOW, Constants.FILE_WINDOW_SIZE);
+        data.addProperty(Constants.KEY_BINARY, true);
+        client.sendJson(JsonHelper.createRequest(Constants.ACTION_FILE_SEND_INIT, data));
+        controlSentNanos = System.nanoTime();
+    }
+
+    private void sendFin() {
+        state = State.FIN_SENT;
+        controlRetries = 0;
+        sendFinPacket();
+    }
+
+    private void sendFinPacket() {
+        client.sendJson(JsonHelper.createRequest(Constants.ACTION_FILE_SEND_FIN, baseData()));
+        controlSentNanos = System.nanoTime();
+    }
+
+    private String fileType() {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && dot < name.length() - 1 ? name.substring(dot + 1) : "unknown";
+    }
+
+    @Override
+    void onJson(String action, JsonObject response) {
+        String status = response.has(Constants.KEY_STATUS) ? response.get(Constants.KEY_STATUS).getAsString() : Constants.STATUS_SUCCESS;
+        JsonObject data = response.getAsJsonObject(Constants.KEY_DATA);
+
+        switch (action) {
+            case Constants.ACTION_FILE_SEND_INIT:
+                if (state != State.INIT_SENT) {
+                    return; // duplicate reply to a resent init
+                }
+                if (!Constants.STATUS_SUCCESS.equals(status)) {
+                    fail("Server rejected upload: " + message(response));
+                    return;
+                }
+                negotiate(data);
+                state = State.SENDING;
+                fillWindow();
+                break;
+
+            case Constants.ACTION_FILE_SEND_DATA:
+                if (state != State.SENDING) {
+                    return;
+                }
+                if (data.has(Constants.KEY_SEQUENCE_NUMBER)) {
+                    markAcked(data.get(Constants.KEY_SEQUENCE_NUMBER).getAsInt() - 1);
+                }
+                if (data.has(Constants.KEY_MISSING)) {
+                    for (JsonElement seq : data.getAsJsonArray(Constants.KEY_MISSING)) {
+                        int index = seq.getAsInt() - 1;
+                        if (index >= 0 && index < totalChunks && !acked.get(index)) {
+                            sendChunk(index);
+                        }
+                    }
+                }
+                fillWindow();
+                break;
+
+            case Constants.ACTION_FILE_SEND_FIN:
+                if (Constants.STATUS_SUCCESS.equals(status)) {
+                    state = State.DONE;
+                    log.info("Upload of '{}' completed", fileKey);
+                    succeed(path);
+                } else {
+                    fail("Server reported upload failure: " + message(response));
+                }
+                break;
+
+            default:
+                log.debug("Ignoring file action '{}' during upload of '{}'", action, fileKey);
+                break;
+        }
+    }
+
+    private void negotiate(JsonObject data) {
+        if (data == null) {
+            return;
+        }
+        if (data.has(Constants.KEY_WINDOW)) {
+            window = Math.max(1, Math.min(Constants.FILE_WINDOW_SIZE, data.get(Constants.KEY_WINDOW).getAsInt()));
+        }
+        if (data.has(Constants.KEY_TRANSFER_ID)) {
+            client.registerTransferId(this, data.get(Constants.KEY_TRANSFER_ID).getAsInt());
+            binary = data.has(Constants.KEY_BINARY) && data.get(Constants.KEY_BINARY).getAsBoolean();
+        }
+        if (data.has(Constants.KEY_RECEIVED_RANGES)) {
+            // Resume: the server kept chunks from an earlier attempt
+            acked.or(SequenceRanges.fromJson(data.getAsJsonArray(Constants.KEY_RECEIVED_RANGES), totalChunks));
+            log.info("Resuming upload of '{}': server already has {}/{} chunks", fileKey, acked.cardinality(), totalChunks);
+        }
+        log.info("Upload of '{}' negotiated window={} binary={}", fileKey, window, binary);
+    }
+
+    private void markAcked(int index) {
+        if (index < 0 || index >= totalChunks || acked.get(index)) {
+            return;
+        }
+        acked.set(index);
+        if (inFlightChunks.get(index)) {
+            inFlightChunks.clear(index);
+            inFlight--;
+        }
+    }
+
+    private void fillWindow() {
+        while (inFlight < window && nextToSend < totalChunks) {
+            int index = nextToSend++;
+            if (!acked.get(index)) {
+                sendChunk(index);
+            }
+        }
+        if (inFlight == 0 && acked.cardinality() == totalChunks) {
+            sendFin();
+        }
+    }
+
+    private void sendChunk(int index) {
+        try {
+            long offset = (long) index * Constants.FILE_CHUNK_SIZE;
+            int length = (int) Math.min(Constants.FILE_CHUNK_SIZE, file.size() - offset);
+            ByteBuffer chunk = file.slice(offset, length);
+            if (binary) {
+                client.sendFrame(transferId, index + 1, chunk);
+            } else {
+                JsonObject data = baseData();
+                data.addProperty(Constants.KEY_SEQUENCE_NUMBER, index + 1);
+                data.addProperty(Constants.KEY_CHUNK_SIZE, length);
+                data.addProperty(Constants.KEY_FILE_DATA, StandardCharsets.ISO_8859_1.decode(Base64.getEncoder().encode(chunk)).toString());
+                client.sendJson(JsonHelper.createRequest(Constants.ACTION_FILE_SEND_DATA, data));
+            }
+            if (!inFlightChunks.get(index)) {
+                inFlightChunks.set(index);
+                inFlight++;
+            }
+            sentAtNanos[index] = System.nanoTime();
+        } catch (IOException e) {
+            fail("Cannot read chunk " + (index + 1) + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    void onFrame(ChunkFrame frame) {
+        log.debug("Unexpected binary frame during upload of '{}'", fileKey);
+    }
+
+    @Override
+    void onTick(long nowNanos) {
+        long retryNanos = TimeUnit.MILLISECONDS.toNanos(Constants.FILE_CHUNK_RETRY_MS);
+        switch (state) {
+            case INIT_SENT:
+            case FIN_SENT:
+                if (nowNanos - controlSentNanos > retryNanos) {
+                    if (++controlRetries > Constants.FILE_MAX_CHUNK_RETRIES) {
+                        fail("No reply from file server");
+                    } else if (state == State.INIT_SENT) {
+                        sendInit();
+                    } else {
+                        sendFinPacket();
+                    }
+                }
+                break;
+            case SENDING:
+                for (int index = inFlightChunks.nextSetBit(0); index >= 0; index = inFlightChunks.nextSetBit(index + 1)) {
+                    if (nowNanos - sentAtNanos[index] > retryNanos) {
+                        if (++retries[index] > Constants.FILE_MAX_CHUNK_RETRIES) {
+                            fail("Chunk " + (index + 1) + " was never acknowledged");
+                            return;
+                        }
+                        sendChunk(index);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static String message(JsonObject response) {
+        return response.has(Constants.KEY_MESSAGE) ? response.get(Constants.KEY_MESSAGE).getAsString() : "no details";
+    }
+
+    @Override
+    void close() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                log.debug("Error closing '{}': {}", fileKey, e.getMessage());
+            }
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package UdpChatClient.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import UdpChatClient.Constants;
+
+/**
+ * A file accessed through memory-mapped segments of {@link Constants#FILE_MAP_SEGMENT_SIZE} bytes,
+ * so files larger than 2 GB work and only the touched segments are mapped.
+ * Default-sized chunks never straddle segments because the segment size is a multiple of the
+ * chunk size; a range that does (server-chosen chunk size) gets a mapping of its own.
+ */
+public class MappedFile implements AutoCloseable {
+    private final FileChannel channel;
+    private final FileChannel.MapMode mode;
+    private final long size;
+    private final MappedByteBuffer[] segments;
+
+    private MappedFile(FileChannel channel, FileChannel.MapMode mode, long size) {
+        this.channel = channel;
+        this.mode = mode;
+        this.size = size;
+        this.segments = new MappedByteBuffer[(int) ((size + Constants.FILE_MAP_SEGMENT_SIZE - 1) / Constants.FILE_MAP_SEGMENT_SIZE)];
+    }
+
+    public static MappedFile openForRead(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        return new MappedFile(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+    }
+
+    /**
+     * Opens (creating if needed) a file for writing and pre-allocates it to {@code size} bytes.
+     * Existing content is kept so partial downloads can resume.
+     */
+    public static MappedFile openForWrite(Path path, long size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > size) {
+            channel.truncate(size);
+        } else if (channel.size() < size && size > 0) {
+            // Extend to full size up front so every chunk has its slot
+            channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        }
+        return new MappedFile(channel, FileChannel.MapMode.READ_WRITE, size);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns a view of {@code length} bytes at {@code offset}. The view shares the mapping,
+     * so writes to it land directly in the file.
+     */
+    public synchronized ByteBuffer slice(long offset, int length) throws IOException {
+        int index = (int) (offset / Constants.FILE_MAP_SEGMENT_SIZE);
+        if ((offset + length - 1) / Constants.FILE_MAP_SEGMENT_SIZE != index) {
+            return channel.map(mode, offset, length);
+        }
+        MappedByteBuffer segment = segments[index];
+        if (segment == null) {
+            long start = index * Constants.FILE_MAP_SEGMENT_SIZE;
+            segment = channel.map(mode, start, Math.min(Constants.FILE_MAP_SEGMENT_SIZE, size - start));
+            segments[index] = segment;
+        }
+        int position = (int) (offset - index * Constants.FILE_MAP_SEGMENT_SIZE);
+        return segment.slice(position, length);
+    }
+
+    /**
+     * Flushes written segments to disk.
+     */
+    public synchronized void force() {
+        if (mode != FileChannel.MapMode.READ_WRITE) {
+            return;
+        }
+        for (MappedByteBuffer segment : segments) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
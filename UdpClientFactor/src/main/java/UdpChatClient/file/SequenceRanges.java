@@ -0,0 +1,58 @@
+package UdpChatClient.file;
+
+import java.util.BitSet;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+/**
+ * Converts between chunk bitmaps and the [from, to] sequence-number ranges used on the wire.
+ * Sequence numbers are 1-based as in the Flutter client; bit i stands for sequence i + 1.
+ */
+public final class SequenceRanges {
+
+    private SequenceRanges() {}
+
+    public static JsonArray toJson(BitSet chunks) {
+        JsonArray ranges = new JsonArray();
+        int from = chunks.nextSetBit(0);
+        while (from >= 0) {
+            int to = chunks.nextClearBit(from) - 1;
+            JsonArray pair = new JsonArray();
+            pair.add(from + 1);
+            pair.add(to + 1);
+            ranges.add(pair);
+            from = chunks.nextSetBit(to + 1);
+        }
+        return ranges;
+    }
+
+    public static BitSet fromJson(JsonArray ranges, int totalChunks) {
+        BitSet chunks = new BitSet(totalChunks);
+        if (ranges == null) {
+            return chunks;
+        }
+        for (JsonElement element : ranges) {
+            JsonArray pair = element.getAsJsonArray();
+            int from = Math.max(1, pair.get(0).getAsInt());
+            int to = Math.min(totalChunks, pair.get(1).getAsInt());
+            if (from <= to) {
+                chunks.set(from - 1, to);
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Lists up to {@code limit} missing sequence numbers in {@code [fromSeq, toSeq]}.
+     */
+    public static JsonArray missing(BitSet chunks, int fromSeq, int toSeq, int limit) {
+        JsonArray missing = new JsonArray();
+        int index = chunks.nextClearBit(fromSeq - 1);
+        while (index < toSeq && missing.size() < limit) {
+            missing.add(index + 1);
+            index = chunks.nextClearBit(index + 1);
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,90 @@
+package UdpChatClient.file;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import UdpChatClient.Constants;
+
+/**
+ * One DatagramChannel (own local port) connected to the file server, with its own listener thread.
+ * The shared control lane carries all single-stream transfers; parallel downloads open extra lanes.
+ */
+class TransferLane implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(TransferLane.class);
+    private static final Gson gson = new Gson();
+
+    private final DatagramChannel channel;
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(ChunkFrame.HEADER_SIZE);
+    private final Thread listenerThread;
+
+    /**
+     * @param handler receives every packet; the buffer is reused after the call returns.
+     */
+    TransferLane(InetSocketAddress serverEndpoint, String name, Consumer<ByteBuffer> handler) throws IOException {
+        this.channel = DatagramChannel.open();
+        channel.connect(serverEndpoint);
+        this.listenerThread = new Thread(() -> runListener(handler), name);
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    void sendJson(JsonObject json) {
+        byte[] bytes = gson.toJson(json).getBytes(StandardCharsets.UTF_8);
+        try {
+            channel.write(ByteBuffer.wrap(bytes));
+        } catch (IOException e) {
+            log.error("IOException sending file packet: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a binary chunk frame with a gathering write, so the mapped payload is never copied.
+     */
+    synchronized void sendFrame(int transferId, int sequenceNumber, ByteBuffer payload) {
+        ChunkFrame.writeHeader(frameHeader, transferId, sequenceNumber, payload.remaining());
+        try {
+            channel.write(new ByteBuffer[] { frameHeader, payload.duplicate() });
+        } catch (IOException e) {
+            log.error("IOException sending file frame {}: {}", sequenceNumber, e.getMessage());
+        }
+    }
+
+    private void runListener(Consumer<ByteBuffer> handler) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Constants.MAX_UDP_PACKET_SIZE);
+        while (channel.isOpen()) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                buffer.flip();
+                handler.accept(buffer);
+            } catch (AsynchronousCloseException e) {
+                break;
+            } catch (IOException e) {
+                log.error("IOException receiving file packet: {}", e.getMessage());
+            } catch (Exception e) {
+                log.error("Unexpected error in file listener: {}", e.getMessage(), e);
+            }
+        }
+        log.debug("File transfer lane {} stopped.", Thread.currentThread().getName());
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Error closing file channel: {}", e.getMessage());
+        }
+    }
+}
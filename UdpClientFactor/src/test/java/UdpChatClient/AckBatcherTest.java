@@ -0,0 +1,102 @@
+package UdpChatClient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+class AckBatcherTest {
+
+    private static JsonObject write(String... idStatusPairs) {
+        List<AckBatcher.PendingAck> acks = new ArrayList<>();
+        for (int i = 0; i < idStatusPairs.length; i += 2) {
+            acks.add(new AckBatcher.PendingAck(idStatusPairs[i], idStatusPairs[i + 1], null, null));
+        }
+        JsonObject data = new JsonObject();
+        AckBatcher.writeAcks(data, acks);
+        return data;
+    }
+
+    private static JsonArray json(String text) {
+        return JsonParser.parseString(text).getAsJsonArray();
+    }
+
+    @Test
+    void contiguousSuccessIdsCollapseIntoSortedRanges() {
+        JsonObject data = write(
+                "7", Constants.STATUS_SUCCESS,
+                "5", Constants.STATUS_SUCCESS,
+                "6", Constants.STATUS_SUCCESS,
+                "10", Constants.STATUS_SUCCESS,
+                "6", Constants.STATUS_SUCCESS, // A resend acknowledged twice
+                "12", Constants.STATUS_SUCCESS,
+                "11", Constants.STATUS_SUCCESS);
+
+        assertEquals(json("[[5,7],[10,12]]"), data.getAsJsonArray(Constants.KEY_ACK_RANGES));
+        assertFalse(data.has(Constants.KEY_ACKS));
+    }
+
+    @Test
+    void singleIdIsARangeOfOne() {
+        JsonObject data = write("42", Constants.STATUS_SUCCESS);
+
+        assertEquals(json("[[42,42]]"), data.getAsJsonArray(Constants.KEY_ACK_RANGES));
+    }
+
+    @Test
+    void nonCanonicalIdsAreSentVerbatim() {
+        // Long.parseLong accepts all three, but the server would not know "007" from "7"
+        JsonObject data = write(
+                "007", Constants.STATUS_SUCCESS,
+                "+5", Constants.STATUS_SUCCESS,
+                "-1", Constants.STATUS_SUCCESS,
+                "8", Constants.STATUS_SUCCESS);
+
+        assertEquals(json("[[8,8]]"), data.getAsJsonArray(Constants.KEY_ACK_RANGES));
+        JsonArray acks = data.getAsJsonArray(Constants.KEY_ACKS);
+        assertEquals(3, acks.size());
+        assertEquals("007", acks.get(0).getAsJsonObject().get("transaction_id").getAsString());
+        assertEquals("+5", acks.get(1).getAsJsonObject().get("transaction_id").getAsString());
+        assertEquals("-1", acks.get(2).getAsJsonObject().get("transaction_id").getAsString());
+    }
+
+    @Test
+    void uuidIdsAndFailuresAreListedIndividually() {
+        String uuid = "0f8fad5b-d9cb-469f-a165-70867728950e";
+        List<AckBatcher.PendingAck> acks = List.of(
+                new AckBatcher.PendingAck(uuid, Constants.STATUS_SUCCESS, null, null),
+                new AckBatcher.PendingAck("3", Constants.STATUS_FAILURE, "Digest mismatch", null),
+                new AckBatcher.PendingAck("4", Constants.STATUS_SUCCESS, null, null));
+        JsonObject data = new JsonObject();
+        AckBatcher.writeAcks(data, acks);
+
+        assertEquals(json("[[4,4]]"), data.getAsJsonArray(Constants.KEY_ACK_RANGES));
+        JsonArray individual = data.getAsJsonArray(Constants.KEY_ACKS);
+        assertEquals(2, individual.size());
+        JsonObject first = individual.get(0).getAsJsonObject();
+        assertEquals(uuid, first.get("transaction_id").getAsString());
+        assertEquals(Constants.STATUS_SUCCESS, first.get(Constants.KEY_STATUS).getAsString());
+        assertFalse(first.has(Constants.KEY_MESSAGE));
+        JsonObject failed = individual.get(1).getAsJsonObject();
+        assertEquals("3", failed.get("transaction_id").getAsString());
+        assertEquals(Constants.STATUS_FAILURE, failed.get(Constants.KEY_STATUS).getAsString());
+        assertEquals("Digest mismatch", failed.get(Constants.KEY_MESSAGE).getAsString());
+    }
+
+    @Test
+    void failuresOnlyWriteNoRanges() {
+        JsonObject data = write("1", Constants.STATUS_FAILURE, "2", Constants.STATUS_ERROR);
+
+        assertFalse(data.has(Constants.KEY_ACK_RANGES));
+        assertTrue(data.has(Constants.KEY_ACKS));
+        assertEquals(2, data.getAsJsonArray(Constants.KEY_ACKS).size());
+    }
+}
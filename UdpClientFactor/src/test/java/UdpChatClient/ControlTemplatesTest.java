@@ -0,0 +1,114 @@
+package UdpChatClient;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.google.gson.JsonObject;
+
+/** Each template must produce the bytes the generic encoder writes for the same message. */
+class ControlTemplatesTest {
+    private static final String KEY = "ZebraKey42";
+    private static final String TRANSACTION_ID = "1718123456789";
+
+    private static byte[] bytes(PacketBuffer buffer) {
+        assertNotNull(buffer);
+        byte[] out = Arrays.copyOf(buffer.data, buffer.length);
+        buffer.release();
+        return out;
+    }
+
+    private static byte[] generic(JsonObject json, int keyHint) {
+        return bytes(PacketEncoder.get().encode(json, KEY, keyHint, null));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-1, Constants.KEY_ID_FIXED, 7})
+    void ackMatchesTheGenericEncoder(int keyHint) {
+        for (String status : new String[] {Constants.STATUS_SUCCESS, Constants.STATUS_FAILURE}) {
+            JsonObject data = new JsonObject();
+            data.addProperty("transaction_id", TRANSACTION_ID);
+            JsonObject reply = JsonHelper.createReply(Constants.ACTION_ACK, status, null, data);
+
+            byte[] templated = bytes(ControlTemplates.get().ack(TRANSACTION_ID, status, KEY, keyHint, null));
+
+            assertArrayEquals(generic(reply, keyHint), templated);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void confirmCountMatchesTheGenericEncoder(boolean confirm) {
+        JsonObject data = new JsonObject();
+        data.addProperty("transaction_id", TRANSACTION_ID);
+        data.addProperty(Constants.KEY_CONFIRM, confirm);
+        JsonObject request = JsonHelper.createRequest(Constants.ACTION_CONFIRM_COUNT, data);
+
+        byte[] templated = bytes(ControlTemplates.get().confirmCount(TRANSACTION_ID, confirm, KEY, -1, null));
+
+        assertArrayEquals(generic(request, -1), templated);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"action\":\"receive_message\",\"data\":{\"content\":\"Hello, World! 123\"}}",
+            "{\"action\":\"receive_message\",\"data\":{\"content\":\"quote \\\" back\\\\slash <tag> & 'apos' =\\n\\t\"}}",
+            // Non-ASCII, out of order and repeated, including characters past the first array growth
+            "{\"data\":{\"content\":\"Đã gửi ß€ ñ Ω 日本語 ÿ ŀ Ω €€ ĀāĂăĄąĆćĈĉĊċČčĎď ĐđĒēĔĕĖėĘęĚě\"}}",
+            "\u0001\u001f\u007f\u0080  "
+    })
+    void characterCountMatchesTheGenericEncoderInSortedOrder(String received) {
+        // The handshake code fills the map in HashMap order; the template writes the characters sorted
+        JsonObject frequencies = new JsonObject();
+        Map<Character, Integer> counts = new TreeMap<>(CaesarCipher.countLetterFrequencies(received));
+        for (Map.Entry<Character, Integer> entry : counts.entrySet()) {
+            frequencies.addProperty(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        JsonObject data = new JsonObject();
+        data.addProperty("transaction_id", TRANSACTION_ID);
+        data.add(Constants.KEY_LETTER_FREQUENCIES, frequencies);
+        JsonObject request = JsonHelper.createRequest(Constants.ACTION_CHARACTER_COUNT, data);
+
+        byte[] templated = bytes(ControlTemplates.get().characterCount(TRANSACTION_ID, received, KEY, 3, null));
+
+        assertArrayEquals(generic(request, 3), templated);
+    }
+
+    @Test
+    void repeatedCharacterCountsStartFromZero() {
+        ControlTemplates templates = ControlTemplates.get();
+        byte[] first = bytes(templates.characterCount(TRANSACTION_ID, "日本 ß", KEY, -1, null));
+        bytes(templates.characterCount(TRANSACTION_ID, "ÿÿÿ 語", KEY, -1, null));
+        byte[] again = bytes(templates.characterCount(TRANSACTION_ID, "日本 ß", KEY, -1, null));
+
+        assertArrayEquals(first, again);
+    }
+
+    @Test
+    void surrogatesAndEscapedIdsFallBack() {
+        ControlTemplates templates = ControlTemplates.get();
+
+        assertNull(templates.characterCount(TRANSACTION_ID, "emoji 😀", KEY, -1, null));
+        assertNull(templates.ack("id\"quoted", Constants.STATUS_SUCCESS, KEY, -1, null));
+        assertNull(templates.confirmCount("line\nbreak", true, KEY, -1, null));
+    }
+
+    @Test
+    void templatedAckDecryptsToTheExpectedJson() {
+        byte[] templated = bytes(ControlTemplates.get().ack(TRANSACTION_ID, Constants.STATUS_SUCCESS, KEY, -1, null));
+
+        String plain = CaesarCipher.decrypt(new String(templated, StandardCharsets.UTF_8), KEY);
+
+        assertEquals("{\"action\":\"ack\",\"status\":\"success\",\"data\":{\"transaction_id\":\"" + TRANSACTION_ID + "\"}}", plain);
+    }
+}
@@ -0,0 +1,143 @@
+package UdpChatClient;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+
+class RoomSequencerTest {
+    private static final String ROOM = "room-1";
+    private static final long WINDOW = Constants.REORDER_WINDOW_MS * 1_000_000L;
+    private static final long GIVE_UP = WINDOW + Constants.GAP_FILL_TIMEOUT_MS * 1_000_000L;
+
+    /** Records every callback in order. */
+    private static final class Recorder implements RoomSequencer.Listener {
+        final List<Long> delivered = new ArrayList<>();
+        final List<List<long[]>> fills = new ArrayList<>();
+        final List<long[]> skips = new ArrayList<>();
+
+        @Override
+        public void deliver(String roomId, JsonObject message) {
+            delivered.add(message.get(Constants.KEY_SEQ).getAsLong());
+        }
+
+        @Override
+        public void requestFill(String roomId, List<long[]> ranges) {
+            fills.add(ranges);
+        }
+
+        @Override
+        public void skipped(String roomId, long fromSeq, long toSeq) {
+            skips.add(new long[] {fromSeq, toSeq});
+        }
+    }
+
+    private final RoomSequencer sequencer = new RoomSequencer();
+    private final Recorder recorder = new Recorder();
+
+    private void offer(long seq, long nowNanos) {
+        JsonObject message = new JsonObject();
+        message.addProperty(Constants.KEY_SEQ, seq);
+        sequencer.offer(ROOM, seq, message, nowNanos, recorder);
+    }
+
+    /** Fixes the room's start at {@code first} and delivers it. */
+    private void started(long first) {
+        offer(first, 0);
+        sequencer.expire(WINDOW, recorder);
+        assertEquals(List.of(first), recorder.delivered);
+    }
+
+    @Test
+    void startIsTheLowestNumberSeenWithinTheWindow() {
+        offer(12, 0);
+        offer(10, 1);
+        offer(11, 2);
+        assertTrue(recorder.delivered.isEmpty());
+
+        sequencer.expire(WINDOW, recorder);
+
+        assertEquals(List.of(10L, 11L, 12L), recorder.delivered);
+    }
+
+    @Test
+    void lateArrivalFillsTheGapAndReleasesHeldPushes() {
+        started(1);
+        long now = WINDOW;
+        offer(3, now);
+        offer(4, now);
+        assertEquals(List.of(1L), recorder.delivered);
+
+        offer(2, now);
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), recorder.delivered);
+        assertEquals(-1, sequencer.nextDeadlineNanos(now));
+    }
+
+    @Test
+    void gapFillNamesEveryMissingRangeOnce() {
+        started(1);
+        long gapStart = WINDOW;
+        offer(3, gapStart);
+        offer(6, gapStart);
+        offer(7, gapStart);
+
+        sequencer.expire(gapStart + WINDOW - 1, recorder);
+        assertTrue(recorder.fills.isEmpty());
+        sequencer.expire(gapStart + WINDOW, recorder);
+        sequencer.expire(gapStart + WINDOW + 1, recorder);
+
+        assertEquals(1, recorder.fills.size());
+        List<long[]> ranges = recorder.fills.get(0);
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new long[] {2, 2}, ranges.get(0));
+        assertArrayEquals(new long[] {4, 5}, ranges.get(1));
+
+        // The fill answers the holes; duplicates of the held pushes are dropped
+        offer(2, gapStart + WINDOW + 2);
+        offer(3, gapStart + WINDOW + 2);
+        offer(5, gapStart + WINDOW + 2);
+        offer(4, gapStart + WINDOW + 2);
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), recorder.delivered);
+        assertTrue(recorder.skips.isEmpty());
+    }
+
+    @Test
+    void unansweredGapIsReportedAndHeldPushesReleased() {
+        started(1);
+        long gapStart = WINDOW;
+        offer(4, gapStart);
+        offer(6, gapStart);
+        sequencer.expire(gapStart + WINDOW, recorder);
+
+        sequencer.expire(gapStart + GIVE_UP, recorder);
+
+        assertEquals(List.of(1L, 4L, 6L), recorder.delivered);
+        assertEquals(2, recorder.skips.size());
+        assertArrayEquals(new long[] {2, 3}, recorder.skips.get(0));
+        assertArrayEquals(new long[] {5, 5}, recorder.skips.get(1));
+
+        // A straggler from a skipped range is not delivered out of order
+        offer(2, gapStart + GIVE_UP + 1);
+        offer(7, gapStart + GIVE_UP + 1);
+        assertEquals(List.of(1L, 4L, 6L, 7L), recorder.delivered);
+    }
+
+    @Test
+    void deadlineFollowsTheOpenGap() {
+        started(1);
+        long gapStart = WINDOW;
+        offer(3, gapStart);
+
+        assertEquals(WINDOW, sequencer.nextDeadlineNanos(gapStart));
+        sequencer.expire(gapStart + WINDOW, recorder);
+        assertEquals(Constants.GAP_FILL_TIMEOUT_MS * 1_000_000L, sequencer.nextDeadlineNanos(gapStart + WINDOW));
+    }
+}
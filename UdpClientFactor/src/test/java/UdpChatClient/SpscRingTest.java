@@ -0,0 +1,113 @@
+package UdpChatClient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class SpscRingTest {
+
+    private static final class Slot {
+        long value;
+    }
+
+    @Test
+    void capacityRoundsUpToAPowerOfTwo() {
+        assertEquals(2, new SpscRing<>(1, Slot::new, SpscRing.WaitStrategy.SPIN).capacity());
+        assertEquals(8, new SpscRing<>(5, Slot::new, SpscRing.WaitStrategy.SPIN).capacity());
+        assertEquals(8, new SpscRing<>(8, Slot::new, SpscRing.WaitStrategy.SPIN).capacity());
+    }
+
+    @Test
+    void fullAndEmptyAcrossManyWraparounds() {
+        SpscRing<Slot> ring = new SpscRing<>(4, Slot::new, SpscRing.WaitStrategy.SPIN);
+        long next = 0;
+        long expected = 0;
+        for (int round = 0; round < 100; round++) {
+            // Uneven batches so the full and empty edges land on every slot index
+            int batch = 1 + round % ring.capacity();
+            for (int i = 0; i < batch; i++) {
+                Slot slot = ring.tryClaim();
+                assertNotNull(slot);
+                slot.value = next++;
+                ring.publish();
+            }
+            for (int i = 0; i < batch; i++) {
+                Slot slot = ring.poll();
+                assertNotNull(slot);
+                assertEquals(expected++, slot.value);
+                ring.release();
+            }
+            assertNull(ring.poll());
+            assertEquals(0, ring.size());
+        }
+    }
+
+    @Test
+    void producerStopsAtCapacityUntilTheConsumerReleases() {
+        SpscRing<Slot> ring = new SpscRing<>(4, Slot::new, SpscRing.WaitStrategy.SPIN);
+        List<Slot> claimed = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Slot slot = ring.tryClaim();
+            slot.value = i;
+            claimed.add(slot);
+            ring.publish();
+        }
+        assertNull(ring.tryClaim());
+        assertEquals(4, ring.size());
+
+        Slot oldest = ring.poll();
+        assertSame(claimed.get(0), oldest);
+        assertNull(ring.tryClaim()); // Read but not yet released
+        ring.release();
+
+        // The freed slot is the oldest one, reused in place
+        assertSame(oldest, ring.tryClaim());
+    }
+
+    @Test
+    void claimAndTakeGiveUpWhenStopped() {
+        SpscRing<Slot> ring = new SpscRing<>(2, Slot::new, SpscRing.WaitStrategy.PARK);
+        assertNull(ring.take(() -> false));
+        ring.tryClaim();
+        ring.publish();
+        ring.tryClaim();
+        ring.publish();
+        assertNull(ring.claim(() -> false));
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    void itemsCrossThreadsInOrder() throws InterruptedException {
+        SpscRing<Slot> ring = new SpscRing<>(8, Slot::new, SpscRing.WaitStrategy.PARK);
+        long count = 200_000;
+        AtomicLong mismatches = new AtomicLong();
+        Thread consumer = new Thread(() -> {
+            for (long i = 0; i < count; i++) {
+                Slot slot = ring.take(() -> true);
+                if (slot.value != i) {
+                    mismatches.incrementAndGet();
+                }
+                ring.release();
+            }
+        });
+        consumer.start();
+        for (long i = 0; i < count; i++) {
+            Slot slot = ring.claim(() -> true);
+            slot.value = i;
+            ring.publish();
+        }
+        consumer.join();
+
+        assertEquals(0, mismatches.get());
+        assertEquals(0, ring.size());
+    }
+}
@@ -0,0 +1,166 @@
+package UdpChatClient;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+class TransactionTableTest {
+
+    @Test
+    void idsAreClassifiedByTheirCanonicalForm() {
+        assertTrue(TransactionTable.isNumeric("0"));
+        assertTrue(TransactionTable.isNumeric("1718123456789"));
+        assertTrue(TransactionTable.isNumeric("999999999999999999")); // 18 digits
+        assertFalse(TransactionTable.isNumeric("1000000000000000000")); // 19 digits: left to the map
+        assertFalse(TransactionTable.isNumeric(""));
+        assertFalse(TransactionTable.isNumeric("007"));
+        assertFalse(TransactionTable.isNumeric("+5"));
+        assertFalse(TransactionTable.isNumeric("-1"));
+        assertFalse(TransactionTable.isNumeric("12a"));
+
+        assertTrue(TransactionTable.isUuid("0f8fad5b-d9cb-469f-a165-70867728950e"));
+        assertFalse(TransactionTable.isUuid("0F8FAD5B-D9CB-469F-A165-70867728950E"));
+        assertFalse(TransactionTable.isUuid("0f8fad5b-d9cb-469f-a165-70867728950"));
+        assertFalse(TransactionTable.isUuid("0f8fad5bd9cb-469f-a165-70867728950e0"));
+    }
+
+    @Test
+    void nonCanonicalSpellingsAreDistinctKeys() {
+        TransactionTable<String> table = new TransactionTable<>();
+        table.put("7", "seven");
+        table.put("007", "zero-zero-seven");
+        String lower = "0f8fad5b-d9cb-469f-a165-70867728950e";
+        table.put(lower, "uuid");
+        table.put(lower.toUpperCase(), "UUID");
+
+        assertEquals("seven", table.get("7"));
+        assertEquals("seven", table.get(7L));
+        assertEquals("zero-zero-seven", table.get("007"));
+        assertEquals("uuid", table.get(lower));
+        assertEquals("UUID", table.get(lower.toUpperCase()));
+        assertEquals(4, table.size());
+    }
+
+    @Test
+    void putReplacesAndReturnsThePreviousValue() {
+        TransactionTable<String> table = new TransactionTable<>();
+        assertNull(table.put("42", "a"));
+        assertEquals("a", table.put("42", "b"));
+        assertEquals("b", table.get("42"));
+        assertEquals(1, table.size());
+        assertThrows(NullPointerException.class, () -> table.put("43", null));
+        assertThrows(NullPointerException.class, () -> table.put("not-a-number", null));
+    }
+
+    @Test
+    void everyKeySurvivesGrowthAndDeletionFromAnyProbePosition() {
+        // 4,000 sequential ids overfill the 16 x 16 initial slots many times, so probe runs are long
+        // and deletes from the front, the middle and the end of a run all shift later entries back
+        TransactionTable<Long> table = new TransactionTable<>();
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1_718_000_000_000L; keys.size() < 4_000; key++) {
+            keys.add(key);
+            table.put(key, key);
+        }
+        assertEquals(keys.size(), table.size());
+
+        Collections.shuffle(keys, new Random(48));
+        List<Long> removed = keys.subList(0, keys.size() / 2);
+        List<Long> kept = keys.subList(keys.size() / 2, keys.size());
+        for (long key : removed) {
+            assertEquals(key, table.remove(key));
+        }
+
+        for (long key : removed) {
+            assertNull(table.get(key));
+            assertNull(table.remove(key));
+        }
+        for (long key : kept) {
+            assertEquals(key, table.get(key));
+        }
+        assertEquals(kept.size(), table.size());
+    }
+
+    @Test
+    void matchesAHashMapUnderRandomOperations() {
+        Random random = new Random(26);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            ids.add(Long.toString(random.nextInt(1_000_000)));
+            ids.add(new UUID(random.nextLong(), random.nextLong()).toString());
+            ids.add("tx-" + random.nextInt(1_000));
+        }
+        TransactionTable<Integer> table = new TransactionTable<>();
+        Map<String, Integer> expected = new HashMap<>();
+        for (int op = 0; op < 50_000; op++) {
+            String id = ids.get(random.nextInt(ids.size()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.put(id, op), table.put(id, op), id);
+                    break;
+                case 1:
+                    assertEquals(expected.remove(id), table.remove(id), id);
+                    break;
+                default:
+                    assertEquals(expected.get(id), table.get(id), id);
+                    break;
+            }
+        }
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    void removeFirstTakesOneMatchAndKeepsTheRestReachable() {
+        TransactionTable<Integer> table = new TransactionTable<>();
+        for (int i = 0; i < 1_000; i++) {
+            table.put(Integer.toString(i), i);
+        }
+        for (int taken = 0; taken < 100; taken++) {
+            Integer value = table.removeFirst(v -> v % 10 == 0);
+            assertEquals(0, value % 10);
+            assertNull(table.get(Integer.toString(value)));
+        }
+        assertNull(table.removeFirst(v -> v % 10 == 0));
+        assertNull(table.find(v -> v % 10 == 0));
+        for (int i = 0; i < 1_000; i++) {
+            if (i % 10 != 0) {
+                assertEquals(i, table.get(Integer.toString(i)));
+            }
+        }
+        assertEquals(900, table.size());
+    }
+
+    @Test
+    void clearEmptiesEveryKind() {
+        TransactionTable<String> table = new TransactionTable<>();
+        for (int i = 0; i < 500; i++) {
+            table.put(Integer.toString(i), "n");
+        }
+        table.put("0f8fad5b-d9cb-469f-a165-70867728950e", "u");
+        table.put("tx-1", "s");
+
+        table.clear();
+
+        assertEquals(0, table.size());
+        assertNull(table.get("1"));
+        assertNull(table.get("0f8fad5b-d9cb-469f-a165-70867728950e"));
+        assertNull(table.get("tx-1"));
+        table.put("1", "again");
+        assertEquals("again", table.get("1"));
+    }
+}